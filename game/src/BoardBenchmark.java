@@ -0,0 +1,549 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+
+/**
+ * This is a command line tool that measures the frame time of the Swing board
+ * and of BoardCanvas, on the 4x4 board the game shows or on a larger one. The
+ * board is built as GameWindow builds it, tiles on both sides of a grid of cells,
+ * and each way of showing it is painted into an image, so nothing needs a screen.
+ * Two times are printed for each: a full frame, and a move, which is a piece put
+ * on a cell, turned, and put back, counting the clicks, the layout they cause and
+ * the repaint of what they marked dirty. The Swing board repaints the one
+ * rectangle around everything marked, BoardCanvas each slot on its own.
+ * Both ways are checked to paint the same pixels, before and after the moves.
+ *
+ *     java BoardBenchmark [--side n] [maze]
+ *
+ * The side defaults to 4, and the maze to game/input/default.mze; a board of side
+ * n needs a maze with at least n * n tiles, such as one made by MazeGenerator with
+ * --tiles. The exit status is 1 if the two ways do not paint the same pixels.
+ * @dirty_, the rectangles marked for repaint since the last step, on the board.
+ * @invalid_, the components revalidate() was called on since the last step.
+ * @root_, the panel that is painted, holding the board one way or the other.
+ */
+public class BoardBenchmark {
+
+    private static final java.util.List<Rectangle> dirty_ = new ArrayList<Rectangle>();
+    private static final java.util.List<Component> invalid_ = new ArrayList<Component>();
+    private static JComponent root_;
+
+    private static final MouseHandler mouseHandler_ = new MouseHandler();
+
+    private static int side_ = 4;
+    private static JPanel[] regions_;
+    private static java.util.List<Tile> tiles_ = new ArrayList<Tile>();
+    private static java.util.List<Cell> cells_ = new ArrayList<Cell>();
+    private static JPanel clock_;
+    private static JPanel buttons_;
+    private static BoardCanvas canvas_;
+    private static int status_ = 0;
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+
+        File maze = new File("game/input/default.mze");
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--side".equals(args[i]) && i + 1 < args.length) {
+
+                side_ = Integer.parseInt(args[++i]);
+
+            } else {
+
+                maze = new File(args[i]);
+            }
+        }
+        int tiles = maze.isFile() ? tileCount(maze) : -1;
+
+        if (side_ < 2 || side_ % 2 != 0 || tiles < side_ * side_) {
+
+            System.err.println("usage: java BoardBenchmark [--side n] [maze]");
+
+            if (tiles >= 0 && tiles < side_ * side_) {
+                System.err.println("a board of side " + side_ + " needs " + side_ * side_ + " tiles, "
+                        + maze.getName() + " has " + tiles);
+            }
+            System.exit(2);
+        }
+        File input = maze;
+
+        //Swing is only ever touched on the event thread, as in the game.
+        SwingUtilities.invokeAndWait(new Runnable() {
+
+            @Override
+            public void run() {
+                measure(input);
+            }
+        });
+        System.exit(status_);
+    }
+
+
+    /**
+     * This function counts the tiles of a maze, so a board too large for it is
+     * refused before anything is built.
+     * @param maze, the maze file.
+     * @return the number of tiles, or -1 if the file could not be parsed.
+     */
+    private static int tileCount(File maze) {
+
+        try {
+
+            return MazeRepository.get(maze).getTileCount();
+
+        } catch (IOException exception) {
+
+            System.err.println("failed " + maze + ": " + exception.getMessage());
+            return -1;
+        }
+    }
+
+
+    /**
+     * This function builds the board, checks both ways of showing it paint the
+     * same pixels, and times them.
+     * @param maze, the maze the pieces are drawn from.
+     */
+    private static void measure(File maze) {
+
+        Content.setOriginalFile(maze);
+        RepaintManager.setCurrentManager(new RecordingManager());
+        build();
+
+        int width = side_ == 4 ? 1000 : 3 * side_ * 110 + 100;
+        int height = side_ == 4 ? 970 : side_ * 110 + 100;
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        showSwing(width, height);
+        BufferedImage swing = shot();
+        showCanvas(width, height);
+        long differing = countDifferences(swing, shot());
+        System.out.println(side_ + "x" + side_ + " board, " + differing + " pixels differ before the moves");
+
+        for (int round = 0; round < 2; round++) {
+
+            showSwing(width, height);
+            time("swing", frame, round == 1);
+            showCanvas(width, height);
+            time("canvas", frame, round == 1);
+        }
+
+        BufferedImage canvas = shot();
+        showSwing(width, height);
+        long after = countDifferences(shot(), canvas);
+        System.out.println(after + " pixels differ after the moves");
+
+        if (differing > 0 || after > 0) {
+            status_ = 1;
+        }
+    }
+
+
+    /**
+     * This function builds the tiles, cells, clock and buttons the way GameWindow
+     * does, half the pieces on each side of the grid, each piece turned at random.
+     */
+    private static void build() {
+
+        int perSide = side_ * side_ / 2;
+        int rows = side_ == 4 ? 8 : side_;
+        int inset = side_ == 4 ? 10 : 4;
+        regions_ = new JPanel[3];
+        GridBagConstraints constraints = new GridBagConstraints();
+
+        for (int region = 0; region < 3; region += 2) {
+
+            JPanel panel = new JPanel(new GridBagLayout());
+            panel.setBackground(Color.GRAY);
+            constraints.insets = new Insets(inset, side_ == 4 ? 120 : inset, inset, side_ == 4 ? 120 : inset);
+
+            for (int i = 0; i < perSide; i++) {
+
+                Tile tile = new Tile();
+                constraints.gridx = i / rows;
+                constraints.gridy = i % rows;
+                panel.add(tile, constraints);
+                tiles_.add(tile);
+            }
+            regions_[region] = panel;
+        }
+
+        JPanel grid = new JPanel(new GridBagLayout());
+        grid.setBackground(Color.GRAY);
+        constraints.insets = new Insets(0, 0, 0, 0);
+        constraints.weightx = 1;
+        constraints.weighty = 1;
+
+        for (int i = 0; i < side_; i++) {
+
+            for (int j = 0; j < side_; j++) {
+
+                Cell cell = new Cell();
+                constraints.gridx = j;
+                constraints.gridy = i;
+                grid.add(cell, constraints);
+                cells_.add(cell);
+            }
+        }
+        regions_[1] = grid;
+
+        Random random = new Random(7);
+
+        for (JComponent piece : Tile.getContentArray()) {
+            ((Content) piece).setRotateCount(random.nextInt(4));
+        }
+
+        clock_ = new JPanel();
+        clock_.setBackground(Color.GRAY);
+        clock_.add(new JLabel("00:00:00"));
+        buttons_ = new JPanel(new GridLayout(1, 0));
+        buttons_.add(new JButton("File"));
+        buttons_.add(new JButton("Reset"));
+        buttons_.add(new JButton("Quit"));
+    }
+
+
+    /**
+     * This function shows the board as Swing panels, as the window does by default.
+     * @param width, the width of the window's content.
+     * @param height, the height of the window's content.
+     */
+    private static void showSwing(int width, int height) {
+
+        JPanel root = new JPanel(new GridBagLayout());
+        root.setBackground(Color.GRAY);
+
+        for (JPanel region : regions_) {
+            root.add(region);
+        }
+        addControls(root);
+        root.setSize(width, height);
+        root_ = root;
+        layOut(root);
+    }
+
+
+    /**
+     * This function shows the board on BoardCanvas, as -Djmaze.board=canvas does.
+     * @param width, the width of the window's content.
+     * @param height, the height of the window's content.
+     */
+    private static void showCanvas(int width, int height) {
+
+        JPanel root = new JPanel(new GridBagLayout());
+        root.setBackground(Color.GRAY);
+
+        if (canvas_ == null) {
+            canvas_ = new BoardCanvas(regions_, Tile.getContentArray());
+        } else {
+            canvas_.setRegions(regions_, Tile.getContentArray());
+        }
+        addControls(canvas_);
+
+        GridBagConstraints constraints = new GridBagConstraints();
+        constraints.fill = GridBagConstraints.BOTH;
+        constraints.weightx = 1;
+        constraints.weighty = 1;
+        root.add(canvas_, constraints);
+        root.setSize(width, height);
+        root_ = root;
+        layOut(root);
+    }
+
+
+    /**
+     * This function adds the clock and buttons with the constraints GameWindow uses.
+     * @param parent, the window's content or the canvas.
+     */
+    private static void addControls(Container parent) {
+
+        GridBagConstraints constraints = new GridBagConstraints();
+        constraints.anchor = GridBagConstraints.NORTH;
+        constraints.weighty = 0.4;
+        constraints.gridx = 1;
+        constraints.gridy = 0;
+        parent.add(clock_, constraints);
+
+        constraints.weighty = 0.1;
+        constraints.insets = new Insets(25, 0, 0, 0);
+        parent.add(buttons_, constraints);
+    }
+
+
+    /**
+     * This function times full frames and moves on the board as it is shown now.
+     * @param name, how the board is shown, for the report.
+     * @param frame, the image to paint into.
+     * @param isReported, false for a round that only warms up.
+     */
+    private static void time(String name, BufferedImage frame, boolean isReported) {
+
+        boolean isCanvas = "canvas".equals(name);
+        Graphics2D g = frame.createGraphics();
+        int frames = side_ == 4 ? 400 : 10;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < frames; i++) {
+            root_.paint(g);
+        }
+        long full = System.nanoTime() - start;
+
+        int moves = 0;
+        long moveTime = 0;
+        long pixels = 0;
+
+        for (int round = 0; round < (side_ == 4 ? 40 : 2); round++) {
+
+            for (int k = 0; k < Math.min(cells_.size(), 64); k++) {
+
+                Cell cell = cells_.get(k);
+                Tile tile = null;
+
+                for (Tile candidate : tiles_) {
+
+                    if (candidate.getComponentCount() > 0) {
+
+                        tile = candidate;
+                        break;
+                    }
+                }
+                if (cell.getComponentCount() > 0 || tile == null) {
+                    continue;
+                }
+                Content piece = (Content) tile.getComponent(0);
+
+                //On to the cell, turned, and back to its tile, each step its own frame.
+                for (int step = 0; step < 3; step++) {
+
+                    dirty_.clear();
+                    invalid_.clear();
+                    start = System.nanoTime();
+
+                    if (step == 0) {
+
+                        press(isCanvas, piece, MouseEvent.BUTTON1);
+                        press(isCanvas, cell, MouseEvent.BUTTON1);
+
+                    } else if (step == 1) {
+
+                        press(isCanvas, piece, MouseEvent.BUTTON3);
+
+                    } else {
+
+                        press(isCanvas, piece, MouseEvent.BUTTON1);
+                        press(isCanvas, tile, MouseEvent.BUTTON1);
+                    }
+                    pixels += repaintDirty(g, isCanvas);
+                    moveTime += System.nanoTime() - start;
+                    moves++;
+                }
+            }
+        }
+        g.dispose();
+
+        if (isReported) {
+
+            System.out.printf("%-7s full frame %10.1f us, move %10.1f us, %9d pixels per move%n", name,
+                    full / 1e3 / frames, moveTime / 1e3 / moves, pixels / moves);
+        }
+    }
+
+
+    /**
+     * This function clicks a piece, tile or cell in the middle, through the
+     * canvas, or straight through MouseHandler as the Swing board gets it.
+     * @param isCanvas, true if the board is on the canvas.
+     * @param target, what to click.
+     * @param button, MouseEvent.BUTTON1 to pick and drop, BUTTON3 to turn.
+     */
+    private static void press(boolean isCanvas, Component target, int button) {
+
+        int modifiers = button == MouseEvent.BUTTON1 ? InputEvent.BUTTON1_DOWN_MASK : InputEvent.BUTTON3_DOWN_MASK;
+
+        if (!isCanvas) {
+
+            mouseHandler_.mousePressed(new MouseEvent(target, MouseEvent.MOUSE_PRESSED, 0, modifiers,
+                    target.getWidth() / 2, target.getHeight() / 2, 1, false, button));
+            return;
+        }
+
+        //The canvas moved each panel to where it draws it, so a slot is found through its panel.
+        Component slot = target instanceof Content ? target.getParent() : target;
+        int x = slot.getParent().getX() + slot.getX() + slot.getWidth() / 2;
+        int y = slot.getParent().getY() + slot.getY() + slot.getHeight() / 2;
+        canvas_.dispatchEvent(new MouseEvent(canvas_, MouseEvent.MOUSE_PRESSED, 0, modifiers, x, y, 1, false,
+                button));
+    }
+
+
+    /**
+     * This function does what the event queue would after a click: the canvas
+     * flushes the slots it marked, Swing lays out what was revalidated and paints
+     * the rectangle around everything marked.
+     * @param g, the frame to paint into.
+     * @param isCanvas, true if the board is on the canvas.
+     * @return the number of pixels painted.
+     */
+    private static long repaintDirty(Graphics2D g, boolean isCanvas) {
+
+        long pixels = 0;
+
+        if (isCanvas) {
+
+            canvas_.flushDirty();
+
+            for (Rectangle rectangle : dirty_) {
+
+                paintClipped(g, rectangle);
+                pixels += (long) rectangle.width * rectangle.height;
+            }
+            return pixels;
+        }
+
+        //validate() needs a screen, so every invalid container and the ones above it are laid out by hand.
+        LinkedHashSet<Container> chain = new LinkedHashSet<Container>();
+
+        for (Component component : invalid_) {
+
+            ArrayList<Container> above = new ArrayList<Container>();
+
+            for (Component at = component; at != null && at != root_.getParent(); at = at.getParent()) {
+                above.add(0, (Container) at);
+            }
+            chain.addAll(above);
+        }
+        for (Container container : chain) {
+            container.doLayout();
+        }
+
+        Rectangle union = null;
+
+        for (Rectangle rectangle : dirty_) {
+            union = union == null ? new Rectangle(rectangle) : union.union(rectangle);
+        }
+        if (union != null) {
+
+            paintClipped(g, union);
+            pixels += (long) union.width * union.height;
+        }
+        return pixels;
+    }
+
+
+    /**
+     * This function paints part of the board.
+     * @param g, the frame to paint into.
+     * @param clip, the part to paint.
+     */
+    private static void paintClipped(Graphics2D g, Rectangle clip) {
+
+        Graphics2D clipped = (Graphics2D) g.create();
+        clipped.clip(clip);
+        root_.paint(clipped);
+        clipped.dispose();
+    }
+
+
+    /**
+     * This function lays out a component and everything in it. validate() would,
+     * but it does nothing without a screen.
+     * @param component, the component to lay out.
+     */
+    private static void layOut(Component component) {
+
+        if (component instanceof Container) {
+
+            ((Container) component).doLayout();
+
+            for (Component child : ((Container) component).getComponents()) {
+                layOut(child);
+            }
+        }
+    }
+
+
+    /**
+     * This function paints the whole board into a new image.
+     * @return the image.
+     */
+    private static BufferedImage shot() {
+
+        BufferedImage image = new BufferedImage(root_.getWidth(), root_.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        root_.paint(g);
+        g.dispose();
+        return image;
+    }
+
+
+    /**
+     * This function counts the pixels two images of the same size differ in.
+     * @param first, one image.
+     * @param second, the other.
+     * @return the number of pixels that are not the same.
+     */
+    private static long countDifferences(BufferedImage first, BufferedImage second) {
+
+        long count = 0;
+
+        for (int y = 0; y < first.getHeight(); y++) {
+
+            for (int x = 0; x < first.getWidth(); x++) {
+
+                if (first.getRGB(x, y) != second.getRGB(x, y)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+
+    /**
+     * A repaint manager that only keeps track of what is marked dirty or invalid,
+     * in the coordinates of the painted panel, so each way of showing the board
+     * is charged for what it asks to repaint.
+     */
+    private static final class RecordingManager extends RepaintManager {
+
+        @Override
+        public void addDirtyRegion(JComponent component, int x, int y, int width, int height) {
+
+            if (root_ == null) {
+                return;
+            }
+            Rectangle rectangle = new Rectangle(x, y, width, height);
+            Component at = component;
+
+            while (at != null && at != root_) {
+
+                rectangle.translate(at.getX(), at.getY());
+                at = at.getParent();
+            }
+            if (at == root_) {
+                dirty_.add(rectangle);
+            }
+        }
+
+        @Override
+        public void addInvalidComponent(JComponent component) {
+            invalid_.add(component);
+        }
+    };
+};
@@ -0,0 +1,358 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ContainerEvent;
+import java.awt.event.ContainerListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.util.*;
+
+/**
+ * Child class that is derived from JComponent, it draws the whole game board as
+ * one component, in place of the west, center and east panels. It is picked at
+ * startup with -Djmaze.board=canvas.
+ * The Tile, Cell and Content objects are still made, and are still where every
+ * piece lives, so saving, loading, resetting and WinCheck see no difference. They
+ * are just never shown: this class lays them out itself, paints each of them into
+ * its own spot, and hands mouse presses to MouseHandler as if they had landed on
+ * the piece, tile or cell under the pointer.
+ * Every Swing board change ends in a revalidate() and repaint() of whole panels.
+ * Here a change only marks the tiles and cells it touched, and those are painted
+ * again once the event that changed them is over, each on its own.
+ * @regions_, the panels the tiles and cells were built into, from west to east.
+ * @pieces_, every Content object, so changes to them can be heard.
+ * @slots_, every Tile and Cell, in the order of regions_.
+ * @slotBounds_, where each of slots_ is drawn on this component.
+ * @slotIndex_, the index in slots_ of each Tile and Cell.
+ * @stands_, an empty component for each of regions_, laid out by this component's
+ * GridBagLayout just as the window lays out the panels on the Swing board, so
+ * each panel is drawn where it would have been shown. The clock and buttons are
+ * added to this component with the same constraints the window uses.
+ * @dirty_, the slots that changed since they were last painted.
+ * @isFlushQueued_, true while a call to flushDirty() is waiting on the event queue.
+ * @mouseHandler_, the same mouse logic the Swing board uses.
+ * @slotListener_, hears pieces added to and taken off of a slot.
+ * @changeListener_, hears the border, background and rotation changes that show
+ * a piece being picked, flashed or turned.
+ */
+public class BoardCanvas extends JComponent {
+
+    static final boolean ENABLED_ = "canvas".equals(System.getProperty("jmaze.board"));
+
+    private JPanel[] regions_;
+    private java.util.List<? extends JComponent> pieces_;
+    private JComponent[] slots_ = new JComponent[0];
+    private Rectangle[] slotBounds_ = new Rectangle[0];
+    private IdentityHashMap<Component, Integer> slotIndex_ = new IdentityHashMap<Component, Integer>();
+    private Box.Filler[] stands_ = new Box.Filler[0];
+
+    private BitSet dirty_ = new BitSet();
+    private boolean isFlushQueued_ = false;
+
+    private MouseHandler mouseHandler_ = new MouseHandler();
+
+    private final ContainerListener slotListener_ = new ContainerListener() {
+
+        @Override
+        public void componentAdded(ContainerEvent event) {
+            markDirty(event.getContainer());
+        }
+
+        @Override
+        public void componentRemoved(ContainerEvent event) {
+            markDirty(event.getContainer());
+        }
+    };
+
+    private final PropertyChangeListener changeListener_ = new PropertyChangeListener() {
+
+        @Override
+        public void propertyChange(PropertyChangeEvent event) {
+
+            String name = event.getPropertyName();
+
+            if ("border".equals(name) || "background".equals(name) || "rotation".equals(name)) {
+
+                Component source = (Component) event.getSource();
+                markDirty(slotIndex_.containsKey(source) ? source : source.getParent());
+            }
+        }
+    };
+
+    private static final long serialVersionUID = 1;
+
+
+    /**
+     * This is the constructor, it takes over the panels the board was built into.
+     * @param regions, the west, center and east panels, already holding their
+     * tiles and cells.
+     * @param pieces, every Content object.
+     */
+    public BoardCanvas(JPanel[] regions, java.util.List<? extends JComponent> pieces) {
+
+        setOpaque(true);
+        setBackground(Color.GRAY);
+        setLayout(new GridBagLayout());
+        setRegions(regions, pieces);
+
+        addMouseListener(new MouseAdapter() {
+
+            @Override
+            public void mousePressed(MouseEvent event) {
+                dispatch(event);
+            }
+        });
+    }
+
+
+    /**
+     * This function points the board at a new set of panels and pieces, or at the
+     * same ones after more tiles and cells have been added to them.
+     * @param regions, the west, center and east panels.
+     * @param pieces, every Content object.
+     */
+    public void setRegions(JPanel[] regions, java.util.List<? extends JComponent> pieces) {
+
+        for (JComponent slot : slots_) {
+
+            slot.removeContainerListener(slotListener_);
+            slot.removePropertyChangeListener(changeListener_);
+        }
+        if (pieces_ != null) {
+
+            for (JComponent piece : pieces_) {
+                piece.removePropertyChangeListener(changeListener_);
+            }
+        }
+        for (Box.Filler stand : stands_) {
+            remove(stand);
+        }
+        regions_ = regions;
+        pieces_ = pieces;
+        stands_ = new Box.Filler[regions_.length];
+
+        //First in line, as the panels are on the Swing board, so they land in the same columns.
+        for (int i = 0; i < regions_.length; i++) {
+
+            stands_[i] = new Box.Filler(regions_[i].getMinimumSize(), regions_[i].getPreferredSize(),
+                    regions_[i].getMaximumSize());
+            add(stands_[i], i);
+        }
+
+        ArrayList<JComponent> slots = new ArrayList<JComponent>();
+        slotIndex_.clear();
+
+        for (JPanel region : regions_) {
+
+            for (Component child : region.getComponents()) {
+
+                slotIndex_.put(child, slots.size());
+                slots.add((JComponent) child);
+            }
+        }
+        slots_ = slots.toArray(new JComponent[slots.size()]);
+        slotBounds_ = new Rectangle[slots_.length];
+
+        //This component is the only buffer they need, they are painted straight into it.
+        for (JComponent slot : slots_) {
+
+            slot.addContainerListener(slotListener_);
+            slot.addPropertyChangeListener(changeListener_);
+            slot.setDoubleBuffered(false);
+        }
+        for (JComponent piece : pieces_) {
+
+            piece.addPropertyChangeListener(changeListener_);
+            piece.setDoubleBuffered(false);
+        }
+        dirty_.clear();
+        revalidate();
+        repaint();
+    }
+
+
+    /**
+     * This function lets the GridBagLayout place the stand in for each panel and
+     * the clock and buttons, then moves each panel to its stand in, lets it lay out
+     * its tiles and cells, and each tile and cell lay out its piece, and keeps where
+     * every slot ended up. The panels are never shown, so nothing else would lay them out.
+     */
+    @Override
+    public void doLayout() {
+
+        super.doLayout();
+        int at = 0;
+
+        for (int i = 0; i < regions_.length; i++) {
+
+            JPanel region = regions_[i];
+            region.setBounds(stands_[i].getBounds());
+            region.doLayout();
+
+            for (Component child : region.getComponents()) {
+
+                //Tiles or cells added since setRegions() are not drawn until it is called again.
+                if (at == slotBounds_.length) {
+                    return;
+                }
+                Rectangle bounds = child.getBounds();
+                bounds.translate(region.getX(), region.getY());
+                slotBounds_[at] = bounds;
+                ((Container) child).doLayout();
+                at++;
+            }
+        }
+    }
+
+
+    /**
+     * This function paints every tile and cell in the clip, each with its piece,
+     * over the gray background. The pieces paint themselves, so they look just as
+     * they do on the Swing board, sprites and all.
+     * @param g, the graphics to paint on.
+     */
+    @Override
+    protected void paintComponent(Graphics g) {
+
+        Rectangle clip = g.getClipBounds();
+        g.setColor(getBackground());
+
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+
+        for (int i = 0; i < slots_.length; i++) {
+
+            if (slotBounds_[i] != null && slotBounds_[i].intersects(clip)) {
+                paintSlot(g, i);
+            }
+        }
+    }
+
+
+    /**
+     * This function paints one slot and its piece in its spot.
+     * @param g, the graphics to paint on.
+     * @param slot, the index of the slot in slots_.
+     */
+    private void paintSlot(Graphics g, int slot) {
+
+        Rectangle bounds = slotBounds_[slot];
+        Graphics slotGraphics = g.create(bounds.x, bounds.y, bounds.width, bounds.height);
+
+        try {
+
+            slots_[slot].paint(slotGraphics);
+
+        } finally {
+
+            slotGraphics.dispose();
+        }
+    }
+
+
+    /**
+     * This function marks the slot a change happened in, and makes sure it gets
+     * painted once the event that changed it is over. A move changes two slots in
+     * a handful of calls, so they are gathered up and flushed once.
+     * @param component, the Tile or Cell that changed, or anything else, which is ignored.
+     */
+    private void markDirty(Component component) {
+
+        Integer slot = component == null ? null : slotIndex_.get(component);
+
+        if (slot == null) {
+            return;
+        }
+        dirty_.set(slot);
+
+        if (!isFlushQueued_) {
+
+            isFlushQueued_ = true;
+            SwingUtilities.invokeLater(new Runnable() {
+
+                @Override
+                public void run() {
+                    flushDirty();
+                }
+            });
+        }
+    }
+
+
+    /**
+     * This function lays out and paints each changed slot on its own. A plain
+     * repaint() of every slot would be joined into one rectangle around all of them,
+     * which, for a piece moved from a side column onto the grid, is most of the board.
+     */
+    void flushDirty() {
+
+        isFlushQueued_ = false;
+
+        for (int slot = dirty_.nextSetBit(0); slot >= 0; slot = dirty_.nextSetBit(slot + 1)) {
+
+            Rectangle bounds = slotBounds_[slot];
+
+            if (bounds == null) {
+                continue;
+            }
+            slots_[slot].doLayout();
+
+            if (isShowing()) {
+                paintImmediately(bounds);
+            } else {
+                repaint(bounds);
+            }
+        }
+        dirty_.clear();
+    }
+
+
+    /**
+     * This function finds the piece, tile or cell under a mouse press, and hands
+     * the press to MouseHandler as though it had landed right on it.
+     * @param event, the press on this component.
+     */
+    private void dispatch(MouseEvent event) {
+
+        Point point = event.getPoint();
+
+        for (int i = 0; i < slots_.length; i++) {
+
+            Rectangle bounds = slotBounds_[i];
+
+            if (bounds == null || !bounds.contains(point)) {
+                continue;
+            }
+            int x = point.x - bounds.x;
+            int y = point.y - bounds.y;
+            Component target = slots_[i].getComponentAt(x, y);
+
+            if (target == null) {
+                target = slots_[i];
+            }
+            if (target != slots_[i]) {
+
+                x -= target.getX();
+                y -= target.getY();
+            }
+
+            mouseHandler_.mousePressed(new MouseEvent(target, event.getID(), event.getWhen(),
+                    event.getModifiersEx(), x, y, event.getClickCount(),
+                    event.isPopupTrigger(), event.getButton()));
+            return;
+        }
+    }
+};
@@ -0,0 +1,195 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * This is a command line tool that measures the time to first interaction of a
+ * board against its size, as a flat CAFEBEEF maze and as a chunked CAFEB10C one.
+ * A flat board can be played once MazeParser.parse() has read every tile record.
+ * A chunked board can be played once its first chunk is decoded: the board is
+ * opened, ChunkedBoard.start() decodes the chunks on the fork-join pool, and the
+ * first chunk the listener hears of has a tile read back from it, ID and lines, as
+ * a board would to show it. The time for every chunk to be done is printed too.
+ * Boards are made up in memory, with 8 lines to a tile, so nothing is read from disk.
+ *
+ *     java ChunkBenchmark [--chunk n] [--runs n] [tiles...]
+ *
+ * The chunk size defaults to 256 tiles, as MazeChunker writes, and the board sizes
+ * to 16, 1000, 10000 and 50000. A flat maze may not hold more than -Djmaze.maxTiles
+ * tiles, so the flat time of a larger board is printed as - unless that is raised.
+ * @LINES_, the number of lines on every tile.
+ * @TILE_SIZE_, the width and height of a tile, the range every coordinate is in.
+ */
+public class ChunkBenchmark {
+
+    private static final int LINES_ = 8;
+    private static final int TILE_SIZE_ = 100;
+
+    public static void main(String[] args) throws MazeFormatException, InterruptedException {
+
+        int chunkTiles = 256;
+        int runs = 50;
+        java.util.List<Integer> sizes = new ArrayList<Integer>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--chunk".equals(args[i]) && i + 1 < args.length) {
+
+                chunkTiles = Integer.parseInt(args[++i]);
+
+            } else if ("--runs".equals(args[i]) && i + 1 < args.length) {
+
+                runs = Integer.parseInt(args[++i]);
+
+            } else {
+
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+
+            sizes.add(16);
+            sizes.add(1000);
+            sizes.add(10000);
+            sizes.add(50000);
+        }
+        if (chunkTiles < 1 || chunkTiles > MazeParser.MAX_TILES_ || runs < 1) {
+
+            System.err.println("usage: java ChunkBenchmark [--chunk n] [--runs n] [tiles...]");
+            System.exit(2);
+        }
+
+        System.out.printf("%8s %8s %16s %16s %16s%n", "tiles", "chunks", "flat us", "first chunk us",
+                "all chunks us");
+
+        for (int tiles : sizes) {
+
+            MazeModel maze = makeMaze(tiles);
+            ByteBuffer flat = encodeFlat(maze);
+            ByteBuffer chunked = MazeWriter.encodeChunkedMaze(maze, chunkTiles);
+            boolean isFlat = tiles <= MazeParser.MAX_TILES_;
+            long flatTime = 0;
+            long firstTime = 0;
+            long allTime = 0;
+
+            //The first pass only warms up, the second is timed.
+            for (int pass = 0; pass < 2; pass++) {
+
+                flatTime = 0;
+                firstTime = 0;
+                allTime = 0;
+
+                for (int run = 0; run < runs; run++) {
+
+                    if (isFlat) {
+
+                        long start = System.nanoTime();
+                        MazeModel model = MazeParser.parse(flat.duplicate());
+                        model.getTileId(0);
+                        model.getLines(0);
+                        flatTime += System.nanoTime() - start;
+                    }
+
+                    long start = System.nanoTime();
+                    final ChunkedBoard board = ChunkedBoard.open(chunked.duplicate());
+                    final AtomicInteger first = new AtomicInteger(-1);
+                    final CountDownLatch shown = new CountDownLatch(1);
+
+                    board.start(new IntConsumer() {
+
+                        @Override
+                        public void accept(int chunk) {
+
+                            if (first.compareAndSet(-1, chunk)) {
+                                shown.countDown();
+                            }
+                        }
+                    });
+                    shown.await();
+                    int tile = board.getFirstTile(first.get());
+                    board.getTileId(tile);
+                    board.getLines(tile);
+                    firstTime += System.nanoTime() - start;
+
+                    board.join();
+                    allTime += System.nanoTime() - start;
+                }
+            }
+            System.out.printf("%8d %8d %16s %16.1f %16.1f%n", tiles, (tiles + chunkTiles - 1) / chunkTiles,
+                    isFlat ? String.format("%.1f", flatTime / 1e3 / runs) : "-", firstTime / 1e3 / runs,
+                    allTime / 1e3 / runs);
+        }
+    }
+
+
+    /**
+     * This function makes up a board with random lines on every tile.
+     * @param tiles, the number of tiles.
+     * @return the board.
+     */
+    private static MazeModel makeMaze(int tiles) {
+
+        SplittableRandom random = new SplittableRandom(tiles);
+        int[] tileIds = new int[tiles];
+        int[] tileLines = new int[tiles];
+        Line2D[][] lines = new Line2D[tiles][];
+
+        for (int tile = 0; tile < tiles; tile++) {
+
+            tileIds[tile] = tile;
+            tileLines[tile] = LINES_;
+            lines[tile] = new Line2D[LINES_];
+
+            for (int line = 0; line < LINES_; line++) {
+
+                lines[tile][line] = new Line2D.Float(random.nextInt(TILE_SIZE_ + 1), random.nextInt(TILE_SIZE_ + 1),
+                        random.nextInt(TILE_SIZE_ + 1), random.nextInt(TILE_SIZE_ + 1));
+            }
+        }
+        return new MazeModel(MazeParser.MAZE_MAGIC_, 0, tileIds, new int[tiles], tileLines, lines);
+    }
+
+
+    /**
+     * This function encodes a board as a flat CAFEBEEF maze, with no trailer.
+     * @param maze, the board.
+     * @return a new buffer holding the whole file, positioned at 0.
+     */
+    private static ByteBuffer encodeFlat(MazeModel maze) {
+
+        ByteBuffer buffer = ByteBuffer.allocate(16 + maze.getTileCount() * (MazeWriter.RECORD_BYTES_
+                + LINES_ * MazeWriter.LINE_BYTES_));
+        buffer.putInt(MazeParser.MAZE_MAGIC_);
+        buffer.putInt(maze.getTileCount());
+        buffer.putLong(0);
+
+        for (int tile = 0; tile < maze.getTileCount(); tile++) {
+
+            buffer.putInt(tile);
+            buffer.putInt(maze.getTileId(tile));
+            buffer.putInt(LINES_);
+
+            for (Line2D line : maze.getLines(tile)) {
+
+                buffer.putFloat((float) line.getX1());
+                buffer.putFloat((float) line.getY1());
+                buffer.putFloat((float) line.getX2());
+                buffer.putFloat((float) line.getY2());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+};
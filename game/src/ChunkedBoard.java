@@ -0,0 +1,424 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.IntConsumer;
+
+/**
+ * This class reads a chunked maze, a board whose tiles are split into chunks that
+ * can each be decoded on their own. The header and chunk index come first, and
+ * every chunk is then a run of tile records laid out exactly as in a CAFEBEEF maze:
+ *
+ *     int magic, int tile count, int chunk count
+ *     per chunk: int offset, int length, int first tile, int tile count
+ *     the chunks, one after another, in index order
+ *
+ * Opening a board reads and checks only the header and index. The chunks are
+ * then decoded in parallel on the common fork-join pool, and a listener is told
+ * about each one as soon as it is done, so a very large board can show and play
+ * the tiles it already has while the rest are still being read. As with every
+ * other format, the lines of a tile are only decoded when they are first asked for.
+ * The game itself never loads a board this way: its board is 16 tiles, and
+ * MazeParser.parse() hands back a whole MazeModel, so it always calls join().
+ * start() is for a caller that shows tiles as they come, such as ChunkBenchmark,
+ * which measures how soon the first of them can be played.
+ * @HEADER_BYTES_, the size of the magic number, tile count and chunk count.
+ * @INDEX_BYTES_, the size of the index of one chunk.
+ * @MAX_CHUNKS_, the most chunks a file may declare, -Djmaze.maxChunks.
+ * @contents_, the whole file, never read through directly, only duplicated.
+ * @start_, where the file starts in contents_.
+ * @end_, where the last chunk ends in contents_.
+ * @tileIds_, @tileLines_, @lineOffsets_, the tile records, filled in chunk by chunk.
+ * @geometry_, the packed lines of every tile, built by join() once every line
+ * count is known, guarded by this object's lock.
+ * @chunkTiles_, the first tile of each chunk, followed by the tile count.
+ * @chunkOffsets_, where each chunk starts in contents_, followed by end_.
+ * @done_, 1 for every chunk that has been decoded. Setting it publishes the
+ * records of that chunk to every thread.
+ * @failure_, the first problem found in any chunk.
+ * @task_, the running decode, or null before start().
+ */
+public class ChunkedBoard {
+
+    static final int HEADER_BYTES_ = 12;
+    static final int INDEX_BYTES_ = 16;
+    private static final int MAX_CHUNKS_ = Integer.getInteger("jmaze.maxChunks", 4096);
+
+    private final ByteBuffer contents_;
+    private final int start_;
+    private final int end_;
+    private final int[] tileIds_;
+    private final int[] tileLines_;
+    private final int[] lineOffsets_;
+    private TileGeometry geometry_;
+    private final int[] chunkTiles_;
+    private final int[] chunkOffsets_;
+    private final AtomicIntegerArray done_;
+    private final AtomicReference<MazeFormatException> failure_ = new AtomicReference<MazeFormatException>();
+    private ForkJoinTask<Void> task_;
+
+
+    /**
+     * This constructor reads and checks the header and chunk index. No chunk is
+     * decoded yet.
+     * @param contents, the file contents, positioned at the magic number. They
+     * must not change afterwards.
+     * @throws MazeFormatException if the header or index are not valid.
+     */
+    private ChunkedBoard(ByteBuffer contents) throws MazeFormatException {
+
+        contents_ = contents.duplicate();
+        start_ = contents.position();
+
+        ByteBuffer header = contents.duplicate();
+        int limit = header.limit();
+
+        try {
+
+            header.getInt();
+            int tileCount = header.getInt();
+            int chunkCount = header.getInt();
+
+            MazeParser.checkCount(header, start_, chunkCount, 8, INDEX_BYTES_, MAX_CHUNKS_, "chunk count");
+            header.position(header.position() + chunkCount * INDEX_BYTES_);
+            MazeParser.checkCount(header, start_, tileCount, 4, MazeWriter.RECORD_BYTES_,
+                    (int) Math.min(Integer.MAX_VALUE, (long) chunkCount * MazeParser.MAX_TILES_), "tile count");
+
+            chunkTiles_ = new int[chunkCount + 1];
+            chunkOffsets_ = new int[chunkCount + 1];
+            chunkOffsets_[0] = header.position();
+
+            for (int i = 0; i < chunkCount; i++) {
+
+                int index = start_ + HEADER_BYTES_ + i * INDEX_BYTES_;
+                int offset = contents.getInt(index);
+                int length = contents.getInt(index + 4);
+                int firstTile = contents.getInt(index + 8);
+                int chunkTiles = contents.getInt(index + 12);
+
+                //Chunks follow each other with no gaps, and cover every tile once.
+                if (offset != chunkOffsets_[i] - start_ || length < 0 || length > limit - chunkOffsets_[i]) {
+
+                    throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, index - start_,
+                            "chunk " + i + " does not start where chunk " + (i - 1) + " ends");
+                }
+                if (firstTile != chunkTiles_[i] || chunkTiles < 0 || chunkTiles > MazeParser.MAX_TILES_
+                        || chunkTiles > tileCount - firstTile) {
+
+                    throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, index + 8 - start_,
+                            "chunk " + i + " holds tiles " + firstTile + " to " + (firstTile + chunkTiles)
+                            + " of " + tileCount);
+                }
+                chunkOffsets_[i + 1] = chunkOffsets_[i] + length;
+                chunkTiles_[i + 1] = firstTile + chunkTiles;
+            }
+            if (chunkTiles_[chunkCount] != tileCount) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, 4,
+                        "chunks hold " + chunkTiles_[chunkCount] + " of " + tileCount + " tiles");
+            }
+
+            end_ = chunkOffsets_[chunkCount];
+            tileIds_ = new int[tileCount];
+            tileLines_ = new int[tileCount];
+            lineOffsets_ = new int[tileCount];
+            done_ = new AtomicIntegerArray(chunkCount);
+
+        } catch (BufferUnderflowException exception) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, header.position() - start_,
+                    "file ends inside its chunk index");
+        }
+    }
+
+
+    /**
+     * This function opens a chunked maze, reading only its header and index. The
+     * checksum trailer is not checked here, since that would mean reading the
+     * whole file before the first chunk; MazeParser.parse() checks it first.
+     * @param contents, the file contents, positioned at the magic number. They
+     * must not change afterwards.
+     * @return the board, with no chunk decoded yet.
+     * @throws MazeFormatException if the header or index are not valid.
+     */
+    public static ChunkedBoard open(ByteBuffer contents) throws MazeFormatException {
+
+        return new ChunkedBoard(contents);
+    }
+
+
+    /**
+     * This function starts decoding every chunk on the common fork-join pool,
+     * and returns at once. Calling it again does nothing.
+     * @param listener, told the index of every chunk as it is decoded, from the
+     * thread that decoded it, or null.
+     * @return this board.
+     */
+    public synchronized ChunkedBoard start(IntConsumer listener) {
+
+        if (task_ == null) {
+
+            task_ = new ChunkTask(0, getChunkCount(), listener);
+            ForkJoinPool.commonPool().execute(task_);
+        }
+        return this;
+    }
+
+
+    /**
+     * This function waits for every chunk, and then builds the whole model. If
+     * start() has not been called, the chunks are decoded now, with this thread
+     * taking part, so a small board never waits on the pool.
+     * @return the decoded maze.
+     * @throws MazeFormatException if any chunk is not valid.
+     */
+    public MazeModel join() throws MazeFormatException {
+
+        ForkJoinTask<Void> task;
+        boolean started;
+
+        synchronized (this) {
+
+            started = task_ != null;
+
+            if (!started) {
+                task_ = new ChunkTask(0, getChunkCount(), null);
+            }
+            task = task_;
+        }
+        if (started) {
+
+            task.join();
+
+        } else {
+
+            task.invoke();
+        }
+
+        if (failure_.get() != null) {
+            throw failure_.get();
+        }
+
+        TileGeometry geometry;
+
+        synchronized (this) {
+
+            if (geometry_ == null) {
+                geometry_ = new TileGeometry(contents_, lineOffsets_, tileLines_, 0);
+            }
+            geometry = geometry_;
+        }
+
+        ByteBuffer file = contents_.duplicate();
+        file.limit(end_);
+        file.position(start_);
+        return new MazeModel(MazeParser.CHUNKED_MAZE_MAGIC_, 0, tileIds_, new int[tileIds_.length], tileLines_,
+                geometry, MazeStore.hash(file));
+    }
+
+
+    /**
+     * This is a getter for where the chunks end, which is where the file ends
+     * unless it has a checksum trailer.
+     * @return end_, relative to the start of the file.
+     */
+    int getLength() {
+        return end_ - start_;
+    }
+
+    /**
+     * This is a getter for the number of tiles on the board.
+     * @return the length of tileIds_.
+     */
+    public int getTileCount() {
+        return tileIds_.length;
+    }
+
+    /**
+     * This is a getter for the number of chunks.
+     * @return the length of done_.
+     */
+    public int getChunkCount() {
+        return done_.length();
+    }
+
+    /**
+     * This is a getter for the first tile of a chunk.
+     * @param chunk, the index of the chunk.
+     * @return the index of its first tile.
+     */
+    public int getFirstTile(int chunk) {
+        return chunkTiles_[chunk];
+    }
+
+    /**
+     * This is a getter for the number of tiles in a chunk.
+     * @param chunk, the index of the chunk.
+     * @return the number of tiles in it.
+     */
+    public int getChunkTiles(int chunk) {
+        return chunkTiles_[chunk + 1] - chunkTiles_[chunk];
+    }
+
+    /**
+     * This is a check for whether a chunk has been decoded, after which its
+     * tiles can be read from any thread.
+     * @param chunk, the index of the chunk.
+     * @return true if it is done.
+     */
+    public boolean isDone(int chunk) {
+        return done_.get(chunk) == 1;
+    }
+
+    /**
+     * This is a getter for the ID of a tile in a chunk that is done.
+     * @param tile, the index of the tile.
+     * @return its ID.
+     * @throws IllegalStateException if the chunk of the tile is not done yet.
+     */
+    public int getTileId(int tile) {
+
+        checkDone(tile);
+        return tileIds_[tile];
+    }
+
+    /**
+     * This is a getter for the lines of a tile in a chunk that is done. Until
+     * join() has packed the whole board, they are decoded on every call.
+     * @param tile, the index of the tile.
+     * @return its lines.
+     * @throws IllegalStateException if the chunk of the tile is not done yet.
+     */
+    public Line2D[] getLines(int tile) {
+
+        checkDone(tile);
+        TileGeometry geometry;
+
+        synchronized (this) {
+            geometry = geometry_;
+        }
+        if (geometry != null) {
+            return geometry.get(tile);
+        }
+
+        float[] coords = new float[tileLines_[tile] * TileGeometry.LINE_FLOATS_];
+        MazeParser.decodeTile(contents_, lineOffsets_[tile], tileLines_[tile], 0, coords, 0);
+        return TileGeometry.view(coords, 0, tileLines_[tile]);
+    }
+
+
+    /**
+     * This function makes sure a tile has been decoded before it is read.
+     * @param tile, the index of the tile.
+     * @throws IllegalStateException if the chunk of the tile is not done yet.
+     */
+    private void checkDone(int tile) {
+
+        int chunk = Arrays.binarySearch(chunkTiles_, tile);
+
+        //A tile that starts no chunk is found as the insertion point after its chunk.
+        if (chunk < 0) {
+            chunk = -chunk - 2;
+        }
+        //Empty chunks share a first tile with the chunk after them.
+        while (chunk + 1 < chunkTiles_.length - 1 && chunkTiles_[chunk + 1] == tile) {
+            chunk++;
+        }
+        if (!isDone(chunk)) {
+            throw new IllegalStateException("tile " + tile + " is in chunk " + chunk + ", which is not done yet");
+        }
+    }
+
+
+    /**
+     * This function decodes one chunk, and marks it done.
+     * @param chunk, the index of the chunk.
+     * @throws MazeFormatException if the records do not exactly fill the chunk.
+     */
+    private void decodeChunk(int chunk) throws MazeFormatException {
+
+        ByteBuffer buffer = contents_.duplicate();
+        buffer.limit(chunkOffsets_[chunk + 1]);
+        buffer.position(chunkOffsets_[chunk]);
+
+        try {
+
+            MazeParser.decodeRecords(buffer, start_, chunkTiles_[chunk], getChunkTiles(chunk), tileIds_,
+                    tileLines_, lineOffsets_);
+
+        } catch (BufferUnderflowException exception) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, buffer.position() - start_,
+                    "chunk " + chunk + " ends inside a tile record");
+        }
+        if (buffer.hasRemaining()) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, buffer.position() - start_,
+                    buffer.remaining() + " bytes after the last tile of chunk " + chunk);
+        }
+        done_.set(chunk, 1);
+    }
+
+
+    /**
+     * A fork-join task over a range of chunks, split in half until each task
+     * holds a single chunk.
+     * @from_, the first chunk of the range.
+     * @to_, the chunk after the last one.
+     * @listener_, told about every chunk that is done, or null.
+     */
+    private final class ChunkTask extends RecursiveAction {
+
+        private final int from_;
+        private final int to_;
+        private final IntConsumer listener_;
+
+        private static final long serialVersionUID = 1;
+
+        private ChunkTask(int from, int to, IntConsumer listener) {
+
+            from_ = from;
+            to_ = to;
+            listener_ = listener;
+        }
+
+        @Override
+        protected void compute() {
+
+            if (to_ - from_ > 1) {
+
+                int middle = (from_ + to_) >>> 1;
+                invokeAll(new ChunkTask(from_, middle, listener_), new ChunkTask(middle, to_, listener_));
+                return;
+            }
+            if (from_ == to_ || failure_.get() != null) {
+                return;
+            }
+
+            try {
+
+                decodeChunk(from_);
+
+            } catch (MazeFormatException exception) {
+
+                failure_.compareAndSet(null, exception);
+                return;
+            }
+            if (listener_ != null) {
+                listener_.accept(from_);
+            }
+        }
+    };
+
+};
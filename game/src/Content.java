@@ -11,6 +11,8 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.Graphics2D;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.awt.geom.Line2D;
 import java.io.Serializable;
 import java.util.*;
@@ -20,10 +22,10 @@ import java.io.*;
  * serves the purposes of representing an object that can be
  * shifted around the game board.
  * @originalFile_ is a File argument that is meant to pass the default
- * maze file to the RawFileHandler constructor.
+ * maze file to MazeRepository, which parses it once for all Content objects.
+ * @originalEntry_ is the name of the maze inside originalFile_ when that file is
+ * a MazePack or zip file, or null for a plain maze file.
  * @CONTENT_DIMENSIONS_ is the immutable size constant for all tile objects.
- * @rawFileHandler_ is an instance of the RawFileHandler class, used to load
- * the default maze file.
  * @contentIndex_ is an int value that is primarily used to keep track of what lines
  * an object will be generated with.
  * @mouseHandler_ is a variable that allows for mouse listening capabilities,
@@ -35,20 +37,36 @@ import java.io.*;
  * the degree shift that a Content object is originally spawned with. \
  * @generatedContentId_ is another primitive int variable that is used to mark a specific
  * content piece. It acts as a live ID, useful for checking win conditions.
- * @lineInfo_, an ArrayList that is imported from RawFileHandler, and contains
- * line information for all sixteen pieces. contentIndex_ is used to decide
- * which lines go where.
- * @currentLines_, a 2D line array the allows paintComponent() to draw lines
- * on a given piece.
+ * @geometry_, the packed lines of the maze this piece takes its lines from, so
+ * that paintComponent() reads floats straight out of one shared array, and a
+ * tile's lines are only decoded once something needs them.
+ * @geometryTile_, the index of this piece's lines in geometry_.
+ * @turnedLines_, this piece's lines turned to each of the four rotations, made
+ * the first time the piece is painted at that rotation, so that painting
+ * allocates nothing.
+ * @turnedWidth_, the width of the piece when turnedLines_ were made.
+ * @turnedHeight_, the height of the piece when turnedLines_ were made.
+ * @line_, the line object every line of this piece is drawn through.
  * @contentBackground_, the background color of a Content object.
+ * @maze_, the maze the lines came from, whose hash a save can point back at
+ * instead of copying the lines. It is only hashed once a save asks for it.
+ * @changeClock_, a counter that goes up by one on every move or rotation of any piece.
+ * @changedAt_, the value of changeClock_ when this piece last moved or rotated.
+ * MazeWriter compares it to the value at the last save to find the pieces that
+ * need to be written again.
  */
 public class Content extends JLabel implements Serializable {
         
     private static File originalFile_ = new File("game/input/default.mze"); //could also be ../../input/default.mze
-    private RawFileHandler rawFileHandler_ =  new RawFileHandler(originalFile_); 
+    private static String originalEntry_ = null;
     private static int contentIndex_ = 0;
-    private ArrayList<Line2D[]> lineInfo_ = rawFileHandler_.getLineInfo();
-    private Line2D[] currentLines_;
+    private TileGeometry geometry_;
+    private int geometryTile_;
+    private transient float[][] turnedLines_;
+    private transient int turnedWidth_;
+    private transient int turnedHeight_;
+    private transient Line2D.Float line_;
+    private MazeModel maze_;
     
     private static final Dimension CONTENT_DIMENSIONS_ = new Dimension(100, 100);
     private Color contentBackground_ = new Color(96, 165, 218);
@@ -59,6 +77,9 @@ public class Content extends JLabel implements Serializable {
     private int defaultRotation_;
     private int generatedContentId_;
     
+    private static long changeClock_ = 0;
+    private long changedAt_ = 0;
+    
     private static final long serialVersionUID = 992L;
    
     
@@ -73,6 +94,18 @@ public class Content extends JLabel implements Serializable {
         setPreferredSize(CONTENT_DIMENSIONS_);
         setMinimumSize(CONTENT_DIMENSIONS_);
         addMouseListener(mouseHandler_);
+        //Every way a piece can move ends in it being added to a new container.
+        addHierarchyListener(new HierarchyListener() {
+            
+            @Override
+            public void hierarchyChanged(HierarchyEvent event) {
+                
+                if ((event.getChangeFlags() & HierarchyEvent.PARENT_CHANGED) != 0
+                        && event.getChanged() == Content.this) {
+                    markChanged();
+                }
+            }
+        });
         /*Each time this constructor is called, tileIndex_ is incremented. 
         tileIndex_ serves as a way of knowing which line coordinates to retrieve,
         so the paintComponent function will assign the correct lines, to the correct tile.
@@ -81,7 +114,19 @@ public class Content extends JLabel implements Serializable {
         required to draw the lines on a Content object. The Override below is risky enough
         with all the repaint() functions that are called in this program.
         */
-        setLines(lineInfo_.get(contentIndex_));
+        try {
+            
+            MazeModel maze = MazeRepository.get(originalFile_, originalEntry_);
+            geometry_ = maze.getGeometry();
+            geometryTile_ = contentIndex_;
+            maze_ = maze;
+            
+        } catch (IOException exception) {
+            
+            //GameWindow has already checked this file, so this should never be seen.
+            exception.printStackTrace();
+            setLines(new Line2D[0]);
+        }
         generatedContentId_ = contentIndex_;
         contentIndex_++;
     }
@@ -92,31 +137,53 @@ public class Content extends JLabel implements Serializable {
     @Override
     protected void paintComponent(Graphics g) {
         
-        super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
-        g2d.setStroke(new BasicStroke(3));
-        g2d.setPaint(Color.BLACK);
-        
-        //For some reason, you must interact with the rotate function
-        //before any lines are drawn.
-        int halfWidth = getWidth() / 2;
-        int halfHeight = getHeight() / 2;
-        double radians = (theta_ * (Math.PI / 2));
         
-        g2d.rotate(radians, halfWidth, halfHeight);
-        
-        //For a Line in the most recently retrieved Lines
-        for(Line2D line : currentLines_) {
+        //Drawn once per rotation into a sprite, background and all, then copied on every repaint.
+        if (isOpaque() && TileSprites.paint(g2d, geometry_, geometryTile_, theta_, getWidth(), getHeight(),
+                getBackground())) {
+            return;
+        }
+        if (TileSprites.DIRECT_) {
             
-            float x0 = (float) line.getX1();
-            float y0 = (float) line.getY1();
-            float x1 = (float) line.getX2();
-            float y1 = (float) line.getY2();
-                    
-            g2d.draw(new Line2D.Float(x0, y0, x1, y1));
+            super.paintComponent(g);
+            TileSprites.draw(g2d, geometry_, geometryTile_, theta_, getWidth(), getHeight());
+            return;
+        }
+        //A piece never has text or an icon, so the background is all the label would
+        //have painted, and filling it here skips the copy of g the label makes.
+        if (isOpaque()) {
             
+            g2d.setColor(getBackground());
+            g2d.fillRect(0, 0, getWidth(), getHeight());
+        }
+        float[] turned = getTurnedLines(theta_);
+        TileSprites.draw(g2d, turned, line_);
+    }
+    
+    
+    /**
+     * This function returns this piece's lines turned about the middle of the
+     * piece, making them if it has not been painted this way before.
+     * @param rotation, the number of quarter turns, 0 to 3.
+     * @return the cached lines, four floats for every line.
+     */
+    private float[] getTurnedLines(int rotation) {
+        
+        int width = getWidth();
+        int height = getHeight();
         
+        if (turnedLines_ == null || turnedWidth_ != width || turnedHeight_ != height) {
+            
+            turnedLines_ = new float[4][];
+            turnedWidth_ = width;
+            turnedHeight_ = height;
+            line_ = new Line2D.Float();
+        }
+        if (turnedLines_[rotation] == null) {
+            turnedLines_[rotation] = TileSprites.turn(geometry_, geometryTile_, rotation, width, height);
         }
+        return turnedLines_[rotation];
     }
     
     
@@ -149,7 +216,10 @@ public class Content extends JLabel implements Serializable {
      */
     public void incrementTheta() {
         
+        int before = theta_;
         theta_ = (theta_ + 1) % 4;
+        firePropertyChange("rotation", before, theta_);
+        markChanged();
         this.repaint(); 
     }
    
@@ -162,17 +232,50 @@ public class Content extends JLabel implements Serializable {
      */
     public void setLines(Line2D[] importedLines) {
         
-        currentLines_ = importedLines;
+        geometry_ = new TileGeometry(new Line2D[][] {importedLines});
+        geometryTile_ = 0;
+        turnedLines_ = null;
     }
     
     
     /**
-     * Get the current lines for a Content object.
-     * @return currentLines_, the lines needed for each Content object.
+     * Get the current lines for a Content object, as views over the packed
+     * lines, decoding them from the maze the first time they are needed.
+     * @return the lines needed for each Content object.
      */
     public Line2D[] getLines() {
         
-        return currentLines_;
+        return geometry_.get(geometryTile_);
+    }
+    
+    
+    /**
+     * Get the packed lines this piece takes its lines from.
+     * @return geometry_, which holds this piece at getGeometryTile().
+     */
+    TileGeometry getGeometry() {
+        
+        return geometry_;
+    }
+    
+    
+    /**
+     * Get where this piece's lines are in its packed lines.
+     * @return geometryTile_, the index of the tile in getGeometry().
+     */
+    int getGeometryTile() {
+        
+        return geometryTile_;
+    }
+    
+    
+    /**
+     * Get the hash of the maze file the lines came from.
+     * @return the hash of maze_, or null if the lines came from a legacy save.
+     */
+    public byte[] getSourceHash() {
+        
+        return maze_ == null ? null : maze_.getSourceHash();
     }
     
     
@@ -183,8 +286,11 @@ public class Content extends JLabel implements Serializable {
      */
     public void setRotateCount(int setting) {
         
+        int before = theta_;
         theta_ = setting;
         defaultRotation_ = theta_;
+        firePropertyChange("rotation", before, theta_);
+        markChanged();
         this.repaint();
     }
     
@@ -194,7 +300,10 @@ public class Content extends JLabel implements Serializable {
      */
     public void setSavedRotation(int savedSetting) {
         
+        int before = theta_;
         theta_ = savedSetting;
+        firePropertyChange("rotation", before, theta_);
+        markChanged();
         this.repaint();
     }
     
@@ -205,8 +314,20 @@ public class Content extends JLabel implements Serializable {
      */
     public static void setOriginalFile(File input) {
         
-        originalFile_ = input;
+        setOriginalFile(input, null);
+    }
+    
+    /**
+     * This is a setter for a default maze that comes out of a maze pack or zip file.
+     * @param input, the new file path, the archive for a packed maze.
+     * @param entry, the name of the maze in the archive, or null for a plain file.
+     */
+    public static void setOriginalFile(File input, String entry) {
         
+        originalFile_ = input;
+        originalEntry_ = entry;
+        //The pieces of the old maze are gone, and so is any use for their sprites.
+        TileSprites.clear();
     }
     
     
@@ -227,6 +348,23 @@ public class Content extends JLabel implements Serializable {
         return theta_;
     }
     
+    /**
+     * This function stamps the piece as changed since the last save. It is
+     * called on the event thread whenever the piece moves or rotates.
+     */
+    private void markChanged() {
+        
+        changedAt_ = ++changeClock_;
+    }
+    
+    /**
+     * This getter returns when this piece last moved or rotated.
+     * @return changedAt_, a stamp from changeClock_.
+     */
+    public long getChangedAt() {
+        return changedAt_;
+    }
+    
     /**
      * This getter returns the actual CONTENT object ID.
      * @return generatedContentId_, a live runtime ID.
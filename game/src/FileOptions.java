@@ -8,9 +8,13 @@
  * Date: May 12, 2020
  */
 import javax.swing.*;
+import javax.swing.filechooser.FileFilter;
+import javax.swing.filechooser.FileView;
 import java.awt.*;
 import java.util.*;
 import java.io.*;
+import java.nio.file.NoSuchFileException;
+import java.util.function.BiConsumer;
 
 /**
  * This is a class that is meant to be statically accessed only when the user
@@ -21,11 +25,14 @@ import java.io.*;
  * @loadFile_, a File variable that is needed to pass path information
  * between loadOption and arrangePieces. This is primarily used when a default file
  * is not present.
+ * @loadEntry_, the name of the loaded file inside loadFile_ when loadFile_ is a
+ * MazePack or zip file, or null for a plain file.
  */
 public class FileOptions implements Serializable {
  
     
     private static File loadFile_;
+    private static String loadEntry_;
     
     static final long serialVersionUID = 1L;
     
@@ -34,11 +41,12 @@ public class FileOptions implements Serializable {
      * This static function performs all saving actions needed for this game.
      * It interacts with functions from RawFileHandler, and modifies variables
      * in GameWindow. It is the simpler of the two file options.
+     * The board is captured right away, and the writing itself is left to FileTasks,
+     * so the game stays responsive while the disk catches up.
      */
     public static void saveOption() {
         
-        JFileChooser fileChooser = new JFileChooser("game/input");
-        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        JFileChooser fileChooser = createChooser();
         
         int request = fileChooser.showSaveDialog(null);
         
@@ -48,10 +56,8 @@ public class FileOptions implements Serializable {
             
             if(!fileToSave.exists()) {
                 
-                RawFileHandler.saveFile(fileToSave);
-                
                 //Quit without save prompt
-                GameWindow.setChanged(false);
+                startSave(fileToSave);
             }
             
             else if (fileToSave.exists()) {
@@ -62,8 +68,7 @@ public class FileOptions implements Serializable {
                 
                 if (overwriteRequest == JOptionPane.YES_OPTION) {
                     
-                    RawFileHandler.saveFile(fileToSave);
-                    GameWindow.setChanged(false);
+                    startSave(fileToSave);
                 }
                 
                 if (overwriteRequest == JOptionPane.NO_OPTION) {
@@ -76,6 +81,24 @@ public class FileOptions implements Serializable {
     }
     
     
+    /**
+     * This function snapshots the board and hands it to FileTasks. The game is only
+     * marked as unchanged once the file is safely on the disk.
+     * @param fileToSave, the file to create or replace.
+     */
+    private static void startSave(File fileToSave) {
+        
+        FileTasks.save(fileToSave, RawFileHandler.snapshotBoard(), RawFileHandler.snapshotChanges(),
+                new Runnable() {
+            
+            @Override
+            public void run() {
+                GameWindow.setChanged(false);
+            }
+        });
+    }
+    
+    
     /**
      * This static function performs all loading actions needed for this game.
      * It interacts with functions and modifies variables from RawFileHandler, and GameWindow.
@@ -84,47 +107,29 @@ public class FileOptions implements Serializable {
      */
     public static void loadOption() {
         
-        JFileChooser fileChooser = new JFileChooser("game/input");
-        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        JFileChooser fileChooser = createChooser();
         
         int request = fileChooser.showOpenDialog(null);
         
         if (request == JFileChooser.APPROVE_OPTION) {
-            //Send file to be loaded to the RawFileHandler constructor
-            //for parsing.
+            //Send file to be loaded to the repository for parsing in the background,
+            //arrangePieces() will reuse this same parse. A pack or zip file holds
+            //many files, so FileTasks asks which one.
             File fileToLoad = fileChooser.getSelectedFile();
-            RawFileHandler rawFileHandler = new RawFileHandler(fileToLoad);
-            loadFile_ = fileToLoad;
             
-            //A simple check for if a bad file is loaded. Remove the maze, but in a 
-            //"creative" way, wipe the whole maze.
-            if (!RawFileHandler.getMazeFileCheck() && RawFileHandler.getDefaultCheck()) {
+            FileTasks.load(fileToLoad, new BiConsumer<String, MazeModel>() {
                 
-                JOptionPane.showMessageDialog(null, "This is not a valid file! Please try again.",
-                        "Format Error", JOptionPane.ERROR_MESSAGE);
-                ArrayList<Component> tileList =  GameWindow.getTileComponents();
-                ArrayList<Component> cellList = GameWindow.getCellComponents();
-                
-                for (int i = 0; i < 16; i++) {
-                    Tile tiles = (Tile) tileList.get(i);
-                    Cell cells = (Cell) cellList.get(i);
-                    tiles.removeAll();
-                    tiles.setBorder(BorderFactory.createLineBorder(Color.BLACK));
-                    cells.removeAll();
-                    cells.setBorder(BorderFactory.createLineBorder(Color.BLACK));
+                @Override
+                public void accept(String entry, MazeModel loadModel) {
+                    finishLoad(fileToLoad, entry, loadModel);
                 }
+            }, new Runnable() {
                 
-                RawFileHandler.setMazeFileCheck(true);
-                return;
-            }
-            
-            //Are you trying to load a default file?
-            if (RawFileHandler.getHexCheck().contentEquals("CAFEBEEF")) {
-                
-                return;
-            }
-          //File is good? Move along with load.
-            arrangePieces();
+                @Override
+                public void run() {
+                    //Nothing was picked, the board is left as it is.
+                }
+            });
         } 
         else if (request == JFileChooser.CANCEL_OPTION) {
             
@@ -133,6 +138,50 @@ public class FileOptions implements Serializable {
       
     }
     
+    /**
+     * This function is called back on the event thread once a file picked in
+     * loadOption has been parsed, and makes every board change in one go.
+     * @param fileToLoad, the file that was picked.
+     * @param entry, the entry that was picked if the file is an archive, or null.
+     * @param loadModel, the parsed file, or null if it could not be used.
+     */
+    private static void finishLoad(File fileToLoad, String entry, MazeModel loadModel) {
+        
+        loadFile_ = fileToLoad;
+        loadEntry_ = entry;
+        
+        //A simple check for if a bad file is loaded. Remove the maze, but in a 
+        //"creative" way, wipe the whole maze.
+        if (loadModel == null && RawFileHandler.getDefaultCheck()) {
+            
+            JOptionPane.showMessageDialog(null, "This is not a valid file! Please try again.",
+                    "Format Error", JOptionPane.ERROR_MESSAGE);
+            ArrayList<Component> tileList =  GameWindow.getTileComponents();
+            ArrayList<Component> cellList = GameWindow.getCellComponents();
+            
+            for (int i = 0; i < 16; i++) {
+                Tile tiles = (Tile) tileList.get(i);
+                Cell cells = (Cell) cellList.get(i);
+                tiles.removeAll();
+                tiles.setBorder(BorderFactory.createLineBorder(Color.BLACK));
+                cells.removeAll();
+                cells.setBorder(BorderFactory.createLineBorder(Color.BLACK));
+            }
+            
+            RawFileHandler.setMazeFileCheck(true);
+            return;
+        }
+        
+        //Are you trying to load a default file?
+        if (loadModel == null || !loadModel.isSave()) {
+            
+            return;
+        }
+        //File is good? Move along with load.
+        arrangePieces(loadModel);
+    }
+    
+    
     /**
      * This is the last static function of FileOptions. It deals exclusively with rearranging all pieces
      * based on information provided in a .MZE file. Most checks for reading position and rotation information
@@ -141,12 +190,27 @@ public class FileOptions implements Serializable {
      */
     public static void arrangePieces() {
         
+        MazeModel loadModel = requestModel(loadFile_, loadEntry_);
+        
+        if (loadModel != null) {
+            
+            arrangePieces(loadModel);
+        }
+    }
+    
+    
+    /**
+     * This does the work of arrangePieces() with a file that has already been parsed,
+     * so that it never touches the disk.
+     * @param loadModel, the parsed save to arrange the pieces from.
+     */
+    public static void arrangePieces(MazeModel loadModel) {
+        
         ArrayList<JComponent> originalContentData = Tile.getContentArray();
         ArrayList<Component> gameCells = GameWindow.getCellComponents();
         ArrayList<Component> loadPieces = GameWindow.getLoadComponents();
-        RawFileHandler rawFileHandler = new RawFileHandler(loadFile_);
-        int[] newPositions = rawFileHandler.getTileIds();
-        int[] newRotations = rawFileHandler.getTileRotations();
+        int[] newPositions = loadModel.getTileIds();
+        int[] newRotations = loadModel.getTileRotations();
                 
         //Get new rest values ready
         int[] newResetRotations = new int[16];
@@ -203,9 +267,66 @@ public class FileOptions implements Serializable {
         GameWindow.setNewResetRotations(newResetRotations);
         GameWindow.setNewResetPositions(newResetPositions);
         //Adjust clock values and pause
-        long newClockTime = rawFileHandler.getLoadTime();
+        long newClockTime = loadModel.getLoadTime();
         Clock.setCurrentTime(newClockTime);
         Clock.setGoTime(false);    
+        //A load moves every piece at once, so the journal starts over from here.
+        MoveJournal.checkpoint();
+    }
+    
+    
+    /**
+     * This function asks MazeRepository for a parsed file, and turns any problem
+     * into a null result. Since the parser never talks to the user, a missing file
+     * gets its pop up here. Format problems are left to the caller, which already
+     * has its own message for a file that is not valid.
+     * @param file, the maze or save file to parse.
+     * @return the shared model, or null if the file could not be used.
+     */
+    public static MazeModel requestModel(File file) {
+        
+        return requestModel(file, null);
+    }
+    
+    
+    /**
+     * This does the work of requestModel(File) for one entry of a maze pack or zip file.
+     * @param file, the archive, or a plain maze or save file.
+     * @param entry, the name of the entry in the archive, or null for a plain file.
+     * @return the shared model, or null if the entry could not be used.
+     */
+    public static MazeModel requestModel(File file, String entry) {
+        
+        try {
+            
+            return MazeRepository.get(file, entry);
+            
+        } catch (NoSuchFileException exception) {
+            
+            showFileNotFound();
+            
+        } catch (MazeFormatException exception) {
+            
+            return null;
+            
+        } catch (IOException exception) {
+            
+            exception.printStackTrace();
+        }
+        return null;
+    }
+    
+    
+    /**
+     * This function reminds the user that a default file must be present, or that 
+     * the file they picked could not be found.
+     */
+    public static void showFileNotFound() {
+        
+        JOptionPane.showMessageDialog(null, "We are experiencing a file not found error, please make sure that:\n "
+                + "1. You have a default file labeled 'default.mze'.\n"
+                + " 2. You have tried to load a valid file in a valid folder.",
+                "File Not Found", JOptionPane.ERROR_MESSAGE);
     }
     
     
@@ -215,7 +336,83 @@ public class FileOptions implements Serializable {
      * @param file, and File variable that adjusts loadFile_.
      */
     public static void setLoadFile(File file) {
+        setLoadFile(file, null);
+    }
+    
+    
+    /**
+     * This is a setter for a load file that comes out of a maze pack or zip file.
+     * @param file, the archive, or a plain maze or save file.
+     * @param entry, the name of the file in the archive, or null for a plain file.
+     */
+    public static void setLoadFile(File file, String entry) {
         loadFile_ = file;
+        loadEntry_ = entry;
+    }
+    
+    
+    /**
+     * This function builds the file chooser used for every load and save. It
+     * opens in game/input, shows what each file is in its type column, and by
+     * default hides files that are not mazes, saves or maze packs. All of this
+     * comes from MazeLibrary, so no file is opened on the event thread. A file
+     * the library has not indexed yet is always shown.
+     * @return a new chooser.
+     */
+    public static JFileChooser createChooser() {
+        
+        JFileChooser fileChooser = new JFileChooser("game/input");
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        
+        fileChooser.setFileView(new FileView() {
+            
+            @Override
+            public String getTypeDescription(File file) {
+                
+                MazeLibrary.Listing listing = MazeLibrary.lookup(file);
+                return listing == null ? null : listing.describe();
+            }
+        });
+        
+        FileFilter mazes = new FileFilter() {
+            
+            @Override
+            public boolean accept(File file) {
+                
+                MazeLibrary.Listing listing = MazeLibrary.lookup(file);
+                return listing == null || listing.isMaze() || listing.isSave() || listing.isArchive();
+            }
+            
+            @Override
+            public String getDescription() {
+                return "Mazes, saves and maze packs";
+            }
+        };
+        fileChooser.addChoosableFileFilter(mazes);
+        fileChooser.setFileFilter(mazes);
+        return fileChooser;
+    }
+    
+    
+    /**
+     * This function lets the user pick one of the entries of a maze pack or zip
+     * file. The entries are listed by FileTasks in the background, from the index
+     * of the pack, or the central directory of the zip file, none of the mazes
+     * are parsed.
+     * @param pack, the pack or zip file that was picked.
+     * @param names, the names of its entries.
+     * @return the name of the picked entry, or null if nothing was picked.
+     */
+    public static String chooseEntry(File pack, String[] names) {
+        
+        if (names.length == 0) {
+            
+            JOptionPane.showMessageDialog(null, pack.getName() + " is empty.",
+                    "Format Error", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        return (String) JOptionPane.showInputDialog(null, "Pick a file from " + pack.getName() + ":",
+                "Maze Pack", JOptionPane.QUESTION_MESSAGE, null, names, names[0]);
     }
                
 };
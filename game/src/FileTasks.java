@@ -0,0 +1,353 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import javax.swing.*;
+import javax.swing.Timer;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * This class moves all disk work for loading and saving off of the Swing event
+ * thread, so a slow disk never freezes the window or the game timer. Every job is a
+ * SwingWorker that runs on executor_, reports its progress to a ProgressMonitor that
+ * only pops up if the job is slow, and can be cancelled from that monitor. The
+ * finished result is handed back to the event thread in a single done() call, so
+ * all changes to the board happen in one batch.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @POPUP_DELAY_, how many milliseconds a job must run before its progress is shown.
+ * @executor_, the background threads. Virtual threads are used when the running
+ * Java version has them, otherwise a pool of daemon threads.
+ * @pendingSaves_, the saves that have been started and not yet finished. These
+ * are waited on before the game exits, by the Quit button and by a shutdown hook.
+ */
+public class FileTasks {
+
+    private static final int POPUP_DELAY_ = 300;
+
+    private static final ExecutorService executor_ = createExecutor();
+
+    private static final List<SwingWorker<?, ?>> pendingSaves_ = new ArrayList<SwingWorker<?, ?>>();
+
+    static {
+
+        //Closing the window skips the Quit button, so waiting is also done on the way out.
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                awaitSaves();
+            }
+        }, "JMaze save flush"));
+    }
+
+
+    /**
+     * This function parses a file in the background. The callback is run on the
+     * event thread once parsing is over, with the parsed model, or with null if the
+     * file could not be used. Nothing is called back if the user cancels.
+     * @param file, the maze or save file to load.
+     * @param onLoaded, the board changes to make with the result.
+     */
+    public static void load(File file, Consumer<MazeModel> onLoaded) {
+
+        load(file, null, onLoaded);
+    }
+
+
+    /**
+     * This function parses one entry of a maze pack or zip file in the background, and
+     * otherwise behaves like load(File, Consumer).
+     * @param file, the archive, or a plain maze or save file.
+     * @param entry, the name of the entry in the archive, or null for a plain file.
+     * @param onLoaded, the board changes to make with the result.
+     */
+    public static void load(File file, String entry, Consumer<MazeModel> onLoaded) {
+
+        SwingWorker<MazeModel, Void> worker = new SwingWorker<MazeModel, Void>() {
+
+            @Override
+            protected MazeModel doInBackground() throws IOException {
+
+                setProgress(10);
+                MazeModel model = MazeRepository.get(file, entry);
+                setProgress(100);
+                return model;
+            }
+
+            @Override
+            protected void done() {
+
+                if (isCancelled()) {
+                    return;
+                }
+                onLoaded.accept(result(this));
+            }
+        };
+        start(worker, "Loading " + (entry == null ? file.getName() : entry));
+    }
+
+
+    /**
+     * This function loads a file the user picked, which may be a maze pack or zip
+     * file. Whether it is one, and which entries it holds, is read in the
+     * background; only the dialog that picks an entry is shown on the event
+     * thread, and the picked entry is then parsed in the background as well.
+     * @param file, the picked file.
+     * @param onLoaded, the board changes to make with the entry, null for a plain
+     * file, and the parsed model, or null if the file could not be used.
+     * @param onCancelled, run on the event thread if no entry is picked, or the
+     * archive cannot be read.
+     */
+    public static void load(File file, BiConsumer<String, MazeModel> onLoaded, Runnable onCancelled) {
+
+        SwingWorker<String[], Void> worker = new SwingWorker<String[], Void>() {
+
+            @Override
+            protected String[] doInBackground() throws IOException {
+
+                setProgress(10);
+                String[] names = MazeArchive.isArchive(file) ? MazeArchive.list(file) : null;
+                setProgress(100);
+                return names;
+            }
+
+            @Override
+            protected void done() {
+
+                if (isCancelled()) {
+                    return;
+                }
+                String[] names;
+
+                try {
+
+                    names = get();
+
+                } catch (InterruptedException | ExecutionException exception) {
+
+                    JOptionPane.showMessageDialog(null, "This is not a valid file! Please try again.",
+                            "Format Error", JOptionPane.ERROR_MESSAGE);
+                    onCancelled.run();
+                    return;
+                }
+                String entry = names == null ? null : FileOptions.chooseEntry(file, names);
+
+                if (names != null && entry == null) {
+
+                    onCancelled.run();
+                    return;
+                }
+
+                load(file, entry, new Consumer<MazeModel>() {
+
+                    @Override
+                    public void accept(MazeModel model) {
+                        onLoaded.accept(entry, model);
+                    }
+                });
+            }
+        };
+        start(worker, "Opening " + file.getName());
+    }
+
+
+    /**
+     * This function writes a snapshot of the board in the background. The
+     * snapshot must be taken on the event thread before calling this, so the board
+     * can keep changing while the disk catches up.
+     * @param file, the file to create or replace.
+     * @param snapshot, the save to write, from RawFileHandler.snapshotBoard().
+     * @param changedAt, when each piece last changed, from RawFileHandler.snapshotChanges().
+     * @param onSaved, run on the event thread once the file is safely on the disk.
+     */
+    public static void save(File file, MazeModel snapshot, long[] changedAt, Runnable onSaved) {
+
+        SwingWorker<Void, Void> worker = new SwingWorker<Void, Void>() {
+
+            @Override
+            protected Void doInBackground() throws IOException {
+
+                setProgress(10);
+                MazeWriter.writeSave(file.toPath(), snapshot, changedAt);
+                setProgress(100);
+                return null;
+            }
+
+            @Override
+            protected void done() {
+
+                synchronized (pendingSaves_) {
+                    pendingSaves_.remove(this);
+                }
+                if (isCancelled()) {
+                    return;
+                }
+                try {
+
+                    get();
+                    onSaved.run();
+
+                } catch (InterruptedException | ExecutionException exception) {
+
+                    exception.printStackTrace();
+                    JOptionPane.showMessageDialog(null, "The game could not be saved to " + file.getName() + ".",
+                            "Save Error", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+
+        synchronized (pendingSaves_) {
+            pendingSaves_.add(worker);
+        }
+        start(worker, "Saving " + file.getName());
+    }
+
+
+    /**
+     * This function blocks until every save that has been started is on the
+     * disk. It is called right before the game exits.
+     */
+    public static void awaitSaves() {
+
+        ArrayList<SwingWorker<?, ?>> saves;
+
+        synchronized (pendingSaves_) {
+            saves = new ArrayList<SwingWorker<?, ?>>(pendingSaves_);
+        }
+
+        for (SwingWorker<?, ?> save : saves) {
+
+            try {
+
+                save.get();
+
+            } catch (InterruptedException | ExecutionException | CancellationException exception) {
+
+                exception.printStackTrace();
+            }
+        }
+    }
+
+
+    /**
+     * This function hooks a worker up to a progress monitor, and starts it on the
+     * background executor. Pressing cancel on the monitor cancels the worker.
+     * @param worker, the job to run.
+     * @param note, a short description of the job for the monitor.
+     */
+    private static void start(SwingWorker<?, ?> worker, String note) {
+
+        ProgressMonitor monitor = new ProgressMonitor(null, note, null, 0, 100);
+        monitor.setMillisToDecideToPopup(POPUP_DELAY_);
+        monitor.setMillisToPopup(POPUP_DELAY_);
+
+        worker.addPropertyChangeListener(new PropertyChangeListener() {
+
+            @Override
+            public void propertyChange(PropertyChangeEvent event) {
+
+                if ("progress".equals(event.getPropertyName())) {
+
+                    monitor.setProgress((Integer) event.getNewValue());
+                }
+            }
+        });
+
+        //The monitor has no listener for its cancel button, so it is polled.
+        Timer poll = new Timer(100, null);
+        poll.addActionListener(new ActionListener() {
+
+            @Override
+            public void actionPerformed(ActionEvent event) {
+
+                if (monitor.isCanceled()) {
+
+                    worker.cancel(true);
+                }
+                if (worker.isDone()) {
+
+                    monitor.close();
+                    poll.stop();
+                }
+            }
+        });
+        poll.start();
+        executor_.execute(worker);
+    }
+
+
+    /**
+     * This function unwraps the result of a finished load. A missing file gets
+     * the same pop up as before, format problems are left to the callback.
+     * @param worker, the finished load.
+     * @return the model, or null if the file could not be used.
+     */
+    private static MazeModel result(SwingWorker<MazeModel, Void> worker) {
+
+        try {
+
+            return worker.get();
+
+        } catch (ExecutionException exception) {
+
+            Throwable cause = exception.getCause();
+
+            if (cause instanceof java.nio.file.NoSuchFileException) {
+
+                FileOptions.showFileNotFound();
+
+            } else if (!(cause instanceof MazeFormatException)) {
+
+                cause.printStackTrace();
+            }
+
+        } catch (InterruptedException exception) {
+
+            exception.printStackTrace();
+        }
+        return null;
+    }
+
+
+    /**
+     * This function builds the background executor. Virtual threads are looked up
+     * by name so the game still builds and runs on older Java versions.
+     * @return a virtual thread per task executor, or a daemon thread pool.
+     */
+    private static ExecutorService createExecutor() {
+
+        try {
+
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+
+        } catch (ReflectiveOperationException | RuntimeException exception) {
+
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+
+                    Thread thread = new Thread(runnable, "JMaze file task");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+};
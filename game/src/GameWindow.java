@@ -14,6 +14,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.util.*;
 import java.io.*;
+import java.util.function.BiConsumer;
 /**
  * Main GameWindow class, responsible for alignment and generation of 
  * game pieces.
@@ -29,11 +30,15 @@ import java.io.*;
  * in it's appropriate method (addButtons).
  * @clockPanel_, a JPanel that is used to hold the game timer. It is 
  * positioned directly above the button panel. 
+ * @board_, the one component that draws the whole board when the game is started
+ * with -Djmaze.board=canvas, in place of the west, center and east panels, which
+ * are then never shown. Null otherwise.
  * @boardLayout_ is initialized as a private variable here, so that it may be used
  * in it's appropriate methods (all panel related methods).
- * @rawFileHandler_, an un-used variable that serves the purposes of checking if a 
+ * @defaultModel_, an un-used variable that serves the purposes of checking if a 
  * default file is present. If not, all game setup is stopped, and the user 
- * is forced to ensure that this file is in place.
+ * is forced to ensure that this file is in place. This is the one parse of the
+ * default file, every Content object reuses it through MazeRepository.
  * @tile_, a null variable related to the Tile class, to be used for object
  * manipulation.
  * @cell_, a null variable related to the Cell class, to be used for object
@@ -74,8 +79,9 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
     private JPanel rightTiles_ = new JPanel();
     private JPanel buttonPanel_ = new JPanel(new GridLayout(1, 0));
     private JPanel clockPanel_ = new JPanel();
+    private BoardCanvas board_;
     
-    RawFileHandler rawFileHandler_ = new RawFileHandler(new File("game/input/default.mze"));
+    private MazeModel defaultModel_ = FileOptions.requestModel(new File("game/input/default.mze"));
     private Tile tile_;
     private Cell cell_;
     private Content content_;
@@ -106,6 +112,7 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
     public GameWindow(String teamName) {
 	
 	super(teamName);
+	RawFileHandler.setMazeFileCheck(defaultModel_ != null);
 	GridBagLayout gbl = new GridBagLayout();
 	setLayout(gbl);
 	
@@ -124,7 +131,9 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
                         "Save Options", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE, null, null, null);
                 if (saveCatch == JOptionPane.YES_OPTION) {
                     
+                    //The save runs in the background, it must be on the disk before we go.
                     FileOptions.saveOption();
+                    FileTasks.awaitSaves();
                     System.exit(0);
                 } 
 	        	        
@@ -180,6 +189,7 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
             //Set timer to 00:00:00
             Clock.setCurrentTime(0);
             Clock.setGoTime(false);
+            MoveJournal.checkpoint();
             revalidate();
             repaint();    
         }
@@ -211,8 +221,7 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
       //Options for loading up a default file manually if it is not present
         if (!RawFileHandler.getMazeFileCheck() && !RawFileHandler.getDefaultCheck()) {
             
-            JFileChooser fileChooser = new JFileChooser("game/input"); //Go straight to input folder
-            fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+            JFileChooser fileChooser = FileOptions.createChooser(); //Go straight to input folder
             
             int request = fileChooser.showOpenDialog(null);
             
@@ -227,38 +236,24 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
                     fileOptions();
                     return;
                 }
-                new RawFileHandler(fileToLoad);
-                //Check formatting
-                if (RawFileHandler.getHexCheck().contentEquals("CAFEBEEF")) {
-                    
-                    //Fix file path for Content Objects
-                    Content.setOriginalFile(fileToLoad);
-                    RawFileHandler.setMazeFileCheck(true);
-                    //Reload game
-                    setUp();
-                    return;
-                    
-                } 
-                else if(RawFileHandler.getHexCheck().contentEquals("CAFEDEED")) {
-                   
-                    Content.setOriginalFile(fileToLoad);
-                    RawFileHandler.setMazeFileCheck(true);
-                    //Reload game and set played pieces
-                    setUp();
-                    FileOptions.setLoadFile(fileToLoad);
-                    FileOptions.arrangePieces();
-                    repaint();
-                    revalidate();
-                    return;
-                } else {
+                
+                //Parse in the background, asking which maze first if a pack or zip
+                //file was picked, the rest of the load happens back on the event
+                //thread in finishDefaultLoad().
+                FileTasks.load(fileToLoad, new BiConsumer<String, MazeModel>() {
                     
-                    //So you have chosen.... death?
-                    JOptionPane.showMessageDialog(null, "This is not a valid file! Please try again.",
-                            "Format Error", JOptionPane.ERROR_MESSAGE);
-                    fileOptions();
-                    return;
+                    @Override
+                    public void accept(String entry, MazeModel loadModel) {
+                        finishDefaultLoad(fileToLoad, entry, loadModel);
+                    }
+                }, new Runnable() {
                     
-                }
+                    @Override
+                    public void run() {
+                        fileOptions();
+                    }
+                });
+                return;
                 
             }
               
@@ -298,6 +293,48 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
   
     
     
+    /**
+     * This function is called back on the event thread once a replacement for a 
+     * missing default file has been parsed. It sets up the game from that file, or 
+     * asks for another one if the file was not valid.
+     * @param fileToLoad, the file that was picked.
+     * @param entry, the entry that was picked if the file is an archive, or null.
+     * @param loadModel, the parsed file, or null if it could not be used.
+     */
+    private void finishDefaultLoad(File fileToLoad, String entry, MazeModel loadModel) {
+        
+        //Check formatting
+        if (loadModel != null && !loadModel.isSave()) {
+            
+            //Fix file path for Content Objects
+            Content.setOriginalFile(fileToLoad, entry);
+            RawFileHandler.setMazeFileCheck(true);
+            //Reload game
+            setUp();
+            
+        } 
+        else if(loadModel != null && loadModel.isSave()) {
+           
+            Content.setOriginalFile(fileToLoad, entry);
+            RawFileHandler.setMazeFileCheck(true);
+            //Reload game and set played pieces
+            setUp();
+            FileOptions.setLoadFile(fileToLoad, entry);
+            FileOptions.arrangePieces(loadModel);
+            repaint();
+            revalidate();
+            
+        } else {
+            
+            //So you have chosen.... death?
+            JOptionPane.showMessageDialog(null, "This is not a valid file! Please try again.",
+                    "Format Error", JOptionPane.ERROR_MESSAGE);
+            fileOptions();
+            
+        }
+    }
+    
+    
     /**
      * For Game Board setup. Does no actual work,
      * just calls out to different methods that render and align our panels.
@@ -306,6 +343,9 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
      */
     public void setUp() {
         
+        //Index the maze library in the background, for the file choosers.
+        MazeLibrary.start();
+        
         //Basically to avoid any nasty errors when a default file is not 
         //present. Forces the user to reload because they cannot play otherwise.
         if (!RawFileHandler.getMazeFileCheck()) { 
@@ -335,6 +375,15 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
                     loadComponents_.add(cellsToAdd);
                 }
             }
+            
+            //In journal mode, pick up where the last session left off.
+            MazeModel restored = MoveJournal.restore();
+            
+            if (restored != null) {
+                
+                FileOptions.setLoadFile(MoveJournal.getSnapshotFile());
+                FileOptions.arrangePieces(restored);
+            }
 
 	  	
             setVisible(true);
@@ -377,7 +426,9 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
              
           }
           
-          add(leftTiles_, boardLayout_);
+          if (!BoardCanvas.ENABLED_) {
+              add(leftTiles_, boardLayout_);
+          }
         
     	  return;
     	  
@@ -420,7 +471,9 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
               }
           }
          
-          add(centerGrid_, boardLayout_);
+          if (!BoardCanvas.ENABLED_) {
+              add(centerGrid_, boardLayout_);
+          }
           
           return;
           
@@ -457,7 +510,9 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
                             
           }
           
-          add(rightTiles_, boardLayout_);
+          if (!BoardCanvas.ENABLED_) {
+              add(rightTiles_, boardLayout_);
+          }
        
           return;
           
@@ -507,12 +562,36 @@ public class GameWindow extends JFrame implements ActionListener, Serializable {
 	  buttonConstraints.gridx = 1;
 	  buttonConstraints.gridy = 0;
 	  
-	  add(clockPanel_, buttonConstraints);
+	  //The canvas draws the board itself, and holds the clock and buttons, laid
+	  //out the same way the window lays them out over the Swing board.
+	  Container controlParent = this;
+	  
+	  if (BoardCanvas.ENABLED_) {
+	      
+	      JPanel[] regions = new JPanel[] {leftTiles_, centerGrid_, rightTiles_};
+	      
+	      if (board_ == null) {
+	          
+	          board_ = new BoardCanvas(regions, Tile.getContentArray());
+	          GridBagConstraints canvasConstraints = new GridBagConstraints();
+	          canvasConstraints.fill = GridBagConstraints.BOTH;
+	          canvasConstraints.weightx = 1;
+	          canvasConstraints.weighty = 1;
+	          add(board_, canvasConstraints);
+	          
+	      } else {
+	          
+	          board_.setRegions(regions, Tile.getContentArray());
+	      }
+	      controlParent = board_;
+	  }
+	  
+	  controlParent.add(clockPanel_, buttonConstraints);
 	  
 	  buttonConstraints.weighty = 0.1;
 	  buttonConstraints.insets = new Insets(25, 0, 0, 0);
 	  
-	  add(buttonPanel_, buttonConstraints);
+	  controlParent.add(buttonPanel_, buttonConstraints);
 	  
 	        
 	  return;
@@ -0,0 +1,244 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This is a command line tool that measures what the lines of a board cost
+ * held the old way, as an ArrayList of Line2D.Float arrays, and packed into one
+ * float array by TileGeometry. For each board size it prints the heap each tile
+ * keeps once every tile is decoded, and the time to paint every tile once, the
+ * way Content painted before and the way it paints now. Tiles are painted into
+ * one 100x100 image, so nothing needs a screen.
+ *
+ *     java GeometryBenchmark [--lines n] [--paints n] [tiles...]
+ *
+ * Each board is painted over and over until about --paints tiles have been
+ * painted, once to warm up and once to time it.
+ * The board sizes default to 16, the board the game shows, and 20000. Heap is
+ * measured from the used heap after a full collection, so small boards are
+ * within its noise; run with a fixed -Xms and -Xmx for steadier numbers.
+ * @TILE_SIZE_, the width and height of a tile, the range every coordinate is in.
+ */
+public class GeometryBenchmark {
+
+    private static final int TILE_SIZE_ = 100;
+
+    public static void main(String[] args) {
+
+        int lines = 12;
+        int paints = 40000;
+        java.util.List<Integer> sizes = new ArrayList<Integer>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--lines".equals(args[i]) && i + 1 < args.length) {
+
+                lines = Integer.parseInt(args[++i]);
+
+            } else if ("--paints".equals(args[i]) && i + 1 < args.length) {
+
+                paints = Integer.parseInt(args[++i]);
+
+            } else {
+
+                sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+
+            sizes.add(16);
+            sizes.add(20000);
+        }
+        if (lines < 1 || paints < 1) {
+
+            System.err.println("usage: java GeometryBenchmark [--lines n] [--paints n] [tiles...]");
+            System.exit(2);
+        }
+
+        BufferedImage image = new BufferedImage(TILE_SIZE_, TILE_SIZE_, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        System.out.printf("%8s %16s %16s %16s %16s%n", "tiles", "old bytes/tile", "packed bytes/tile",
+                "old ms/paint", "packed ms/paint");
+
+        for (int tiles : sizes) {
+
+            long baseline = usedHeap();
+            ArrayList<Line2D[]> lineInfo = makeLines(tiles, lines);
+            long oldBytes = usedHeap() - baseline;
+
+            baseline = usedHeap();
+            TileGeometry geometry = makeGeometry(tiles, lines);
+            long packedBytes = usedHeap() - baseline;
+
+            int runs = Math.max(1, paints / tiles);
+
+            for (int run = 0; run < runs; run++) {
+
+                paintOld(g2d, lineInfo);
+                paintPacked(g2d, geometry);
+            }
+
+            long start = System.nanoTime();
+
+            for (int run = 0; run < runs; run++) {
+                paintOld(g2d, lineInfo);
+            }
+            long oldTime = System.nanoTime() - start;
+            start = System.nanoTime();
+
+            for (int run = 0; run < runs; run++) {
+                paintPacked(g2d, geometry);
+            }
+            long packedTime = System.nanoTime() - start;
+
+            System.out.printf("%8d %16d %16d %16.2f %16.2f%n", tiles, oldBytes / tiles, packedBytes / tiles,
+                    oldTime / 1e6 / runs, packedTime / 1e6 / runs);
+        }
+        g2d.dispose();
+    }
+
+
+    /**
+     * This function builds a board the old way, with a Line2D.Float for every line.
+     * @param tiles, the number of tiles.
+     * @param lines, the number of lines on each tile.
+     * @return the lines of every tile.
+     */
+    private static ArrayList<Line2D[]> makeLines(int tiles, int lines) {
+
+        SplittableRandom random = new SplittableRandom(tiles);
+        ArrayList<Line2D[]> lineInfo = new ArrayList<Line2D[]>(tiles);
+
+        for (int tile = 0; tile < tiles; tile++) {
+
+            Line2D[] tileLines = new Line2D[lines];
+
+            for (int line = 0; line < lines; line++) {
+
+                tileLines[line] = new Line2D.Float(coordinate(random), coordinate(random), coordinate(random),
+                        coordinate(random));
+            }
+            lineInfo.add(tileLines);
+        }
+        return lineInfo;
+    }
+
+
+    /**
+     * This function builds the same board packed, from the bytes a maze file
+     * holds, and decodes every tile, which lets the bytes go.
+     * @param tiles, the number of tiles.
+     * @param lines, the number of lines on each tile.
+     * @return the packed lines of every tile.
+     */
+    private static TileGeometry makeGeometry(int tiles, int lines) {
+
+        SplittableRandom random = new SplittableRandom(tiles);
+        ByteBuffer source = ByteBuffer.allocate(tiles * lines * TileGeometry.LINE_FLOATS_ * 4);
+        int[] offsets = new int[tiles];
+        int[] lineCounts = new int[tiles];
+
+        for (int tile = 0; tile < tiles; tile++) {
+
+            offsets[tile] = source.position();
+            lineCounts[tile] = lines;
+
+            for (int i = 0; i < lines * TileGeometry.LINE_FLOATS_; i++) {
+                source.putFloat(coordinate(random));
+            }
+        }
+
+        TileGeometry geometry = new TileGeometry(source, offsets, lineCounts, 0);
+
+        for (int tile = 0; tile < tiles; tile++) {
+            geometry.getCoords(tile);
+        }
+        return geometry;
+    }
+
+
+    /**
+     * This function paints every tile the way Content did before the lines were
+     * packed: turned with the graphics transform, a new stroke, and each Line2D
+     * drawn as it is.
+     * @param g2d, the graphics to paint on.
+     * @param lineInfo, the lines of every tile.
+     */
+    private static void paintOld(Graphics2D g2d, ArrayList<Line2D[]> lineInfo) {
+
+        for (int tile = 0; tile < lineInfo.size(); tile++) {
+
+            AffineTransform transform = g2d.getTransform();
+            g2d.setStroke(new BasicStroke(3));
+            g2d.setPaint(Color.BLACK);
+            g2d.rotate((tile % 4) * (Math.PI / 2), TILE_SIZE_ / 2, TILE_SIZE_ / 2);
+
+            for (Line2D line : lineInfo.get(tile)) {
+                g2d.draw(line);
+            }
+            g2d.setTransform(transform);
+        }
+    }
+
+
+    /**
+     * This function paints every tile the way Content paints its vector path
+     * now, from the packed floats.
+     * @param g2d, the graphics to paint on.
+     * @param geometry, the packed lines of every tile.
+     */
+    private static void paintPacked(Graphics2D g2d, TileGeometry geometry) {
+
+        for (int tile = 0; tile < geometry.getTileCount(); tile++) {
+            TileSprites.draw(g2d, geometry, tile, tile % 4, TILE_SIZE_, TILE_SIZE_);
+        }
+    }
+
+
+    /**
+     * This function picks a coordinate inside a tile.
+     * @param random, where the coordinate comes from.
+     * @return a whole number of pixels from 0 to TILE_SIZE_.
+     */
+    private static float coordinate(SplittableRandom random) {
+        return random.nextInt(TILE_SIZE_ + 1);
+    }
+
+
+    /**
+     * This function measures the heap in use once garbage has been collected.
+     * @return the bytes in use.
+     */
+    private static long usedHeap() {
+
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+
+        //Collections are asked for until the used heap stops going down.
+        for (int i = 0; i < 8; i++) {
+
+            System.gc();
+            long now = runtime.totalMemory() - runtime.freeMemory();
+
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+};
@@ -0,0 +1,549 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.io.Closeable;
+import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.*;
+
+/**
+ * This class holds the tile IDs, line counts and lines of many mazes outside of
+ * the Java heap, for jobs that keep thousands of mazes loaded at once. A parsed
+ * MazeModel is copied in, and can then be dropped, so the garbage collector never
+ * sees its lines. Each maze takes one run of bytes in a direct buffer slab:
+ *
+ *     int tile ID per tile
+ *     int first line per tile, followed by the number of lines in total
+ *     four floats per line, x0, y0, x1, y1, tile after tile
+ *
+ * Floats are big endian, as in a maze file, so the lines of a tile that has not
+ * been decoded yet are copied straight from the file contents, see
+ * TileGeometry.copyTile(). Many mazes share a slab of SLAB_BYTES_, and a maze too
+ * large for one gets a slab of its own.
+ * Every maze is named by the int handle add() returns. Nothing is freed by the
+ * garbage collector: release() drops a maze, and frees its slab straight away once
+ * every maze in it is released, and close() frees everything. Reads take a shared
+ * lock, and release() and close() wait for them, so a released maze can never be
+ * read, only refused. Reads copy into arrays the caller owns, or draw straight from
+ * the slab, so no heap object is made per line.
+ * @SLAB_BYTES_, the size of a shared slab, -Djmaze.slabBytes.
+ * @LINE_BYTES_, the size of one line in a slab.
+ * @FREE_, @UNSAFE_, the hook that frees a direct buffer at once and the object
+ * it is called on, or null if this JVM has none, in which case a freed slab
+ * waits for the garbage collector.
+ * @lock_, shared by reads, held alone by add(), release() and close().
+ * @slabs_, every slab, null once freed.
+ * @slabLive_, the number of mazes not yet released in each slab.
+ * @slabUsed_, how many bytes of the last slab are taken.
+ * @mazeSlab_, the slab of each maze, or -1 once released.
+ * @mazeOffset_, where each maze starts in its slab.
+ * @mazeTiles_, the tile count of each maze.
+ * @mazeCount_, the number of handles given out.
+ * @liveBytes_, the number of bytes taken by mazes not yet released.
+ * @closed_, whether close() has been called.
+ */
+public class GeometryStore implements Closeable {
+
+    private static final int SLAB_BYTES_ = Integer.getInteger("jmaze.slabBytes", 64 * 1024 * 1024);
+    private static final int LINE_BYTES_ = 4 * TileGeometry.LINE_FLOATS_;
+    private static final Method FREE_;
+    private static final Object UNSAFE_;
+
+    private final ReadWriteLock lock_ = new ReentrantReadWriteLock();
+    private final ArrayList<ByteBuffer> slabs_ = new ArrayList<ByteBuffer>();
+    private final ArrayList<Integer> slabLive_ = new ArrayList<Integer>();
+    private int slabUsed_ = 0;
+    private int[] mazeSlab_ = new int[64];
+    private int[] mazeOffset_ = new int[64];
+    private int[] mazeTiles_ = new int[64];
+    private int mazeCount_ = 0;
+    private long liveBytes_ = 0;
+    private boolean closed_ = false;
+
+    static {
+
+        Method free = null;
+        Object unsafe = null;
+
+        try {
+
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            free = type.getMethod("invokeCleaner", ByteBuffer.class);
+
+        } catch (ReflectiveOperationException | RuntimeException exception) {
+
+            //Freed slabs are left to the garbage collector instead.
+            free = null;
+        }
+        FREE_ = free;
+        UNSAFE_ = unsafe;
+    }
+
+
+    /**
+     * This function copies a maze into the store, decoding any tile its model has
+     * not decoded yet without keeping its lines on the heap.
+     * @param maze, the maze or save.
+     * @return the handle of the copy.
+     * @throws IllegalArgumentException if the maze is too large for a slab.
+     * @throws IllegalStateException if the store is closed.
+     */
+    public int add(MazeModel maze) {
+
+        int tileCount = maze.getTileCount();
+        TileGeometry geometry = maze.getGeometry();
+        long lineCount = 0;
+
+        for (int i = 0; i < tileCount; i++) {
+
+            lineCount += geometry.getLineCount(i);
+        }
+
+        long size = 4L * tileCount + 4L * (tileCount + 1) + (long) LINE_BYTES_ * lineCount;
+
+        if (size > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("a maze of " + size + " bytes is too large for the store");
+        }
+
+        lock_.writeLock().lock();
+
+        try {
+
+            checkOpen();
+            int slab = reserve((int) size);
+            ByteBuffer buffer = slabs_.get(slab);
+            int offset = slabUsed_ - (int) size;
+            int starts = offset + 4 * tileCount;
+            int coords = starts + 4 * (tileCount + 1);
+            int start = 0;
+
+            for (int i = 0; i < tileCount; i++) {
+
+                buffer.putInt(offset + 4 * i, maze.getTileId(i));
+                buffer.putInt(starts + 4 * i, start);
+                geometry.copyTile(i, buffer, coords + start * LINE_BYTES_);
+                start += geometry.getLineCount(i);
+            }
+            buffer.putInt(starts + 4 * tileCount, start);
+
+            if (mazeCount_ == mazeSlab_.length) {
+
+                mazeSlab_ = Arrays.copyOf(mazeSlab_, mazeCount_ * 2);
+                mazeOffset_ = Arrays.copyOf(mazeOffset_, mazeCount_ * 2);
+                mazeTiles_ = Arrays.copyOf(mazeTiles_, mazeCount_ * 2);
+            }
+            mazeSlab_[mazeCount_] = slab;
+            mazeOffset_[mazeCount_] = offset;
+            mazeTiles_[mazeCount_] = tileCount;
+            slabLive_.set(slab, slabLive_.get(slab) + 1);
+            liveBytes_ += size;
+            return mazeCount_++;
+
+        } finally {
+
+            lock_.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * This function drops a maze. Its handle can no longer be read, and the slab
+     * it was in is freed once no maze in it is left. Releasing a maze twice does
+     * nothing.
+     * @param maze, the handle.
+     */
+    public void release(int maze) {
+
+        lock_.writeLock().lock();
+
+        try {
+
+            checkHandle(maze);
+
+            int slab = mazeSlab_[maze];
+
+            if (slab < 0 || closed_) {
+                return;
+            }
+            mazeSlab_[maze] = -1;
+            liveBytes_ -= size(maze, slab);
+
+            int live = slabLive_.get(slab) - 1;
+            slabLive_.set(slab, live);
+
+            if (live == 0) {
+
+                free(slabs_.get(slab));
+                slabs_.set(slab, null);
+            }
+
+        } finally {
+
+            lock_.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * This function frees every slab. No handle can be read afterwards, and
+     * nothing can be added. Closing twice does nothing.
+     */
+    @Override
+    public void close() {
+
+        lock_.writeLock().lock();
+
+        try {
+
+            if (closed_) {
+                return;
+            }
+            closed_ = true;
+
+            for (ByteBuffer slab : slabs_) {
+
+                if (slab != null) {
+                    free(slab);
+                }
+            }
+            slabs_.clear();
+            slabLive_.clear();
+            Arrays.fill(mazeSlab_, 0, mazeCount_, -1);
+            liveBytes_ = 0;
+
+        } finally {
+
+            lock_.writeLock().unlock();
+        }
+    }
+
+
+    /**
+     * This is a getter for the number of tiles of a maze.
+     * @param maze, the handle.
+     * @return the tile count.
+     * @throws IllegalStateException if the maze has been released.
+     */
+    public int getTileCount(int maze) {
+
+        lock_.readLock().lock();
+
+        try {
+
+            checkLive(maze);
+            return mazeTiles_[maze];
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This is a getter for the ID of a tile.
+     * @param maze, the handle.
+     * @param tile, the index of the tile in file order.
+     * @return the tile ID, or the saved position for a save.
+     * @throws IllegalStateException if the maze has been released.
+     */
+    public int getTileId(int maze, int tile) {
+
+        lock_.readLock().lock();
+
+        try {
+
+            checkTile(maze, tile);
+            return slabs_.get(mazeSlab_[maze]).getInt(mazeOffset_[maze] + 4 * tile);
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This is a getter for the number of lines of a tile.
+     * @param maze, the handle.
+     * @param tile, the index of the tile in file order.
+     * @return the line count.
+     * @throws IllegalStateException if the maze has been released.
+     */
+    public int getLineCount(int maze, int tile) {
+
+        lock_.readLock().lock();
+
+        try {
+
+            checkTile(maze, tile);
+            ByteBuffer slab = slabs_.get(mazeSlab_[maze]);
+            int starts = startsAt(maze) + 4 * tile;
+            return slab.getInt(starts + 4) - slab.getInt(starts);
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This function copies the lines of a tile, four floats each, into an array
+     * the caller owns, so one array can be reused for every tile.
+     * @param maze, the handle.
+     * @param tile, the index of the tile in file order.
+     * @param into, the array, which must have room for four floats a line from at.
+     * @param at, where the first line goes in into.
+     * @return the number of lines copied.
+     * @throws IllegalStateException if the maze has been released.
+     */
+    public int getCoords(int maze, int tile, float[] into, int at) {
+
+        lock_.readLock().lock();
+
+        try {
+
+            checkTile(maze, tile);
+            ByteBuffer lines = slabs_.get(mazeSlab_[maze]).duplicate();
+            int starts = startsAt(maze) + 4 * tile;
+            int first = lines.getInt(starts);
+            int count = lines.getInt(starts + 4) - first;
+            lines.position(linesAt(maze) + first * LINE_BYTES_);
+            lines.asFloatBuffer().get(into, at, count * TileGeometry.LINE_FLOATS_);
+            return count;
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This function draws the lines of a tile straight from its slab, the way
+     * Content draws a piece, through a single line object.
+     * @param maze, the handle.
+     * @param tile, the index of the tile in file order.
+     * @param g2d, where to draw, with its stroke, paint and rotation already set.
+     * @throws IllegalStateException if the maze has been released.
+     */
+    public void draw(int maze, int tile, Graphics2D g2d) {
+
+        lock_.readLock().lock();
+
+        try {
+
+            checkTile(maze, tile);
+            ByteBuffer slab = slabs_.get(mazeSlab_[maze]);
+            int starts = startsAt(maze) + 4 * tile;
+            int from = linesAt(maze) + slab.getInt(starts) * LINE_BYTES_;
+            int to = linesAt(maze) + slab.getInt(starts + 4) * LINE_BYTES_;
+            Line2D.Float line = new Line2D.Float();
+
+            for (int at = from; at < to; at += LINE_BYTES_) {
+
+                line.setLine(slab.getFloat(at), slab.getFloat(at + 4), slab.getFloat(at + 8),
+                        slab.getFloat(at + 12));
+                g2d.draw(line);
+            }
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This is a getter for the number of mazes that have not been released.
+     * @return the sum of slabLive_.
+     */
+    public int size() {
+
+        lock_.readLock().lock();
+
+        try {
+
+            int size = 0;
+
+            for (int live : slabLive_) {
+
+                size += live;
+            }
+            return size;
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This is a getter for the number of off-heap bytes held by mazes that
+     * have not been released.
+     * @return liveBytes_.
+     */
+    public long getLiveBytes() {
+
+        lock_.readLock().lock();
+
+        try {
+
+            return liveBytes_;
+
+        } finally {
+
+            lock_.readLock().unlock();
+        }
+    }
+
+
+    /**
+     * This function makes room for a maze at the end of the last slab, or in a
+     * new slab if it does not fit. Must be called holding the write lock.
+     * @param size, the number of bytes the maze takes.
+     * @return the index of the slab, with slabUsed_ moved past the maze.
+     */
+    private int reserve(int size) {
+
+        ByteBuffer last = slabs_.isEmpty() ? null : slabs_.get(slabs_.size() - 1);
+
+        //A freed last slab cannot be added to either, so the next maze starts a new one.
+        if (last == null || (long) slabUsed_ + size > last.capacity()) {
+
+            slabs_.add(ByteBuffer.allocateDirect(Math.max(SLAB_BYTES_, size)));
+            slabLive_.add(0);
+            slabUsed_ = 0;
+        }
+        slabUsed_ += size;
+        return slabs_.size() - 1;
+    }
+
+
+    /**
+     * This function works out how many bytes a maze takes.
+     * @param maze, the handle of a maze that is still live.
+     * @param slab, its slab.
+     * @return its size in bytes.
+     */
+    private long size(int maze, int slab) {
+
+        int lines = slabs_.get(slab).getInt(startsAt(maze) + 4 * mazeTiles_[maze]);
+        return linesAt(maze) - mazeOffset_[maze] + (long) LINE_BYTES_ * lines;
+    }
+
+
+    /**
+     * This function finds the line start table of a maze in its slab.
+     * @param maze, the handle of a maze that is still live.
+     * @return where the first line of its first tile is named.
+     */
+    private int startsAt(int maze) {
+        return mazeOffset_[maze] + 4 * mazeTiles_[maze];
+    }
+
+    /**
+     * This function finds the lines of a maze in its slab.
+     * @param maze, the handle of a maze that is still live.
+     * @return where x0 of its first line is.
+     */
+    private int linesAt(int maze) {
+        return mazeOffset_[maze] + 8 * mazeTiles_[maze] + 4;
+    }
+
+
+    /**
+     * This function frees a slab at once, if this JVM allows it.
+     * @param slab, a direct buffer that is never read again.
+     */
+    private static void free(ByteBuffer slab) {
+
+        if (FREE_ == null) {
+            return;
+        }
+
+        try {
+
+            FREE_.invoke(UNSAFE_, slab);
+
+        } catch (ReflectiveOperationException exception) {
+
+            //The garbage collector frees it later instead.
+            return;
+        }
+    }
+
+
+    /**
+     * This function makes sure the store can still be added to.
+     * @throws IllegalStateException if it is closed.
+     */
+    private void checkOpen() {
+
+        if (closed_) {
+            throw new IllegalStateException("the geometry store is closed");
+        }
+    }
+
+
+    /**
+     * This function makes sure a handle was given out by this store.
+     * @param maze, the handle.
+     * @throws IllegalArgumentException if it was not.
+     */
+    private void checkHandle(int maze) {
+
+        if (maze < 0 || maze >= mazeCount_) {
+            throw new IllegalArgumentException("no maze with handle " + maze);
+        }
+    }
+
+
+    /**
+     * This function makes sure a maze can be read.
+     * @param maze, the handle.
+     * @throws IllegalStateException if it has been released, or the store closed.
+     */
+    private void checkLive(int maze) {
+
+        checkHandle(maze);
+        checkOpen();
+
+        if (mazeSlab_[maze] < 0) {
+            throw new IllegalStateException("maze " + maze + " has been released");
+        }
+    }
+
+
+    /**
+     * This function makes sure a tile of a maze can be read.
+     * @param maze, the handle.
+     * @param tile, the index of the tile.
+     * @throws IllegalStateException if the maze has been released.
+     * @throws IndexOutOfBoundsException if there is no such tile.
+     */
+    private void checkTile(int maze, int tile) {
+
+        checkLive(maze);
+
+        if (tile < 0 || tile >= mazeTiles_[maze]) {
+            throw new IndexOutOfBoundsException("tile " + tile + " of " + mazeTiles_[maze]);
+        }
+    }
+
+};
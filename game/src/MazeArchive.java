@@ -0,0 +1,288 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * This class reads maze and save files that live inside another file, either a
+ * MazePack or a zip level pack, so they never have to be unpacked into game/input
+ * first. Entries are named by their path inside the archive.
+ * Zip files are opened through the zip file system that ships with Java. Opening
+ * one reads only its central directory, which is all that listing needs. Reading
+ * an entry inflates it once, straight into a buffer of the size recorded in the
+ * central directory, with no temporary files. Open zip file systems are kept, and
+ * reused until the zip file changes on disk. Each one counts the lists and reads
+ * using it, and one that has been replaced is only closed once the last of them
+ * is done, so a zip changing on disk never pulls the file system out from under
+ * a read of the old one.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @ZIP_MAGIC_, the first four bytes of a zip file with at least one entry.
+ * @EMPTY_ZIP_MAGIC_, the first four bytes of a zip file with no entries.
+ * @zips_, the zip file systems opened so far, by absolute path, guarded by the
+ * class lock.
+ */
+public class MazeArchive {
+
+    static final int ZIP_MAGIC_ = 0x504B0304;
+    static final int EMPTY_ZIP_MAGIC_ = 0x504B0506;
+
+    private static final Map<String, OpenZip> zips_ = new HashMap<String, OpenZip>();
+
+
+    /**
+     * This is a check for whether a file holds other files, so the file chooser
+     * knows to ask which entry to open.
+     * @param file, the file to check.
+     * @return true if the file is a maze pack or a zip file.
+     */
+    public static boolean isArchive(File file) {
+
+        try {
+
+            int magic = readMagic(file);
+            return magic == MazePack.PACK_MAGIC_ || magic == ZIP_MAGIC_ || magic == EMPTY_ZIP_MAGIC_;
+
+        } catch (IOException exception) {
+
+            return false;
+        }
+    }
+
+
+    /**
+     * This function lists every entry of an archive. For a zip file only the
+     * central directory is read, none of the entries are inflated.
+     * @param file, a maze pack or zip file.
+     * @return the entry names, in archive order.
+     * @throws MazeFormatException if the file is not an archive.
+     * @throws IOException if the file cannot be read.
+     */
+    public static String[] list(File file) throws IOException {
+
+        int magic = readMagic(file);
+
+        if (magic == MazePack.PACK_MAGIC_) {
+            return MazePack.open(file).getNames();
+        }
+
+        OpenZip zip = openZip(file, magic);
+        List<String> names = new ArrayList<String>();
+
+        try {
+
+            for (Path root : zip.fileSystem_.getRootDirectories()) {
+
+                try (
+                        Stream<Path> paths = Files.walk(root);
+                ) {
+
+                    Iterator<Path> iterator = paths.iterator();
+
+                    while (iterator.hasNext()) {
+
+                        Path path = iterator.next();
+
+                        if (Files.isRegularFile(path)) {
+                            names.add(root.relativize(path).toString());
+                        }
+                    }
+                }
+            }
+
+        } finally {
+
+            release(zip);
+        }
+        return names.toArray(new String[0]);
+    }
+
+
+    /**
+     * This function reads and decodes one entry of an archive.
+     * @param file, a maze pack or zip file.
+     * @param entry, the name of the entry, as returned by list().
+     * @return the decoded model.
+     * @throws NoSuchFileException if there is no such file or entry.
+     * @throws MazeFormatException if the entry is not a valid maze or save.
+     * @throws IOException if the entry cannot be read.
+     */
+    public static MazeModel parse(File file, String entry) throws IOException {
+
+        return MazeParser.parse(read(file, entry));
+    }
+
+
+    /**
+     * This function reads one entry of an archive into memory. A pack entry is
+     * a slice of the mapped pack, a zip entry is inflated in a single pass.
+     * @param file, a maze pack or zip file.
+     * @param entry, the name of the entry, as returned by list().
+     * @return the whole entry, positioned at 0.
+     * @throws NoSuchFileException if there is no such file or entry.
+     * @throws MazeFormatException if the file is not an archive.
+     * @throws IOException if the entry cannot be read.
+     */
+    public static ByteBuffer read(File file, String entry) throws IOException {
+
+        int magic = readMagic(file);
+
+        if (magic == MazePack.PACK_MAGIC_) {
+            return MazePack.open(file).entry(entry);
+        }
+
+        OpenZip zip = openZip(file, magic);
+
+        try (
+                SeekableByteChannel channel = Files.newByteChannel(zip.fileSystem_.getPath(entry));
+        ) {
+
+            return MazeParser.readFully(channel);
+
+        } finally {
+
+            release(zip);
+        }
+    }
+
+
+    /**
+     * This function opens the zip file system of a zip file, reusing the last
+     * one if the file has not changed since. The caller becomes one of its users,
+     * and must hand it back to release() once done with it.
+     * @param file, the zip file.
+     * @param magic, the first four bytes of the file.
+     * @return the open zip file system.
+     * @throws NoSuchFileException if there is no file at this path.
+     * @throws MazeFormatException if the file is not a zip file.
+     * @throws IOException if the central directory cannot be read.
+     */
+    private static OpenZip openZip(File file, int magic) throws IOException {
+
+        if (magic != ZIP_MAGIC_ && magic != EMPTY_ZIP_MAGIC_) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.BAD_MAGIC, 0, "not a maze pack or zip file");
+        }
+
+        String key = file.getAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        synchronized (MazeArchive.class) {
+
+            OpenZip zip = zips_.get(key);
+
+            if (zip != null && zip.size_ == attributes.size()
+                    && zip.modified_ == attributes.lastModifiedTime().toMillis()) {
+
+                zip.users_++;
+                return zip;
+            }
+            if (zip != null) {
+
+                //Whoever is still using it closes it, once they are done.
+                zips_.remove(key);
+                zip.isReplaced_ = true;
+                closeIfUnused(zip);
+            }
+
+            //A private file system, not registered with the provider, so it can be replaced freely.
+            zip = new OpenZip(FileSystems.newFileSystem(file.toPath(), (ClassLoader) null), attributes);
+            zip.users_++;
+            zips_.put(key, zip);
+            return zip;
+        }
+    }
+
+
+    /**
+     * This function hands back a zip file system from openZip(), and closes it if
+     * it has been replaced and this was its last user.
+     * @param zip, the zip file system.
+     * @throws IOException if it cannot be closed.
+     */
+    private static void release(OpenZip zip) throws IOException {
+
+        synchronized (MazeArchive.class) {
+
+            zip.users_--;
+            closeIfUnused(zip);
+        }
+    }
+
+
+    /**
+     * This function closes a zip file system that has been replaced and that
+     * nobody is using any more. Only called under the class lock.
+     * @param zip, the zip file system.
+     * @throws IOException if it cannot be closed.
+     */
+    private static void closeIfUnused(OpenZip zip) throws IOException {
+
+        if (zip.isReplaced_ && zip.users_ == 0) {
+            zip.fileSystem_.close();
+        }
+    }
+
+
+    /**
+     * This function reads the first four bytes of a file.
+     * @param file, the file to check.
+     * @return the first four bytes as a big-endian int, or 0 if the file is shorter.
+     * @throws NoSuchFileException if there is no file at this path.
+     * @throws IOException if the file cannot be read.
+     */
+    static int readMagic(File file) throws IOException {
+
+        try (
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ) {
+
+            ByteBuffer magic = ByteBuffer.allocate(4);
+
+            while (magic.hasRemaining()) {
+
+                if (channel.read(magic) < 0) {
+                    return 0;
+                }
+            }
+            return magic.getInt(0);
+        }
+    }
+
+
+    /**
+     * An open zip file system, along with the size and modification time the
+     * zip file had when it was opened.
+     * @users_, the lists and reads using it right now, guarded by the class lock.
+     * @isReplaced_, true once a newer copy of the zip file has been opened in its
+     * place, guarded by the class lock.
+     */
+    private static final class OpenZip {
+
+        private final FileSystem fileSystem_;
+        private final long size_;
+        private final long modified_;
+        private int users_ = 0;
+        private boolean isReplaced_ = false;
+
+        private OpenZip(FileSystem fileSystem, BasicFileAttributes attributes) {
+
+            fileSystem_ = fileSystem;
+            size_ = attributes.size();
+            modified_ = attributes.lastModifiedTime().toMillis();
+        }
+    };
+
+};
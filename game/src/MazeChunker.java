@@ -0,0 +1,169 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This is a command line tool that converts CAFEBEEF maze files into the chunked
+ * CAFEB10C form read by ChunkedBoard. Every converted maze is parsed back and
+ * checked against the original before it is written, and must match it exactly:
+ * the chunked form keeps the tile records as they are, and only splits them up
+ * behind an index.
+ * Files and folders are given on the command line. Each maze is written next to
+ * the original with a .mzc extension, or into the folder given with --out.
+ *
+ *     java MazeChunker [--chunk 256] [--out folder] file-or-folder...
+ *
+ * The exit status is 1 if any maze could not be converted.
+ */
+public class MazeChunker {
+
+    private static final int DEFAULT_CHUNK_TILES_ = 256;
+
+    public static void main(String[] args) {
+
+        int chunkTiles = DEFAULT_CHUNK_TILES_;
+        File out = null;
+        List<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--chunk".equals(args[i]) && i + 1 < args.length) {
+
+                chunkTiles = Integer.parseInt(args[++i]);
+
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+
+                out = new File(args[++i]);
+
+            } else {
+
+                listFiles(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty() || chunkTiles <= 0) {
+
+            System.err.println("usage: java MazeChunker [--chunk 256] [--out folder] file-or-folder...");
+            System.exit(2);
+        }
+
+        int converted = 0;
+        int failures = 0;
+
+        for (File file : files) {
+
+            try {
+
+                MazeModel maze = MazeParser.parse(file);
+
+                if (maze.getMagic() != MazeParser.MAZE_MAGIC_) {
+                    continue;
+                }
+
+                ByteBuffer encoded = MazeWriter.encodeChunkedMaze(maze, chunkTiles);
+
+                if (!sameMaze(maze, MazeParser.parse(encoded.duplicate()))) {
+
+                    System.out.println("failed " + file + ": the chunked maze does not read back the same");
+                    failures++;
+                    continue;
+                }
+
+                File target = new File(out == null ? file.getAbsoluteFile().getParentFile() : out,
+                        baseName(file) + ".mzc");
+                MazeWriter.replace(target.toPath(), encoded.duplicate());
+
+                System.out.println("converted " + file + ": " + maze.getTileCount() + " tiles in "
+                        + (maze.getTileCount() + chunkTiles - 1) / chunkTiles + " chunks, "
+                        + encoded.remaining() + " bytes");
+                converted++;
+
+            } catch (IOException | IllegalArgumentException exception) {
+
+                System.out.println("failed " + file + ": " + exception.getMessage());
+                failures++;
+            }
+        }
+        System.out.println(converted + " mazes converted, " + failures + " not converted");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * This function checks that a chunked maze holds exactly what its original did.
+     * @param original, the maze as read from the CAFEBEEF file.
+     * @param chunked, the same maze after a round trip through the chunked form.
+     * @return true if the IDs, line counts and every line match.
+     */
+    private static boolean sameMaze(MazeModel original, MazeModel chunked) {
+
+        if (original.getTileCount() != chunked.getTileCount()
+                || !Arrays.equals(original.getTileIds(), chunked.getTileIds())
+                || !Arrays.equals(original.getTileLines(), chunked.getTileLines())) {
+            return false;
+        }
+
+        for (int i = 0; i < original.getTileCount(); i++) {
+
+            Line2D[] originalLines = original.getLines(i);
+            Line2D[] chunkedLines = chunked.getLines(i);
+
+            for (int j = 0; j < originalLines.length; j++) {
+
+                if (!originalLines[j].getP1().equals(chunkedLines[j].getP1())
+                        || !originalLines[j].getP2().equals(chunkedLines[j].getP2())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * This function strips the extension from a file name.
+     * @param file, the file.
+     * @return the name up to the last dot.
+     */
+    private static String baseName(File file) {
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+
+    /**
+     * This function adds a file, or every file directly inside a folder, to a list.
+     * @param file, a file or folder from the command line.
+     * @param files, the list to add to.
+     */
+    private static void listFiles(File file, List<File> files) {
+
+        File[] children = file.listFiles();
+
+        if (children == null) {
+
+            files.add(file);
+            return;
+        }
+        Arrays.sort(children);
+
+        for (File child : children) {
+
+            if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+};
@@ -0,0 +1,182 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * This is a command line tool that finds mazes that are copies of each other,
+ * whatever order their tiles are stored in and however each tile is turned, and
+ * mazes that share many tiles. Every maze under the given folders is hashed into
+ * a MazeIndex, and the index is then asked about each one.
+ * Each group of copies is printed on one line. With --similar, every pair of
+ * mazes that are not copies but share at least that many distinct tiles is
+ * printed as well. With --like, only the copies of that one maze, and the mazes
+ * sharing at least --similar tiles with it, are printed. Files that are not mazes
+ * are skipped.
+ *
+ *     java MazeDuplicates [--similar n] [--like file] folder...
+ *
+ * The exit status is 1 if any copies were found.
+ */
+public class MazeDuplicates {
+
+    public static void main(String[] args) throws IOException {
+
+        int similar = 0;
+        Path like = null;
+        List<Path> roots = new ArrayList<Path>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--similar".equals(args[i]) && i + 1 < args.length) {
+
+                similar = Integer.parseInt(args[++i]);
+
+            } else if ("--like".equals(args[i]) && i + 1 < args.length) {
+
+                like = Paths.get(args[++i]).toAbsolutePath().normalize();
+
+            } else {
+
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty() || similar < 0) {
+
+            System.err.println("usage: java MazeDuplicates [--similar n] [--like file] folder...");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        MazeIndex index = new MazeIndex();
+        List<String> keys = new ArrayList<String>();
+
+        for (Path root : roots) {
+
+            try (
+                    Stream<Path> paths = Files.walk(root);
+            ) {
+
+                Iterator<Path> iterator = paths.iterator();
+
+                while (iterator.hasNext()) {
+
+                    Path path = iterator.next().toAbsolutePath().normalize();
+
+                    if (Files.isRegularFile(path) && add(index, path)) {
+                        keys.add(path.toString());
+                    }
+                }
+            }
+        }
+        if (like != null && !keys.contains(like.toString())) {
+
+            if (!add(index, like)) {
+
+                System.err.println(like + " is not a maze");
+                System.exit(2);
+            }
+        }
+
+        long indexed = System.nanoTime();
+        int copies = 0;
+        int queries = 0;
+
+        if (like != null) {
+
+            Set<String> sameTiles = index.copiesOf(like.toString());
+            copies += sameTiles.size();
+            queries++;
+
+            if (!sameTiles.isEmpty()) {
+                System.out.println("copies: " + like + " " + String.join(" ", new TreeSet<String>(sameTiles)));
+            }
+            if (similar > 0) {
+
+                printSimilar(index, like.toString(), similar, sameTiles, false);
+                queries++;
+            }
+
+        } else {
+
+            for (Set<String> group : index.copyGroups()) {
+
+                System.out.println("copies: " + String.join(" ", group));
+                copies += group.size() - 1;
+            }
+            if (similar > 0) {
+
+                for (String key : keys) {
+
+                    printSimilar(index, key, similar, index.copiesOf(key), true);
+                    queries += 2;
+                }
+            }
+        }
+
+        long done = System.nanoTime();
+        System.err.println(index.size() + " mazes indexed in " + (indexed - start) / 1000000 + " ms, " + copies
+                + " copies found" + (queries == 0 ? "" : ", " + (done - indexed) / 1000 / queries + " us per query"));
+        System.exit(copies == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * This function prints the mazes that share many tiles with one maze.
+     * @param index, the index.
+     * @param key, the maze asked about.
+     * @param similar, the fewest distinct tiles a maze must share to be printed.
+     * @param sameTiles, the copies of the maze, which are not printed again.
+     * @param once, whether every maze is being asked about, in which case each
+     * pair is only printed from the maze whose key sorts first.
+     */
+    private static void printSimilar(MazeIndex index, String key, int similar, Set<String> sameTiles,
+            boolean once) {
+
+        Map<String, Integer> shared = new TreeMap<String, Integer>(index.similarTo(key, similar));
+
+        for (Map.Entry<String, Integer> entry : shared.entrySet()) {
+
+            if (!sameTiles.contains(entry.getKey()) && (!once || key.compareTo(entry.getKey()) < 0)) {
+
+                System.out.println("similar: " + key + " " + entry.getKey() + " share " + entry.getValue()
+                        + " tiles");
+            }
+        }
+    }
+
+
+    /**
+     * This function parses a file and adds it to the index if it is a maze.
+     * @param index, the index.
+     * @param path, the absolute path of the file, which is its key.
+     * @return true if the file was a maze.
+     */
+    private static boolean add(MazeIndex index, Path path) {
+
+        try {
+
+            MazeModel model = MazeParser.parse(path.toFile());
+
+            if (!model.isMaze()) {
+                return false;
+            }
+            index.add(path.toString(), MazeIndex.tileHashes(model));
+            return true;
+
+        } catch (IOException exception) {
+
+            return false;
+        }
+    }
+
+};
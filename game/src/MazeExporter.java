@@ -0,0 +1,650 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * This is a command line tool that exports the tiles of every maze and save
+ * under a folder as JSON Lines or CSV, for analytics tools, without opening the
+ * game. Every row names its file, the file's magic number and timer value, and
+ * a tile: its index, its ID, which is the position of the piece in a save, and
+ * its rotation. With --rows tiles, the default, there is a row per tile with its
+ * line count, and in JSON its lines as [x0, y0, x1, y1] arrays. CSV has no room
+ * for a list, so a CSV tile row holds no coordinates. With --rows lines there is
+ * a row per line instead, with the tile's fields repeated and the four
+ * coordinates as columns, so a tile with no lines has no rows.
+ * CAFEBEEF mazes and CAFEDEED saves are streamed through a small buffer owned by
+ * the thread, and every row is written as soon as its record is decoded, so a
+ * file of any size takes the same memory, however large the corpus. The other
+ * formats are decoded with MazeParser, which maps large files instead of reading
+ * them onto the heap. Files are exported in parallel, and the rows of each thread
+ * go out in batches of whole rows, so the rows of different files can be mixed,
+ * but never a row cut in half. A file with a checksum trailer is read through
+ * once to check it before any of its rows are made, so a damaged one has no rows
+ * at all. A file with no trailer that turns out to be damaged part way keeps the
+ * rows written before the problem. Either is reported on standard error. JSON
+ * has no NaN or infinity, so those coordinates are written as null.
+ *
+ *     java MazeExporter [--format jsonl|csv] [--rows tiles|lines] [--threads n]
+ *             [--out file] folder...
+ *
+ * The number of files, their size, and the files and megabytes per second are
+ * printed at the end. The exit status is 1 if any file could not be exported.
+ * @READ_BYTES_, the size of the buffer each thread streams a file through.
+ * @BATCH_CHARS_, how many characters of rows a thread holds before writing them.
+ * @QUEUE_PER_THREAD_, how many files may wait per thread before the folder walk
+ * waits for the exports to catch up.
+ */
+public class MazeExporter {
+
+    private static final int READ_BYTES_ = 64 * 1024;
+    private static final int BATCH_CHARS_ = 64 * 1024;
+    private static final int QUEUE_PER_THREAD_ = 64;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String format = "jsonl";
+        String rows = "tiles";
+        String outFile = null;
+        List<Path> roots = new ArrayList<Path>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--format".equals(args[i]) && i + 1 < args.length) {
+
+                format = args[++i];
+
+            } else if ("--rows".equals(args[i]) && i + 1 < args.length) {
+
+                rows = args[++i];
+
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+
+                threads = Integer.parseInt(args[++i]);
+
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+
+                outFile = args[++i];
+
+            } else {
+
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty() || threads < 1 || !("jsonl".equals(format) || "csv".equals(format))
+                || !("tiles".equals(rows) || "lines".equals(rows))) {
+
+            System.err.println("usage: java MazeExporter [--format jsonl|csv] [--rows tiles|lines] [--threads n]"
+                    + " [--out file] folder...");
+            System.exit(2);
+        }
+
+        boolean csv = "csv".equals(format);
+        boolean lineRows = "lines".equals(rows);
+        Writer out = new BufferedWriter(outFile == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(Paths.get(outFile), StandardCharsets.UTF_8), BATCH_CHARS_);
+        AtomicLong exported = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+        ThreadLocal<Export> exports = new ThreadLocal<Export>() {
+
+            @Override
+            protected Export initialValue() {
+                return new Export(out, csv, lineRows);
+            }
+        };
+
+        if (csv) {
+            out.write(lineRows ? "file,magic,time,tile,id,rotation,line,x0,y0,x1,y1\n"
+                    : "file,magic,time,tile,id,rotation,lineCount\n");
+        }
+
+        //A full queue makes the walking thread export files itself, which keeps the queue short.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD_), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Export> all = Collections.synchronizedList(new ArrayList<Export>());
+        long start = System.nanoTime();
+
+        for (Path root : roots) {
+
+            try (
+                    Stream<Path> paths = Files.walk(root);
+            ) {
+
+                Iterator<Path> iterator = paths.iterator();
+
+                while (iterator.hasNext()) {
+
+                    Path path = iterator.next();
+
+                    if (!Files.isRegularFile(path)) {
+                        continue;
+                    }
+                    pool.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+
+                            Export export = exports.get();
+
+                            if (export.files_++ == 0) {
+                                all.add(export);
+                            }
+
+                            try {
+
+                                bytes.addAndGet(export.file(path));
+                                exported.incrementAndGet();
+
+                            } catch (IOException | RuntimeException exception) {
+
+                                failed.incrementAndGet();
+                                System.err.println("failed " + path + ": " + (exception instanceof MazeFormatException
+                                        ? exception.getMessage() : exception.toString()));
+                            }
+                        }
+                    });
+                }
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        for (Export export : all) {
+
+            export.flush();
+        }
+        out.flush();
+
+        if (outFile != null) {
+            out.close();
+        }
+
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-9);
+        System.err.printf("%d files exported, %d failed, %.1f MB, %.0f files and %.1f MB per second%n",
+                exported.get(), failed.get(), bytes.get() / 1e6, (exported.get() + failed.get()) / seconds,
+                bytes.get() / 1e6 / seconds);
+        System.exit(failed.get() == 0 ? 0 : 1);
+    }
+
+
+
+    /**
+     * This class exports files on one thread, reusing its read buffer and row
+     * batch for every file.
+     * @out_, the shared output, locked while a batch is written.
+     * @csv_, whether rows are CSV rather than JSON.
+     * @lineRows_, whether there is a row per line rather than per tile.
+     * @buffer_, the read buffer.
+     * @crc_, the checksum of the file being checked.
+     * @rows_, rows not written yet.
+     * @prefix_, the fields every row of the current tile starts with.
+     * @mark_, where the rows of the current tile start in rows_, so they can be
+     * taken back if the tile turns out to be damaged.
+     * @files_, the number of files this thread has been handed.
+     */
+    private static final class Export {
+
+        private final Writer out_;
+        private final boolean csv_;
+        private final boolean lineRows_;
+        private final ByteBuffer buffer_ = ByteBuffer.allocate(READ_BYTES_);
+        private final CRC32C crc_ = new CRC32C();
+        private final StringBuilder rows_ = new StringBuilder(BATCH_CHARS_ + 1024);
+        private final StringBuilder prefix_ = new StringBuilder(256);
+        private int mark_ = 0;
+        private int files_ = 0;
+
+        private Export(Writer out, boolean csv, boolean lineRows) {
+
+            out_ = out;
+            csv_ = csv;
+            lineRows_ = lineRows;
+        }
+
+        /**
+         * This function exports one file.
+         * @param path, the file.
+         * @return its size in bytes.
+         * @throws IOException if it cannot be read, or is not a valid maze or save.
+         */
+        private long file(Path path) throws IOException {
+
+            try (
+                    FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            ) {
+
+                long size = channel.size();
+                buffer_.clear();
+                buffer_.limit(4);
+                readFully(channel, buffer_, 0);
+                int magic = buffer_.remaining() == 4 ? buffer_.getInt(0) : 0;
+
+                if (magic == MazeParser.MAZE_MAGIC_ || magic == MazeParser.SAVE_MAGIC_) {
+
+                    stream(path.toString(), channel, size, magic);
+
+                } else {
+
+                    MazeModel model = MazeParser.parse(path.toFile());
+                    model(path.toString(), model);
+                }
+                return size;
+
+            } catch (IOException | RuntimeException exception) {
+
+                //A tile row cut short would not parse, so the damaged tile is dropped.
+                rows_.setLength(mark_);
+                throw exception;
+            }
+        }
+
+        /**
+         * This function streams a CAFEBEEF maze or CAFEDEED save record by record.
+         * Both have a 16 byte header and then, per tile, three ints and four
+         * floats for every line. In a maze the first int is a tile number and the
+         * second the ID, in a save they are the position and rotation. A checksum
+         * trailer is checked against the whole body before the first row is made,
+         * as rows may be written out before the end of the file is reached.
+         * @param file, the name written in every row.
+         * @param channel, the open file.
+         * @param size, its size.
+         * @param magic, its magic number.
+         * @throws IOException if it cannot be read, or a count or the checksum is wrong.
+         */
+        private void stream(String file, FileChannel channel, long size, int magic) throws IOException {
+
+            long end = size;
+            int expected = 0;
+
+            if (size >= 4 + MazeParser.TRAILER_BYTES_) {
+
+                ByteBuffer trailer = ByteBuffer.allocate(MazeParser.TRAILER_BYTES_);
+                readFully(channel, trailer, size - MazeParser.TRAILER_BYTES_);
+
+                if (trailer.remaining() == MazeParser.TRAILER_BYTES_ && trailer.getInt(4) == MazeParser.TRAILER_MAGIC_) {
+
+                    end = size - MazeParser.TRAILER_BYTES_;
+                    expected = trailer.getInt(0);
+                }
+            }
+            if (end != size) {
+                check(channel, end, expected);
+            }
+
+            Input input = new Input(channel, buffer_, end);
+            boolean isSave = magic == MazeParser.SAVE_MAGIC_;
+            input.need(MazeWriter.HEADER_BYTES_);
+            input.buffer_.getInt();
+            int tileCount = input.buffer_.getInt();
+            long time = input.buffer_.getLong();
+
+            if (tileCount < 0 || tileCount > MazeParser.MAX_TILES_) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.TOO_LARGE, 4,
+                        "tile count of " + tileCount + " is over the limit of " + MazeParser.MAX_TILES_);
+            }
+
+            for (int i = 0; i < tileCount; i++) {
+
+                input.need(MazeWriter.RECORD_BYTES_);
+                int first = input.buffer_.getInt();
+                int second = input.buffer_.getInt();
+                int lineCount = input.buffer_.getInt();
+
+                if (lineCount < 0 || (long) lineCount * MazeWriter.LINE_BYTES_ > input.left()) {
+
+                    throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, input.offset() - 4,
+                            "line count of tile " + i + " is " + lineCount + ", " + input.left() + " bytes are left");
+                }
+                tile(file, magic, time, i, isSave ? first : second, isSave ? second : 0, lineCount);
+
+                for (int j = 0; j < lineCount; j++) {
+
+                    input.need(MazeWriter.LINE_BYTES_);
+                    ByteBuffer lines = input.buffer_;
+                    line(j, lines.getFloat(), lines.getFloat(), lines.getFloat(), lines.getFloat());
+                }
+                endTile();
+            }
+            if (input.left() > 0) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, input.offset(),
+                        input.left() + " bytes after the last tile");
+            }
+        }
+
+        /**
+         * This function reads the body of a file through the read buffer and
+         * checks it against the checksum in its trailer.
+         * @param channel, the open file.
+         * @param end, where the body ends.
+         * @param expected, the checksum the trailer holds.
+         * @throws IOException if it cannot be read, or the checksum is wrong.
+         */
+        private void check(FileChannel channel, long end, int expected) throws IOException {
+
+            crc_.reset();
+            long at = 0;
+
+            while (at < end) {
+
+                buffer_.clear();
+                buffer_.limit((int) Math.min(buffer_.capacity(), end - at));
+                int read = channel.read(buffer_, at);
+
+                if (read < 0) {
+                    break;
+                }
+                buffer_.flip();
+                crc_.update(buffer_);
+                at += read;
+            }
+            if (expected != (int) crc_.getValue()) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.BAD_CHECKSUM, end,
+                        "body checksum is " + Integer.toHexString((int) crc_.getValue()) + ", the trailer holds "
+                        + Integer.toHexString(expected));
+            }
+        }
+
+        /**
+         * This function exports a file that MazeParser has decoded, reading the
+         * lines of each tile straight from its packed geometry.
+         * @param file, the name written in every row.
+         * @param model, the decoded file.
+         */
+        private void model(String file, MazeModel model) {
+
+            TileGeometry geometry = model.getGeometry();
+
+            for (int i = 0; i < model.getTileCount(); i++) {
+
+                int lineCount = geometry.getLineCount(i);
+                tile(file, model.getMagic(), model.getLoadTime(), i, model.getTileId(i), model.getTileRotation(i),
+                        lineCount);
+
+                float[] coords = geometry.getCoords(i);
+                int at = geometry.getStart(i) * TileGeometry.LINE_FLOATS_;
+
+                for (int j = 0; j < lineCount; j++, at += TileGeometry.LINE_FLOATS_) {
+
+                    line(j, coords[at], coords[at + 1], coords[at + 2], coords[at + 3]);
+                }
+                endTile();
+            }
+        }
+
+        /**
+         * This function starts the rows of a tile.
+         * @param file, the file name.
+         * @param magic, the magic number of the file.
+         * @param time, the timer value of the file.
+         * @param tile, the index of the tile.
+         * @param id, its ID, or its position in a save.
+         * @param rotation, its rotation.
+         * @param lineCount, its number of lines.
+         */
+        private void tile(String file, int magic, long time, int tile, int id, int rotation, int lineCount) {
+
+            String hex = Long.toHexString(0x100000000L | (magic & 0xFFFFFFFFL)).substring(1).toUpperCase();
+            prefix_.setLength(0);
+            mark_ = rows_.length();
+
+            if (csv_) {
+
+                csvQuote(prefix_, file);
+                prefix_.append(',').append(hex).append(',').append(time).append(',').append(tile).append(',')
+                        .append(id).append(',').append(rotation).append(',');
+
+                if (!lineRows_) {
+                    rows_.append(prefix_).append(lineCount).append('\n');
+                }
+                return;
+            }
+
+            prefix_.append("{\"file\":");
+            MazeValidator.quote(prefix_, file);
+            prefix_.append(",\"magic\":\"").append(hex).append("\",\"time\":").append(time).append(",\"tile\":")
+                    .append(tile).append(",\"id\":").append(id).append(",\"rotation\":").append(rotation).append(',');
+
+            if (!lineRows_) {
+                rows_.append(prefix_).append("\"lineCount\":").append(lineCount).append(",\"lines\":[");
+            }
+        }
+
+        /**
+         * This function writes one line of the current tile.
+         * @param line, the index of the line in the tile.
+         * @param x0, the x of its first end.
+         * @param y0, the y of its first end.
+         * @param x1, the x of its second end.
+         * @param y1, the y of its second end.
+         */
+        private void line(int line, float x0, float y0, float x1, float y1) {
+
+            if (!lineRows_) {
+
+                if (!csv_) {
+
+                    if (line > 0) {
+                        rows_.append(',');
+                    }
+                    rows_.append('[');
+                    number(x0).append(',');
+                    number(y0).append(',');
+                    number(x1).append(',');
+                    number(y1).append(']');
+                }
+                return;
+            }
+
+            if (csv_) {
+
+                rows_.append(prefix_).append(line).append(',');
+                number(x0).append(',');
+                number(y0).append(',');
+                number(x1).append(',');
+                number(y1).append('\n');
+                return;
+            }
+            rows_.append(prefix_).append("\"line\":").append(line).append(",\"x0\":");
+            number(x0).append(",\"y0\":");
+            number(y0).append(",\"x1\":");
+            number(x1).append(",\"y1\":");
+            number(y1).append("}\n");
+
+            //Every line row is whole, so a long tile can be written out part way.
+            if (rows_.length() >= BATCH_CHARS_) {
+                flush();
+            }
+        }
+
+        /**
+         * This function ends the rows of a tile, and writes the rows held so far
+         * once there are enough of them.
+         */
+        private void endTile() {
+
+            if (!lineRows_ && !csv_) {
+                rows_.append("]}\n");
+            }
+            mark_ = rows_.length();
+
+            if (rows_.length() >= BATCH_CHARS_) {
+                flush();
+            }
+        }
+
+        /**
+         * This function writes a coordinate, as null in JSON if it is not a number.
+         * @param value, the coordinate.
+         * @return rows_.
+         */
+        private StringBuilder number(float value) {
+
+            if (!csv_ && (Float.isNaN(value) || Float.isInfinite(value))) {
+                return rows_.append("null");
+            }
+            //Whole pixels are the common case, and far quicker to write as an int; this
+            //is what Float.toString() writes for them too, except for -0.0 and above 10^7.
+            if (value == (int) value && Math.abs(value) < 1e7f && Float.floatToRawIntBits(value) != 0x80000000) {
+                return rows_.append((int) value).append(".0");
+            }
+            return rows_.append(value);
+        }
+
+        /**
+         * This function writes the rows held so far to the shared output.
+         */
+        private void flush() {
+
+            synchronized (out_) {
+
+                try {
+
+                    out_.append(rows_);
+
+                } catch (IOException exception) {
+
+                    throw new UncheckedIOException(exception);
+                }
+            }
+            rows_.setLength(0);
+            mark_ = 0;
+        }
+    };
+
+
+
+    /**
+     * This class reads a file through a small buffer, refilling it as records
+     * are taken.
+     * @channel_, the open file.
+     * @buffer_, the buffer, with the bytes not taken yet between position and limit.
+     * @end_, where the body ends, before any checksum trailer.
+     * @read_, how many bytes of the file have been read into the buffer.
+     */
+    private static final class Input {
+
+        private final FileChannel channel_;
+        private final ByteBuffer buffer_;
+        private final long end_;
+        private long read_;
+
+        private Input(FileChannel channel, ByteBuffer buffer, long end) {
+
+            channel_ = channel;
+            buffer_ = buffer;
+            end_ = end;
+            read_ = 0;
+            buffer_.clear();
+            buffer_.limit(0);
+        }
+
+        /**
+         * This function makes sure a number of bytes can be taken from the buffer.
+         * @param bytes, at most the size of the buffer.
+         * @throws IOException if the file cannot be read.
+         * @throws MazeFormatException if the body ends first.
+         */
+        private void need(int bytes) throws IOException {
+
+            if (buffer_.remaining() >= bytes) {
+                return;
+            }
+            buffer_.compact();
+
+            while (buffer_.position() < bytes && read_ < end_) {
+
+                int from = buffer_.position();
+                buffer_.limit((int) Math.min(buffer_.capacity(), from + end_ - read_));
+
+                if (channel_.read(buffer_, read_) < 0) {
+                    break;
+                }
+                read_ += buffer_.position() - from;
+            }
+            buffer_.flip();
+
+            if (buffer_.remaining() < bytes) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, offset(),
+                        "file ends inside a record");
+            }
+        }
+
+        /**
+         * This is a getter for where the next byte to be taken is in the file.
+         * @return the file offset.
+         */
+        private long offset() {
+            return read_ - buffer_.remaining();
+        }
+
+        /**
+         * This is a getter for how many bytes of the body are not taken yet.
+         * @return the bytes left before the end of the body.
+         */
+        private long left() {
+            return end_ - offset();
+        }
+    };
+
+
+    /**
+     * This function reads from a position in a file until the buffer is full or
+     * the file ends, and flips it.
+     * @param channel, the open file.
+     * @param buffer, the buffer, cleared and with its limit set.
+     * @param position, where to read from.
+     * @throws IOException if the file cannot be read.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while (buffer.hasRemaining()) {
+
+            int read = channel.read(buffer, position);
+
+            if (read < 0) {
+                break;
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+
+    /**
+     * This function writes a string as a CSV field, quoted only if it has to be.
+     * @param line, where to write it.
+     * @param value, the string.
+     */
+    private static void csvQuote(StringBuilder line, String value) {
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0
+                && value.indexOf('\r') < 0) {
+
+            line.append(value);
+            return;
+        }
+        line.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+
+};
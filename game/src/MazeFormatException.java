@@ -0,0 +1,77 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.IOException;
+
+/**
+ * This is the error MazeParser throws when a file exists and can be read, but
+ * its contents are not a valid maze or save. A missing file is reported with
+ * the standard NoSuchFileException instead, so callers can tell the two apart.
+ * @reason_, which kind of problem was found.
+ * @offset_, the byte offset in the file at which the problem was found.
+ */
+public class MazeFormatException extends IOException {
+
+    /**
+     * The kinds of format problems that can be reported.
+     * BAD_MAGIC, the file does not start with a known magic number.
+     * TRUNCATED, the file ends before all of its declared records.
+     * MISSING_MAZE, a compact save points at a maze that is not in the MazeStore.
+     * BAD_VALUE, a field holds a value that cannot be right, such as a line
+     * pointing past the end of its endpoint table.
+     * TOO_LARGE, a count or size is over one of the limits MazeParser allows,
+     * even though the file may be long enough to hold it.
+     * BAD_CHECKSUM, the file has a checksum trailer that does not match its body.
+     */
+    public enum Reason {
+        BAD_MAGIC,
+        TRUNCATED,
+        MISSING_MAZE,
+        BAD_VALUE,
+        TOO_LARGE,
+        BAD_CHECKSUM
+    };
+
+    private final Reason reason_;
+    private final long offset_;
+
+    private static final long serialVersionUID = 1;
+
+
+    /**
+     * This constructor builds the message from the reason and offset.
+     * @param reason, the kind of problem found.
+     * @param offset, the byte offset of the problem.
+     * @param detail, a short description for the message.
+     */
+    public MazeFormatException(Reason reason, long offset, String detail) {
+
+        super(reason + " at offset " + offset + ": " + detail);
+        reason_ = reason;
+        offset_ = offset;
+    }
+
+
+    /**
+     * This is a getter for the kind of problem found.
+     * @return reason_.
+     */
+    public Reason getReason() {
+        return reason_;
+    }
+
+    /**
+     * This is a getter for where the problem was found.
+     * @return offset_, a byte offset from the start of the file.
+     */
+    public long getOffset() {
+        return offset_;
+    }
+
+};
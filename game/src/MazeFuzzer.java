@@ -0,0 +1,309 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * This is a command line tool that feeds MazeParser damaged files, to check it
+ * fails on them the way it should. Every file under the folders is read in as a
+ * seed, and each run picks a seed and damages a copy of it: bits are flipped,
+ * bytes and counts are overwritten with zero, huge or negative values, the end is
+ * cut off, or a stretch of bytes is repeated. Most copies that still end in a
+ * checksum trailer have it worked out again, so the damage gets past the checksum
+ * to the decoder. The copy is decoded with MazeParser.parse(ByteBuffer), and the
+ * lines of every tile are read back.
+ * A run fails if anything but a MazeFormatException is thrown, if it takes longer
+ * than --max-ms, or if the parsing thread allocates more than --max-bytes, which
+ * is per byte of the damaged file on top of a fixed allowance.
+ *
+ *     java MazeFuzzer [--runs n] [--seed n] [--max-ms n] [--max-bytes n] [--keep folder] folder...
+ *
+ * game/input and a folder made by MazeGenerator, with --saves, make a good set of
+ * seeds. Each failing file is written to the --keep folder, if there is one. The
+ * exit status is 1 if any run fails.
+ * @BASE_BYTES_, the allocation every run is allowed whatever the file's size.
+ * @MAX_REPORTED_, how many failures are printed before the rest are only counted.
+ */
+public class MazeFuzzer {
+
+    private static final long BASE_BYTES_ = 1024 * 1024;
+    private static final int MAX_REPORTED_ = 20;
+
+    private static final com.sun.management.ThreadMXBean THREADS_ =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int runs = 100000;
+        long seed = 1;
+        long maxMillis = 250;
+        long maxBytesPerByte = 64;
+        Path keep = null;
+        List<Path> roots = new ArrayList<Path>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--runs".equals(args[i]) && i + 1 < args.length) {
+
+                runs = Integer.parseInt(args[++i]);
+
+            } else if ("--seed".equals(args[i]) && i + 1 < args.length) {
+
+                seed = Long.parseLong(args[++i]);
+
+            } else if ("--max-ms".equals(args[i]) && i + 1 < args.length) {
+
+                maxMillis = Long.parseLong(args[++i]);
+
+            } else if ("--max-bytes".equals(args[i]) && i + 1 < args.length) {
+
+                maxBytesPerByte = Long.parseLong(args[++i]);
+
+            } else if ("--keep".equals(args[i]) && i + 1 < args.length) {
+
+                keep = Paths.get(args[++i]);
+
+            } else {
+
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty() || runs < 1 || maxMillis < 1 || maxBytesPerByte < 1) {
+
+            System.err.println("usage: java MazeFuzzer [--runs n] [--seed n] [--max-ms n] [--max-bytes n]"
+                    + " [--keep folder] folder...");
+            System.exit(2);
+        }
+
+        List<byte[]> seeds = readSeeds(roots);
+
+        if (seeds.isEmpty()) {
+
+            System.err.println("no files to start from");
+            System.exit(2);
+        }
+        if (keep != null) {
+            Files.createDirectories(keep);
+        }
+
+        //Runs go through another thread, so one that never ends can be given up on.
+        ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+
+                Thread thread = new Thread(runnable, "fuzz");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        SplittableRandom random = new SplittableRandom(seed);
+        int failures = 0;
+        int rejected = 0;
+        long start = System.nanoTime();
+
+        for (int run = 0; run < runs; run++) {
+
+            byte[] input = mutate(seeds.get(random.nextInt(seeds.size())), random);
+            long maxBytes = BASE_BYTES_ + maxBytesPerByte * input.length;
+            Future<Object[]> future = worker.submit(new Callable<Object[]>() {
+
+                @Override
+                public Object[] call() {
+                    return decode(input);
+                }
+            });
+            String failure;
+
+            try {
+
+                Object[] result = future.get(maxMillis, TimeUnit.MILLISECONDS);
+                Throwable thrown = (Throwable) result[0];
+                long allocated = (Long) result[1];
+
+                if (thrown instanceof MazeFormatException) {
+                    rejected++;
+                }
+                if (thrown != null && !(thrown instanceof MazeFormatException)) {
+
+                    failure = thrown.toString();
+
+                } else if (allocated > maxBytes) {
+
+                    failure = "allocated " + allocated + " bytes, more than " + maxBytes;
+
+                } else {
+
+                    failure = null;
+                }
+
+            } catch (TimeoutException exception) {
+
+                failure = "took more than " + maxMillis + " ms";
+
+            } catch (ExecutionException exception) {
+
+                failure = exception.getCause().toString();
+            }
+
+            if (failure == null) {
+                continue;
+            }
+            failures++;
+
+            if (failures <= MAX_REPORTED_) {
+                System.out.println("run " + run + ", " + input.length + " bytes: " + failure);
+            }
+            if (keep != null) {
+                Files.write(keep.resolve("fuzz-" + seed + "-" + run + ".bin"), input);
+            }
+
+            //A run that is still going cannot be stopped, so the rest go to a new thread.
+            if (!future.isDone()) {
+
+                System.out.println("stopping after a run that did not end");
+                break;
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d runs from %d seeds, %d rejected, %d failed, %.0f runs per second%n", runs,
+                seeds.size(), rejected, failures, runs / (elapsed / 1e9));
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+
+    /**
+     * This function reads every file under the folders.
+     * @param roots, the folders.
+     * @return the contents of each file that is not empty.
+     * @throws IOException if a folder cannot be walked.
+     */
+    private static List<byte[]> readSeeds(List<Path> roots) throws IOException {
+
+        List<byte[]> seeds = new ArrayList<byte[]>();
+
+        for (Path root : roots) {
+
+            try (
+                    Stream<Path> paths = Files.walk(root);
+            ) {
+
+                Iterator<Path> iterator = paths.iterator();
+
+                while (iterator.hasNext()) {
+
+                    Path path = iterator.next();
+
+                    if (Files.isRegularFile(path) && Files.size(path) > 0) {
+                        seeds.add(Files.readAllBytes(path));
+                    }
+                }
+            }
+        }
+        return seeds;
+    }
+
+
+    /**
+     * This function damages a copy of a seed, one to four times over, and mostly
+     * gives it a checksum that matches the damage.
+     * @param seed, the file to start from, which is not changed.
+     * @param random, where the damage comes from.
+     * @return the damaged copy.
+     */
+    private static byte[] mutate(byte[] seed, SplittableRandom random) {
+
+        byte[] input = seed.clone();
+        int times = 1 + random.nextInt(4);
+
+        for (int i = 0; i < times && input.length > 0; i++) {
+
+            int at = random.nextInt(input.length);
+
+            switch (random.nextInt(6)) {
+
+            case 0:
+                input[at] ^= 1 << random.nextInt(8);
+                break;
+
+            case 1:
+                input[at] = (byte) random.nextInt(256);
+                break;
+
+            case 2:
+                //A count or length that is zero, just past a limit, negative or huge.
+                int[] values = {0, 1, -1, 16, 17, 1025, 65537, 0x7FFFFFFF, 0x80000000, random.nextInt()};
+
+                if (input.length >= 4) {
+                    ByteBuffer.wrap(input).putInt(Math.min(at, input.length - 4), values[random.nextInt(values.length)]);
+                }
+                break;
+
+            case 3:
+                input = Arrays.copyOf(input, at);
+                break;
+
+            case 4:
+                int length = Math.min(1 + random.nextInt(64), input.length - at);
+                byte[] longer = new byte[input.length + length];
+                System.arraycopy(input, 0, longer, 0, at + length);
+                System.arraycopy(input, at, longer, at + length, input.length - at);
+                input = longer;
+                break;
+
+            default:
+                input[at] = (byte) (random.nextBoolean() ? 0 : 0xFF);
+                break;
+            }
+        }
+
+        //Most damage would only ever reach the checksum, so most copies get a new one.
+        int end = input.length - MazeParser.TRAILER_BYTES_;
+
+        if (end >= 4 && random.nextInt(4) != 0 && ByteBuffer.wrap(input).getInt(end + 4) == MazeParser.TRAILER_MAGIC_) {
+            ByteBuffer.wrap(input).putInt(end, MazeParser.checksum(ByteBuffer.wrap(input), 0, end));
+        }
+        return input;
+    }
+
+
+    /**
+     * This function decodes a damaged file, and reads back every line, counting
+     * what the current thread allocates along the way.
+     * @param input, the damaged file.
+     * @return what was thrown, or null, and how many bytes were allocated.
+     */
+    private static Object[] decode(byte[] input) {
+
+        long threadId = Thread.currentThread().getId();
+        long before = THREADS_.getThreadAllocatedBytes(threadId);
+        Throwable thrown = null;
+
+        try {
+
+            MazeModel model = MazeParser.parse(ByteBuffer.wrap(input));
+
+            for (int tile = 0; tile < model.getTileCount(); tile++) {
+                model.getLines(tile);
+            }
+
+        } catch (Throwable throwable) {
+
+            thrown = throwable;
+        }
+        return new Object[] {thrown, THREADS_.getThreadAllocatedBytes(threadId) - before};
+    }
+};
@@ -0,0 +1,692 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * This is a command line tool that writes a folder of made up CAFEBEEF mazes and
+ * CAFEDEED saves, for testing the parser and the board at sizes the files in
+ * game/input never reach. The number of tiles, the number of lines on each tile and
+ * the range of the coordinates are each given as a range, lo..hi, picked from
+ * evenly, or lo..hi:log to pick from it on a log scale, so small values are common
+ * and large ones still show up. The lines on a tile follow a layout:
+ *
+ *     random, ends anywhere in the coordinate range
+ *     grid, walls along a lattice with a 10 pixel step, like a real maze
+ *     spokes, every line through the centre of the tile, so they all overlap
+ *     degenerate, zero length lines, lines along the edges and at the very ends
+ *     of the range
+ *
+ * Every file is made from the seed and its own number alone, so the same seed
+ * always writes the same folder, whatever the number of threads. Files are
+ * written in parallel, and each one is streamed out through a small buffer owned
+ * by its thread, so no file is ever held in memory whole, however large it is.
+ * Files end in a checksum trailer, unless -Djmaze.checksum=off is given.
+ * With --corrupt, that fraction of the files are broken in one of the ways in
+ * Damage, and are named after it. Apart from DAMAGED, the checksum is taken
+ * after the damage, as if a faulty program had written the file, so the parser
+ * has to find the problem itself. A line for each damaged file is printed, with
+ * the offset of the damage. A count that is one off can still make a valid file,
+ * when the bytes it runs into happen to line up, so every damaged file is parsed
+ * again once it is written, and one that still parses is named as a good file.
+ * NOT_A_NUMBER files always parse, MazeParser does not look at coordinates, but
+ * always hold the NaN or infinity.
+ *
+ *     java MazeGenerator --out folder [--count 1000] [--seed 1] [--threads n]
+ *             [--tiles 16] [--lines 1..12] [--coords 0..100] [--layout random]
+ *             [--saves 0.0] [--corrupt 0.0]
+ *
+ * Tile and line counts above -Djmaze.maxTiles and -Djmaze.maxLines are written,
+ * but the same flags must be given to read them back.
+ * @BUFFER_BYTES_, the size of the buffer each thread streams through.
+ * @QUEUE_PER_THREAD_, how many files may wait per thread before the main thread
+ * waits for the writers to catch up.
+ * @GRID_STEP_, the lattice step of the grid layout.
+ * @CHECKSUMS_, whether files are written with a checksum trailer.
+ * @tiles_, @lines_, @coords_, the ranges counts and coordinates are picked from.
+ * @layout_, how the lines on a tile are laid out.
+ * @saves_, the fraction of files that are saves.
+ * @corrupt_, the fraction of files that are damaged.
+ * @seed_, the seed every file is made from.
+ * @out_, the folder to write to.
+ */
+public class MazeGenerator {
+
+    private static final int BUFFER_BYTES_ = 1 << 16;
+    private static final int QUEUE_PER_THREAD_ = 64;
+    private static final float GRID_STEP_ = 10;
+    private static final boolean CHECKSUMS_ = !"off".equals(System.getProperty("jmaze.checksum"));
+
+    private final Range tiles_;
+    private final Range lines_;
+    private final Range coords_;
+    private final Layout layout_;
+    private final double saves_;
+    private final double corrupt_;
+    private final long seed_;
+    private final Path out_;
+
+    /**
+     * The ways the lines on a tile can be laid out.
+     */
+    enum Layout { RANDOM, GRID, SPOKES, DEGENERATE };
+
+    /**
+     * The ways a file can be damaged.
+     */
+    enum Damage { BAD_MAGIC, BAD_TILE_COUNT, BAD_LINE_COUNT, NOT_A_NUMBER, TRUNCATED, TRAILING_BYTES, DAMAGED };
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int count = 1000;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String out = null;
+        String tiles = "16";
+        String lines = "1..12";
+        String coords = "0..100";
+        String layout = "random";
+        double saves = 0;
+        double corrupt = 0;
+
+        MazeGenerator generator = null;
+
+        try {
+
+            for (int i = 0; i + 1 < args.length; i += 2) {
+
+                String option = args[i];
+                String value = args[i + 1];
+
+                if ("--out".equals(option)) {
+
+                    out = value;
+
+                } else if ("--count".equals(option)) {
+
+                    count = Integer.parseInt(value);
+
+                } else if ("--seed".equals(option)) {
+
+                    seed = Long.parseLong(value);
+
+                } else if ("--threads".equals(option)) {
+
+                    threads = Integer.parseInt(value);
+
+                } else if ("--tiles".equals(option)) {
+
+                    tiles = value;
+
+                } else if ("--lines".equals(option)) {
+
+                    lines = value;
+
+                } else if ("--coords".equals(option)) {
+
+                    coords = value;
+
+                } else if ("--layout".equals(option)) {
+
+                    layout = value;
+
+                } else if ("--saves".equals(option)) {
+
+                    saves = Double.parseDouble(value);
+
+                } else if ("--corrupt".equals(option)) {
+
+                    corrupt = Double.parseDouble(value);
+
+                } else {
+
+                    throw new IllegalArgumentException("unknown option " + option);
+                }
+            }
+            if (out == null || args.length % 2 != 0 || count < 0 || threads < 1) {
+                throw new IllegalArgumentException("missing options");
+            }
+            generator = new MazeGenerator(Range.parse(tiles), Range.parse(lines), Range.parse(coords),
+                    Layout.valueOf(layout.toUpperCase(Locale.ROOT)), saves, corrupt, seed, Paths.get(out));
+
+        } catch (IllegalArgumentException exception) {
+
+            System.err.println("usage: java MazeGenerator --out folder [--count 1000] [--seed 1] [--threads n]\n"
+                    + "        [--tiles 16] [--lines 1..12] [--coords 0..100] [--layout random|grid|spokes|degenerate]\n"
+                    + "        [--saves 0.0] [--corrupt 0.0]");
+            System.exit(2);
+            return;
+        }
+
+        Files.createDirectories(generator.out_);
+        MazeGenerator writer = generator;
+
+        AtomicLong bytes = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ThreadLocal<ByteBuffer> buffers = new ThreadLocal<ByteBuffer>() {
+
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocateDirect(BUFFER_BYTES_);
+            }
+        };
+
+        //A full queue makes the main thread write files itself, which keeps the queue short.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD_), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+
+        for (int i = 0; i < count; i++) {
+
+            int index = i;
+            pool.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+
+                        bytes.addAndGet(writer.write(index, buffers.get()));
+
+                    } catch (IOException exception) {
+
+                        System.err.println("failed file " + index + ": " + exception.getMessage());
+                        failed.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d files written, %d bytes, %.0f files and %.1f MB per second%n", count - failed.get(),
+                bytes.get(), (count - failed.get()) / Math.max(seconds, 1e-9),
+                bytes.get() / 1e6 / Math.max(seconds, 1e-9));
+        System.exit(failed.get() == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * This constructor holds the settings every file is made with.
+     * @param tiles, the range of tile counts.
+     * @param lines, the range of line counts per tile.
+     * @param coords, the range of coordinates.
+     * @param layout, how lines are laid out.
+     * @param saves, the fraction of files that are saves.
+     * @param corrupt, the fraction of files that are damaged.
+     * @param seed, the seed every file is made from.
+     * @param out, the folder to write to.
+     */
+    private MazeGenerator(Range tiles, Range lines, Range coords, Layout layout, double saves, double corrupt,
+            long seed, Path out) {
+
+        tiles_ = tiles;
+        lines_ = lines;
+        coords_ = coords;
+        layout_ = layout;
+        saves_ = saves;
+        corrupt_ = corrupt;
+        seed_ = seed;
+        out_ = out;
+    }
+
+
+    /**
+     * This function makes and writes one file. The tile and line counts are
+     * picked first, so the size of the file, and where any damage goes, is known
+     * before the first byte is written.
+     * @param index, the number of the file.
+     * @param buffer, this thread's stream buffer.
+     * @return the number of bytes written.
+     * @throws IOException if the file cannot be written.
+     */
+    private long write(int index, ByteBuffer buffer) throws IOException {
+
+        SplittableRandom random = new SplittableRandom(seed_ * 0x9E3779B97F4A7C15L + index);
+        boolean save = random.nextDouble() < saves_;
+        Damage damage = random.nextDouble() < corrupt_ ? Damage.values()[random.nextInt(Damage.values().length)] : null;
+        int tileCount = tiles_.pick(random);
+        int[] lineCounts = new int[tileCount];
+        long size = MazeWriter.HEADER_BYTES_;
+
+        for (int i = 0; i < tileCount; i++) {
+
+            lineCounts[i] = lines_.pick(random);
+            size += MazeWriter.RECORD_BYTES_ + (long) lineCounts[i] * MazeWriter.LINE_BYTES_;
+        }
+
+        //Saves put their pieces in distinct spots, on a board with two spots per piece.
+        int[] positions = new int[save ? 2 * tileCount : 0];
+
+        for (int i = 0; i < positions.length; i++) {
+
+            int swap = random.nextInt(i + 1);
+            positions[i] = positions[swap];
+            positions[swap] = i;
+        }
+
+        long damageAt = -1;
+        int badTile = tileCount == 0 ? -1 : random.nextInt(tileCount);
+
+        //A tile with no lines has no coordinate to break, and a maze with no tiles no line count.
+        if (damage == Damage.NOT_A_NUMBER && (badTile < 0 || lineCounts[badTile] == 0)) {
+            damage = Damage.BAD_LINE_COUNT;
+        }
+        if (damage == Damage.BAD_LINE_COUNT && badTile < 0) {
+            damage = Damage.BAD_TILE_COUNT;
+        }
+        if (damage == Damage.TRUNCATED || damage == Damage.DAMAGED) {
+            damageAt = 4 + random.nextLong(Math.max(1, size - 4));
+        }
+
+        String goodName = (save ? "save-" : "maze-") + String.format("%08d", index) + ".mze";
+        String name = damage == null ? goodName
+                : "bad-" + String.format("%08d", index) + "-" + damage.name().toLowerCase(Locale.ROOT) + ".mze";
+        Path path = out_.resolve(name);
+        long written;
+
+        try (
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        ) {
+
+            Sink sink = new Sink(channel, buffer, damage == Damage.TRUNCATED ? damageAt : -1,
+                    damage == Damage.DAMAGED ? damageAt : -1);
+
+            sink.putInt(damage == Damage.BAD_MAGIC ? 0xCAFEBABE : save ? MazeParser.SAVE_MAGIC_ : MazeParser.MAZE_MAGIC_);
+            sink.putInt(damage == Damage.BAD_TILE_COUNT ? badCount(random, tileCount) : tileCount);
+            sink.putLong(save ? random.nextLong(1, 1L << 32) : 0);
+
+            float[] line = new float[4];
+
+            for (int i = 0; i < tileCount; i++) {
+
+                boolean bad = i == badTile;
+                sink.putInt(save ? positions[i] : i);
+                sink.putInt(save ? random.nextInt(4) : i);
+                sink.putInt(bad && damage == Damage.BAD_LINE_COUNT ? badCount(random, lineCounts[i]) : lineCounts[i]);
+
+                int nanAt = bad && damage == Damage.NOT_A_NUMBER ? random.nextInt(lineCounts[i] * 4) : -1;
+
+                for (int j = 0; j < lineCounts[i]; j++) {
+
+                    layLine(random, line);
+
+                    for (int k = 0; k < 4; k++) {
+
+                        sink.putFloat(4 * j + k == nanAt ? (random.nextBoolean() ? Float.NaN : Float.POSITIVE_INFINITY)
+                                : line[k]);
+                    }
+                }
+            }
+            if (damage == Damage.TRAILING_BYTES) {
+
+                damageAt = sink.getOffset();
+
+                for (int i = 1 + random.nextInt(64); i > 0; i--) {
+
+                    sink.putByte((byte) random.nextInt());
+                }
+            }
+            if (damage == Damage.BAD_MAGIC) {
+                damageAt = 0;
+            } else if (damage == Damage.BAD_TILE_COUNT) {
+                damageAt = 4;
+            } else if (damage == Damage.BAD_LINE_COUNT || damage == Damage.NOT_A_NUMBER) {
+                damageAt = badTile;
+            }
+            written = sink.finish(CHECKSUMS_);
+        }
+
+        if (damage != null && damage != Damage.NOT_A_NUMBER && parses(path)) {
+
+            //The damage did not break it, so it is not labelled bad.
+            Files.move(path, out_.resolve(goodName), StandardCopyOption.REPLACE_EXISTING);
+
+        } else if (damage != null) {
+
+            synchronized (System.out) {
+
+                System.out.println("corrupt " + name + ": " + damage
+                        + (damage == Damage.BAD_LINE_COUNT || damage == Damage.NOT_A_NUMBER ? " in tile " : " at offset ")
+                        + damageAt);
+            }
+        }
+        return written;
+    }
+
+
+    /**
+     * This is a check for whether a written file reads back as a valid maze or save.
+     * @param path, the file.
+     * @return true if MazeParser accepts it.
+     */
+    private static boolean parses(Path path) {
+
+        try {
+
+            MazeParser.parse(path.toFile());
+            return true;
+
+        } catch (IOException exception) {
+
+            return false;
+        }
+    }
+
+
+    /**
+     * This function picks a count that is wrong for the file, either slightly
+     * or wildly.
+     * @param random, the file's random numbers.
+     * @param count, the right count.
+     * @return a different count.
+     */
+    private static int badCount(SplittableRandom random, int count) {
+
+        switch (random.nextInt(4)) {
+
+            case 0: return -1 - random.nextInt(1 << 20);
+            case 1: return Integer.MAX_VALUE - random.nextInt(16);
+            case 2: return count + 1;
+            default: return count == 0 ? 1 : count - 1;
+        }
+    }
+
+
+    /**
+     * This function makes up one line, following the layout.
+     * @param random, the file's random numbers.
+     * @param line, filled with x1, y1, x2 and y2.
+     */
+    private void layLine(SplittableRandom random, float[] line) {
+
+        float low = (float) coords_.low_;
+        float high = (float) coords_.high_;
+
+        switch (layout_) {
+
+            case GRID: {
+
+                int steps = Math.max(1, (int) ((high - low) / GRID_STEP_));
+                float x = low + GRID_STEP_ * random.nextInt(steps + 1);
+                float y = low + GRID_STEP_ * random.nextInt(steps + 1);
+                float length = GRID_STEP_ * (1 + random.nextInt(Math.max(1, steps / 2)));
+                boolean across = random.nextBoolean();
+                line[0] = x;
+                line[1] = y;
+                line[2] = across ? Math.min(high, x + length) : x;
+                line[3] = across ? y : Math.min(high, y + length);
+                break;
+            }
+            case SPOKES: {
+
+                float centre = (low + high) / 2;
+                float x = coords_.pickFloat(random);
+                float y = coords_.pickFloat(random);
+                line[0] = x;
+                line[1] = y;
+                line[2] = 2 * centre - x;
+                line[3] = 2 * centre - y;
+                break;
+            }
+            case DEGENERATE: {
+
+                float[] edges = {low, high, Math.nextUp(low), Math.nextDown(high), (low + high) / 2};
+
+                for (int k = 0; k < 4; k++) {
+
+                    line[k] = edges[random.nextInt(edges.length)];
+                }
+                //A third of the lines have no length at all.
+                if (random.nextInt(3) == 0) {
+
+                    line[2] = line[0];
+                    line[3] = line[1];
+                }
+                break;
+            }
+            default: {
+
+                for (int k = 0; k < 4; k++) {
+
+                    line[k] = coords_.pickFloat(random);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * A range of values, picked from evenly, or on a log scale.
+     * @low_, the smallest value.
+     * @high_, the largest value.
+     * @log_, whether values are picked on a log scale.
+     */
+    private static final class Range {
+
+        private final double low_;
+        private final double high_;
+        private final boolean log_;
+
+        private Range(double low, double high, boolean log) {
+
+            low_ = low;
+            high_ = high;
+            log_ = log;
+        }
+
+        /**
+         * This function reads a range from the command line.
+         * @param text, a single value, lo..hi, or lo..hi:log.
+         * @return the range.
+         * @throws IllegalArgumentException if it cannot be read.
+         */
+        static Range parse(String text) {
+
+            boolean log = text.endsWith(":log");
+            String bounds = log ? text.substring(0, text.length() - 4) : text;
+            int dots = bounds.indexOf("..");
+            double low = Double.parseDouble(dots < 0 ? bounds : bounds.substring(0, dots));
+            double high = dots < 0 ? low : Double.parseDouble(bounds.substring(dots + 2));
+
+            if (!(low <= high) || (log && low < 0)) {
+                throw new IllegalArgumentException("bad range " + text);
+            }
+            return new Range(low, high, log);
+        }
+
+        /**
+         * This function picks a whole number from the range.
+         * @param random, the random numbers to use.
+         * @return a value from low_ to high_.
+         */
+        int pick(SplittableRandom random) {
+
+            if (log_) {
+
+                //The log of 1 + value is picked evenly, so 0 can still be picked.
+                double value = Math.expm1(Math.log1p(low_) + random.nextDouble() * (Math.log1p(high_) - Math.log1p(low_)));
+                return (int) Math.min(high_, Math.max(low_, Math.round(value)));
+            }
+            return (int) low_ + random.nextInt((int) (high_ - low_) + 1);
+        }
+
+        /**
+         * This function picks a coordinate from the range.
+         * @param random, the random numbers to use.
+         * @return a value from low_ to high_.
+         */
+        float pickFloat(SplittableRandom random) {
+
+            return (float) (low_ + random.nextDouble() * (high_ - low_));
+        }
+    };
+
+
+    /**
+     * A file being written through a small buffer. The checksum is kept up as
+     * the buffer is flushed, so the trailer can be written without reading the
+     * file back. The stream can be cut off at an offset, or have one byte flipped
+     * after the checksum has been taken.
+     * @channel_, the file.
+     * @buffer_, this thread's stream buffer.
+     * @crc_, the checksum of everything flushed so far.
+     * @flushed_, the number of bytes flushed so far.
+     * @cutAt_, where the file ends early, or -1.
+     * @flipAt_, which byte is flipped after the checksum, or -1.
+     */
+    private static final class Sink {
+
+        private final FileChannel channel_;
+        private final ByteBuffer buffer_;
+        private final CRC32C crc_ = new CRC32C();
+        private long flushed_ = 0;
+        private final long cutAt_;
+        private final long flipAt_;
+
+        private Sink(FileChannel channel, ByteBuffer buffer, long cutAt, long flipAt) {
+
+            channel_ = channel;
+            buffer_ = buffer;
+            cutAt_ = cutAt;
+            flipAt_ = flipAt;
+            buffer_.clear();
+        }
+
+        /**
+         * This function streams out one byte.
+         * @param value, the value.
+         * @throws IOException if the file cannot be written.
+         */
+        void putByte(byte value) throws IOException {
+
+            room(1);
+            buffer_.put(value);
+        }
+
+        /**
+         * This function streams out one int.
+         * @param value, the value.
+         * @throws IOException if the file cannot be written.
+         */
+        void putInt(int value) throws IOException {
+
+            room(4);
+            buffer_.putInt(value);
+        }
+
+        /**
+         * This function streams out one long.
+         * @param value, the value.
+         * @throws IOException if the file cannot be written.
+         */
+        void putLong(long value) throws IOException {
+
+            room(8);
+            buffer_.putLong(value);
+        }
+
+        /**
+         * This function streams out one float.
+         * @param value, the value.
+         * @throws IOException if the file cannot be written.
+         */
+        void putFloat(float value) throws IOException {
+
+            room(4);
+            buffer_.putFloat(value);
+        }
+
+        /**
+         * This is a getter for the offset the next byte will be written at.
+         * @return the offset.
+         */
+        long getOffset() {
+            return flushed_ + buffer_.position();
+        }
+
+        /**
+         * This function flushes the buffer, and ends the file with its trailer
+         * unless it was cut off.
+         * @param checksum, whether to write the trailer.
+         * @return the size of the file.
+         * @throws IOException if the file cannot be written.
+         */
+        long finish(boolean checksum) throws IOException {
+
+            flush();
+
+            if (checksum && cutAt_ < 0) {
+
+                buffer_.putInt((int) crc_.getValue());
+                buffer_.putInt(MazeParser.TRAILER_MAGIC_);
+                buffer_.flip();
+
+                while (buffer_.hasRemaining()) {
+
+                    channel_.write(buffer_);
+                }
+                flushed_ += MazeParser.TRAILER_BYTES_;
+                buffer_.clear();
+            }
+            return cutAt_ < 0 ? flushed_ : Math.min(flushed_, cutAt_);
+        }
+
+        /**
+         * This function makes room in the buffer, flushing it if it is full.
+         * @param bytes, the number of bytes about to be put.
+         * @throws IOException if the file cannot be written.
+         */
+        private void room(int bytes) throws IOException {
+
+            if (buffer_.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        /**
+         * This function writes out what is in the buffer, after updating the
+         * checksum, cutting it off and flipping a byte as asked.
+         * @throws IOException if the file cannot be written.
+         */
+        private void flush() throws IOException {
+
+            buffer_.flip();
+            long end = flushed_ + buffer_.limit();
+
+            if (cutAt_ >= 0 && end > cutAt_) {
+                buffer_.limit((int) Math.max(0, cutAt_ - flushed_));
+            }
+            crc_.update(buffer_.duplicate());
+
+            if (flipAt_ >= flushed_ && flipAt_ < flushed_ + buffer_.limit()) {
+
+                int at = (int) (flipAt_ - flushed_);
+                buffer_.put(at, (byte) ~buffer_.get(at));
+            }
+            while (buffer_.hasRemaining()) {
+
+                channel_.write(buffer_);
+            }
+            flushed_ = end;
+            buffer_.clear();
+        }
+    };
+
+};
@@ -0,0 +1,407 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.util.*;
+
+/**
+ * This class finds mazes that share tiles, or are copies of each other, by the
+ * shape of their lines rather than by the bytes of their files.
+ * Every tile gets a hash of its lines that does not change when the tile is
+ * turned by a quarter, the way Content turns a piece. Coordinates are snapped to
+ * a grid of HASH_STEPS_ steps per pixel, both ends of every line are put in order,
+ * the lines are sorted, and the result is hashed. This is done for all four
+ * rotations, and the smallest hash is kept. Two tiles with the same lines, drawn
+ * in any order, in either direction, and at any rotation, get the same hash.
+ * A maze gets a fingerprint from the sorted hashes of its tiles, so it does not
+ * change with the order the tiles are stored in either. A maze that has been
+ * turned as a whole, or had its tiles shuffled and turned, has the same
+ * fingerprint as the original.
+ * The index maps every tile hash, and every fingerprint, to the mazes that have
+ * it, so finding the mazes with a given tile, or the copies of a maze, is a single
+ * map access. Finding near copies only looks at the mazes that share at least one
+ * tile with the one asked about.
+ * Keys are whatever the caller uses to name a maze, such as a path.
+ * @TILE_SIZE_, the width and height of a tile, the size rotations turn around.
+ * @HASH_STEPS_, the number of grid steps per pixel coordinates are snapped to.
+ * @tiles_, the tile hashes of every maze, by key.
+ * @postings_, from tile hash to the keys of every maze with that tile.
+ * @copies_, from fingerprint to the keys of every maze with that fingerprint.
+ */
+public class MazeIndex {
+
+    private static final int TILE_SIZE_ = 100;
+    private static final int HASH_STEPS_ = 16;
+
+    private final Map<String, long[]> tiles_ = new HashMap<String, long[]>();
+    private final Map<Long, Set<String>> postings_ = new HashMap<Long, Set<String>>();
+    private final Map<Long, Set<String>> copies_ = new HashMap<Long, Set<String>>();
+
+
+    /**
+     * This function hashes the lines of one tile, the same way at every rotation.
+     * @param lines, the lines of the tile, as drawn with no rotation.
+     * @return the smallest hash over the four rotations.
+     */
+    public static long tileHash(Line2D[] lines) {
+
+        return tileHash(new TileGeometry(new Line2D[][] {lines}), 0);
+    }
+
+
+    /**
+     * This function hashes the lines of one tile straight from packed lines.
+     * @param geometry, the packed lines.
+     * @param tile, the index of the tile.
+     * @return the smallest hash over the four rotations.
+     */
+    static long tileHash(TileGeometry geometry, int tile) {
+
+        return tileHash(geometry.getCoords(tile), geometry.getStart(tile) * TileGeometry.LINE_FLOATS_,
+                geometry.getLineCount(tile));
+    }
+
+
+    /**
+     * This function hashes the lines of one tile, packed four floats a line.
+     * @param coords, the packed lines.
+     * @param from, where x0 of the first line of the tile is.
+     * @param lineCount, the number of lines of the tile.
+     * @return the smallest hash over the four rotations.
+     */
+    static long tileHash(float[] coords, int from, int lineCount) {
+
+        long[] points = new long[lineCount];
+        long smallest = Long.MAX_VALUE;
+
+        for (int turns = 0; turns < 4; turns++) {
+
+            for (int i = 0; i < points.length; i++) {
+
+                int at = from + i * TileGeometry.LINE_FLOATS_;
+                long start = snap(coords[at], coords[at + 1], turns);
+                long end = snap(coords[at + 2], coords[at + 3], turns);
+
+                //Lines are stored from their smaller end, so direction does not count.
+                points[i] = start <= end ? (start << 32) | end : (end << 32) | start;
+            }
+            Arrays.sort(points);
+
+            long hash = mix(points.length);
+
+            for (long point : points) {
+
+                hash = mix(hash ^ point);
+            }
+            smallest = Math.min(smallest, hash);
+        }
+        return smallest;
+    }
+
+
+    /**
+     * This function hashes every tile of a maze.
+     * @param maze, the maze, whose lines are all decoded.
+     * @return the hash of each tile, in file order.
+     */
+    public static long[] tileHashes(MazeModel maze) {
+
+        long[] hashes = new long[maze.getTileCount()];
+        TileGeometry geometry = maze.getGeometry();
+
+        for (int i = 0; i < hashes.length; i++) {
+
+            hashes[i] = tileHash(geometry, i);
+        }
+        return hashes;
+    }
+
+
+    /**
+     * This function hashes every tile of a maze held off the heap, reading each
+     * tile's lines into one reused array.
+     * @param store, the store.
+     * @param maze, the handle of the maze in it.
+     * @return the hash of each tile, in file order.
+     */
+    public static long[] tileHashes(GeometryStore store, int maze) {
+
+        long[] hashes = new long[store.getTileCount(maze)];
+        float[] coords = new float[64];
+
+        for (int i = 0; i < hashes.length; i++) {
+
+            int lineCount = store.getLineCount(maze, i);
+
+            if (coords.length < lineCount * TileGeometry.LINE_FLOATS_) {
+                coords = new float[lineCount * TileGeometry.LINE_FLOATS_];
+            }
+            store.getCoords(maze, i, coords, 0);
+            hashes[i] = tileHash(coords, 0, lineCount);
+        }
+        return hashes;
+    }
+
+
+    /**
+     * This function builds the fingerprint of a maze from the hashes of its tiles.
+     * @param tileHashes, the hash of each tile, in any order.
+     * @return the fingerprint.
+     */
+    public static long fingerprint(long[] tileHashes) {
+
+        long[] sorted = tileHashes.clone();
+        Arrays.sort(sorted);
+
+        long hash = mix(~sorted.length);
+
+        for (long tile : sorted) {
+
+            hash = mix(hash ^ tile);
+        }
+        return hash;
+    }
+
+
+    /**
+     * This function adds a maze to the index, or replaces it if the key is
+     * already there.
+     * @param key, the name of the maze.
+     * @param tileHashes, the hash of each of its tiles.
+     */
+    public synchronized void add(String key, long[] tileHashes) {
+
+        remove(key);
+        tiles_.put(key, tileHashes.clone());
+
+        for (long tile : tileHashes) {
+
+            postings(postings_, tile).add(key);
+        }
+        postings(copies_, fingerprint(tileHashes)).add(key);
+    }
+
+
+    /**
+     * This function drops a maze from the index.
+     * @param key, the name of the maze.
+     */
+    public synchronized void remove(String key) {
+
+        long[] tileHashes = tiles_.remove(key);
+
+        if (tileHashes == null) {
+            return;
+        }
+        for (long tile : tileHashes) {
+
+            drop(postings_, tile, key);
+        }
+        drop(copies_, fingerprint(tileHashes), key);
+    }
+
+
+    /**
+     * This function drops every maze from the index.
+     */
+    public synchronized void clear() {
+
+        tiles_.clear();
+        postings_.clear();
+        copies_.clear();
+    }
+
+
+    /**
+     * This function finds every maze with a given tile, at any rotation.
+     * @param tileHash, the hash of the tile, from tileHash().
+     * @return the keys of those mazes.
+     */
+    public synchronized Set<String> withTile(long tileHash) {
+
+        Set<String> keys = postings_.get(tileHash);
+        return keys == null ? new HashSet<String>() : new HashSet<String>(keys);
+    }
+
+
+    /**
+     * This function finds every maze with a given fingerprint.
+     * @param fingerprint, the fingerprint, from fingerprint().
+     * @return the keys of those mazes.
+     */
+    public synchronized Set<String> withFingerprint(long fingerprint) {
+
+        Set<String> keys = copies_.get(fingerprint);
+        return keys == null ? new HashSet<String>() : new HashSet<String>(keys);
+    }
+
+
+    /**
+     * This function finds the other mazes in the index with the same tiles as
+     * a maze in the index.
+     * @param key, the name of the maze.
+     * @return the keys of its copies, without key itself.
+     */
+    public synchronized Set<String> copiesOf(String key) {
+
+        long[] tileHashes = tiles_.get(key);
+
+        if (tileHashes == null) {
+            return new HashSet<String>();
+        }
+
+        Set<String> copies = withFingerprint(fingerprint(tileHashes));
+        copies.remove(key);
+        return copies;
+    }
+
+
+    /**
+     * This function finds the other mazes in the index that share at least a
+     * given number of distinct tiles with a maze in the index.
+     * @param key, the name of the maze.
+     * @param minShared, the fewest distinct tiles a maze must share to count.
+     * @return the number of distinct tiles shared, by key, without key itself.
+     */
+    public synchronized Map<String, Integer> similarTo(String key, int minShared) {
+
+        long[] tileHashes = tiles_.get(key);
+        Map<String, Integer> shared = new HashMap<String, Integer>();
+
+        if (tileHashes == null) {
+            return shared;
+        }
+
+        Set<Long> distinct = new HashSet<Long>();
+
+        for (long tile : tileHashes) {
+
+            if (!distinct.add(tile)) {
+                continue;
+            }
+            for (String other : postings_.get(tile)) {
+
+                Integer count = shared.get(other);
+                shared.put(other, count == null ? 1 : count + 1);
+            }
+        }
+        shared.remove(key);
+
+        Iterator<Integer> counts = shared.values().iterator();
+
+        while (counts.hasNext()) {
+
+            if (counts.next() < minShared) {
+                counts.remove();
+            }
+        }
+        return shared;
+    }
+
+
+    /**
+     * This function lists every group of mazes in the index that are copies of
+     * each other.
+     * @return each group of two or more keys with the same fingerprint.
+     */
+    public synchronized List<Set<String>> copyGroups() {
+
+        List<Set<String>> groups = new ArrayList<Set<String>>();
+
+        for (Set<String> keys : copies_.values()) {
+
+            if (keys.size() > 1) {
+                groups.add(new TreeSet<String>(keys));
+            }
+        }
+        return groups;
+    }
+
+
+    /**
+     * This is a getter for the number of mazes in the index.
+     * @return the size of tiles_.
+     */
+    public synchronized int size() {
+        return tiles_.size();
+    }
+
+
+    /**
+     * This function snaps a point to the hash grid, after turning it clockwise
+     * about the centre of the tile, a quarter at a time, as Content draws it.
+     * @param x, the x coordinate in pixels.
+     * @param y, the y coordinate in pixels.
+     * @param turns, the number of quarter turns.
+     * @return the grid x in the high 16 bits and the grid y in the low 16 bits.
+     */
+    private static long snap(double x, double y, int turns) {
+
+        for (int i = 0; i < turns; i++) {
+
+            double turned = TILE_SIZE_ - y;
+            y = x;
+            x = turned;
+        }
+        long gridX = Math.round(x * HASH_STEPS_) & 0xFFFF;
+        long gridY = Math.round(y * HASH_STEPS_) & 0xFFFF;
+        return (gridX << 16) | gridY;
+    }
+
+
+    /**
+     * This function scrambles the bits of a value, the finishing step of SplitMix64.
+     * @param value, the value.
+     * @return the scrambled value.
+     */
+    private static long mix(long value) {
+
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+
+    /**
+     * This function finds the set of keys for a hash, adding an empty one if
+     * there is none yet.
+     * @param map, the postings or copies map.
+     * @param hash, the tile hash or fingerprint.
+     * @return the set of keys.
+     */
+    private static Set<String> postings(Map<Long, Set<String>> map, long hash) {
+
+        Set<String> keys = map.get(hash);
+
+        if (keys == null) {
+
+            keys = new HashSet<String>();
+            map.put(hash, keys);
+        }
+        return keys;
+    }
+
+
+    /**
+     * This function takes a key out of the set for a hash, and drops the set
+     * once it is empty.
+     * @param map, the postings or copies map.
+     * @param hash, the tile hash or fingerprint.
+     * @param key, the key to take out.
+     */
+    private static void drop(Map<Long, Set<String>> map, long hash, String key) {
+
+        Set<String> keys = map.get(hash);
+
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            map.remove(hash);
+        }
+    }
+
+};
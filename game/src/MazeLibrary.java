@@ -0,0 +1,817 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class keeps an index of every maze, save and maze pack in the store
+ * folders, so the file chooser and MazeStore can tell what a file is without
+ * opening it. For every file the index holds its size, modification time, magic
+ * number, tile count, line count and the SHA-256 of its contents, the same hash
+ * a compact save stores for its maze. Mazes inside maze packs and zip files get
+ * an entry of their own. Mazes also have the rotation proof hash of every tile
+ * kept, and are added to a MazeIndex, so copies and near copies of a maze, and
+ * every maze with a given tile, can be found without opening any file.
+ * The index is built and kept up to date by a single background thread, never
+ * by the event thread. When the game starts, the index written by the last run
+ * is read back, and only files whose size or modification time have changed since
+ * are parsed again. A WatchService then reports every file that is created,
+ * changed or deleted in a store folder, and only those are looked at again. A
+ * file that is deleted and shows up under a new name with the same size and
+ * modification time is taken to be renamed, and keeps its entry without being
+ * parsed again. The index is written back, with the usual checksum trailer,
+ * after every batch of changes. Everything else only ever reads the index, so a
+ * lookup is a single map access.
+ * The index is kept in game/library.idx, another file can be given with
+ * -Djmaze.library=file.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @LIBRARY_MAGIC_, the first four bytes of the index file.
+ * @SETTLE_MILLIS_, how long the folders must be quiet before a batch of changes
+ * is handled, so a save that is written and then moved is only looked at once.
+ * @indexFile_, where the index is kept.
+ * @listings_, every indexed file, from absolute path, or path!entry for an
+ * archive entry, to what is known about it.
+ * @byHash_, every indexed maze, from its hash in hex to its listing.
+ * @shapes_, the tile hashes of every indexed maze, by listing key.
+ * @watcher_, the background thread, or null before start().
+ * @ready_, whether the first full pass over the store folders is over.
+ */
+public class MazeLibrary {
+
+    static final int LIBRARY_MAGIC_ = 0xCAFE11B6;
+    private static final long SETTLE_MILLIS_ = 200;
+
+    private static final File indexFile_ = new File(System.getProperty("jmaze.library", "game/library.idx"))
+            .getAbsoluteFile();
+    private static final Map<String, Listing> listings_ = new ConcurrentHashMap<String, Listing>();
+    private static final Map<String, Listing> byHash_ = new ConcurrentHashMap<String, Listing>();
+    private static final MazeIndex shapes_ = new MazeIndex();
+    private static Thread watcher_ = null;
+    private static volatile boolean ready_ = false;
+
+
+    /**
+     * This function starts the background thread that builds the index and
+     * keeps it up to date. It returns at once, and calling it again does nothing.
+     */
+    public static synchronized void start() {
+
+        if (watcher_ != null) {
+            return;
+        }
+        watcher_ = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "JMaze library");
+        watcher_.setDaemon(true);
+        watcher_.start();
+    }
+
+
+    /**
+     * This is a getter for what the index knows about a plain file.
+     * @param file, the file.
+     * @return its listing, or null if it has not been indexed.
+     */
+    public static Listing lookup(File file) {
+
+        return listings_.get(file.getAbsolutePath());
+    }
+
+
+    /**
+     * This is a getter for a maze in the index, found by the hash of its contents.
+     * @param sourceHash, the hash stored in a compact save.
+     * @return the listing of a maze with that hash, or null if none is indexed.
+     */
+    public static Listing find(byte[] sourceHash) {
+
+        return byHash_.get(MazeStore.toHex(sourceHash));
+    }
+
+
+    /**
+     * This function finds every indexed maze with a given tile, at any rotation.
+     * @param tileHash, the hash of the tile, from MazeIndex.tileHash().
+     * @return the listings of those mazes.
+     */
+    public static List<Listing> withTile(long tileHash) {
+
+        return listingsOf(shapes_.withTile(tileHash));
+    }
+
+
+    /**
+     * This function finds the other indexed mazes with the same tiles as a
+     * maze, whatever order and rotation they are in.
+     * @param listing, the maze.
+     * @return the listings of its copies.
+     */
+    public static List<Listing> copiesOf(Listing listing) {
+
+        return listingsOf(shapes_.copiesOf(listing.getKey()));
+    }
+
+
+    /**
+     * This function finds the other indexed mazes that share at least a given
+     * number of distinct tiles with a maze.
+     * @param listing, the maze.
+     * @param minShared, the fewest distinct tiles a maze must share to count.
+     * @return the listings of those mazes, those sharing the most tiles first.
+     */
+    public static List<Listing> similarTo(Listing listing, int minShared) {
+
+        Map<String, Integer> shared = shapes_.similarTo(listing.getKey(), minShared);
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<Map.Entry<String, Integer>>(shared.entrySet());
+        ranked.sort(new Comparator<Map.Entry<String, Integer>>() {
+
+            @Override
+            public int compare(Map.Entry<String, Integer> first, Map.Entry<String, Integer> second) {
+                return second.getValue() - first.getValue();
+            }
+        });
+
+        List<Listing> similar = new ArrayList<Listing>();
+
+        for (Map.Entry<String, Integer> entry : ranked) {
+
+            Listing other = listings_.get(entry.getKey());
+
+            if (other != null) {
+                similar.add(other);
+            }
+        }
+        return similar;
+    }
+
+
+    /**
+     * This function turns keys from the shape index back into listings.
+     * @param keys, listing keys.
+     * @return the listings that are still in the index.
+     */
+    private static List<Listing> listingsOf(Set<String> keys) {
+
+        List<Listing> listings = new ArrayList<Listing>();
+
+        for (String key : keys) {
+
+            Listing listing = listings_.get(key);
+
+            if (listing != null) {
+                listings.add(listing);
+            }
+        }
+        return listings;
+    }
+
+
+    /**
+     * This function lists every file and archive entry in the index.
+     * @return a snapshot of the listings, in no particular order.
+     */
+    public static List<Listing> list() {
+
+        return new ArrayList<Listing>(listings_.values());
+    }
+
+
+    /**
+     * This is a check for whether the first full pass over the store folders is
+     * over. Until then, files that changed while the game was closed may still be
+     * missing or out of date.
+     * @return ready_.
+     */
+    public static boolean isReady() {
+        return ready_;
+    }
+
+
+    /**
+     * This function is the body of the background thread. It reads the last
+     * index, brings it up to date, and then handles changes until the game exits.
+     */
+    private static void watch() {
+
+        WatchService watcher = null;
+
+        try {
+
+            watcher = FileSystems.getDefault().newWatchService();
+
+            //Folders are watched before the first pass, so nothing changes unseen.
+            for (File root : MazeStore.getRoots()) {
+
+                if (root.isDirectory()) {
+
+                    root.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+
+        } catch (IOException exception) {
+
+            //Without a watcher the index is still built once, it just goes stale.
+            exception.printStackTrace();
+            watcher = null;
+        }
+
+        readIndex();
+        reconcile();
+        writeIndex();
+        ready_ = true;
+
+        if (watcher == null) {
+            return;
+        }
+
+        try {
+
+            while (true) {
+
+                handleChanges(watcher, watcher.take());
+                writeIndex();
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException exception) {
+
+            //The game is exiting.
+        }
+    }
+
+
+    /**
+     * This function handles one batch of changes. Events keep being collected
+     * until the folders have been quiet for SETTLE_MILLIS_, and every file is
+     * then looked at once, however many events it had.
+     * @param watcher, the watch service.
+     * @param key, the first folder with events.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private static void handleChanges(WatchService watcher, WatchKey key) throws InterruptedException {
+
+        Map<String, Listing> gone = new HashMap<String, Listing>();
+        Set<File> changed = new LinkedHashSet<File>();
+        boolean overflow = false;
+
+        while (key != null) {
+
+            Path folder = (Path) key.watchable();
+
+            for (WatchEvent<?> event : key.pollEvents()) {
+
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+
+                    overflow = true;
+                    continue;
+                }
+
+                File file = folder.resolve((Path) event.context()).toFile().getAbsoluteFile();
+
+                //The index itself, and the temporary file it is written through.
+                if (file.getPath().startsWith(indexFile_.getPath())) {
+                    continue;
+                }
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+
+                    Listing listing = remove(file);
+
+                    if (listing != null) {
+                        gone.put(renameKey(listing.size_, listing.modified_), listing);
+                    }
+                    changed.remove(file);
+
+                } else {
+
+                    changed.add(file);
+                }
+            }
+            key.reset();
+            key = watcher.poll(SETTLE_MILLIS_, TimeUnit.MILLISECONDS);
+        }
+
+        //Too many events were dropped to know what changed, so everything is checked.
+        if (overflow) {
+
+            reconcile();
+            return;
+        }
+        for (File file : changed) {
+
+            index(file, gone);
+        }
+    }
+
+
+    /**
+     * This function brings the whole index up to date with the store folders.
+     * Listings of files that are gone are dropped, and only new or changed files
+     * are parsed.
+     */
+    private static void reconcile() {
+
+        Map<String, Listing> gone = new HashMap<String, Listing>();
+        Set<String> present = new HashSet<String>();
+        List<File> files = new ArrayList<File>();
+
+        for (File root : MazeStore.getRoots()) {
+
+            File[] children = root.listFiles();
+
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+
+                File file = child.getAbsoluteFile();
+
+                if (file.isFile() && !file.getPath().startsWith(indexFile_.getPath())) {
+
+                    files.add(file);
+                    present.add(file.getPath());
+                }
+            }
+        }
+
+        for (Listing listing : list()) {
+
+            if (listing.entry_ == null && !present.contains(listing.file_.getPath())) {
+
+                remove(listing.file_);
+                gone.put(renameKey(listing.size_, listing.modified_), listing);
+            }
+        }
+        for (File file : files) {
+
+            index(file, gone);
+        }
+    }
+
+
+    /**
+     * This function brings the listing of one file up to date, parsing it only
+     * if it is new or has changed.
+     * @param file, the absolute path of the file.
+     * @param gone, listings of files deleted in the same batch, by size and
+     * modification time, so a renamed file can take its old listing over.
+     */
+    private static void index(File file, Map<String, Listing> gone) {
+
+        BasicFileAttributes attributes;
+
+        try {
+
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        } catch (IOException exception) {
+
+            remove(file);
+            return;
+        }
+        if (!attributes.isRegularFile()) {
+            return;
+        }
+
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+        Listing old = lookup(file);
+
+        if (old != null && old.size_ == size && old.modified_ == modified) {
+            return;
+        }
+
+        Listing renamed = gone.remove(renameKey(size, modified));
+
+        //An archive is parsed again, its entries are listed under the old name.
+        if (old == null && renamed != null && !renamed.isArchive()) {
+
+            put(new Listing(file, null, renamed));
+            return;
+        }
+        remove(file);
+
+        try {
+
+            if (MazeArchive.isArchive(file)) {
+
+                String[] entries = MazeArchive.list(file);
+
+                for (String entry : entries) {
+
+                    put(describe(file, entry, size, modified, MazeArchive.read(file, entry)));
+                }
+                put(new Listing(file, null, size, modified, MazeArchive.readMagic(file), entries.length, 0, null,
+                        null));
+
+            } else {
+
+                put(describe(file, null, size, modified, MazeParser.readFully(file)));
+            }
+
+        } catch (IOException exception) {
+
+            //A file that cannot be read is listed as not being a maze or save.
+            put(new Listing(file, null, size, modified, 0, -1, 0, null, null));
+        }
+    }
+
+
+    /**
+     * This function parses a file, or an archive entry, and sums up what it holds.
+     * @param file, the file, or the archive holding the entry.
+     * @param entry, the name of the entry, or null for a plain file.
+     * @param size, the size of the file.
+     * @param modified, the modification time of the file.
+     * @param contents, the whole file or entry.
+     * @return its listing, with a tile count of -1 if it is not valid.
+     */
+    private static Listing describe(File file, String entry, long size, long modified, ByteBuffer contents) {
+
+        int magic = contents.remaining() < 4 ? 0 : contents.getInt(contents.position());
+
+        try {
+
+            ByteBuffer body = contents.duplicate();
+            MazeModel model = MazeParser.parse(contents.duplicate());
+
+            //The hash leaves out the trailer, the same as the one MazeParser gives a maze.
+            if (MazeParser.verify(body)) {
+                body.limit(body.limit() - MazeParser.TRAILER_BYTES_);
+            }
+
+            int lineCount = 0;
+
+            for (int lines : model.getTileLines()) {
+
+                lineCount += lines;
+            }
+            return new Listing(file, entry, size, modified, magic, model.getTileCount(), lineCount,
+                    MazeStore.hash(body), model.isMaze() ? MazeIndex.tileHashes(model) : null);
+
+        } catch (MazeFormatException exception) {
+
+            return new Listing(file, entry, size, modified, magic, -1, 0, null, null);
+        }
+    }
+
+
+    /**
+     * This function adds a listing to the index.
+     * @param listing, the listing.
+     */
+    private static void put(Listing listing) {
+
+        listings_.put(listing.getKey(), listing);
+
+        if (listing.isMaze()) {
+
+            byHash_.put(MazeStore.toHex(listing.hash_), listing);
+            shapes_.add(listing.getKey(), listing.tileHashes_);
+        }
+    }
+
+
+    /**
+     * This function drops a file from the index, along with every entry of it
+     * if it is an archive.
+     * @param file, the absolute path of the file.
+     * @return the listing that was dropped, or null if the file was not indexed.
+     */
+    private static Listing remove(File file) {
+
+        Listing listing = listings_.remove(file.getPath());
+
+        if (listing == null) {
+            return null;
+        }
+        if (listing.isMaze()) {
+
+            byHash_.remove(MazeStore.toHex(listing.hash_), listing);
+            shapes_.remove(listing.getKey());
+        }
+        if (listing.isArchive()) {
+
+            String prefix = file.getPath() + "!";
+
+            for (Listing entry : list()) {
+
+                if (entry.getKey().startsWith(prefix)) {
+
+                    listings_.remove(entry.getKey());
+
+                    if (entry.isMaze()) {
+
+                        byHash_.remove(MazeStore.toHex(entry.hash_), entry);
+                        shapes_.remove(entry.getKey());
+                    }
+                }
+            }
+        }
+        return listing;
+    }
+
+
+    /**
+     * This function builds the key a file is matched on when looking for renames.
+     * @param size, the size of the file.
+     * @param modified, the modification time of the file.
+     * @return the key.
+     */
+    private static String renameKey(long size, long modified) {
+        return size + "/" + modified;
+    }
+
+
+    /**
+     * This function reads back the index written by the last run. A missing or
+     * broken index is not a problem, every file is simply parsed again.
+     */
+    private static void readIndex() {
+
+        try {
+
+            ByteBuffer contents = MazeParser.readFully(indexFile_);
+
+            if (!MazeParser.verify(contents) || contents.getInt(0) != LIBRARY_MAGIC_) {
+                return;
+            }
+
+            byte[] body = new byte[contents.remaining() - 4 - MazeParser.TRAILER_BYTES_];
+            contents.position(4);
+            contents.get(body);
+
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(body));
+            int count = input.readInt();
+
+            for (int i = 0; i < count; i++) {
+
+                File file = new File(input.readUTF());
+                String entry = input.readBoolean() ? input.readUTF() : null;
+                long size = input.readLong();
+                long modified = input.readLong();
+                int magic = input.readInt();
+                int tileCount = input.readInt();
+                int lineCount = input.readInt();
+                byte[] hash = null;
+                long[] tileHashes = null;
+
+                if (input.readBoolean()) {
+
+                    hash = new byte[MazeStore.HASH_BYTES_];
+                    input.readFully(hash);
+                }
+                if (input.readBoolean()) {
+
+                    tileHashes = new long[tileCount];
+
+                    for (int j = 0; j < tileCount; j++) {
+
+                        tileHashes[j] = input.readLong();
+                    }
+                }
+                put(new Listing(file, entry, size, modified, magic, tileCount, lineCount, hash, tileHashes));
+            }
+
+        } catch (NoSuchFileException exception) {
+
+            //First run, there is no index yet.
+
+        } catch (IOException exception) {
+
+            listings_.clear();
+            byHash_.clear();
+            shapes_.clear();
+        }
+    }
+
+
+    /**
+     * This function writes the index out, so the next run only has to look at
+     * files that changed in between.
+     */
+    private static void writeIndex() {
+
+        try {
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            List<Listing> listings = list();
+
+            output.writeInt(LIBRARY_MAGIC_);
+            output.writeInt(listings.size());
+
+            for (Listing listing : listings) {
+
+                output.writeUTF(listing.file_.getPath());
+                output.writeBoolean(listing.entry_ != null);
+
+                if (listing.entry_ != null) {
+                    output.writeUTF(listing.entry_);
+                }
+                output.writeLong(listing.size_);
+                output.writeLong(listing.modified_);
+                output.writeInt(listing.magic_);
+                output.writeInt(listing.tileCount_);
+                output.writeInt(listing.lineCount_);
+                output.writeBoolean(listing.hash_ != null);
+
+                if (listing.hash_ != null) {
+                    output.write(listing.hash_);
+                }
+                output.writeBoolean(listing.tileHashes_ != null);
+
+                if (listing.tileHashes_ != null) {
+
+                    for (long tile : listing.tileHashes_) {
+
+                        output.writeLong(tile);
+                    }
+                }
+            }
+
+            ByteBuffer contents = ByteBuffer.allocate(bytes.size() + MazeParser.TRAILER_BYTES_);
+            contents.put(bytes.toByteArray());
+            contents.putInt(MazeParser.checksum(contents, 0, contents.position()));
+            contents.putInt(MazeParser.TRAILER_MAGIC_);
+            contents.flip();
+            MazeWriter.replace(indexFile_.toPath(), contents);
+
+        } catch (IOException exception) {
+
+            //The index is only a shortcut, the next run builds it again.
+            exception.printStackTrace();
+        }
+    }
+
+
+    /**
+     * What the index knows about one file, or one entry of an archive.
+     * @file_, the absolute path of the file, or of the archive holding the entry.
+     * @entry_, the name of the entry in the archive, or null for a plain file.
+     * @size_, the size of the file when it was indexed.
+     * @modified_, the modification time of the file when it was indexed.
+     * @magic_, the first four bytes of the file or entry, or 0 if it had none.
+     * @tileCount_, the number of tiles, the number of entries of an archive, or
+     * -1 if it is not a valid maze or save.
+     * @lineCount_, the number of lines over every tile.
+     * @hash_, the SHA-256 of the contents, or null if it is not a valid maze or save.
+     * @tileHashes_, the MazeIndex hash of every tile of a maze, or null for anything else.
+     */
+    public static final class Listing {
+
+        private final File file_;
+        private final String entry_;
+        private final long size_;
+        private final long modified_;
+        private final int magic_;
+        private final int tileCount_;
+        private final int lineCount_;
+        private final byte[] hash_;
+        private final long[] tileHashes_;
+
+        private Listing(File file, String entry, long size, long modified, int magic, int tileCount,
+                int lineCount, byte[] hash, long[] tileHashes) {
+
+            file_ = file;
+            entry_ = entry;
+            size_ = size;
+            modified_ = modified;
+            magic_ = magic;
+            tileCount_ = tileCount;
+            lineCount_ = lineCount;
+            hash_ = hash;
+            tileHashes_ = tileHashes;
+        }
+
+        private Listing(File file, String entry, Listing renamed) {
+
+            this(file, entry, renamed.size_, renamed.modified_, renamed.magic_, renamed.tileCount_,
+                    renamed.lineCount_, renamed.hash_, renamed.tileHashes_);
+        }
+
+        /**
+         * This is a getter for the key of this listing in the index.
+         * @return the absolute path, followed by !entry for an archive entry.
+         */
+        String getKey() {
+            return entry_ == null ? file_.getPath() : file_.getPath() + "!" + entry_;
+        }
+
+        /**
+         * This is a getter for the file, or the archive holding the entry.
+         * @return file_.
+         */
+        public File getFile() {
+            return file_;
+        }
+
+        /**
+         * This is a getter for the name of the entry in its archive.
+         * @return entry_, or null for a plain file.
+         */
+        public String getEntry() {
+            return entry_;
+        }
+
+        /**
+         * This is a getter for the magic number of the file or entry.
+         * @return magic_.
+         */
+        public int getMagic() {
+            return magic_;
+        }
+
+        /**
+         * This is a getter for the number of tiles.
+         * @return tileCount_, or -1 if this is not a valid maze or save.
+         */
+        public int getTileCount() {
+            return tileCount_;
+        }
+
+        /**
+         * This is a getter for the number of lines over every tile.
+         * @return lineCount_.
+         */
+        public int getLineCount() {
+            return lineCount_;
+        }
+
+        /**
+         * This is a getter for the hash of the contents.
+         * @return a copy of hash_, or null if this is not a valid maze or save.
+         */
+        public byte[] getHash() {
+            return hash_ == null ? null : hash_.clone();
+        }
+
+        /**
+         * This is a getter for the hashes of the tiles of a maze.
+         * @return a copy of tileHashes_, or null if this is not a maze.
+         */
+        public long[] getTileHashes() {
+            return tileHashes_ == null ? null : tileHashes_.clone();
+        }
+
+        /**
+         * This is a check for whether this is a valid maze, in any of the maze formats.
+         * @return true for a maze.
+         */
+        public boolean isMaze() {
+            return hash_ != null && (magic_ == MazeParser.MAZE_MAGIC_ || magic_ == MazeParser.QUANTIZED_MAZE_MAGIC_
+                    || magic_ == MazeParser.CHUNKED_MAZE_MAGIC_);
+        }
+
+        /**
+         * This is a check for whether this is a valid save, in either save format.
+         * @return true for a save.
+         */
+        public boolean isSave() {
+            return hash_ != null && (magic_ == MazeParser.SAVE_MAGIC_ || magic_ == MazeParser.COMPACT_SAVE_MAGIC_);
+        }
+
+        /**
+         * This is a check for whether this is a maze pack or zip file.
+         * @return true for an archive.
+         */
+        public boolean isArchive() {
+            return entry_ == null && (magic_ == MazePack.PACK_MAGIC_ || magic_ == MazeArchive.ZIP_MAGIC_
+                    || magic_ == MazeArchive.EMPTY_ZIP_MAGIC_);
+        }
+
+        /**
+         * This function describes the listing in a few words, for the file chooser.
+         * @return a short description, such as "Maze, 16 tiles, 224 lines".
+         */
+        public String describe() {
+
+            if (isArchive()) {
+                return "Maze pack, " + tileCount_ + " files";
+            }
+            if (isMaze()) {
+                return "Maze, " + tileCount_ + " tiles, " + lineCount_ + " lines";
+            }
+            if (isSave()) {
+                return "Save, " + tileCount_ + " tiles";
+            }
+            return "Not a maze";
+        }
+    };
+
+};
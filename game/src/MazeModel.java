@@ -0,0 +1,271 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This class is an immutable snapshot of everything decoded from a single maze
+ * or save file. It is built once by MazeParser, and can then be shared by every
+ * Content object and every load or reset without going back to the disk.
+ * Line arrays are handed out directly rather than copied, so they must be
+ * treated as read-only by whoever receives them. A parsed model only builds the
+ * lines of a tile the first time they are asked for, see TileGeometry, so the
+ * positions, rotations and time of a save can be used before any line exists.
+ * @magic_, the first four bytes of the file, either a maze or a save marker.
+ * @tileCount_, the number of tiles retrieved from the file.
+ * @loadTime_, the played time stored in a save file, 0 for a maze file.
+ * @tileIds_, the IDS of each tile, as read from the file. For a save file these
+ * are the parent container positions.
+ * @tileRotations_, the rotation of each tile, all 0 for a maze file.
+ * @tileLines_, the number of lines to be drawn on each game piece.
+ * @geometry_, the line coordinates for each tile, in file order.
+ * @sourceHash_, the SHA-256 of the maze file the lines came from. For a maze
+ * file this is the hash of the file itself, for a legacy save it is null.
+ * @hashed_, the contents of a parsed maze file, kept until its hash is first
+ * asked for. Only compact saves and MazeStore need it, so most parses never
+ * hash at all.
+ */
+public final class MazeModel implements Serializable {
+
+    private final int magic_;
+    private final int tileCount_;
+    private final long loadTime_;
+    private final int[] tileIds_;
+    private final int[] tileRotations_;
+    private final int[] tileLines_;
+    private final TileGeometry geometry_;
+    private byte[] sourceHash_;
+    private transient ByteBuffer hashed_;
+
+    private static final long serialVersionUID = 1;
+
+
+    /**
+     * This constructor takes ownership of the arrays it is given, the caller
+     * must not keep modifying them afterwards.
+     * @param magic, the first four bytes of the file.
+     * @param loadTime, the played time, 0 for a maze file.
+     * @param tileIds, the tile IDs or saved positions.
+     * @param tileRotations, the saved rotations.
+     * @param tileLines, the number of lines per tile.
+     * @param lines, the decoded lines per tile.
+     */
+    MazeModel(int magic, long loadTime, int[] tileIds, int[] tileRotations,
+            int[] tileLines, Line2D[][] lines) {
+
+        this(magic, loadTime, tileIds, tileRotations, tileLines, lines, null);
+    }
+
+
+    /**
+     * This constructor also records which maze the lines came from, and takes
+     * ownership of the arrays it is given in the same way.
+     * @param magic, the first four bytes of the file.
+     * @param loadTime, the played time, 0 for a maze file.
+     * @param tileIds, the tile IDs or saved positions.
+     * @param tileRotations, the saved rotations.
+     * @param tileLines, the number of lines per tile.
+     * @param lines, the decoded lines per tile.
+     * @param sourceHash, the SHA-256 of the source maze, or null if it is not known.
+     */
+    MazeModel(int magic, long loadTime, int[] tileIds, int[] tileRotations,
+            int[] tileLines, Line2D[][] lines, byte[] sourceHash) {
+
+        this(magic, loadTime, tileIds, tileRotations, tileLines, new TileGeometry(lines), sourceHash);
+    }
+
+
+    /**
+     * This constructor takes lines that may not be decoded yet, and takes
+     * ownership of the arrays it is given in the same way.
+     * @param magic, the first four bytes of the file.
+     * @param loadTime, the played time, 0 for a maze file.
+     * @param tileIds, the tile IDs or saved positions.
+     * @param tileRotations, the saved rotations.
+     * @param tileLines, the number of lines per tile.
+     * @param geometry, the lines per tile, decoded or not.
+     * @param sourceHash, the SHA-256 of the source maze, or null if it is not known.
+     */
+    MazeModel(int magic, long loadTime, int[] tileIds, int[] tileRotations,
+            int[] tileLines, TileGeometry geometry, byte[] sourceHash) {
+
+        magic_ = magic;
+        tileCount_ = tileIds.length;
+        loadTime_ = loadTime;
+        tileIds_ = tileIds;
+        tileRotations_ = tileRotations;
+        tileLines_ = tileLines;
+        geometry_ = geometry;
+        sourceHash_ = sourceHash;
+    }
+
+
+    /**
+     * This constructor is for a parsed maze file, which is only hashed the
+     * first time its hash is asked for, and takes ownership of the arrays it
+     * is given in the same way.
+     * @param magic, the first four bytes of the file.
+     * @param tileIds, the tile IDs.
+     * @param tileLines, the number of lines per tile.
+     * @param geometry, the lines per tile, decoded or not.
+     * @param contents, the whole file, which must not change afterwards.
+     */
+    MazeModel(int magic, int[] tileIds, int[] tileLines, TileGeometry geometry, ByteBuffer contents) {
+
+        this(magic, 0, tileIds, new int[tileIds.length], tileLines, geometry, null);
+        hashed_ = contents;
+    }
+
+
+    /**
+     * This is a getter for the magic number the file started with.
+     * @return magic_, an int such as 0xCAFEBEEF, 0xCAFEBEE2, 0xCAFEB10C, 0xCAFEDEED or 0xCAFED00D.
+     */
+    public int getMagic() {
+        return magic_;
+    }
+
+    /**
+     * This is a check for if this model came from a default (unplayed) maze, in
+     * any of the maze formats.
+     * @return true if the lines are the original maze.
+     */
+    public boolean isMaze() {
+        return magic_ == MazeParser.MAZE_MAGIC_ || magic_ == MazeParser.QUANTIZED_MAZE_MAGIC_
+                || magic_ == MazeParser.CHUNKED_MAZE_MAGIC_;
+    }
+
+    /**
+     * This is a check for if this model came from a previously saved game.
+     * @return true if positions and rotations are meaningful.
+     */
+    public boolean isSave() {
+        return magic_ == MazeParser.SAVE_MAGIC_ || magic_ == MazeParser.COMPACT_SAVE_MAGIC_;
+    }
+
+    /**
+     * This is a getter for the hash of the maze the lines came from, which
+     * hashes a parsed maze file the first time it is asked for.
+     * @return a copy of sourceHash_, or null if it is not known.
+     */
+    public synchronized byte[] getSourceHash() {
+
+        if (hashed_ != null) {
+
+            sourceHash_ = MazeStore.hash(hashed_);
+            hashed_ = null;
+        }
+        return sourceHash_ == null ? null : sourceHash_.clone();
+    }
+
+    /**
+     * This is a getter for the tile count.
+     * @return tileCount_, the number of tile records in the file.
+     */
+    public int getTileCount() {
+        return tileCount_;
+    }
+
+    /**
+     * This is a getter for the saved timer value.
+     * @return loadTime_, a long value parsed from a saved file.
+     */
+    public long getLoadTime() {
+        return loadTime_;
+    }
+
+    /**
+     * This is a getter for the tile IDs, or saved positions.
+     * @return a copy of tileIds_.
+     */
+    public int[] getTileIds() {
+        return tileIds_.clone();
+    }
+
+    /**
+     * This is a getter for a single tile ID, or saved position, without copying.
+     * @param tile, the index of the tile in file order.
+     * @return the ID or position of that tile.
+     */
+    public int getTileId(int tile) {
+        return tileIds_[tile];
+    }
+
+    /**
+     * This is a getter for a single saved rotation, without copying.
+     * @param tile, the index of the tile in file order.
+     * @return the rotation of that tile.
+     */
+    public int getTileRotation(int tile) {
+        return tileRotations_[tile];
+    }
+
+    /**
+     * This is a getter for the saved rotations.
+     * @return a copy of tileRotations_.
+     */
+    public int[] getTileRotations() {
+        return tileRotations_.clone();
+    }
+
+    /**
+     * This is a getter for the number of lines on each tile.
+     * @return a copy of tileLines_.
+     */
+    public int[] getTileLines() {
+        return tileLines_.clone();
+    }
+
+    /**
+     * This is a getter for the lines of a single tile, which are decoded the
+     * first time any tile asks for them. The lines are views over the packed
+     * lines of the model, and the array is shared, and must not be modified.
+     * @param tile, the index of the tile in file order.
+     * @return the lines to be drawn for that tile.
+     */
+    public Line2D[] getLines(int tile) {
+        return geometry_.get(tile);
+    }
+
+    /**
+     * This is a getter for the lines of every tile, decoded or not, so another
+     * model with the same lines can share them instead of decoding its own.
+     * @return geometry_.
+     */
+    TileGeometry getGeometry() {
+        return geometry_;
+    }
+
+    /**
+     * This is a getter for the line information of every tile, in the
+     * ArrayList form that RawFileHandler has always handed out. Every tile
+     * is decoded.
+     * @return a new ArrayList over the shared line arrays.
+     */
+    public ArrayList<Line2D[]> getLineInfo() {
+        return new ArrayList<Line2D[]>(Arrays.asList(geometry_.getAll()));
+    }
+
+
+    /**
+     * The file contents cannot be serialized, so a maze is hashed first.
+     * @param stream, the stream this object is written to.
+     * @throws IOException if the stream cannot be written.
+     */
+    private synchronized void writeObject(ObjectOutputStream stream) throws IOException {
+
+        getSourceHash();
+        stream.defaultWriteObject();
+    }
+};
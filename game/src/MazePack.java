@@ -0,0 +1,268 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * This class is an open maze pack, a single file holding any number of maze and
+ * save files. The pack starts with a header and an index, followed by the names
+ * of the entries, and then the entries themselves, each a complete file exactly
+ * as it would be on its own:
+ *
+ *     int magic, int entry count
+ *     per entry: long offset, int length, int name offset, int name length
+ *     UTF-8 names, then the entries
+ *
+ * A pack is memory mapped when it is opened, and only its index and names are
+ * read at that point. Any entry can then be handed to MazeParser by index or by
+ * name straight from the mapping, without reading any of the other entries.
+ * Open packs are kept, and reused until the pack file changes on disk. A pack
+ * that has changed is dropped as soon as that is noticed, and only the
+ * MAX_OPEN_ packs used last are kept, so a mapping is let go once nothing
+ * parsed from it is held either.
+ * @PACK_MAGIC_, the first four bytes of a maze pack.
+ * @HEADER_BYTES_, the size of the magic number and entry count.
+ * @INDEX_BYTES_, the size of the index of one entry.
+ * @MAX_OPEN_, the number of open packs that are kept.
+ * @open_, an access ordered map of the packs opened last, by absolute path,
+ * guarded by the class lock.
+ * @contents_, the mapped pack file, never read through directly, only duplicated.
+ * @names_, the entry names, in pack order.
+ * @indexes_, the position of every entry by name.
+ * @size_, @modified_, the pack file as it was when it was opened.
+ */
+public class MazePack {
+
+    static final int PACK_MAGIC_ = 0xCAFEFEED;
+    static final int HEADER_BYTES_ = 8;
+    static final int INDEX_BYTES_ = 20;
+
+    private static final int MAX_OPEN_ = 8;
+
+    private static final LinkedHashMap<String, MazePack> open_ =
+            new LinkedHashMap<String, MazePack>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, MazePack> eldest) {
+            return size() > MAX_OPEN_;
+        }
+    };
+
+    private final ByteBuffer contents_;
+    private final String[] names_;
+    private final Map<String, Integer> indexes_;
+    private final long size_;
+    private final long modified_;
+
+
+    /**
+     * This constructor maps a pack file and reads its index.
+     * @param file, the pack file.
+     * @param attributes, the size and modification time of the file.
+     * @throws MazeFormatException if the header or index are not valid.
+     * @throws IOException if the file cannot be mapped.
+     */
+    private MazePack(File file, BasicFileAttributes attributes) throws IOException {
+
+        size_ = attributes.size();
+        modified_ = attributes.lastModifiedTime().toMillis();
+
+        try (
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ) {
+
+            contents_ = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (contents_.limit() < HEADER_BYTES_ || contents_.getInt(0) != PACK_MAGIC_) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.BAD_MAGIC, 0, "not a maze pack");
+        }
+
+        int count = contents_.getInt(4);
+
+        if (count < 0 || (long) count * INDEX_BYTES_ > contents_.limit() - HEADER_BYTES_) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, 4,
+                    "index of " + count + " entries does not fit in the pack");
+        }
+
+        names_ = new String[count];
+        indexes_ = new HashMap<String, Integer>(count * 2);
+
+        for (int i = 0; i < count; i++) {
+
+            int index = HEADER_BYTES_ + i * INDEX_BYTES_;
+            long offset = contents_.getLong(index);
+            int length = contents_.getInt(index + 8);
+            int nameOffset = contents_.getInt(index + 12);
+            int nameLength = contents_.getInt(index + 16);
+
+            if (offset < 0 || length < 0 || offset + length > contents_.limit() || nameOffset < 0
+                    || nameLength < 0 || (long) nameOffset + nameLength > contents_.limit()) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, index,
+                        "entry " + i + " lies outside the pack");
+            }
+
+            byte[] name = new byte[nameLength];
+            contents_.duplicate().position(nameOffset).get(name);
+            names_[i] = new String(name, StandardCharsets.UTF_8);
+            indexes_.put(names_[i], i);
+        }
+    }
+
+
+    /**
+     * This function opens a pack, reusing the last opening if the file has not
+     * changed since.
+     * @param file, the pack file.
+     * @return the open pack.
+     * @throws NoSuchFileException if there is no file at this path.
+     * @throws MazeFormatException if the file is not a valid pack.
+     * @throws IOException if the file cannot be mapped.
+     */
+    public static MazePack open(File file) throws IOException {
+
+        String key = file.getAbsolutePath();
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        synchronized (MazePack.class) {
+
+            MazePack pack = open_.get(key);
+
+            if (pack != null && pack.size_ == attributes.size()
+                    && pack.modified_ == attributes.lastModifiedTime().toMillis()) {
+                return pack;
+            }
+            //The file has changed, so the old mapping is not kept while the new one is made.
+            open_.remove(key);
+        }
+
+        MazePack pack = new MazePack(file, attributes);
+
+        synchronized (MazePack.class) {
+
+            open_.put(key, pack);
+        }
+        return pack;
+    }
+
+
+    /**
+     * This is a check for whether a file starts with the pack magic number, so
+     * the file chooser can tell a pack from a single maze.
+     * @param file, the file to check.
+     * @return true if the first four bytes are 0xCAFEFEED.
+     */
+    public static boolean isPack(File file) {
+
+        try (
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ) {
+
+            ByteBuffer magic = ByteBuffer.allocate(4);
+
+            while (magic.hasRemaining()) {
+
+                if (channel.read(magic) < 0) {
+                    return false;
+                }
+            }
+            return magic.getInt(0) == PACK_MAGIC_;
+
+        } catch (IOException exception) {
+
+            return false;
+        }
+    }
+
+
+    /**
+     * This is a getter for the number of entries in the pack.
+     * @return the length of names_.
+     */
+    public int size() {
+        return names_.length;
+    }
+
+    /**
+     * This is a getter for the name of one entry.
+     * @param index, the position of the entry in the pack.
+     * @return the file name the entry was packed from.
+     * @throws IndexOutOfBoundsException if there is no entry at that position.
+     */
+    public String getName(int index) {
+        return names_[index];
+    }
+
+    /**
+     * This is a getter for every entry name, in pack order.
+     * @return a copy of names_.
+     */
+    public String[] getNames() {
+        return names_.clone();
+    }
+
+    /**
+     * This function finds an entry by name.
+     * @param name, the file name the entry was packed from.
+     * @return the position of the entry in the pack, or -1 if there is none.
+     */
+    public int indexOf(String name) {
+
+        Integer index = indexes_.get(name);
+        return index == null ? -1 : index;
+    }
+
+
+    /**
+     * This function hands out one entry straight from the mapping.
+     * @param index, the position of the entry in the pack.
+     * @return a big-endian buffer holding exactly that entry, positioned at 0.
+     * @throws IndexOutOfBoundsException if there is no entry at that position.
+     */
+    public ByteBuffer entry(int index) {
+
+        if (index < 0 || index >= names_.length) {
+
+            throw new IndexOutOfBoundsException("entry " + index + " of a pack of " + names_.length);
+        }
+        int slot = HEADER_BYTES_ + index * INDEX_BYTES_;
+        int offset = (int) contents_.getLong(slot);
+        int length = contents_.getInt(slot + 8);
+        return contents_.slice(offset, length);
+    }
+
+
+    /**
+     * This function hands out one entry straight from the mapping, by name.
+     * @param name, the file name the entry was packed from.
+     * @return a big-endian buffer holding exactly that entry, positioned at 0.
+     * @throws NoSuchFileException if the pack has no entry by that name.
+     */
+    public ByteBuffer entry(String name) throws NoSuchFileException {
+
+        int index = indexOf(name);
+
+        if (index < 0) {
+            throw new NoSuchFileException(name);
+        }
+        return entry(index);
+    }
+
+};
@@ -0,0 +1,169 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This is a command line tool that builds a MazePack out of a folder of maze and
+ * save files. Every file is parsed first, and anything that is not a valid maze or
+ * save is left out. The entries are named after the files they came from, and
+ * kept in name order. Once written, the pack is opened again and every entry is
+ * compared with its file before the tool reports success.
+ *
+ *     java MazePacker pack-file file-or-folder...
+ *
+ * The exit status is 1 if the pack could not be written.
+ */
+public class MazePacker {
+
+    public static void main(String[] args) {
+
+        if (args.length < 2) {
+
+            System.err.println("usage: java MazePacker pack-file file-or-folder...");
+            System.exit(2);
+        }
+
+        File target = new File(args[0]);
+        Map<String, byte[]> entries = new TreeMap<String, byte[]>();
+
+        for (int i = 1; i < args.length; i++) {
+
+            for (File file : listFiles(new File(args[i]))) {
+
+                try {
+
+                    byte[] contents = Files.readAllBytes(file.toPath());
+                    MazeParser.parse(ByteBuffer.wrap(contents));
+
+                    if (entries.put(file.getName(), contents) != null) {
+
+                        System.err.println("two files are named " + file.getName());
+                        System.exit(1);
+                    }
+
+                } catch (IOException exception) {
+
+                    System.out.println("skipped " + file + ": " + exception.getMessage());
+                }
+            }
+        }
+
+        try {
+
+            MazeWriter.replace(target.toPath(), encode(entries));
+
+            MazePack pack = MazePack.open(target);
+
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+
+                if (!pack.entry(entry.getKey()).equals(ByteBuffer.wrap(entry.getValue()))) {
+
+                    System.err.println("entry " + entry.getKey() + " does not read back the same");
+                    System.exit(1);
+                }
+            }
+
+        } catch (IOException exception) {
+
+            System.err.println("could not write " + target + ": " + exception.getMessage());
+            System.exit(1);
+        }
+        System.out.println("packed " + entries.size() + " files into " + target + ", " + target.length() + " bytes");
+    }
+
+
+    /**
+     * This function lays out a whole pack in memory: the header, the index, the
+     * names, and then the files one after another.
+     * @param entries, the file contents by entry name, in pack order.
+     * @return the pack, positioned at 0.
+     */
+    private static ByteBuffer encode(Map<String, byte[]> entries) {
+
+        List<byte[]> names = new ArrayList<byte[]>();
+        long size = MazePack.HEADER_BYTES_ + (long) entries.size() * MazePack.INDEX_BYTES_;
+
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            size += name.length + entry.getValue().length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a pack cannot be larger than 2 GB");
+        }
+
+        ByteBuffer pack = ByteBuffer.allocate((int) size);
+        int nameOffset = MazePack.HEADER_BYTES_ + entries.size() * MazePack.INDEX_BYTES_;
+        long offset = nameOffset;
+
+        for (byte[] name : names) {
+
+            offset += name.length;
+        }
+
+        pack.putInt(MazePack.PACK_MAGIC_);
+        pack.putInt(entries.size());
+
+        int i = 0;
+
+        for (byte[] contents : entries.values()) {
+
+            pack.putLong(offset);
+            pack.putInt(contents.length);
+            pack.putInt(nameOffset);
+            pack.putInt(names.get(i).length);
+            offset += contents.length;
+            nameOffset += names.get(i).length;
+            i++;
+        }
+        for (byte[] name : names) {
+
+            pack.put(name);
+        }
+        for (byte[] contents : entries.values()) {
+
+            pack.put(contents);
+        }
+        pack.flip();
+        return pack;
+    }
+
+
+    /**
+     * This function lists a file, or every file directly inside a folder.
+     * @param file, a file or folder from the command line.
+     * @return the files, in name order.
+     */
+    private static List<File> listFiles(File file) {
+
+        File[] children = file.listFiles();
+
+        if (children == null) {
+            return Collections.singletonList(file);
+        }
+        Arrays.sort(children);
+
+        List<File> files = new ArrayList<File>();
+
+        for (File child : children) {
+
+            if (child.isFile()) {
+                files.add(child);
+            }
+        }
+        return files;
+    }
+
+};
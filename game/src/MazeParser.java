@@ -0,0 +1,769 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.CRC32C;
+
+/**
+ * This class holds the parsing engine for both binary file formats. Unlike
+ * RawFileHandler it keeps no state of its own and never talks to the user,
+ * every call returns a new immutable MazeModel or throws, so any number of files
+ * can be parsed at once from any thread, with or without a display.
+ * Parsing checks every count and offset in the file, but builds no lines. It only
+ * notes where the lines of each tile start, and decodeTile() packs them into
+ * the model's float array the first time it is asked for that tile, see TileGeometry.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @MAZE_MAGIC_, the first four bytes of a default (unplayed) maze file.
+ * @SAVE_MAGIC_, the first four bytes of a previously played and saved file.
+ * @QUANTIZED_MAZE_MAGIC_, the first four bytes of a maze in the quantized form,
+ * which stores whole steps of a small grid instead of floats, see decodeQuantizedMaze().
+ * @COMPACT_SAVE_MAGIC_, the first four bytes of a compact save, which holds the
+ * hash of its maze instead of a copy of the lines.
+ * @CHUNKED_MAZE_MAGIC_, the first four bytes of a maze split into chunks that
+ * can be decoded on their own, see ChunkedBoard.
+ * @MAP_THRESHOLD_, files larger than this many bytes are memory mapped instead
+ * of being read onto the heap.
+ * @COMPACT_HASH_OFFSET_, where the maze hash sits in a compact save.
+ * @TRAILER_MAGIC_, the last four bytes of a file with a checksum trailer. As an
+ * int it is negative, as a float it is NaN, and as the last byte of a variable
+ * length int it is unfinished, so no valid file without a trailer can end in it.
+ * @TRAILER_BYTES_, the size of the trailer, a CRC32C of every byte before it
+ * followed by TRAILER_MAGIC_.
+ * @MAX_TILES_, the most tiles a file may declare, -Djmaze.maxTiles.
+ * @MAX_LINES_, the most lines or endpoints one tile may declare, -Djmaze.maxLines.
+ * @MAX_READ_BYTES_, the largest file or entry that is read onto the heap,
+ * -Djmaze.maxReadBytes. Larger files are still mapped.
+ * Every count in a file is checked against these limits and against what is left
+ * of the file before anything is sized from it, so a corrupt or hostile count is
+ * reported with its offset instead of allocating gigabytes first.
+ */
+public class MazeParser {
+
+    static final int MAZE_MAGIC_ = 0xCAFEBEEF;
+    static final int QUANTIZED_MAZE_MAGIC_ = 0xCAFEBEE2;
+    static final int SAVE_MAGIC_ = 0xCAFEDEED;
+    static final int COMPACT_SAVE_MAGIC_ = 0xCAFED00D;
+    static final int CHUNKED_MAZE_MAGIC_ = 0xCAFEB10C;
+    private static final long MAP_THRESHOLD_ = 64 * 1024;
+    static final int COMPACT_HASH_OFFSET_ = 16;
+    static final int TRAILER_MAGIC_ = 0xFFC3C3C3;
+    static final int TRAILER_BYTES_ = 8;
+    static final int MAX_TILES_ = Integer.getInteger("jmaze.maxTiles", 1024);
+    private static final int MAX_LINES_ = Integer.getInteger("jmaze.maxLines", 65536);
+    private static final int MAX_READ_BYTES_ = Math.min(Integer.getInteger("jmaze.maxReadBytes", 64 * 1024 * 1024),
+            Integer.MAX_VALUE - 16);
+
+
+    /**
+     * This function reads and decodes a whole file.
+     * @param file, the maze or save file.
+     * @return the decoded model.
+     * @throws NoSuchFileException if there is no file at this path.
+     * @throws MazeFormatException if the contents are not a valid maze or save.
+     * @throws IOException if the file cannot be read.
+     */
+    public static MazeModel parse(File file) throws IOException {
+
+        return parse(readFully(file));
+    }
+
+
+    /**
+     * This function reads and decodes everything left in a channel. The channel
+     * is read once from its current position to its end, and is not closed.
+     * @param channel, any byte source, such as an entry of a zip file system.
+     * @return the decoded model.
+     * @throws MazeFormatException if the contents are not a valid maze or save.
+     * @throws IOException if the channel cannot be read.
+     */
+    public static MazeModel parse(ReadableByteChannel channel) throws IOException {
+
+        return parse(readFully(channel));
+    }
+
+
+    /**
+     * This function reads and decodes everything left in a stream. The stream is
+     * not closed.
+     * @param stream, any byte source.
+     * @return the decoded model.
+     * @throws MazeFormatException if the contents are not a valid maze or save.
+     * @throws IOException if the stream cannot be read.
+     */
+    public static MazeModel parse(InputStream stream) throws IOException {
+
+        return parse(readFully(Channels.newChannel(stream)));
+    }
+
+
+    /**
+     * This function decodes a whole file that is already in memory. It
+     * decides whether this is a default file, or a saved file, based on the
+     * first four bytes present.
+     * If the file ends in a checksum trailer, the checksum is checked before
+     * anything is decoded, from the same buffer. Files without one are decoded
+     * as they are. Either way the records must take up the whole body, so a
+     * file with leftover bytes, such as one that was only partly copied over an
+     * older one, is rejected instead of being loaded.
+     * @param buffer, the file contents. Only the position of this buffer is changed.
+     * Lines are decoded from it when they are first asked for, so its contents
+     * must not change while the model is in use.
+     * @return the decoded model.
+     * @throws MazeFormatException if the contents are not a valid maze or save.
+     */
+    public static MazeModel parse(ByteBuffer buffer) throws MazeFormatException {
+
+        int start = buffer.position();
+        int limit = buffer.limit();
+
+        if (verify(buffer)) {
+            buffer.limit(limit - TRAILER_BYTES_);
+        }
+
+        try {
+
+            MazeModel model = decode(buffer, start);
+
+            if (buffer.hasRemaining()) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, buffer.position() - start,
+                        buffer.remaining() + " bytes after the last tile");
+            }
+            buffer.limit(limit);
+            buffer.position(limit);
+            return model;
+
+        } finally {
+
+            buffer.limit(limit);
+        }
+    }
+
+
+    /**
+     * This function checks the checksum trailer of a file, without decoding the
+     * rest of it. It is all a verify-only scan needs to do.
+     * @param buffer, the file contents, from position to limit. Nothing about the
+     * buffer is changed.
+     * @return true if the file has a trailer and it matches, false if it has none.
+     * @throws MazeFormatException if the file has a trailer that does not match.
+     */
+    public static boolean verify(ByteBuffer buffer) throws MazeFormatException {
+
+        int start = buffer.position();
+        int end = buffer.limit() - TRAILER_BYTES_;
+
+        if (end < start + 4 || buffer.getInt(end + 4) != TRAILER_MAGIC_) {
+            return false;
+        }
+
+        int checksum = checksum(buffer, start, end);
+
+        if (buffer.getInt(end) != checksum) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.BAD_CHECKSUM, end - start,
+                    "body checksum is " + Integer.toHexString(checksum) + ", the trailer holds "
+                    + Integer.toHexString(buffer.getInt(end)));
+        }
+        return true;
+    }
+
+
+    /**
+     * This function works out the CRC32C of part of a buffer, as stored in a
+     * checksum trailer.
+     * @param buffer, the buffer. Nothing about it is changed.
+     * @param from, the first byte to include.
+     * @param to, the byte after the last one to include.
+     * @return the checksum.
+     */
+    static int checksum(ByteBuffer buffer, int from, int to) {
+
+        ByteBuffer body = buffer.duplicate();
+        body.limit(to);
+        body.position(from);
+
+        CRC32C crc = new CRC32C();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+
+    /**
+     * This function decodes the records of a file, by its magic number.
+     * @param buffer, the file contents up to any trailer, positioned at the magic number.
+     * @param start, where the file starts in the buffer.
+     * @return the decoded model.
+     * @throws MazeFormatException if the contents are not a valid maze or save.
+     */
+    private static MazeModel decode(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        try {
+
+            int magic = buffer.getInt();
+
+            switch (magic) {
+
+            case SAVE_MAGIC_:
+                return decodeSave(buffer, start);
+
+            case COMPACT_SAVE_MAGIC_:
+                return decodeCompactSave(buffer, start);
+
+            case MAZE_MAGIC_:
+                return decodeMaze(buffer, start);
+
+            case QUANTIZED_MAZE_MAGIC_:
+                return decodeQuantizedMaze(buffer, start);
+
+            case CHUNKED_MAZE_MAGIC_:
+                return decodeChunkedMaze(buffer, start);
+
+            default:
+                throw new MazeFormatException(MazeFormatException.Reason.BAD_MAGIC, 0,
+                        "unknown magic " + Integer.toHexString(magic));
+            }
+
+        } catch (BufferUnderflowException exception) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED,
+                    buffer.position() - start, "file ends before its declared records");
+        }
+    }
+
+
+    /**
+     * This function decodes the body of a default maze file, starting just after
+     * the magic number. Each tile record holds a tile number that is skipped, the
+     * tile ID, the number of lines, and then four floats for every line, which
+     * are stepped over until they are asked for.
+     * The whole file is kept to be hashed, so that compact saves can find it again.
+     * @param buffer, the file contents positioned after the magic number.
+     * @param start, where the file starts in the buffer.
+     * @return the decoded maze.
+     * @throws MazeFormatException if a count is out of range.
+     */
+    private static MazeModel decodeMaze(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        int tileCount = buffer.getInt();
+
+        //Skip over 8 byte section with timer values.
+        buffer.getLong();
+        checkCount(buffer, start, tileCount, 4, MazeWriter.RECORD_BYTES_, MAX_TILES_, "tile count");
+
+        //Size int arrays based on how many tiles we have.
+        int[] tileIds = new int[tileCount];
+        int[] tileLines = new int[tileCount];
+        int[] lineOffsets = new int[tileCount];
+
+        decodeRecords(buffer, start, 0, tileCount, tileIds, tileLines, lineOffsets);
+        ByteBuffer contents = buffer.duplicate();
+        contents.position(start);
+        return new MazeModel(MAZE_MAGIC_, tileIds, tileLines,
+                new TileGeometry(buffer.duplicate(), lineOffsets, tileLines, 0), contents);
+    }
+
+
+    /**
+     * This function decodes a chunked maze. Small boards are decoded on this
+     * thread, larger ones have their chunks decoded in parallel. A whole model is
+     * handed back, so every chunk is waited for; a caller that wants tiles as they
+     * come opens the board with ChunkedBoard.open() and start() instead.
+     * @param buffer, the file contents positioned after the magic number.
+     * @param start, where the file starts in the buffer.
+     * @return the decoded maze.
+     * @throws MazeFormatException if the index or any chunk is not valid.
+     */
+    private static MazeModel decodeChunkedMaze(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        ByteBuffer file = buffer.duplicate();
+        file.position(start);
+
+        ChunkedBoard board = ChunkedBoard.open(file);
+        MazeModel model = board.join();
+        buffer.position(start + board.getLength());
+        return model;
+    }
+
+
+    /**
+     * This function decodes a run of maze tile records, noting where the lines
+     * of each tile start without building them.
+     * @param buffer, the file contents positioned at the first record of the run.
+     * @param start, where the file starts in the buffer, for the error offsets.
+     * @param first, the index of the first tile of the run.
+     * @param count, the number of records in the run.
+     * @param tileIds, where to put the tile IDs.
+     * @param tileLines, where to put the line counts.
+     * @param lineOffsets, where to put the offsets of the lines.
+     * @throws MazeFormatException if a line count is out of range.
+     */
+    static void decodeRecords(ByteBuffer buffer, int start, int first, int count, int[] tileIds, int[] tileLines,
+            int[] lineOffsets) throws MazeFormatException {
+
+        for (int i = first; i < first + count; i++) {
+
+            //Tile number is not used, the ID follows it.
+            buffer.getInt();
+            tileIds[i] = buffer.getInt();
+            tileLines[i] = buffer.getInt();
+            checkCount(buffer, start, tileLines[i], buffer.position() - start - 4, MazeWriter.LINE_BYTES_,
+                    MAX_LINES_, "line count of tile " + i);
+            lineOffsets[i] = skipLines(buffer, tileLines[i]);
+        }
+    }
+
+
+    /**
+     * This function decodes the body of a quantized maze file, starting just after
+     * the magic number. Every number in it is a variable length int, seven bits
+     * to a byte with the high bit set on all but the last byte. Signed values are
+     * zigzag encoded, so small negative numbers stay short too.
+     * The header holds the quantum, the number of grid steps per pixel, and the
+     * tile count. Each tile then holds its ID, its endpoint table and its lines.
+     * Endpoints are grid steps, each stored as the difference from the one before
+     * it, and every line is a pair of indexes into the endpoint table, so an
+     * endpoint shared by several lines is only stored once.
+     * @param buffer, the file contents positioned after the magic number.
+     * @param start, where the file starts in the buffer.
+     * @return the decoded maze.
+     * @throws MazeFormatException if a value is out of range.
+     */
+    private static MazeModel decodeQuantizedMaze(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        int quantum = readVarInt(buffer, start);
+        int countOffset = buffer.position() - start;
+        int tileCount = readVarInt(buffer, start);
+
+        if (quantum == 0) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, 4, "quantum of 0");
+        }
+
+        //Every number takes at least a byte, so a tile is at least three and a line or endpoint two.
+        checkCount(buffer, start, tileCount, countOffset, 3, MAX_TILES_, "tile count");
+
+        int[] tileIds = new int[tileCount];
+        int[] tileLines = new int[tileCount];
+        int[] tileOffsets = new int[tileCount];
+
+        for (int i = 0; i < tileCount; i++) {
+
+            tileIds[i] = unzigzag(readVarInt(buffer, start));
+            tileOffsets[i] = buffer.position();
+            tileLines[i] = decodeQuantizedTile(buffer, start, i, quantum, null, 0);
+        }
+
+        ByteBuffer contents = buffer.duplicate();
+        contents.position(start);
+        return new MazeModel(QUANTIZED_MAZE_MAGIC_, tileIds, tileLines,
+                new TileGeometry(buffer.duplicate(), tileOffsets, tileLines, quantum), contents);
+    }
+
+
+    /**
+     * This function decodes the endpoint table and lines of one tile of a
+     * quantized maze, checking every count and index on the way. The lines are
+     * only written out when asked for, otherwise the tile is just walked over.
+     * @param buffer, the file contents positioned at the endpoint count of the tile.
+     * @param start, where the file starts in the buffer, for the error offsets.
+     * @param tile, the index of the tile, for the error messages.
+     * @param quantum, the number of grid steps per pixel.
+     * @param into, the packed coordinates to write the lines to, or null to only
+     * walk over them.
+     * @param at, where the first line goes in into.
+     * @return the number of lines of the tile.
+     * @throws MazeFormatException if a count or index is out of range.
+     */
+    private static int decodeQuantizedTile(ByteBuffer buffer, int start, int tile, int quantum, float[] into,
+            int at) throws MazeFormatException {
+
+        int countOffset = buffer.position() - start;
+        int pointCount = readVarInt(buffer, start);
+        checkCount(buffer, start, pointCount, countOffset, 2, MAX_LINES_, "endpoint count of tile " + tile);
+
+        boolean build = into != null;
+        float[] xs = new float[build ? pointCount : 0];
+        float[] ys = new float[build ? pointCount : 0];
+        int x = 0;
+        int y = 0;
+
+        for (int p = 0; p < pointCount; p++) {
+
+            x += unzigzag(readVarInt(buffer, start));
+            y += unzigzag(readVarInt(buffer, start));
+
+            if (build) {
+
+                xs[p] = (float) x / quantum;
+                ys[p] = (float) y / quantum;
+            }
+        }
+
+        countOffset = buffer.position() - start;
+        int lineCount = readVarInt(buffer, start);
+        checkCount(buffer, start, lineCount, countOffset, 2, MAX_LINES_, "line count of tile " + tile);
+
+        for (int j = 0; j < lineCount; j++) {
+
+            int from = readVarInt(buffer, start);
+            int to = readVarInt(buffer, start);
+
+            if (from >= pointCount || to >= pointCount) {
+
+                throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, buffer.position() - start,
+                        "line " + j + " of tile " + tile + " points past " + pointCount + " endpoints");
+            }
+            if (build) {
+
+                int line = at + j * TileGeometry.LINE_FLOATS_;
+                into[line] = xs[from];
+                into[line + 1] = ys[from];
+                into[line + 2] = xs[to];
+                into[line + 3] = ys[to];
+            }
+        }
+        return lineCount;
+    }
+
+
+    /**
+     * This function reads one variable length int, as written by
+     * MazeWriter.putVarInt(). Counts and indexes are never negative, so anything
+     * that does not fit in 31 bits is an error. So is a value written with more
+     * bytes than it needs, which MazeWriter never does, so each value has exactly
+     * one encoding and a file cannot be changed without changing its bytes.
+     * @param buffer, the file contents positioned at the first byte of the int.
+     * @param start, where the file starts in the buffer, for the error offset.
+     * @return the value, between 0 and Integer.MAX_VALUE.
+     * @throws MazeFormatException if the int is longer than five bytes, too large,
+     * or ends in a zero byte.
+     */
+    static int readVarInt(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        int value = 0;
+
+        for (int shift = 0; shift < 35; shift += 7) {
+
+            byte next = buffer.get();
+
+            //The fifth byte only has room for bits 28 to 30, anything above would be shifted out.
+            if (shift == 28 && (next & 0x78) != 0) {
+                break;
+            }
+            value |= (next & 0x7F) << shift;
+
+            if (next >= 0) {
+
+                if (next == 0 && shift > 0) {
+
+                    throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, buffer.position() - start,
+                            "variable length int has a trailing zero byte");
+                }
+                return value;
+            }
+        }
+        throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, buffer.position() - start,
+                "variable length int out of range");
+    }
+
+
+    /**
+     * This function turns a zigzag encoded int back into a signed one.
+     * @param value, 0, 1, 2, 3... for 0, -1, 1, -2...
+     * @return the signed value.
+     */
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+
+    /**
+     * This function checks a count read from a file before anything is sized
+     * from it. The count must not be negative, must be within its limit, and
+     * the records it declares must fit in what is left of the buffer.
+     * @param buffer, the file contents positioned just after the count, or after
+     * any header fields that come between the count and its records.
+     * @param start, where the file starts in the buffer.
+     * @param count, the count read from the file.
+     * @param countOffset, where the count sits in the file, for the error offset.
+     * @param recordBytes, the fewest bytes one record can take.
+     * @param limit, the largest count allowed.
+     * @param field, what the count is, for the error message.
+     * @throws MazeFormatException if the count is negative, over its limit, or
+     * larger than what is left of the file.
+     */
+    static void checkCount(ByteBuffer buffer, int start, int count, int countOffset, int recordBytes, int limit,
+            String field) throws MazeFormatException {
+
+        if (count < 0) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.BAD_VALUE, countOffset,
+                    field + " of " + count);
+        }
+        if (count > limit) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TOO_LARGE, countOffset,
+                    field + " of " + count + " is over the limit of " + limit);
+        }
+        if ((long) count * recordBytes > buffer.remaining()) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TRUNCATED, countOffset,
+                    field + " of " + count + " needs at least " + (long) count * recordBytes + " bytes, "
+                    + buffer.remaining() + " are left");
+        }
+    }
+
+
+    /**
+     * This function decodes the body of a previously saved file, starting just after
+     * the magic number. It is the same as decodeMaze(), with the exception that it
+     * reads the played time and the rotation of every tile. The pieces of a save
+     * can be arranged without a single line having been built.
+     * @param buffer, the file contents positioned after the magic number.
+     * @param start, where the file starts in the buffer.
+     * @return the decoded save.
+     * @throws MazeFormatException if a count is out of range.
+     */
+    private static MazeModel decodeSave(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        int tileCount = buffer.getInt();
+        long loadTime = buffer.getLong();
+        checkCount(buffer, start, tileCount, 4, MazeWriter.RECORD_BYTES_, MAX_TILES_, "tile count");
+
+        int[] tileIds = new int[tileCount];
+        int[] tileLines = new int[tileCount];
+        int[] rotations = new int[tileCount];
+        int[] lineOffsets = new int[tileCount];
+
+        for (int i = 0; i < tileCount; i++) {
+
+            //tile position ID, rotations, and number of lines for tile
+            tileIds[i] = buffer.getInt();
+            rotations[i] = buffer.getInt();
+            tileLines[i] = buffer.getInt();
+            checkCount(buffer, start, tileLines[i], buffer.position() - start - 4, MazeWriter.LINE_BYTES_,
+                    MAX_LINES_, "line count of tile " + i);
+            lineOffsets[i] = skipLines(buffer, tileLines[i]);
+        }
+        return new MazeModel(SAVE_MAGIC_, loadTime, tileIds, rotations, tileLines,
+                new TileGeometry(buffer.duplicate(), lineOffsets, tileLines, 0), null);
+    }
+
+
+    /**
+     * This function decodes the body of a compact save, starting just after the
+     * magic number. The header holds the tile count, the played time and the hash
+     * of the maze, followed by only a position and a rotation for every tile. The
+     * lines are those of the maze, which is looked up in the MazeStore, and are
+     * shared with it rather than decoded again.
+     * @param buffer, the file contents positioned after the magic number.
+     * @param start, where the file starts in the buffer.
+     * @return the decoded save, with the lines of its maze.
+     * @throws MazeFormatException if a count is out of range, or the maze cannot
+     * be found or does not match.
+     */
+    private static MazeModel decodeCompactSave(ByteBuffer buffer, int start) throws MazeFormatException {
+
+        int tileCount = buffer.getInt();
+        long loadTime = buffer.getLong();
+        byte[] sourceHash = new byte[MazeStore.HASH_BYTES_];
+        buffer.get(sourceHash);
+        checkCount(buffer, start, tileCount, 4, MazeWriter.COMPACT_RECORD_BYTES_, MAX_TILES_, "tile count");
+
+        int[] tileIds = new int[tileCount];
+        int[] rotations = new int[tileCount];
+
+        for (int i = 0; i < tileCount; i++) {
+
+            tileIds[i] = buffer.getInt();
+            rotations[i] = buffer.getInt();
+        }
+
+        MazeModel maze = MazeStore.findModel(sourceHash);
+
+        if (maze == null) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.MISSING_MAZE, COMPACT_HASH_OFFSET_,
+                    "no maze with hash " + MazeStore.toHex(sourceHash));
+        }
+        if (maze.getTileCount() != tileCount) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.MISSING_MAZE, 4,
+                    tileCount + " tiles, but the maze has " + maze.getTileCount());
+        }
+
+        return new MazeModel(COMPACT_SAVE_MAGIC_, loadTime, tileIds, rotations, maze.getTileLines(),
+                maze.getGeometry(), sourceHash);
+    }
+
+
+    /**
+     * This function steps over the lines of one tile, whose count has already
+     * been checked against what is left of the buffer.
+     * @param buffer, the file contents positioned at the first line of a tile.
+     * @param lineCount, the number of lines this tile holds.
+     * @return where the lines start in the buffer.
+     */
+    private static int skipLines(ByteBuffer buffer, int lineCount) {
+
+        int offset = buffer.position();
+        buffer.position(offset + lineCount * MazeWriter.LINE_BYTES_);
+        return offset;
+    }
+
+
+    /**
+     * This function decodes the lines of one tile that parsing stepped over into
+     * a packed coordinate array, four floats a line, see TileGeometry.
+     * @param contents, the file contents, which are not moved.
+     * @param offset, where the lines of the tile start, or for the quantized
+     * format, where its endpoint count is.
+     * @param lineCount, the number of lines of the tile.
+     * @param quantum, the grid steps per pixel of a quantized maze, or 0 for floats.
+     * @param into, the packed coordinates.
+     * @param at, where the first line goes in into.
+     */
+    static void decodeTile(ByteBuffer contents, int offset, int lineCount, int quantum, float[] into, int at) {
+
+        if (quantum == 0) {
+
+            decodeLines(contents, offset, lineCount, into, at);
+            return;
+        }
+
+        ByteBuffer buffer = contents.duplicate();
+        buffer.position(offset);
+
+        try {
+
+            decodeQuantizedTile(buffer, 0, 0, quantum, into, at);
+
+        } catch (MazeFormatException exception) {
+
+            //Every tile was walked with the same checks while parsing.
+            throw new IllegalStateException(exception);
+        }
+    }
+
+
+    /**
+     * Every line of a tile is stored as two pairs (four values) of floats in
+     * order x0, y0, x1, y1, which is the packed order as well, so the floats of
+     * the whole tile are copied across in one bulk read. The buffer is never moved.
+     * @param contents, the file contents.
+     * @param offset, where the first line of the tile starts.
+     * @param lineCount, the number of lines this tile holds.
+     * @param into, the packed coordinates.
+     * @param at, where the first line goes in into.
+     */
+    private static void decodeLines(ByteBuffer contents, int offset, int lineCount, float[] into, int at) {
+
+        //A duplicate is always big endian, which is how every file is written.
+        ByteBuffer lines = contents.duplicate();
+        lines.position(offset);
+        lines.asFloatBuffer().get(into, at, lineCount * TileGeometry.LINE_FLOATS_);
+    }
+
+
+    /**
+     * This function pulls an entire file into a single big-endian ByteBuffer
+     * with as few reads as the channel allows. Small files are read onto
+     * the heap, larger ones are memory mapped instead.
+     * Reads are repeated until the buffer is full, so a short read from the
+     * channel can never leave part of the buffer unfilled.
+     * @param file, the file to read.
+     * @return a buffer holding the whole file, positioned at 0.
+     * @throws IOException if the file cannot be opened or read.
+     */
+    static ByteBuffer readFully(File file) throws IOException {
+
+        MazeWriter.finishPatch(file.toPath());
+
+        try (
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ) {
+
+            return readFully(channel);
+        }
+    }
+
+
+    /**
+     * This function pulls the rest of a channel into a single big-endian
+     * ByteBuffer. A large file channel is memory mapped. Any other channel that
+     * knows its size, such as a zip entry, is read straight into a buffer of
+     * exactly that size, and reading stops once it is full. A channel that does not know its size is read into a
+     * buffer that doubles whenever it fills up.
+     * @param channel, the byte source, positioned where reading should start.
+     * @return a buffer holding everything up to the end of the channel, positioned at 0.
+     * @throws MazeFormatException if there is more than MAX_READ_BYTES_ to read
+     * onto the heap.
+     * @throws IOException if the channel cannot be read.
+     */
+    static ByteBuffer readFully(ReadableByteChannel channel) throws IOException {
+
+        long size = -1;
+
+        if (channel instanceof SeekableByteChannel) {
+
+            SeekableByteChannel seekable = (SeekableByteChannel) channel;
+            size = seekable.size() - seekable.position();
+
+            if (channel instanceof FileChannel && size > MAP_THRESHOLD_) {
+
+                return ((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, seekable.position(), size);
+            }
+        }
+
+        if (size > MAX_READ_BYTES_) {
+
+            throw new MazeFormatException(MazeFormatException.Reason.TOO_LARGE, 0,
+                    size + " bytes is over the read limit of " + MAX_READ_BYTES_);
+        }
+
+        if (size >= 0) {
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+
+            while (buffer.hasRemaining()) {
+
+                if (channel.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+        while (channel.read(buffer) >= 0) {
+
+            if (!buffer.hasRemaining()) {
+
+                if (buffer.capacity() > MAX_READ_BYTES_) {
+
+                    throw new MazeFormatException(MazeFormatException.Reason.TOO_LARGE, buffer.capacity(),
+                            "source is over the read limit of " + MAX_READ_BYTES_ + " bytes");
+                }
+                ByteBuffer larger = ByteBuffer.allocate((int) Math.min(MAX_READ_BYTES_ + 1L, buffer.capacity() * 2L));
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+};
@@ -0,0 +1,180 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This is a command line tool that converts CAFEBEEF maze files into the
+ * quantized CAFEBEE2 form. Every converted maze is parsed back and checked
+ * against the original before it is written: the tile IDs and line counts must
+ * be the same, and no coordinate may move by more than half a grid step. A maze
+ * with a coordinate that is not a number is not converted. With the
+ * default quantum of 16 steps per pixel, that is a 32nd of a pixel, well below
+ * what the game can draw.
+ * Files and folders are given on the command line. Each maze is written next to
+ * the original with a .mzq extension, or into the folder given with --out.
+ *
+ *     java MazeQuantizer [--quantum 16] [--out folder] file-or-folder...
+ *
+ * The exit status is 1 if any maze could not be converted.
+ */
+public class MazeQuantizer {
+
+    private static final int DEFAULT_QUANTUM_ = 16;
+
+    public static void main(String[] args) {
+
+        int quantum = DEFAULT_QUANTUM_;
+        File out = null;
+        List<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--quantum".equals(args[i]) && i + 1 < args.length) {
+
+                quantum = Integer.parseInt(args[++i]);
+
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+
+                out = new File(args[++i]);
+
+            } else {
+
+                listFiles(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty() || quantum <= 0) {
+
+            System.err.println("usage: java MazeQuantizer [--quantum 16] [--out folder] file-or-folder...");
+            System.exit(2);
+        }
+
+        long before = 0;
+        long after = 0;
+        int converted = 0;
+        int failures = 0;
+
+        for (File file : files) {
+
+            try {
+
+                MazeModel maze = MazeParser.parse(file);
+
+                if (maze.getMagic() != MazeParser.MAZE_MAGIC_) {
+                    continue;
+                }
+
+                ByteBuffer encoded = MazeWriter.encodeQuantizedMaze(maze, quantum);
+                double error = maxError(maze, MazeParser.parse(encoded.duplicate()));
+
+                //Written so that a NaN error fails too.
+                if (!(error <= 0.5 / quantum)) {
+
+                    System.out.println("failed " + file + ": lines moved by " + error + " pixels");
+                    failures++;
+                    continue;
+                }
+
+                File target = new File(out == null ? file.getAbsoluteFile().getParentFile() : out,
+                        baseName(file) + ".mzq");
+                MazeWriter.replace(target.toPath(), encoded.duplicate());
+
+                System.out.println("converted " + file + ": " + file.length() + " -> " + encoded.remaining()
+                        + " bytes, " + (error == 0 ? "exact" : "within " + error + " pixels"));
+                before += file.length();
+                after += encoded.remaining();
+                converted++;
+
+            } catch (IOException | IllegalArgumentException exception) {
+
+                System.out.println("failed " + file + ": " + exception.getMessage());
+                failures++;
+            }
+        }
+        System.out.println(converted + " mazes converted, " + before + " -> " + after + " bytes, "
+                + failures + " not converted");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * This function measures how far the quantized lines are from the originals.
+     * @param original, the maze as read from the CAFEBEEF file.
+     * @param quantized, the same maze after a round trip through the quantized form.
+     * @return the largest coordinate difference in pixels, or infinity if the
+     * tiles, IDs or line counts do not match.
+     */
+    private static double maxError(MazeModel original, MazeModel quantized) {
+
+        if (original.getTileCount() != quantized.getTileCount()
+                || !Arrays.equals(original.getTileIds(), quantized.getTileIds())
+                || !Arrays.equals(original.getTileLines(), quantized.getTileLines())) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double error = 0;
+
+        for (int i = 0; i < original.getTileCount(); i++) {
+
+            Line2D[] originalLines = original.getLines(i);
+            Line2D[] quantizedLines = quantized.getLines(i);
+
+            for (int j = 0; j < originalLines.length; j++) {
+
+                error = Math.max(error, Math.abs(originalLines[j].getX1() - quantizedLines[j].getX1()));
+                error = Math.max(error, Math.abs(originalLines[j].getY1() - quantizedLines[j].getY1()));
+                error = Math.max(error, Math.abs(originalLines[j].getX2() - quantizedLines[j].getX2()));
+                error = Math.max(error, Math.abs(originalLines[j].getY2() - quantizedLines[j].getY2()));
+            }
+        }
+        return error;
+    }
+
+
+    /**
+     * This function strips the extension from a file name.
+     * @param file, the file.
+     * @return the name up to the last dot.
+     */
+    private static String baseName(File file) {
+
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+
+    /**
+     * This function adds a file, or every file directly inside a folder, to a list.
+     * @param file, a file or folder from the command line.
+     * @param files, the list to add to.
+     */
+    private static void listFiles(File file, List<File> files) {
+
+        File[] children = file.listFiles();
+
+        if (children == null) {
+
+            files.add(file);
+            return;
+        }
+        Arrays.sort(children);
+
+        for (File child : children) {
+
+            if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+};
@@ -0,0 +1,181 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * This class makes sure each maze or save file is only parsed once. Every Content
+ * object, every load and every reset asks this class for a MazeModel instead of
+ * building its own RawFileHandler. Models are kept by absolute path, along with
+ * the entry name for a maze that comes out of a MazePack or zip file, and are only
+ * reused while the size and modification time of the file still match, so an
+ * overwritten save is always parsed again.
+ * The cache is bounded, the least recently used file is dropped once
+ * MAX_ENTRIES_ files are held, so loading many mazes in one session keeps a flat heap.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @MAX_ENTRIES_, the number of parsed files that are held at once.
+ * @cache_, an access ordered map from absolute path, or path!entry for an archive,
+ * to the cached entry.
+ * @hitCount_, the number of requests answered from the cache.
+ * @missCount_, the number of requests that had to parse a file.
+ */
+public class MazeRepository {
+
+    private static final int MAX_ENTRIES_ = 32;
+
+    private static final LinkedHashMap<String, CachedModel> cache_ =
+            new LinkedHashMap<String, CachedModel>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedModel> eldest) {
+            return size() > MAX_ENTRIES_;
+        }
+    };
+
+    private static long hitCount_ = 0;
+    private static long missCount_ = 0;
+
+
+    /**
+     * This function returns the parsed contents of a file, parsing it only if
+     * it has not been seen before or has changed on disk since. The parse itself
+     * happens outside of the lock, so different files can be parsed at the same time.
+     * @param file, the maze or save file.
+     * @return the shared model.
+     * @throws NoSuchFileException if there is no file at this path.
+     * @throws MazeFormatException if the file is not a valid maze or save.
+     * Failed parses are not cached.
+     * @throws IOException if the file cannot be read.
+     */
+    public static MazeModel get(File file) throws IOException {
+
+        return get(file, null);
+    }
+
+
+    /**
+     * This function does the same as get(File) for one entry of a maze pack or
+     * zip file. The whole archive is checked for changes, so replacing it drops
+     * every entry parsed from it.
+     * @param file, the maze or save file, or the archive holding it.
+     * @param entry, the name of the entry in the archive, or null for a plain file.
+     * @return the shared model.
+     * @throws NoSuchFileException if there is no file at this path, or no such entry.
+     * @throws MazeFormatException if the file or entry is not a valid maze or save.
+     * @throws IOException if the file cannot be read.
+     */
+    public static MazeModel get(File file, String entry) throws IOException {
+
+        String key = entry == null ? file.getAbsolutePath() : file.getAbsolutePath() + "!" + entry;
+        BasicFileAttributes attributes;
+
+        try {
+
+            attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+
+        } catch (IOException exception) {
+
+            synchronized (MazeRepository.class) {
+                cache_.remove(key);
+                missCount_++;
+            }
+            throw exception;
+        }
+
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        synchronized (MazeRepository.class) {
+
+            CachedModel cached = cache_.get(key);
+
+            if (cached != null && cached.size_ == size && cached.modified_ == modified) {
+
+                hitCount_++;
+                return cached.model_;
+            }
+            missCount_++;
+        }
+
+        MazeModel model = entry == null ? MazeParser.parse(file) : MazeArchive.parse(file, entry);
+
+        if (model.isMaze()) {
+
+            //Lets compact saves of this maze find it without scanning.
+            MazeStore.remember(model, file, entry);
+        }
+
+        synchronized (MazeRepository.class) {
+
+            cache_.put(key, new CachedModel(model, size, modified));
+        }
+        return model;
+    }
+
+
+    /**
+     * This function drops every cached model, and resets the counters.
+     */
+    public static synchronized void clear() {
+
+        cache_.clear();
+        hitCount_ = 0;
+        missCount_ = 0;
+    }
+
+
+    /**
+     * This is a getter for the number of requests answered from the cache.
+     * @return hitCount_.
+     */
+    public static synchronized long getHitCount() {
+        return hitCount_;
+    }
+
+    /**
+     * This is a getter for the number of requests that parsed a file.
+     * @return missCount_.
+     */
+    public static synchronized long getMissCount() {
+        return missCount_;
+    }
+
+    /**
+     * This is a getter for the number of files currently cached.
+     * @return the size of cache_.
+     */
+    public static synchronized int getCachedCount() {
+        return cache_.size();
+    }
+
+
+    /**
+     * A cached model, along with the size and modification time the file had
+     * when it was parsed.
+     */
+    private static final class CachedModel {
+
+        private final MazeModel model_;
+        private final long size_;
+        private final long modified_;
+
+        private CachedModel(MazeModel model, long size, long modified) {
+
+            model_ = model;
+            size_ = size;
+            modified_ = modified;
+        }
+    };
+
+};
@@ -0,0 +1,555 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * This class is the local store of maze files that compact saves point at. A
+ * compact save only holds the SHA-256 of its maze, so this class keeps a map from
+ * hash to file. Every maze MazeRepository parses is added to the map, hashed only
+ * once a hash is looked for that the map does not have, and when a hash is still
+ * not known, the store folders are walked for maze files, and for
+ * mazes inside maze packs and zip files, until it turns up.
+ * The game/input folder is always a store folder, more can be added with
+ * -Djmaze.store=folder1:folder2, separated the same way as a class path.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @HASH_BYTES_, the length of a SHA-256 hash.
+ * @roots_, the folders that are scanned for mazes.
+ * @index_, the known mazes, from hash in hex to where the maze is, guarded by
+ * the class lock.
+ * @pending_, the mazes remembered but not hashed yet, from where each is to its
+ * model, held weakly so the store keeps no maze in memory, guarded by the class lock.
+ * @WALK_LOCK_, held while the store folders are walked, so only one walk runs at
+ * a time, without keeping remember() waiting on it.
+ * @walked_, each file and pack entry seen by a walk, from its path to what it held,
+ * guarded by WALK_LOCK_.
+ * @misses_, the hashes in hex a walk did not find, each with the modified times
+ * of the store folders at the time, guarded by WALK_LOCK_.
+ */
+public class MazeStore {
+
+    static final int HASH_BYTES_ = 32;
+
+    private static final List<File> roots_ = storeRoots();
+    private static final Map<String, Location> index_ = new HashMap<String, Location>();
+    private static final Map<Location, WeakReference<MazeModel>> pending_ =
+            new HashMap<Location, WeakReference<MazeModel>>();
+
+    private static final Object WALK_LOCK_ = new Object();
+    private static final Map<String, Walked> walked_ = new HashMap<String, Walked>();
+    private static final Map<String, Long> misses_ = new HashMap<String, Long>();
+
+
+    /**
+     * This function hashes the contents of a buffer, from its position to its
+     * limit, without moving the position.
+     * @param contents, the bytes of a maze file.
+     * @return the SHA-256 of those bytes.
+     */
+    public static byte[] hash(ByteBuffer contents) {
+
+        try {
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(contents.duplicate());
+            return digest.digest();
+
+        } catch (NoSuchAlgorithmException exception) {
+
+            //Every Java platform is required to have SHA-256.
+            throw new IllegalStateException(exception);
+        }
+    }
+
+
+    /**
+     * This function adds a maze to the store, so compact saves of it can find it
+     * without a scan. It is called by MazeRepository for every maze it parses, and
+     * the maze is only hashed if a hash is looked for that the store does not know.
+     * @param model, the parsed maze.
+     * @param maze, where the maze file is.
+     */
+    public static void remember(MazeModel model, File maze) {
+
+        remember(model, maze, null);
+    }
+
+
+    /**
+     * This function adds a maze that may be inside a pack to the store.
+     * @param model, the parsed maze.
+     * @param maze, where the maze file, or the pack holding it, is.
+     * @param entry, the name of the maze in the pack, or null for a plain file.
+     */
+    public static synchronized void remember(MazeModel model, File maze, String entry) {
+
+        pending_.put(new Location(maze.getAbsoluteFile(), entry), new WeakReference<MazeModel>(model));
+    }
+
+
+    /**
+     * This function finds and parses the maze with a given hash, through
+     * MazeRepository, so the lines are shared with everything else using it.
+     * A maze that has changed since it was added no longer counts. MazeLibrary is
+     * asked next, and the store folders are only indexed if it has not seen the
+     * maze either. The indexing stops as soon as the maze turns up, and a maze that
+     * is not found is not looked for again until a store folder changes.
+     * @param sourceHash, the hash stored in a compact save.
+     * @return the parsed maze, or null if the store does not have it.
+     */
+    public static MazeModel findModel(byte[] sourceHash) {
+
+        String key = toHex(sourceHash);
+        MazeModel model = load(locate(key), sourceHash);
+
+        if (model != null) {
+            return model;
+        }
+        forget(key);
+        MazeLibrary.Listing listing = MazeLibrary.find(sourceHash);
+
+        if (listing != null) {
+
+            model = load(new Location(listing.getFile(), listing.getEntry()), sourceHash);
+
+            if (model != null) {
+                return model;
+            }
+        }
+
+        synchronized (WALK_LOCK_) {
+
+            //Another caller may have found it, or given up on it, while this one waited.
+            long stamp = rootsStamp();
+            Long missed = misses_.get(key);
+
+            if (missed != null && missed == stamp) {
+                return null;
+            }
+            if (locate(key) == null && !index(key)) {
+
+                misses_.put(key, stamp);
+                return null;
+            }
+            misses_.remove(key);
+        }
+        return load(locate(key), sourceHash);
+    }
+
+
+    /**
+     * This function finds the maze with a given hash in the store folders only,
+     * and reads it again from the disk, so nothing this process happens to have
+     * in memory, or in MazeLibrary, can stand in for it. It is what a compact
+     * save needs before it is written: a new game finds its maze the same way.
+     * @param sourceHash, the hash of the maze.
+     * @return the maze, freshly parsed, or null if no store folder holds a maze
+     * with exactly this hash.
+     */
+    static MazeModel findOnDisk(byte[] sourceHash) {
+
+        String key = toHex(sourceHash);
+        Location location;
+
+        synchronized (WALK_LOCK_) {
+
+            if (!index(key)) {
+                return null;
+            }
+            location = locate(key);
+        }
+
+        try {
+
+            ByteBuffer contents = location.entry_ == null ? MazeParser.readFully(location.file_)
+                    : MazeArchive.read(location.file_, location.entry_);
+            MazeModel model = MazeParser.parse(contents.duplicate());
+            contents.rewind();
+
+            return model.isMaze() && Arrays.equals(hash(contents), sourceHash) ? model : null;
+
+        } catch (IOException exception) {
+
+            return null;
+        }
+    }
+
+
+    /**
+     * This function looks through every store folder, adds every maze it finds,
+     * and parses all of them. Only SaveConverter needs every maze at once, the
+     * game itself goes through findModel().
+     * @return every maze now in the store.
+     */
+    public static List<MazeModel> scan() {
+
+        synchronized (WALK_LOCK_) {
+            index(null);
+        }
+
+        List<Location> locations;
+
+        synchronized (MazeStore.class) {
+
+            hashPending();
+            locations = new ArrayList<Location>(index_.values());
+        }
+
+        List<MazeModel> mazes = new ArrayList<MazeModel>();
+
+        for (Location location : locations) {
+
+            MazeModel model = load(location, null);
+
+            if (model != null) {
+                mazes.add(model);
+            }
+        }
+        return mazes;
+    }
+
+
+    /**
+     * This function looks through every store folder, and adds every maze it
+     * finds, whether on its own or inside a pack or zip file, to the index. Each
+     * maze is parsed on its own, not through MazeRepository, whose few slots a
+     * whole folder would only flush, and a file that has not changed since the last
+     * walk is not parsed again. Files that are neither mazes nor archives are
+     * skipped after reading their first four bytes.
+     * It must be called while holding WALK_LOCK_.
+     * @param wanted, the hash in hex to stop at, or null to index every maze.
+     * @return true if wanted was found.
+     */
+    private static boolean index(String wanted) {
+
+        for (File root : roots_) {
+
+            File[] files = root.listFiles();
+
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+
+                if (!file.isFile()) {
+                    continue;
+                }
+                long stamp = file.lastModified() * 31 + file.length();
+
+                if (isMaze(file)) {
+
+                    if (index(file, null, stamp, wanted)) {
+                        return true;
+                    }
+
+                } else if (MazeArchive.isArchive(file)) {
+
+                    try {
+
+                        for (String entry : MazeArchive.list(file)) {
+
+                            if (index(file, entry, stamp, wanted)) {
+                                return true;
+                            }
+                        }
+
+                    } catch (IOException exception) {
+
+                        //A broken archive is simply not part of the store.
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * This function adds one maze found by a walk to the index. Saves that were
+     * packed alongside the mazes are left out before they are decoded, so a compact
+     * save in a pack never sends the walk looking for its own maze.
+     * It must be called while holding WALK_LOCK_.
+     * @param file, the maze file, or the pack holding it.
+     * @param entry, the name of the maze in the pack, or null for a plain file.
+     * @param stamp, the modified time and length of file, as of this walk.
+     * @param wanted, the hash in hex the walk stops at, or null.
+     * @return true if the maze is the wanted one.
+     */
+    private static boolean index(File file, String entry, long stamp, String wanted) {
+
+        file = file.getAbsoluteFile();
+        String name = entry == null ? file.getPath() : file.getPath() + '!' + entry;
+        Walked walked = walked_.get(name);
+        String key = null;
+
+        if (walked != null && walked.stamp_ == stamp) {
+
+            key = walked.key_;
+
+        } else {
+
+            try {
+
+                ByteBuffer contents = entry == null ? MazeParser.readFully(file) : MazeArchive.read(file, entry);
+
+                if (contents.remaining() >= 4 && isMazeMagic(contents.getInt(contents.position()))) {
+                    key = toHex(MazeParser.parse(contents).getSourceHash());
+                }
+
+            } catch (IOException exception) {
+
+                //A broken maze is simply not part of the store.
+            }
+            walked_.put(name, new Walked(stamp, key));
+        }
+
+        if (key == null) {
+            return false;
+        }
+
+        synchronized (MazeStore.class) {
+            index_.put(key, new Location(file, entry));
+        }
+        return key.equals(wanted);
+    }
+
+
+    /**
+     * This is a getter for where the index says a maze is.
+     * @param key, the hash of the maze in hex.
+     * @return where the maze was last seen, or null.
+     */
+    private static synchronized Location locate(String key) {
+
+        if (!index_.containsKey(key)) {
+            hashPending();
+        }
+        return index_.get(key);
+    }
+
+
+    /**
+     * This function hashes every maze remembered since the last time, and adds
+     * the ones still in memory to the index. A maze that has been let go is
+     * found again by a walk, if it is in a store folder.
+     * It must be called while holding the class lock.
+     */
+    private static void hashPending() {
+
+        for (Map.Entry<Location, WeakReference<MazeModel>> pending : pending_.entrySet()) {
+
+            MazeModel model = pending.getValue().get();
+
+            if (model != null) {
+                index_.put(toHex(model.getSourceHash()), pending.getKey());
+            }
+        }
+        pending_.clear();
+    }
+
+
+    /**
+     * This function takes a maze that is gone or has changed out of the index.
+     * @param key, the hash of the maze in hex.
+     */
+    private static synchronized void forget(String key) {
+        index_.remove(key);
+    }
+
+
+    /**
+     * This function sums up the modified times of the store folders. A file added
+     * to, taken out of or renamed in a folder changes its modified time.
+     * @return a number that changes whenever a store folder changes.
+     */
+    private static long rootsStamp() {
+
+        long stamp = 0;
+
+        for (File root : roots_) {
+            stamp = stamp * 31 + root.lastModified();
+        }
+        return stamp;
+    }
+
+
+    /**
+     * This function writes a hash out as lower case hex, for messages and map keys.
+     * @param sourceHash, the hash.
+     * @return two hex digits per byte.
+     */
+    static String toHex(byte[] sourceHash) {
+
+        StringBuilder hex = new StringBuilder(sourceHash.length * 2);
+
+        for (byte value : sourceHash) {
+
+            hex.append(Character.forDigit((value >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(value & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+
+    /**
+     * This function parses a maze that is in the index.
+     * @param location, where the maze is, or null.
+     * @param sourceHash, the hash the maze must still have, or null to accept any.
+     * @return the parsed maze, or null if it is gone, broken or has changed.
+     */
+    private static MazeModel load(Location location, byte[] sourceHash) {
+
+        if (location == null) {
+            return null;
+        }
+
+        try {
+
+            MazeModel model = MazeRepository.get(location.file_, location.entry_);
+
+            if (!model.isMaze() || (sourceHash != null && !Arrays.equals(model.getSourceHash(), sourceHash))) {
+                return null;
+            }
+            return model;
+
+        } catch (IOException exception) {
+
+            return null;
+        }
+    }
+
+
+    /**
+     * This is a check for whether a file starts with one of the maze magic numbers.
+     * @param file, the file to check.
+     * @return true if the first four bytes are 0xCAFEBEEF, 0xCAFEBEE2 or 0xCAFEB10C.
+     */
+    private static boolean isMaze(File file) {
+
+        try (
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        ) {
+
+            ByteBuffer magic = ByteBuffer.allocate(4);
+
+            while (magic.hasRemaining()) {
+
+                if (channel.read(magic) < 0) {
+                    return false;
+                }
+            }
+            return isMazeMagic(magic.getInt(0));
+
+        } catch (IOException exception) {
+
+            return false;
+        }
+    }
+
+
+    /**
+     * This is a check for whether a magic number is one of the maze magic numbers.
+     * @param magic, the first four bytes of a file.
+     * @return true if it is 0xCAFEBEEF, 0xCAFEBEE2 or 0xCAFEB10C.
+     */
+    private static boolean isMazeMagic(int magic) {
+
+        return magic == MazeParser.MAZE_MAGIC_ || magic == MazeParser.QUANTIZED_MAZE_MAGIC_
+                || magic == MazeParser.CHUNKED_MAZE_MAGIC_;
+    }
+
+
+    /**
+     * This is a getter for the folders that are scanned for mazes.
+     * @return roots_, which must not be changed.
+     */
+    static List<File> getRoots() {
+        return roots_;
+    }
+
+
+    /**
+     * This function reads the store folders from the command line.
+     * @return game/input, followed by every folder in -Djmaze.store.
+     */
+    private static List<File> storeRoots() {
+
+        List<File> roots = new ArrayList<File>();
+        roots.add(new File("game/input"));
+
+        String extra = System.getProperty("jmaze.store");
+
+        if (extra != null) {
+
+            for (String path : extra.split(File.pathSeparator)) {
+
+                if (!path.isEmpty()) {
+                    roots.add(new File(path));
+                }
+            }
+        }
+        return roots;
+    }
+
+
+    /**
+     * What a walk found in a file or pack entry, and when, so it is only parsed
+     * again once it changes.
+     */
+    private static final class Walked {
+
+        private final long stamp_;
+        private final String key_;
+
+        private Walked(long stamp, String key) {
+
+            stamp_ = stamp;
+            key_ = key;
+        }
+    };
+
+
+    /**
+     * Where a maze in the index is, a plain file, or an entry in a pack.
+     */
+    private static final class Location {
+
+        private final File file_;
+        private final String entry_;
+
+        private Location(File file, String entry) {
+
+            file_ = file;
+            entry_ = entry;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+
+            if (!(other instanceof Location)) {
+                return false;
+            }
+            Location location = (Location) other;
+            return file_.equals(location.file_) && Objects.equals(entry_, location.entry_);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * file_.hashCode() + Objects.hashCode(entry_);
+        }
+    };
+
+};
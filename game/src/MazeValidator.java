@@ -0,0 +1,484 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * This is a command line tool that checks every maze and save file under a
+ * folder, without opening the game. Files are checked in parallel on every core,
+ * and each one is read into a buffer owned by its thread, checked and dropped, so
+ * only one file per thread is ever held in memory.
+ * CAFEBEEF mazes and CAFEDEED saves are walked field by field, so that every
+ * problem in a file is reported rather than just the first: the magic number, a
+ * tile count of 16, line counts that fit in what is left of the file, an exact
+ * file length, and coordinates that are real numbers inside a tile. Saves also
+ * have their positions and rotations checked. The other formats are decoded with
+ * MazeParser, and any MazeFormatException is reported.
+ * A file that ends in a checksum trailer has it checked too. With --verify-only
+ * nothing else is checked, which is enough to find files that were damaged after
+ * they were written, and is quick enough for very large libraries.
+ * The report has one JSON object per line for every file, and is written as
+ * files finish, so it can be read while the run is still going. The checksum
+ * field is ok, bad, or none for files without a trailer. A file full of bad
+ * coordinates only has the first MAX_PROBLEMS_ of its problems listed, and one
+ * more problem that counts the rest, so a report line stays a few kilobytes.
+ *
+ *     java MazeValidator [--threads n] [--report file] [--verify-only] folder...
+ *
+ * The exit status is 1 if any file has a problem.
+ * @TILE_COUNT_, the number of tiles the game board needs.
+ * @TILE_SIZE_, the width and height of a tile, the range every coordinate must be in.
+ * @MAX_PROBLEMS_, how many problems of a file are listed before the rest are
+ * only counted.
+ * @QUEUE_PER_THREAD_, how many files may wait per thread before the folder walk
+ * waits for the checks to catch up.
+ */
+public class MazeValidator {
+
+    private static final int TILE_COUNT_ = 16;
+    private static final float TILE_SIZE_ = 100;
+    private static final int MAX_PROBLEMS_ = 100;
+    private static final int QUEUE_PER_THREAD_ = 64;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        String report = null;
+        boolean verifyOnly = false;
+        List<Path> roots = new ArrayList<Path>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+
+                threads = Integer.parseInt(args[++i]);
+
+            } else if ("--report".equals(args[i]) && i + 1 < args.length) {
+
+                report = args[++i];
+
+            } else if ("--verify-only".equals(args[i])) {
+
+                verifyOnly = true;
+
+            } else {
+
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty() || threads < 1) {
+
+            System.err.println("usage: java MazeValidator [--threads n] [--report file] [--verify-only] folder...");
+            System.exit(2);
+        }
+
+        boolean checkAll = !verifyOnly;
+        Writer out = new BufferedWriter(report == null ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : Files.newBufferedWriter(Paths.get(report), StandardCharsets.UTF_8));
+        AtomicLong checked = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ThreadLocal<ByteBuffer[]> buffers = new ThreadLocal<ByteBuffer[]>() {
+
+            @Override
+            protected ByteBuffer[] initialValue() {
+                return new ByteBuffer[] {ByteBuffer.allocate(4096)};
+            }
+        };
+
+        //A full queue makes the walking thread check files itself, which keeps the queue short.
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD_), new ThreadPoolExecutor.CallerRunsPolicy());
+        long start = System.nanoTime();
+
+        for (Path root : roots) {
+
+            try (
+                    Stream<Path> paths = Files.walk(root);
+            ) {
+
+                Iterator<Path> iterator = paths.iterator();
+
+                while (iterator.hasNext()) {
+
+                    Path path = iterator.next();
+
+                    if (!Files.isRegularFile(path)) {
+                        continue;
+                    }
+                    pool.execute(new Runnable() {
+
+                        @Override
+                        public void run() {
+
+                            String line = check(path, buffers.get(), checkAll);
+                            checked.incrementAndGet();
+
+                            if (!line.contains("\"status\":\"ok\"")) {
+                                failed.incrementAndGet();
+                            }
+                            synchronized (out) {
+
+                                try {
+
+                                    out.write(line);
+                                    out.write('\n');
+
+                                } catch (IOException exception) {
+
+                                    exception.printStackTrace();
+                                }
+                            }
+                        }
+                    });
+                }
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        out.flush();
+
+        if (report != null) {
+            out.close();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("%d files checked, %d with problems, %.0f files per second%n",
+                checked.get(), failed.get(), checked.get() / Math.max(seconds, 1e-9));
+        System.exit(failed.get() == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * This function checks one file, and describes the result as a JSON object.
+     * @param path, the file to check.
+     * @param buffer, a one element array holding this thread's read buffer, which
+     * is replaced with a larger one when a file does not fit.
+     * @param checkAll, false to check only the checksum trailer.
+     * @return the report line for this file.
+     */
+    static String check(Path path, ByteBuffer[] buffer, boolean checkAll) {
+
+        List<String> problems = new ArrayList<String>();
+        long size = -1;
+        int magic = 0;
+        int tileCount = -1;
+        String checksum = "none";
+
+        try (
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        ) {
+
+            size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+
+                problems.add("TOO_LARGE at offset 0: " + size + " bytes");
+
+            } else {
+
+                ByteBuffer contents = read(channel, (int) size, buffer);
+
+                if (contents.remaining() < size) {
+
+                    problems.add("SHORT_READ at offset " + contents.remaining() + ": file shrank while being read");
+                }
+                if (contents.remaining() < 4) {
+
+                    problems.add("TRUNCATED at offset 0: no magic number");
+
+                } else {
+
+                    magic = contents.getInt(0);
+                    boolean trailer;
+
+                    try {
+
+                        trailer = MazeParser.verify(contents);
+                        checksum = trailer ? "ok" : "none";
+
+                    } catch (MazeFormatException exception) {
+
+                        trailer = true;
+                        checksum = "bad";
+                        problems.add(exception.getMessage());
+                    }
+                    if (trailer) {
+                        contents.limit(contents.limit() - MazeParser.TRAILER_BYTES_);
+                    }
+                    if (checkAll) {
+                        tileCount = checkContents(contents, problems);
+                    }
+                }
+            }
+
+        } catch (IOException exception) {
+
+            problems.add("UNREADABLE: " + exception);
+        }
+        return report(path, size, magic, tileCount, checksum, problems);
+    }
+
+
+    /**
+     * This function checks the contents of one file.
+     * @param contents, the whole file up to any checksum trailer, positioned at 0.
+     * @param problems, where to add every problem found.
+     * @return the declared tile count, or -1 if there is none.
+     */
+    private static int checkContents(ByteBuffer contents, List<String> problems) {
+
+        int magic = contents.getInt(0);
+
+        if (magic == MazeParser.MAZE_MAGIC_ || magic == MazeParser.SAVE_MAGIC_) {
+            return walkTiles(contents, magic == MazeParser.SAVE_MAGIC_, problems);
+        }
+
+        try {
+
+            MazeModel model = MazeParser.parse(contents.duplicate());
+
+            if (model.getTileCount() != TILE_COUNT_) {
+
+                problems.add("BAD_TILE_COUNT at offset 4: " + model.getTileCount() + " tiles, the board has "
+                        + TILE_COUNT_);
+            }
+            return model.getTileCount();
+
+        } catch (MazeFormatException exception) {
+
+            problems.add(exception.getMessage());
+
+        } catch (RuntimeException | OutOfMemoryError exception) {
+
+            problems.add("UNDECODABLE: " + exception);
+        }
+        return -1;
+    }
+
+
+    /**
+     * This function walks a CAFEBEEF maze or CAFEDEED save one field at a time.
+     * Both have the same layout, a 16 byte header and then, per tile, three ints
+     * and four floats for every line. In a maze the first int is a tile number
+     * and the second a tile ID, in a save they are the position and rotation.
+     * @param contents, the whole file up to any checksum trailer, positioned at 0.
+     * @param isSave, whether to check positions and rotations.
+     * @param problems, where to add every problem found.
+     * @return the declared tile count.
+     */
+    private static int walkTiles(ByteBuffer contents, boolean isSave, List<String> problems) {
+
+        int limit = contents.limit();
+
+        if (limit < MazeWriter.HEADER_BYTES_) {
+
+            problems.add("TRUNCATED at offset 4: header is " + limit + " bytes");
+            return -1;
+        }
+
+        int tileCount = contents.getInt(4);
+
+        if (tileCount != TILE_COUNT_) {
+            problems.add("BAD_TILE_COUNT at offset 4: " + tileCount + " tiles, the board has " + TILE_COUNT_);
+        }
+        if (tileCount < 0 || (long) tileCount * MazeWriter.RECORD_BYTES_ > limit - MazeWriter.HEADER_BYTES_) {
+
+            problems.add("TRUNCATED at offset 4: " + tileCount + " tiles cannot fit in " + limit + " bytes");
+            return tileCount;
+        }
+
+        int offset = MazeWriter.HEADER_BYTES_;
+        boolean[] taken = new boolean[2 * TILE_COUNT_];
+        long unlisted = 0;
+
+        for (int i = 0; i < tileCount; i++) {
+
+            if (limit - offset < MazeWriter.RECORD_BYTES_) {
+
+                problems.add("TRUNCATED at offset " + offset + ": tile " + i + " record is cut short");
+                return tileCount;
+            }
+            if (isSave) {
+                checkPlacement(contents.getInt(offset), contents.getInt(offset + 4), offset, i, taken, problems);
+            }
+
+            int lineCount = contents.getInt(offset + 8);
+            offset += MazeWriter.RECORD_BYTES_;
+
+            if (lineCount < 0 || (long) lineCount * MazeWriter.LINE_BYTES_ > limit - offset) {
+
+                problems.add("BAD_LINE_COUNT at offset " + (offset - 4) + ": tile " + i + " declares " + lineCount
+                        + " lines, " + (limit - offset) + " bytes are left");
+                return tileCount;
+            }
+
+            for (int j = 0; j < lineCount * 4; j++) {
+
+                float value = contents.getFloat(offset);
+                boolean isBad = Float.isNaN(value) || Float.isInfinite(value);
+
+                if (isBad || value < 0 || value > TILE_SIZE_) {
+
+                    if (problems.size() >= MAX_PROBLEMS_) {
+
+                        unlisted++;
+
+                    } else {
+
+                        problems.add((isBad ? "BAD_FLOAT" : "OUT_OF_TILE") + " at offset " + offset + ": tile " + i
+                                + " holds " + value);
+                    }
+                }
+                offset += 4;
+            }
+        }
+        if (unlisted > 0) {
+            problems.add("TOO_MANY_PROBLEMS: " + unlisted + " more BAD_FLOAT or OUT_OF_TILE values are not listed");
+        }
+        if (offset != limit) {
+            problems.add("TRAILING_BYTES at offset " + offset + ": " + (limit - offset) + " bytes after the last tile");
+        }
+        return tileCount;
+    }
+
+
+    /**
+     * This function checks the position and rotation of one tile in a save.
+     * @param position, the saved parent container ID.
+     * @param rotation, the saved rotation.
+     * @param offset, where the position is in the file.
+     * @param tile, the index of the tile.
+     * @param taken, the positions seen so far in this file.
+     * @param problems, where to add every problem found.
+     */
+    private static void checkPlacement(int position, int rotation, int offset, int tile, boolean[] taken,
+            List<String> problems) {
+
+        if (position < 0 || position >= taken.length) {
+
+            problems.add("BAD_POSITION at offset " + offset + ": tile " + tile + " is at " + position);
+
+        } else if (taken[position]) {
+
+            problems.add("BAD_POSITION at offset " + offset + ": tile " + tile + " shares position " + position);
+
+        } else {
+
+            taken[position] = true;
+        }
+        if (rotation < 0 || rotation > 3) {
+            problems.add("BAD_ROTATION at offset " + (offset + 4) + ": tile " + tile + " has rotation " + rotation);
+        }
+    }
+
+
+    /**
+     * This function reads a whole file into this thread's buffer, growing it if
+     * the file does not fit. Reads are repeated until the file is in, so a short
+     * read can never be mistaken for the end of the file.
+     * @param channel, the open file.
+     * @param size, the size of the file.
+     * @param buffer, a one element array holding this thread's read buffer.
+     * @return the buffer, flipped, holding as much of the file as could be read.
+     * @throws IOException if the file cannot be read.
+     */
+    private static ByteBuffer read(FileChannel channel, int size, ByteBuffer[] buffer) throws IOException {
+
+        if (buffer[0].capacity() < size) {
+            buffer[0] = ByteBuffer.allocate(Math.max(size, Math.min(Integer.MAX_VALUE / 2, buffer[0].capacity()) * 2));
+        }
+
+        ByteBuffer contents = buffer[0];
+        contents.clear();
+        contents.limit(size);
+
+        while (contents.hasRemaining()) {
+
+            if (channel.read(contents) < 0) {
+                break;
+            }
+        }
+        contents.flip();
+        return contents;
+    }
+
+
+    /**
+     * This function writes the report line for one file.
+     * @param path, the file.
+     * @param size, its size in bytes, or -1 if it could not be opened.
+     * @param magic, its first four bytes.
+     * @param tileCount, its declared tile count, or -1.
+     * @param checksum, ok, bad, or none.
+     * @param problems, every problem found.
+     * @return a JSON object on one line.
+     */
+    private static String report(Path path, long size, int magic, int tileCount, String checksum,
+            List<String> problems) {
+
+        StringBuilder line = new StringBuilder(128);
+        line.append("{\"file\":");
+        quote(line, path.toString());
+        line.append(",\"size\":").append(size);
+        line.append(",\"magic\":\"").append(Long.toHexString(0x100000000L | (magic & 0xFFFFFFFFL)).substring(1)
+                .toUpperCase()).append('"');
+        line.append(",\"tiles\":").append(tileCount);
+        line.append(",\"checksum\":\"").append(checksum).append('"');
+        line.append(",\"status\":\"").append(problems.isEmpty() ? "ok" : "invalid").append('"');
+        line.append(",\"problems\":[");
+
+        for (int i = 0; i < problems.size(); i++) {
+
+            if (i > 0) {
+                line.append(',');
+            }
+            quote(line, problems.get(i));
+        }
+        return line.append("]}").toString();
+    }
+
+
+    /**
+     * This function writes a string as a JSON string.
+     * @param line, where to write it.
+     * @param value, the string.
+     */
+    static void quote(StringBuilder line, String value) {
+
+        line.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+
+            char next = value.charAt(i);
+
+            if (next == '"' || next == '\\') {
+
+                line.append('\\').append(next);
+
+            } else if (next < 0x20) {
+
+                line.append(String.format("\\u%04x", (int) next));
+
+            } else {
+
+                line.append(next);
+            }
+        }
+        line.append('"');
+    }
+
+};
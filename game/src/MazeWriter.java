@@ -0,0 +1,876 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * This class is the writing half of MazeParser. Saves are written as CAFEDEED
+ * saves with a full copy of the lines, so a save can always be loaded on its own.
+ * When the game is started with -Djmaze.saveFormat=compact, saves of a board whose
+ * pieces all came from one maze are written in the compact form instead, which
+ * holds the hash of the maze and only a position and rotation per tile. A compact
+ * save can only be loaded while a maze with exactly that hash is in a MazeStore
+ * folder, so it is only worth it where those folders are known to be kept.
+ * A whole save is encoded into one reusable buffer that is only grown when a
+ * bigger save comes along, and is then handed to the disk with a single channel
+ * write. The write always goes to a temporary file next to the target, which is
+ * flushed and then moved over the target in one step, so a crash part way through
+ * a save leaves the old file untouched instead of a truncated one.
+ * Once a file has been written, its layout is remembered. If the same board is
+ * saved to it again, and the file has not been touched by anyone else since, only
+ * the played time and the position and rotation of the pieces that changed are
+ * written over the old values in place. Every other byte of the file is already
+ * right, so there is nothing to gain from writing it again. Those few writes
+ * cannot be made in one step, so they are first written and flushed to a patch
+ * file beside the save, save.mze.patch, which holds each change with its offset
+ * and a checksum of its own. Only then is the save itself written, and the patch
+ * file deleted. If the game stops part way, the save may be torn, but the patch
+ * file is whole, and finishPatch() writes it again the next time the save is read.
+ * A patch file that is not whole was cut off before the save was touched, and is
+ * just deleted.
+ * Every file written here ends in a checksum trailer, a CRC32C of the body that
+ * MazeParser checks before decoding. An in-place update writes the new checksum
+ * along with the changed records. Starting the game with -Djmaze.checksum=off
+ * leaves the trailer out, for tools that cannot read past the last record.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @HEADER_BYTES_, the size of the magic number, tile count and played time.
+ * @RECORD_BYTES_, the size of the three ints that start every tile record.
+ * @LINE_BYTES_, the size of the four floats that make up one line.
+ * @COMPACT_HEADER_BYTES_, the size of the header of a compact save, which adds
+ * the maze hash to the usual header.
+ * @COMPACT_RECORD_BYTES_, the size of the position and rotation of one tile in
+ * a compact save.
+ * @COMPACT_SAVES_, whether compact saves are switched on.
+ * @CHECKSUMS_, whether files are written with a checksum trailer.
+ * @TIME_OFFSET_, where the played time sits in a save.
+ * @PATCH_BYTES_, the size of the position and rotation at the start of a record.
+ * @VARINT_BYTES_, the most bytes a variable length int can take.
+ * @PATCH_MAGIC_, the first four bytes of a patch file.
+ * @MAX_STEP_, the largest grid step a quantized coordinate, or tile ID, can be.
+ * @buffer_, the reusable encoding buffer, guarded by the class lock.
+ * @layouts_, the layout of every file written so far, guarded by the class lock.
+ * @lastSaveBytes_, how many bytes the last save wrote, set with -Djmaze.saveStats
+ * to have it printed after every save.
+ */
+public class MazeWriter {
+
+    static final int HEADER_BYTES_ = 16;
+    static final int RECORD_BYTES_ = 12;
+    static final int LINE_BYTES_ = 16;
+    static final int COMPACT_HEADER_BYTES_ = HEADER_BYTES_ + MazeStore.HASH_BYTES_;
+    static final int COMPACT_RECORD_BYTES_ = 8;
+    private static final int TIME_OFFSET_ = 8;
+    private static final int PATCH_BYTES_ = 8;
+    private static final int VARINT_BYTES_ = 5;
+    private static final int PATCH_MAGIC_ = 0xCAFEDA7A;
+    private static final long MAX_STEP_ = 1 << 28;
+
+    private static final boolean COMPACT_SAVES_ = "compact".equals(System.getProperty("jmaze.saveFormat"));
+    private static final boolean PRINT_STATS_ = Boolean.getBoolean("jmaze.saveStats");
+    private static final boolean CHECKSUMS_ = !"off".equals(System.getProperty("jmaze.checksum"));
+
+    private static ByteBuffer buffer_ = ByteBuffer.allocate(4096);
+    private static final Map<Path, Layout> layouts_ = new HashMap<Path, Layout>();
+    private static long lastSaveBytes_ = 0;
+
+
+    /**
+     * This function writes a model out as a CAFEDEED save. The positions of a
+     * save model are written where a maze file keeps its tile IDs. The whole file
+     * is always rewritten.
+     * @param target, the file to create or replace.
+     * @param save, the positions, rotations, time and lines to write.
+     * @return the number of bytes written.
+     * @throws IOException if the temporary file cannot be written or moved.
+     */
+    public static synchronized long writeSave(Path target, MazeModel save) throws IOException {
+
+        return writeSave(target, save, null);
+    }
+
+
+    /**
+     * This function writes a model out as a CAFEDEED save, touching as little of
+     * the file as it can. If this file was last written from this board, and has
+     * not changed on the disk since, only the played time and the records of the
+     * pieces that changed after that save are written in place. Otherwise the whole
+     * file is rewritten.
+     * @param target, the file to create or update.
+     * @param save, the positions, rotations, time and lines to write.
+     * @param changedAt, when each piece last changed, from
+     * RawFileHandler.snapshotChanges(), or null to always rewrite the whole file.
+     * @return the number of bytes written.
+     * @throws IOException if the file cannot be written.
+     */
+    public static synchronized long writeSave(Path target, MazeModel save, long[] changedAt) throws IOException {
+
+        Path key = target.toAbsolutePath().normalize();
+
+        //Taken out first, so a save that fails part way is never patched again.
+        Layout layout = layouts_.remove(key);
+        long written;
+
+        if (changedAt != null && layout != null && layout.fits(key, save)) {
+
+            written = patch(key, save, changedAt, layout);
+
+        } else {
+
+            //A whole save makes any patch left over from a torn one stale.
+            Files.deleteIfExists(patchFile(key));
+            ByteBuffer buffer = encodeSave(save);
+            written = buffer.remaining();
+            replace(target, buffer);
+            layout = new Layout(save);
+        }
+
+        if (changedAt != null) {
+
+            layout.stamp(key, changedAt);
+            layouts_.put(key, layout);
+        }
+        lastSaveBytes_ = written;
+
+        if (PRINT_STATS_) {
+            System.out.println("Saved " + written + " bytes to " + target.getFileName());
+        }
+        return written;
+    }
+
+
+    /**
+     * This is a getter for the size of the last save, to compare incremental
+     * saves with full ones.
+     * @return lastSaveBytes_, the number of bytes the last save wrote.
+     */
+    public static synchronized long getLastSaveBytes() {
+        return lastSaveBytes_;
+    }
+
+
+    /**
+     * This function updates a file in place. The whole save is encoded in memory
+     * first, and then the played time, the position and rotation at the start of
+     * every changed record, and the checksum if the file has one, are picked out
+     * of it. They are written to the patch file first, and then to their offsets
+     * in the file with one positional write each. Must be called while holding the
+     * class lock.
+     * @param target, the file to update, which must match layout.
+     * @param save, the positions, rotations and time to write.
+     * @param changedAt, when each piece last changed.
+     * @param layout, where every record of this file starts.
+     * @return the number of bytes written, to both files.
+     * @throws IOException if either file cannot be written.
+     */
+    private static long patch(Path target, MazeModel save, long[] changedAt, Layout layout) throws IOException {
+
+        ByteBuffer encoded = encodeSave(save);
+        List<ByteBuffer> changes = new ArrayList<ByteBuffer>();
+        changes.add(range(encoded, TIME_OFFSET_, 8));
+
+        for (int i = 0; i < save.getTileCount(); i++) {
+
+            if (changedAt[i] > layout.savedAt_) {
+                changes.add(range(encoded, (int) layout.recordOffsets_[i], PATCH_BYTES_));
+            }
+        }
+        if (layout.checksummed_) {
+            changes.add(range(encoded, encoded.limit() - MazeParser.TRAILER_BYTES_, 4));
+        }
+
+        //The patch file: magic, change count, then offset, length and bytes of each change, then its CRC32C.
+        int size = 12;
+
+        for (ByteBuffer change : changes) {
+            size += 8 + change.remaining();
+        }
+        ByteBuffer patch = ByteBuffer.allocate(size);
+        patch.putInt(PATCH_MAGIC_);
+        patch.putInt(changes.size());
+
+        for (ByteBuffer change : changes) {
+
+            patch.putInt(change.position());
+            patch.putInt(change.remaining());
+            patch.put(change.duplicate());
+        }
+        patch.putInt(MazeParser.checksum(patch, 0, size - 4));
+        patch.flip();
+
+        Path patchFile = patchFile(target);
+        long written;
+
+        try (
+                FileChannel channel = FileChannel.open(patchFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ) {
+
+            written = writeAt(channel, patch.duplicate(), 0);
+            channel.force(false);
+        }
+        written += apply(target, patch);
+        Files.delete(patchFile);
+        return written;
+    }
+
+
+    /**
+     * This function finishes an in-place update that was cut off. If a whole
+     * patch file is left beside the file, its changes are written again, which does
+     * no harm if some or all of them had already been written. A patch file that
+     * is not whole is deleted, the file was never touched. It is called before a
+     * file is read, see MazeParser.readFully(), and costs only a look for the patch
+     * file when there is none.
+     * @param target, the file about to be read.
+     * @throws IOException if the patch file cannot be read or the file written.
+     */
+    static void finishPatch(Path target) throws IOException {
+
+        Path patchFile = patchFile(target);
+
+        if (!Files.exists(patchFile)) {
+            return;
+        }
+
+        synchronized (MazeWriter.class) {
+
+            ByteBuffer patch;
+
+            try {
+
+                patch = ByteBuffer.wrap(Files.readAllBytes(patchFile));
+
+            } catch (NoSuchFileException exception) {
+
+                //Finished by someone else while this one waited.
+                return;
+            }
+            if (isWhole(patch)) {
+                apply(target, patch);
+            }
+            layouts_.remove(target.toAbsolutePath().normalize());
+            Files.delete(patchFile);
+        }
+    }
+
+
+    /**
+     * This is a check for whether a patch file was written out in full: its
+     * checksum matches, and every change lies inside it.
+     * @param patch, the whole patch file.
+     * @return true if it can be applied.
+     */
+    private static boolean isWhole(ByteBuffer patch) {
+
+        int size = patch.limit();
+
+        if (size < 12 || patch.getInt(0) != PATCH_MAGIC_
+                || patch.getInt(size - 4) != MazeParser.checksum(patch, 0, size - 4)) {
+            return false;
+        }
+
+        int count = patch.getInt(4);
+        int at = 8;
+
+        for (int i = 0; i < count; i++) {
+
+            if (at + 8 > size - 4 || patch.getInt(at) < 0 || patch.getInt(at + 4) < 0
+                    || patch.getInt(at + 4) > size - 4 - at - 8) {
+                return false;
+            }
+            at += 8 + patch.getInt(at + 4);
+        }
+        return at == size - 4;
+    }
+
+
+    /**
+     * This function writes the changes in a whole patch file to their offsets in
+     * a file, and flushes it.
+     * @param target, the file to update.
+     * @param patch, the whole patch file.
+     * @return the number of bytes written.
+     * @throws IOException if the file cannot be written.
+     */
+    private static long apply(Path target, ByteBuffer patch) throws IOException {
+
+        long written = 0;
+        int count = patch.getInt(4);
+        int at = 8;
+
+        try (
+                FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE);
+        ) {
+
+            for (int i = 0; i < count; i++) {
+
+                int offset = patch.getInt(at);
+                int length = patch.getInt(at + 4);
+                written += writeAt(channel, range(patch, at + 8, length), offset);
+                at += 8 + length;
+            }
+            channel.force(false);
+        }
+        return written;
+    }
+
+
+    /**
+     * This is a getter for the patch file of a save.
+     * @param target, the save.
+     * @return the file beside it that an in-place update is written to first.
+     */
+    private static Path patchFile(Path target) {
+        return target.resolveSibling(target.getFileName() + ".patch");
+    }
+
+
+    /**
+     * This function picks out part of an encoded file to be written.
+     * @param encoded, the whole file.
+     * @param offset, where the part starts.
+     * @param length, the size of the part.
+     * @return a view of just that part.
+     */
+    private static ByteBuffer range(ByteBuffer encoded, int offset, int length) {
+
+        ByteBuffer part = encoded.duplicate();
+        part.limit(offset + length);
+        part.position(offset);
+        return part;
+    }
+
+
+    /**
+     * This function writes a buffer at a fixed place in a file, repeating the
+     * write if the channel stops short.
+     * @param channel, the open file.
+     * @param contents, the bytes to write, from position to limit.
+     * @param offset, where in the file to write them.
+     * @return the number of bytes written.
+     * @throws IOException if the file cannot be written.
+     */
+    private static int writeAt(FileChannel channel, ByteBuffer contents, long offset) throws IOException {
+
+        int size = contents.remaining();
+
+        while (contents.hasRemaining()) {
+
+            channel.write(contents, offset + size - contents.remaining());
+        }
+        return size;
+    }
+
+
+    /**
+     * This function encodes a save into a buffer of its own, in the form
+     * writeSave() would use for it. It is used to check a save before writing it.
+     * @param save, the model to encode.
+     * @return a new buffer holding the whole save, positioned at 0.
+     */
+    static synchronized ByteBuffer encode(MazeModel save) {
+
+        return copy(encodeSave(save));
+    }
+
+
+    /**
+     * This function encodes a save into a buffer of its own in the compact form,
+     * whether or not compact saves are switched on. It is used by SaveConverter,
+     * which checks the maze is in the store before asking for it.
+     * @param save, the model to encode, which must have a source hash.
+     * @return a new buffer holding the whole save, positioned at 0.
+     */
+    static synchronized ByteBuffer encodeCompact(MazeModel save) {
+
+        return copy(encodeCompactSave(save));
+    }
+
+
+    /**
+     * This function copies the reusable buffer into a buffer of its own.
+     * Must be called while holding the class lock.
+     * @param encoded, buffer_, flipped.
+     * @return the copy, positioned at 0.
+     */
+    private static ByteBuffer copy(ByteBuffer encoded) {
+
+        ByteBuffer copy = ByteBuffer.allocate(encoded.remaining());
+        copy.put(encoded);
+        copy.flip();
+        return copy;
+    }
+
+
+    /**
+     * This is a check for which form a save will be written in.
+     * @param save, the model to be written.
+     * @return true if it will be written as a compact save.
+     */
+    static boolean isCompact(MazeModel save) {
+        return COMPACT_SAVES_ && save.getSourceHash() != null;
+    }
+
+
+    /**
+     * This function encodes a save into the reusable buffer. The size of the
+     * save is worked out first, so the buffer is only ever grown once per save.
+     * Must be called while holding the class lock.
+     * @param save, the model to encode.
+     * @return buffer_, flipped and ready to be written.
+     */
+    private static ByteBuffer encodeSave(MazeModel save) {
+
+        if (isCompact(save)) {
+            return encodeCompactSave(save);
+        }
+
+        int tileCount = save.getTileCount();
+        TileGeometry geometry = save.getGeometry();
+        int size = HEADER_BYTES_ + tileCount * RECORD_BYTES_ + MazeParser.TRAILER_BYTES_;
+
+        for (int i = 0; i < tileCount; i++) {
+
+            size += geometry.getLineCount(i) * LINE_BYTES_;
+        }
+        ByteBuffer buffer = reserve(size);
+
+        buffer.putInt(MazeParser.SAVE_MAGIC_);
+        buffer.putInt(tileCount);
+        buffer.putLong(save.getLoadTime());
+
+        for (int i = 0; i < tileCount; i++) {
+
+            buffer.putInt(save.getTileId(i));
+            buffer.putInt(save.getTileRotation(i));
+            buffer.putInt(geometry.getLineCount(i));
+            putLines(buffer, geometry, i);
+        }
+        putTrailer(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+
+    /**
+     * This function encodes a compact save into the reusable buffer. Must be
+     * called while holding the class lock.
+     * @param save, the model to encode, which must have a source hash.
+     * @return buffer_, flipped and ready to be written.
+     */
+    private static ByteBuffer encodeCompactSave(MazeModel save) {
+
+        int tileCount = save.getTileCount();
+        ByteBuffer buffer = reserve(COMPACT_HEADER_BYTES_ + tileCount * COMPACT_RECORD_BYTES_
+                + MazeParser.TRAILER_BYTES_);
+
+        buffer.putInt(MazeParser.COMPACT_SAVE_MAGIC_);
+        buffer.putInt(tileCount);
+        buffer.putLong(save.getLoadTime());
+        buffer.put(save.getSourceHash());
+
+        for (int i = 0; i < tileCount; i++) {
+
+            buffer.putInt(save.getTileId(i));
+            buffer.putInt(save.getTileRotation(i));
+        }
+        putTrailer(buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+
+    /**
+     * This function encodes the lines of a maze in the quantized form read by
+     * MazeParser.decodeQuantizedMaze(). Every coordinate is rounded to the nearest
+     * step of a grid with quantum steps per pixel, and endpoints that land on the
+     * same step are stored once per tile.
+     * @param maze, the maze to encode.
+     * @param quantum, the number of grid steps per pixel.
+     * @return a new buffer holding the whole file, positioned at 0.
+     * @throws IllegalArgumentException if a coordinate is not a number, or it or a tile ID
+     * is too far out to be stored.
+     */
+    static synchronized ByteBuffer encodeQuantizedMaze(MazeModel maze, int quantum) {
+
+        int tileCount = maze.getTileCount();
+        TileGeometry geometry = maze.getGeometry();
+        //Worst case, five bytes for every int and no shared endpoints.
+        int size = 4 + 2 * VARINT_BYTES_ + MazeParser.TRAILER_BYTES_;
+
+        for (int i = 0; i < tileCount; i++) {
+
+            size += 3 * VARINT_BYTES_ + geometry.getLineCount(i) * 6 * VARINT_BYTES_;
+        }
+        ByteBuffer buffer = reserve(size);
+
+        buffer.putInt(MazeParser.QUANTIZED_MAZE_MAGIC_);
+        putVarInt(buffer, quantum);
+        putVarInt(buffer, tileCount);
+
+        Map<Long, Integer> endpoints = new LinkedHashMap<Long, Integer>();
+
+        for (int i = 0; i < tileCount; i++) {
+
+            float[] coords = geometry.getCoords(i);
+            int lineCount = geometry.getLineCount(i);
+            int at = geometry.getStart(i) * TileGeometry.LINE_FLOATS_;
+            int[] lineEnds = new int[lineCount * 2];
+            endpoints.clear();
+
+            for (int j = 0; j < lineCount; j++) {
+
+                int line = at + j * TileGeometry.LINE_FLOATS_;
+                lineEnds[2 * j] = endpoint(endpoints, coords[line], coords[line + 1], quantum);
+                lineEnds[2 * j + 1] = endpoint(endpoints, coords[line + 2], coords[line + 3], quantum);
+            }
+
+            if (Math.abs((long) maze.getTileId(i)) > MAX_STEP_) {
+
+                throw new IllegalArgumentException("tile ID " + maze.getTileId(i) + " is too large to store");
+            }
+            putVarInt(buffer, zigzag(maze.getTileId(i)));
+            putVarInt(buffer, endpoints.size());
+
+            int x = 0;
+            int y = 0;
+
+            for (long point : endpoints.keySet()) {
+
+                int nextX = (int) (point >> 32);
+                int nextY = (int) point;
+                putVarInt(buffer, zigzag(nextX - x));
+                putVarInt(buffer, zigzag(nextY - y));
+                x = nextX;
+                y = nextY;
+            }
+
+            putVarInt(buffer, lineCount);
+
+            for (int end : lineEnds) {
+
+                putVarInt(buffer, end);
+            }
+        }
+        putTrailer(buffer);
+        buffer.flip();
+
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
+
+    /**
+     * This function encodes a maze in the chunked form read by ChunkedBoard.
+     * Every chunk but the last holds chunkTiles tiles, each a record laid out as
+     * in a CAFEBEEF maze, and the index in front of them says where each one is.
+     * @param maze, the maze to encode.
+     * @param chunkTiles, the number of tiles in each chunk.
+     * @return a new buffer holding the whole file, positioned at 0.
+     */
+    static synchronized ByteBuffer encodeChunkedMaze(MazeModel maze, int chunkTiles) {
+
+        int tileCount = maze.getTileCount();
+        int chunkCount = (tileCount + chunkTiles - 1) / chunkTiles;
+        int[] tileLines = maze.getTileLines();
+        TileGeometry geometry = maze.getGeometry();
+        int size = ChunkedBoard.HEADER_BYTES_ + chunkCount * ChunkedBoard.INDEX_BYTES_ + MazeParser.TRAILER_BYTES_;
+
+        for (int i = 0; i < tileCount; i++) {
+
+            size += RECORD_BYTES_ + tileLines[i] * LINE_BYTES_;
+        }
+        ByteBuffer buffer = reserve(size);
+
+        buffer.putInt(MazeParser.CHUNKED_MAZE_MAGIC_);
+        buffer.putInt(tileCount);
+        buffer.putInt(chunkCount);
+        //The index is filled in once the length of every chunk is known.
+        buffer.position(buffer.position() + chunkCount * ChunkedBoard.INDEX_BYTES_);
+
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+
+            int first = chunk * chunkTiles;
+            int last = Math.min(first + chunkTiles, tileCount);
+            int offset = buffer.position();
+
+            for (int i = first; i < last; i++) {
+
+                buffer.putInt(i);
+                buffer.putInt(maze.getTileId(i));
+                buffer.putInt(geometry.getLineCount(i));
+                putLines(buffer, geometry, i);
+            }
+
+            int index = ChunkedBoard.HEADER_BYTES_ + chunk * ChunkedBoard.INDEX_BYTES_;
+            buffer.putInt(index, offset);
+            buffer.putInt(index + 4, buffer.position() - offset);
+            buffer.putInt(index + 8, first);
+            buffer.putInt(index + 12, last - first);
+        }
+        putTrailer(buffer);
+        buffer.flip();
+
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer);
+        copy.flip();
+        return copy;
+    }
+
+
+    /**
+     * This function finds the index of an endpoint in the table of a tile, adding
+     * it if no endpoint has landed on the same grid step yet.
+     * @param endpoints, the table so far, from packed grid step to index.
+     * @param x, the x coordinate in pixels.
+     * @param y, the y coordinate in pixels.
+     * @param quantum, the number of grid steps per pixel.
+     * @return the index of the endpoint in the table.
+     */
+    private static int endpoint(Map<Long, Integer> endpoints, double x, double y, int quantum) {
+
+        //A NaN would round to step 0 and quietly become a real coordinate.
+        if (Double.isNaN(x) || Double.isNaN(y)) {
+
+            throw new IllegalArgumentException("coordinate (" + x + ", " + y + ") is not a number");
+        }
+
+        long stepX = Math.round(x * quantum);
+        long stepY = Math.round(y * quantum);
+
+        //Differences between two steps must still fit in a zigzag encoded varint.
+        if (Math.abs(stepX) > MAX_STEP_ || Math.abs(stepY) > MAX_STEP_) {
+
+            throw new IllegalArgumentException("coordinate (" + x + ", " + y + ") is too large to quantize");
+        }
+
+        Long key = (stepX << 32) | (stepY & 0xFFFFFFFFL);
+        Integer index = endpoints.get(key);
+
+        if (index == null) {
+
+            index = endpoints.size();
+            endpoints.put(key, index);
+        }
+        return index;
+    }
+
+
+    /**
+     * This function writes the lines of one tile as four floats each, x0, y0, x1,
+     * y1, which is how they are packed, so the whole tile goes in one bulk write.
+     * @param buffer, where to write them.
+     * @param geometry, the packed lines.
+     * @param tile, the index of the tile.
+     */
+    private static void putLines(ByteBuffer buffer, TileGeometry geometry, int tile) {
+
+        int floats = geometry.getLineCount(tile) * TileGeometry.LINE_FLOATS_;
+        buffer.asFloatBuffer().put(geometry.getCoords(tile), geometry.getStart(tile) * TileGeometry.LINE_FLOATS_,
+                floats);
+        buffer.position(buffer.position() + floats * 4);
+    }
+
+
+    /**
+     * This function ends a file with its checksum trailer, unless checksums are
+     * switched off.
+     * @param buffer, the file so far, from 0 to position.
+     */
+    private static void putTrailer(ByteBuffer buffer) {
+
+        if (CHECKSUMS_) {
+
+            buffer.putInt(MazeParser.checksum(buffer, 0, buffer.position()));
+            buffer.putInt(MazeParser.TRAILER_MAGIC_);
+        }
+    }
+
+
+    /**
+     * This function writes one variable length int, seven bits to a byte,
+     * lowest bits first, with the high bit set on all but the last byte.
+     * @param buffer, where to write it.
+     * @param value, a value that is not negative.
+     */
+    static void putVarInt(ByteBuffer buffer, int value) {
+
+        while ((value & ~0x7F) != 0) {
+
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+
+    /**
+     * This function maps a signed int onto one that is not negative, so that
+     * small negative values stay short as variable length ints.
+     * @param value, the signed value.
+     * @return 0, 1, 2, 3... for 0, -1, 1, -2...
+     */
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+
+    /**
+     * This function makes sure the reusable buffer can hold a given number of
+     * bytes, doubling it if it cannot. Must be called while holding the class lock.
+     * @param size, the number of bytes about to be encoded.
+     * @return buffer_, cleared.
+     */
+    private static ByteBuffer reserve(int size) {
+
+        if (buffer_.capacity() < size) {
+
+            buffer_ = ByteBuffer.allocate(Math.max(size, buffer_.capacity() * 2));
+        }
+        buffer_.clear();
+        return buffer_;
+    }
+
+
+    /**
+     * This function writes a buffer to a temporary file beside the target,
+     * forces it to the disk, and then moves it over the target. If the file system
+     * cannot move atomically, a plain replacing move is used instead.
+     * @param target, the file to create or replace.
+     * @param contents, the bytes to write, from position to limit.
+     * @throws IOException if the temporary file cannot be written or moved.
+     */
+    static void replace(Path target, ByteBuffer contents) throws IOException {
+
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (
+                FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ) {
+
+            //A channel write may stop short, keep going until everything is out.
+            while (contents.hasRemaining()) {
+
+                channel.write(contents);
+            }
+            channel.force(false);
+        }
+
+        try {
+
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        } catch (AtomicMoveNotSupportedException exception) {
+
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+
+
+    /**
+     * This class remembers how a written save is laid out, and what the file
+     * looked like on the disk right after it was written.
+     * @geometry_, the lines that were written. A save with different lines never
+     * fits, whatever pieces they came from.
+     * @sourceHash_, the maze hash that was written. A compact save of another maze
+     * never fits, even if its lines are the same.
+     * @compact_, whether the file is a compact save.
+ * @checksummed_, whether the file ends in a checksum trailer.
+     * @recordOffsets_, where the record of each tile starts in the file.
+     * @size_, @modified_, @fileKey_, the file as it was left, used to notice
+     * anyone else writing or replacing it.
+     * @savedAt_, the newest change to any piece that the file holds.
+     */
+    private static final class Layout {
+
+        private final TileGeometry geometry_;
+        private final byte[] sourceHash_;
+        private final boolean compact_;
+        private final boolean checksummed_;
+        private final long[] recordOffsets_;
+        private long size_;
+        private FileTime modified_;
+        private Object fileKey_;
+        private long savedAt_;
+
+        private Layout(MazeModel save) {
+
+            int tileCount = save.getTileCount();
+            compact_ = isCompact(save);
+            checksummed_ = CHECKSUMS_;
+            long offset = compact_ ? COMPACT_HEADER_BYTES_ : HEADER_BYTES_;
+            geometry_ = save.getGeometry();
+            sourceHash_ = save.getSourceHash();
+            recordOffsets_ = new long[tileCount];
+
+            for (int i = 0; i < tileCount; i++) {
+
+                recordOffsets_[i] = offset;
+                offset += compact_ ? COMPACT_RECORD_BYTES_ : RECORD_BYTES_ + geometry_.getLineCount(i) * LINE_BYTES_;
+            }
+        }
+
+        /**
+         * This is a check for if a save can be written over this layout in place.
+         * @param target, the file about to be written.
+         * @param save, the save about to be written.
+         * @return true if the lines are the same and the file is as it was left.
+         * @throws IOException if the file cannot be looked at.
+         */
+        private boolean fits(Path target, MazeModel save) throws IOException {
+
+            if (save.getTileCount() != recordOffsets_.length || isCompact(save) != compact_
+                    || !Arrays.equals(save.getSourceHash(), sourceHash_)) {
+                return false;
+            }
+            for (int i = 0; i < recordOffsets_.length; i++) {
+
+                if (!save.getGeometry().sameLines(i, geometry_, i)) {
+                    return false;
+                }
+            }
+            if (!Files.exists(target)) {
+                return false;
+            }
+            BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+            return attributes.size() == size_ && attributes.lastModifiedTime().equals(modified_)
+                    && Objects.equals(attributes.fileKey(), fileKey_);
+        }
+
+        /**
+         * This function records the file as it is right after a save.
+         * @param target, the file that was just written.
+         * @param changedAt, when each piece last changed, as written.
+         * @throws IOException if the file cannot be looked at.
+         */
+        private void stamp(Path target, long[] changedAt) throws IOException {
+
+            BasicFileAttributes attributes = Files.readAttributes(target, BasicFileAttributes.class);
+            size_ = attributes.size();
+            modified_ = attributes.lastModifiedTime();
+            fileKey_ = attributes.fileKey();
+
+            for (long stamp : changedAt) {
+
+                savedAt_ = Math.max(savedAt_, stamp);
+            }
+        }
+    }
+
+};
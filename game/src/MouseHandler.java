@@ -106,6 +106,7 @@ public class MouseHandler extends MouseAdapter implements Serializable{
                         isSelected_ = false;
                         Clock.setGoTime(true);
                         GameWindow.setChanged(true);
+                        MoveJournal.record(content_);
                         WinCheck.IdCheck();
                 	
                    } else {
@@ -123,6 +124,7 @@ public class MouseHandler extends MouseAdapter implements Serializable{
                        isSelected_ = false;
                        Clock.setGoTime(true);
                        GameWindow.setChanged(true);
+                       MoveJournal.record(content_);
                        WinCheck.IdCheck();
                        
                    }
@@ -146,6 +148,7 @@ public class MouseHandler extends MouseAdapter implements Serializable{
                        tileParent_.repaint();
                        Clock.setGoTime(true);
                        GameWindow.setChanged(true);
+                       MoveJournal.record(content_);
                                               
                    } else {
                        
@@ -160,6 +163,7 @@ public class MouseHandler extends MouseAdapter implements Serializable{
                        tileParent_.repaint();
                        Clock.setGoTime(true);
                        GameWindow.setChanged(true);
+                       MoveJournal.record(content_);
                                               
                   }
               }
@@ -180,6 +184,7 @@ public class MouseHandler extends MouseAdapter implements Serializable{
                content_.incrementTheta();
                Clock.setGoTime(true);
                GameWindow.setChanged(true);
+               MoveJournal.record(content_);
                WinCheck.IdCheck();
            }   
        }
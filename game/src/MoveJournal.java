@@ -0,0 +1,452 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This class keeps a running journal of the game, so progress survives a crash
+ * without rewriting a whole save after every move. It is switched on by starting
+ * the game with -Djmaze.journal=path/to/snapshot.mze.
+ * Every move or rotation made in MouseHandler is appended to a log file beside the
+ * snapshot as one fixed size record, and forced to the disk before the move is
+ * over, so a crash loses at most the move being made. That append is the only disk
+ * work the event thread does for a move.
+ * Once the log grows past a threshold it is sealed: renamed to the next numbered
+ * log, path.log.1, path.log.2 and so on, and a new log is started for the moves
+ * after it. A single background thread then folds every sealed log into a fresh
+ * snapshot, and deletes them. The event thread never touches a sealed log, and the
+ * background thread never touches the open one, so neither waits on the other. On
+ * startup the snapshot, the sealed logs in order, and then the open log are put
+ * back on the board.
+ * The snapshot is always a full CAFEDEED save, never the compact CAFED00D form,
+ * so restoring it never depends on finding the maze it was played from again.
+ * Records hold the whole state of one piece rather than a change, so replaying a
+ * record twice does no harm. That is what makes a crash between writing a new
+ * snapshot and deleting the sealed logs safe. A checkpoint logs every piece as
+ * well, so the board it captured is put back even if the game stops before the
+ * background thread has written its snapshot.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @RECORD_BYTES_, the size of one record: content ID, position, rotation and the
+ * played time.
+ * @COMPACT_BYTES_, the log size that triggers compaction, set with
+ * -Djmaze.journal.compact.
+ * @snapshot_, the snapshot file, or null if journaling is switched off.
+ * @log_, the open log file beside the snapshot.
+ * @compactor_, the single thread that writes snapshots and deletes sealed logs, in
+ * the order they were asked for.
+ * @logChannel_, the open log, guarded by the class lock.
+ * @nextSeal_, the number the next sealed log gets, guarded by the class lock.
+ * @isCompacting_, true while sealed logs are waiting to be folded, guarded by the
+ * class lock.
+ * @hasSnapshot_, whether a snapshot has been written or restored, guarded by the
+ * class lock.
+ */
+public class MoveJournal {
+
+    private static final int RECORD_BYTES_ = 20;
+    private static final long COMPACT_BYTES_ = Long.getLong("jmaze.journal.compact", 4096);
+
+    private static final File snapshot_ = journalFile();
+    private static final File log_ = snapshot_ == null ? null : new File(snapshot_.getPath() + ".log");
+
+    private static final ExecutorService compactor_ = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+
+            //Nothing is lost if it is cut off, the sealed logs are still on the disk.
+            Thread thread = new Thread(runnable, "JMaze journal");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static FileChannel logChannel_;
+    private static int nextSeal_ = 1;
+    private static boolean isCompacting_ = false;
+    private static boolean hasSnapshot_ = false;
+
+
+    /**
+     * This is a check for whether the game was started in journal mode.
+     * @return true if -Djmaze.journal was given.
+     */
+    public static boolean isEnabled() {
+        return snapshot_ != null;
+    }
+
+
+    /**
+     * This function is called from MouseHandler after a move or rotation has been
+     * made. It writes the piece's record to the log, and returns once it is on the
+     * disk. If no snapshot exists yet, a full checkpoint is made instead.
+     * @param content, the piece that was moved or rotated.
+     */
+    public static synchronized void record(Content content) {
+
+        if (!isEnabled()) {
+            return;
+        }
+        if (!hasSnapshot_) {
+
+            checkpoint();
+            return;
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES_);
+        putRecord(record, content.getContentId(), content.getPosition(), content.getCurrentRotation(),
+                Clock.getCurrentTime());
+        record.flip();
+
+        try {
+
+            append(record);
+
+            if (!isCompacting_ && logChannel_.size() >= COMPACT_BYTES_) {
+                compact();
+            }
+
+        } catch (IOException exception) {
+
+            exception.printStackTrace();
+        }
+    }
+
+
+    /**
+     * This function replaces the snapshot with the board as it is right now, and
+     * drops the logs before it. It is used after anything that moves many pieces
+     * at once, such as a reset or a load, which are not journaled move by move.
+     * Every piece is logged here, and the snapshot itself is written in the
+     * background.
+     */
+    public static synchronized void checkpoint() {
+
+        if (!isEnabled()) {
+            return;
+        }
+        hasSnapshot_ = true;
+        MazeModel board = RawFileHandler.snapshotBoard();
+
+        try {
+
+            final int sealed = seal();
+            ByteBuffer records = ByteBuffer.allocate(board.getTileCount() * RECORD_BYTES_);
+
+            for (int i = 0; i < board.getTileCount(); i++) {
+                putRecord(records, i, board.getTileId(i), board.getTileRotation(i), board.getLoadTime());
+            }
+            records.flip();
+            append(records);
+
+            compactor_.execute(new Runnable() {
+
+                @Override
+                public void run() {
+
+                    try {
+
+                        writeSnapshot(board);
+                        deleteSealed(sealed);
+
+                    } catch (IOException exception) {
+
+                        exception.printStackTrace();
+                    }
+                }
+            });
+
+        } catch (IOException exception) {
+
+            exception.printStackTrace();
+        }
+    }
+
+
+    /**
+     * This function rebuilds the last journaled game from the snapshot and the logs.
+     * It is called once during setup, before any new records are written.
+     * @return the restored save, or null if there is nothing to restore.
+     */
+    public static synchronized MazeModel restore() {
+
+        if (!isEnabled() || !snapshot_.exists()) {
+            return null;
+        }
+
+        try {
+
+            MazeModel board = MazeParser.parse(snapshot_);
+            hasSnapshot_ = true;
+
+            for (int seal : listSealed(Integer.MAX_VALUE)) {
+
+                board = fold(board, ByteBuffer.wrap(Files.readAllBytes(sealedLog(seal).toPath())));
+                nextSeal_ = Math.max(nextSeal_, seal + 1);
+            }
+            if (log_.exists()) {
+                board = fold(board, ByteBuffer.wrap(Files.readAllBytes(log_.toPath())));
+            }
+            return board;
+
+        } catch (IOException exception) {
+
+            exception.printStackTrace();
+            return null;
+        }
+    }
+
+
+    /**
+     * This is a getter for the snapshot file, so that a reset after a restore can
+     * return to it.
+     * @return snapshot_, or null if journaling is switched off.
+     */
+    public static File getSnapshotFile() {
+        return snapshot_;
+    }
+
+
+    /**
+     * This function writes records to the end of the open log, and forces them to
+     * the disk. Must be called while holding the class lock.
+     * @param records, the encoded records.
+     * @throws IOException if the log cannot be written.
+     */
+    private static void append(ByteBuffer records) throws IOException {
+
+        if (logChannel_ == null) {
+
+            logChannel_ = FileChannel.open(log_.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            logChannel_.position(logChannel_.size());
+        }
+
+        //Only this class writes, under its lock, so the position always stays at the end.
+        while (records.hasRemaining()) {
+            logChannel_.write(records);
+        }
+        logChannel_.force(false);
+    }
+
+
+    /**
+     * This function seals the open log, and hands every sealed log to the
+     * background thread to be folded into the snapshot. Must be called while
+     * holding the class lock.
+     * @throws IOException if the log cannot be sealed.
+     */
+    private static void compact() throws IOException {
+
+        final int sealed = seal();
+        isCompacting_ = true;
+
+        compactor_.execute(new Runnable() {
+
+            @Override
+            public void run() {
+
+                try {
+
+                    MazeModel board = MazeParser.parse(snapshot_);
+
+                    for (int seal : listSealed(sealed)) {
+                        board = fold(board, ByteBuffer.wrap(Files.readAllBytes(sealedLog(seal).toPath())));
+                    }
+                    writeSnapshot(board);
+                    deleteSealed(sealed);
+
+                } catch (IOException exception) {
+
+                    exception.printStackTrace();
+
+                } finally {
+
+                    synchronized (MoveJournal.class) {
+                        isCompacting_ = false;
+                    }
+                }
+            }
+        });
+    }
+
+
+    /**
+     * This function closes the open log and renames it to the next sealed log, so
+     * the next record starts a new one. Must be called while holding the class lock.
+     * @return the number of the sealed log, which every older sealed log is below.
+     * @throws IOException if the log cannot be renamed.
+     */
+    private static int seal() throws IOException {
+
+        if (logChannel_ != null) {
+
+            logChannel_.close();
+            logChannel_ = null;
+        }
+
+        //A sealed log left by a session that never restored keeps its number.
+        for (int left : listSealed(Integer.MAX_VALUE)) {
+            nextSeal_ = Math.max(nextSeal_, left + 1);
+        }
+        int seal = nextSeal_++;
+
+        if (log_.exists()) {
+            Files.move(log_.toPath(), sealedLog(seal).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        return seal;
+    }
+
+
+    /**
+     * This function lists the sealed logs on the disk, oldest first.
+     * @param last, the highest number to list.
+     * @return the numbers of the sealed logs, in order.
+     */
+    private static List<Integer> listSealed(int last) {
+
+        List<Integer> seals = new ArrayList<Integer>();
+        File[] files = log_.getAbsoluteFile().getParentFile().listFiles();
+        String prefix = log_.getName() + ".";
+
+        if (files == null) {
+            return seals;
+        }
+        for (File file : files) {
+
+            String name = file.getName();
+
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+
+            try {
+
+                int seal = Integer.parseInt(name.substring(prefix.length()));
+
+                if (seal > 0 && seal <= last) {
+                    seals.add(seal);
+                }
+
+            } catch (NumberFormatException exception) {
+
+                //Not a sealed log.
+            }
+        }
+        Collections.sort(seals);
+        return seals;
+    }
+
+
+    /**
+     * This function deletes the sealed logs once their records are safely in the
+     * snapshot. Only called on compactor_.
+     * @param last, the highest number to delete.
+     * @throws IOException if a log cannot be deleted.
+     */
+    private static void deleteSealed(int last) throws IOException {
+
+        for (int seal : listSealed(last)) {
+            Files.deleteIfExists(sealedLog(seal).toPath());
+        }
+    }
+
+
+    /**
+     * This is a getter for the file of a sealed log.
+     * @param seal, the number of the sealed log.
+     * @return the file, beside the open log.
+     */
+    private static File sealedLog(int seal) {
+        return new File(log_.getPath() + "." + seal);
+    }
+
+
+    /**
+     * This function encodes one record.
+     * @param records, where to put it.
+     * @param contentId, the ID of the piece.
+     * @param position, where the piece is.
+     * @param rotation, how the piece is turned.
+     * @param time, the played time.
+     */
+    private static void putRecord(ByteBuffer records, int contentId, int position, int rotation, long time) {
+
+        records.putInt(contentId);
+        records.putInt(position);
+        records.putInt(rotation);
+        records.putLong(time);
+    }
+
+
+    /**
+     * This function replaces the snapshot with a save. The source hash is left out,
+     * so MazeWriter writes the full CAFEDEED form, lines and all. Only called on
+     * compactor_.
+     * @param save, the board to write.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    private static void writeSnapshot(MazeModel save) throws IOException {
+
+        MazeWriter.writeSave(snapshot_.toPath(), new MazeModel(MazeParser.SAVE_MAGIC_, save.getLoadTime(),
+                save.getTileIds(), save.getTileRotations(), save.getTileLines(), save.getGeometry(), null));
+    }
+
+
+    /**
+     * This function applies log records on top of a snapshot. Reading stops at the
+     * first record that is cut short or out of range, which is where a crash
+     * would have left the log.
+     * @param snapshot, the last written snapshot.
+     * @param records, the contents of the log.
+     * @return a save with every record applied.
+     */
+    static MazeModel fold(MazeModel snapshot, ByteBuffer records) {
+
+        int tileCount = snapshot.getTileCount();
+        int[] positions = snapshot.getTileIds();
+        int[] rotations = snapshot.getTileRotations();
+        long time = snapshot.getLoadTime();
+
+        while (records.remaining() >= RECORD_BYTES_) {
+
+            int contentId = records.getInt();
+            int position = records.getInt();
+            int rotation = records.getInt();
+            long recordTime = records.getLong();
+
+            if (contentId < 0 || contentId >= tileCount || position < 0 || position >= 2 * tileCount
+                    || rotation < 0 || rotation > 3) {
+                break;
+            }
+            positions[contentId] = position;
+            rotations[contentId] = rotation;
+            time = recordTime;
+        }
+
+        return new MazeModel(MazeParser.SAVE_MAGIC_, time, positions, rotations, snapshot.getTileLines(),
+                snapshot.getGeometry(), snapshot.getSourceHash());
+    }
+
+
+    /**
+     * This function reads the snapshot path from the command line.
+     * @return the snapshot file, or null if journaling is switched off.
+     */
+    private static File journalFile() {
+
+        String path = System.getProperty("jmaze.journal");
+        return path == null || path.isEmpty() ? null : new File(path);
+    }
+
+};
@@ -0,0 +1,136 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+
+/**
+ * This is a command line tool that checks painting a piece allocates nothing.
+ * The 16 pieces of a maze are painted over and over into an image, each turned
+ * a different way, and the bytes the painting thread allocates are counted with
+ * ThreadMXBean. What is checked is Content.paintComponent(), the piece's own
+ * painting; JComponent.paint() around it makes a copy of the graphics on every
+ * call, which is Swing's and not the piece's.
+ * The paint path is the one -Djmaze.paint picks, so the vector path the pieces
+ * fall back to when sprites cannot be used is checked with -Djmaze.paint=vector.
+ *
+ *     java PaintAllocationCheck [--paints n] [--scale s] [maze]
+ *
+ * The maze defaults to game/input/default.mze and the scale to 1. Each scale is
+ * checked in a JVM of its own, code compiled for one scale and then used at
+ * another is not always compiled as tightly again. The exit status is 1 if a
+ * paint allocates a byte once warmed up. With sprites every scale passes. The
+ * vector path passes at 1, but at scales that are not a plain move Java2D
+ * itself allocates for each wide line it draws, inside
+ * PixelToParallelogramConverter, and those scales fail.
+ * @PIECE_SIZE_, the width and height of a piece, as on the game board.
+ * @WARM_UP_PAINTS_, how many pieces are painted before counting starts.
+ * @THREADS_, the thread allocation counter.
+ */
+public class PaintAllocationCheck {
+
+    private static final int PIECE_SIZE_ = 100;
+    private static final int WARM_UP_PAINTS_ = 400000;
+
+    private static final com.sun.management.ThreadMXBean THREADS_ =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+
+        int paints = 64000;
+        double scale = 1;
+        File maze = new File("game/input/default.mze");
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--paints".equals(args[i]) && i + 1 < args.length) {
+
+                paints = Integer.parseInt(args[++i]);
+
+            } else if ("--scale".equals(args[i]) && i + 1 < args.length) {
+
+                scale = Double.parseDouble(args[++i]);
+
+            } else {
+
+                maze = new File(args[i]);
+            }
+        }
+        if (paints < 1 || scale <= 0 || !maze.isFile()) {
+
+            System.err.println("usage: java PaintAllocationCheck [--paints n] [--scale s] [maze]");
+            System.exit(2);
+        }
+
+        Content.setOriginalFile(maze);
+        Content[] pieces = new Content[16];
+
+        for (int i = 0; i < pieces.length; i++) {
+
+            pieces[i] = new Content();
+            pieces[i].setSize(PIECE_SIZE_, PIECE_SIZE_);
+            pieces[i].setSavedRotation(i % 4);
+        }
+
+        String mode = TileSprites.DIRECT_ ? "direct" : TileSprites.SPRITES_ ? "sprites" : "vector";
+        int size = (int) Math.ceil(4 * PIECE_SIZE_ * scale);
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.scale(scale, scale);
+        Graphics2D[] graphics = new Graphics2D[pieces.length];
+
+        for (int i = 0; i < pieces.length; i++) {
+            graphics[i] = (Graphics2D) g2d.create((i % 4) * PIECE_SIZE_, (i / 4) * PIECE_SIZE_, PIECE_SIZE_,
+                    PIECE_SIZE_);
+        }
+
+        //Warmed up first, so every cache is filled and every path fully compiled. Until
+        //then some short lived objects are still allocated that compiled code leaves out.
+        paint(pieces, graphics, WARM_UP_PAINTS_);
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = THREADS_.getThreadAllocatedBytes(threadId);
+        int painted = paint(pieces, graphics, paints);
+        allocated = THREADS_.getThreadAllocatedBytes(threadId) - allocated;
+
+        for (Graphics2D piece : graphics) {
+            piece.dispose();
+        }
+        g2d.dispose();
+
+        double perPaint = allocated / (double) painted;
+        System.out.printf("%s, scale %.2f: %.1f bytes per paint, %d bytes over %d paints%n", mode, scale,
+                perPaint, allocated, painted);
+        System.exit(allocated > 0 ? 1 : 0);
+    }
+
+
+    /**
+     * This function paints every piece in turn until about paints pieces are painted.
+     * @param pieces, the pieces.
+     * @param graphics, where each piece is painted.
+     * @param paints, how many pieces to paint.
+     * @return how many were painted.
+     */
+    private static int paint(Content[] pieces, Graphics2D[] graphics, int paints) {
+
+        int painted = 0;
+
+        while (painted < paints) {
+
+            for (int i = 0; i < pieces.length; i++) {
+                pieces[i].paintComponent(graphics[i]);
+            }
+            painted += pieces.length;
+        }
+        return painted;
+    }
+};
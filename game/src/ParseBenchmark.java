@@ -0,0 +1,225 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * This is a command line tool that measures how long it takes to parse a maze
+ * file, and how many bytes are allocated doing it, the old way and with
+ * MazeParser. The old way is the stream decode RawFileHandler used to do: four
+ * bytes read from an unbuffered FileInputStream at a time, each turned into an
+ * int or float through a new ByteBuffer, and a new float[4] and Line2D.Float for
+ * every line, for CAFEBEEF mazes, and the same for CAFEDEED saves, which it read
+ * through loadFile() with the played time and rotations as well. It never read
+ * any other format, so other files are only timed with MazeParser, and show - for
+ * the old way. MazeParser decodes lines lazily, so every tile's lines are read
+ * back, which leaves both doing the same work. A file MazeParser rejects is
+ * reported as skipped.
+ *
+ *     java ParseBenchmark [--runs n] file...
+ *
+ * Each file is parsed runs times after as many runs to warm up, and the mean
+ * time and allocation of one parse is printed.
+ * @THREADS_, the thread allocation counter.
+ */
+public class ParseBenchmark {
+
+    private static final com.sun.management.ThreadMXBean THREADS_ =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws IOException {
+
+        int runs = 20000;
+        List<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--runs".equals(args[i]) && i + 1 < args.length) {
+
+                runs = Integer.parseInt(args[++i]);
+
+            } else {
+
+                files.add(new File(args[i]));
+            }
+        }
+        if (files.isEmpty() || runs < 1) {
+
+            System.err.println("usage: java ParseBenchmark [--runs n] file...");
+            System.exit(2);
+        }
+
+        System.out.printf("%-32s %12s %12s %12s %12s%n", "file", "old us", "old bytes", "new us", "new bytes");
+
+        for (File file : files) {
+
+            MazeModel model;
+
+            try {
+
+                model = MazeParser.parse(file);
+
+            } catch (IOException exception) {
+
+                System.out.println("skipped " + file + ": " + exception.getMessage());
+                continue;
+            }
+
+            boolean isLegacy = (model.getMagic() == MazeParser.MAZE_MAGIC_
+                    || model.getMagic() == MazeParser.SAVE_MAGIC_) && model.getTileCount() == legacyParse(file).size();
+            String[] old = {"-", "-"};
+
+            if (isLegacy) {
+                old = measure(file, runs, true);
+            }
+            String[] now = measure(file, runs, false);
+            System.out.printf("%-32s %12s %12s %12s %12s%n", file.getName(), old[0], old[1], now[0], now[1]);
+        }
+    }
+
+
+    /**
+     * This function times one way of parsing a file, after warming it up.
+     * @param file, the file to parse.
+     * @param runs, how many parses to time.
+     * @param isLegacy, true for the old stream decode, false for MazeParser.
+     * @return the mean microseconds and bytes allocated per parse.
+     * @throws IOException if the file cannot be read.
+     */
+    private static String[] measure(File file, int runs, boolean isLegacy) throws IOException {
+
+        long lines = 0;
+
+        for (int i = 0; i < runs; i++) {
+            lines += parse(file, isLegacy);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long allocated = THREADS_.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < runs; i++) {
+            lines += parse(file, isLegacy);
+        }
+        long elapsed = System.nanoTime() - start;
+        allocated = THREADS_.getThreadAllocatedBytes(threadId) - allocated;
+
+        //Keeps the line counts live, so no parse can be left out.
+        if (lines < 0) {
+            System.out.println(lines);
+        }
+        return new String[] {String.format("%.1f", elapsed / 1e3 / runs), Long.toString(allocated / runs)};
+    }
+
+
+    /**
+     * This function parses a file once, and reads back every line.
+     * @param file, the file to parse.
+     * @param isLegacy, true for the old stream decode, false for MazeParser.
+     * @return how many lines the file has.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long parse(File file, boolean isLegacy) throws IOException {
+
+        long lines = 0;
+
+        if (isLegacy) {
+
+            for (Line2D[] tile : legacyParse(file)) {
+                lines += tile.length;
+            }
+            return lines;
+        }
+
+        MazeModel model = MazeParser.parse(file);
+
+        for (int tile = 0; tile < model.getTileCount(); tile++) {
+            lines += model.getLines(tile).length;
+        }
+        return lines;
+    }
+
+
+    /**
+     * This function decodes a CAFEBEEF maze the way RawFileHandler.parseBytes()
+     * did before MazeParser, or a CAFEDEED save the way RawFileHandler.loadFile()
+     * did, kept here only to be measured against.
+     * @param file, the maze or save file.
+     * @return the lines of each tile, or none if the file is neither.
+     * @throws IOException if the file cannot be read.
+     */
+    private static ArrayList<Line2D[]> legacyParse(File file) throws IOException {
+
+        ArrayList<Line2D[]> lineInfo = new ArrayList<Line2D[]>();
+
+        try (
+                InputStream inputStream = new FileInputStream(file);
+        ) {
+
+            byte[] byteSection = new byte[4];
+            inputStream.read(byteSection);
+            String hex = RawFileHandler.convertToHex(byteSection);
+            boolean isSave = hex.contentEquals("CAFEDEED");
+
+            if (!isSave && !hex.contentEquals("CAFEBEEF")) {
+                return lineInfo;
+            }
+            inputStream.read(byteSection);
+            int tileIndex = RawFileHandler.convertToInt(byteSection);
+
+            //A maze skips over the 8 byte section with timer values, a save reads it.
+            byte[] timeSection = new byte[8];
+            inputStream.read(timeSection);
+            long loadTime = isSave ? RawFileHandler.convertToLong(timeSection) : 0;
+
+            int[] tileIds = new int[tileIndex];
+            int[] rotations = new int[tileIndex];
+            int[] tileLines = new int[tileIndex];
+
+            for (int i = 0; i < tileIndex; i++) {
+
+                inputStream.read(byteSection);
+
+                if (isSave) {
+
+                    tileIds[i] = RawFileHandler.convertToInt(byteSection);
+                    inputStream.read(byteSection);
+                    rotations[i] = RawFileHandler.convertToInt(byteSection);
+
+                } else {
+
+                    inputStream.read(byteSection);
+                    tileIds[i] = RawFileHandler.convertToInt(byteSection);
+                }
+
+                inputStream.read(byteSection);
+                tileLines[i] = RawFileHandler.convertToInt(byteSection);
+
+                Line2D[] floatValues = new Line2D[tileLines[i]];
+
+                for (int j = 0; j < tileLines[i]; j++) {
+
+                    float[] xyCoords = new float[4];
+
+                    for (int k = 0; k < 4; k++) {
+
+                        inputStream.read(byteSection);
+                        xyCoords[k] = RawFileHandler.convertToFloat(byteSection);
+                    }
+                    floatValues[j] = new Line2D.Float(xyCoords[0], xyCoords[1], xyCoords[2], xyCoords[3]);
+                }
+                lineInfo.add(floatValues);
+            }
+        }
+        return lineInfo;
+    }
+};
@@ -0,0 +1,236 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * This is a command line tool that checks MazeParser can parse many files at
+ * once. Every file under the folders is parsed once on this thread, then every
+ * file is parsed again, rounds times over, by a pool of threads all at the same
+ * time. Each result is compared field by field with the one from the first run:
+ * the magic number, load time, source hash, tile ids, rotations, line counts and
+ * every coordinate of every line. A file that could not be parsed must fail the
+ * same way each time.
+ *
+ *     java ParseStress [--threads n] [--rounds n] folder...
+ *
+ * A folder made by MazeGenerator, with --saves and --corrupt, is a good corpus
+ * next to game/input. The exit status is 1 if any result differs.
+ * @MAX_REPORTED_, how many differences are printed before the rest are only counted.
+ */
+public class ParseStress {
+
+    private static final int MAX_REPORTED_ = 20;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        int rounds = 8;
+        List<Path> roots = new ArrayList<Path>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--threads".equals(args[i]) && i + 1 < args.length) {
+
+                threads = Integer.parseInt(args[++i]);
+
+            } else if ("--rounds".equals(args[i]) && i + 1 < args.length) {
+
+                rounds = Integer.parseInt(args[++i]);
+
+            } else {
+
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (roots.isEmpty() || threads < 1 || rounds < 1) {
+
+            System.err.println("usage: java ParseStress [--threads n] [--rounds n] folder...");
+            System.exit(2);
+        }
+
+        List<File> files = new ArrayList<File>();
+
+        for (Path root : roots) {
+
+            try (
+                    Stream<Path> paths = Files.walk(root);
+            ) {
+
+                Iterator<Path> iterator = paths.iterator();
+
+                while (iterator.hasNext()) {
+
+                    Path path = iterator.next();
+
+                    if (Files.isRegularFile(path)) {
+                        files.add(path.toFile());
+                    }
+                }
+            }
+        }
+
+        Object[] expected = new Object[files.size()];
+        long start = System.nanoTime();
+
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = parse(files.get(i));
+        }
+        long sequential = System.nanoTime() - start;
+
+        AtomicLong differences = new AtomicLong();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        CountDownLatch ready = new CountDownLatch(1);
+        start = System.nanoTime();
+
+        //Every file is queued before any thread starts, so the same file is often parsed by several at once.
+        for (int round = 0; round < rounds; round++) {
+
+            for (int i = 0; i < expected.length; i++) {
+
+                File file = files.get(i);
+                Object wanted = expected[i];
+
+                pool.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+
+                        try {
+
+                            ready.await();
+
+                        } catch (InterruptedException exception) {
+
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        String difference = compare(wanted, parse(file));
+
+                        if (difference != null && differences.incrementAndGet() <= MAX_REPORTED_) {
+                            System.out.println(file + ": " + difference);
+                        }
+                    }
+                });
+            }
+        }
+        ready.countDown();
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        long parallel = System.nanoTime() - start;
+
+        System.out.printf("%d files, sequential %.1f ms, %d rounds on %d threads %.1f ms, %d differences%n",
+                files.size(), sequential / 1e6, rounds, threads, parallel / 1e6, differences.get());
+
+        if (differences.get() > 0) {
+            System.exit(1);
+        }
+    }
+
+
+    /**
+     * This function parses a file, and catches whatever goes wrong.
+     * @param file, the file to parse.
+     * @return the model, or the exception that was thrown.
+     */
+    private static Object parse(File file) {
+
+        try {
+
+            return MazeParser.parse(file);
+
+        } catch (IOException | RuntimeException exception) {
+
+            return exception;
+        }
+    }
+
+
+    /**
+     * This function compares a result with the one from the first run.
+     * @param wanted, the model or exception from the first run.
+     * @param found, the model or exception from this run.
+     * @return what differs, or null if nothing does.
+     */
+    private static String compare(Object wanted, Object found) {
+
+        if (wanted instanceof Exception || found instanceof Exception) {
+
+            if (wanted.getClass() != found.getClass()) {
+                return "was " + describe(wanted) + ", now " + describe(found);
+            }
+            if (!Objects.equals(((Exception) wanted).getMessage(), ((Exception) found).getMessage())) {
+                return "was " + describe(wanted) + ", now " + describe(found);
+            }
+            return null;
+        }
+
+        MazeModel before = (MazeModel) wanted;
+        MazeModel after = (MazeModel) found;
+
+        if (before.getMagic() != after.getMagic()) {
+            return "magic differs";
+        }
+        if (before.getLoadTime() != after.getLoadTime()) {
+            return "load time differs";
+        }
+        if (!Arrays.equals(before.getSourceHash(), after.getSourceHash())) {
+            return "source hash differs";
+        }
+        if (!Arrays.equals(before.getTileIds(), after.getTileIds())) {
+            return "tile ids differ";
+        }
+        if (!Arrays.equals(before.getTileRotations(), after.getTileRotations())) {
+            return "rotations differ";
+        }
+        if (!Arrays.equals(before.getTileLines(), after.getTileLines())) {
+            return "line counts differ";
+        }
+
+        for (int tile = 0; tile < before.getTileCount(); tile++) {
+
+            Line2D[] beforeLines = before.getLines(tile);
+            Line2D[] afterLines = after.getLines(tile);
+
+            for (int line = 0; line < beforeLines.length; line++) {
+
+                Line2D a = beforeLines[line];
+                Line2D b = afterLines[line];
+
+                //Compared as bits, so a NaN from a corrupt file still matches itself.
+                if (Double.compare(a.getX1(), b.getX1()) != 0 || Double.compare(a.getY1(), b.getY1()) != 0
+                        || Double.compare(a.getX2(), b.getX2()) != 0 || Double.compare(a.getY2(), b.getY2()) != 0) {
+                    return "tile " + tile + " line " + line + " differs";
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * This function names a result for a report.
+     * @param result, a model or an exception.
+     * @return the kind of model, or the exception and its message.
+     */
+    private static String describe(Object result) {
+
+        if (result instanceof Exception) {
+            return result.getClass().getSimpleName() + " " + ((Exception) result).getMessage();
+        }
+        return "magic " + Integer.toHexString(((MazeModel) result).getMagic());
+    }
+};
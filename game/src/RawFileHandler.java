@@ -11,7 +11,6 @@ import java.io.*;
 import java.nio.*;
 
 import javax.swing.JComponent;
-import javax.swing.JOptionPane;
 
 import java.awt.geom.Line2D;
 import java.util.*;
@@ -19,9 +18,15 @@ import java.util.*;
  * This class handles all of the parsing necessary for 
  * binary file formats. It will take a file path,
  * ensure the file exists, and then parses information into several different
- * data structures.
+ * data structures. The parsing itself is done by MazeParser, so every format it
+ * knows, quantized mazes and compact saves included, is read here. The static checks
+ * below are kept so existing callers keep working, but they only describe the
+ * most recent file handed to this class and are not safe to rely on when files
+ * are parsed from several threads.
  * @fileName_, the filename that is passed to the constructor via
  * default load, or custom save/load.
+ * @entryName_, the name of the maze inside fileName_ when it is a MazePack or a
+ * zip file, or null for a plain file.
  * @hexValues_, this is a String function that allows other classes to observe the
  * first four hex values of a function. This is needed when loading exceptions
  * are caught.
@@ -33,32 +38,31 @@ import java.util.*;
  * @tileIds_, the IDS of each tile, as read from the file.
  * @tileRotations_, the integer value of rotations extracted from a saved file.
  * @tileLines_, the number of lines to be drawn on each game piece.
- * @floatValues_, the data structure to store two pairs of coordinates for 
- * each line on a game piece.
- * @xyCoords, an intermediary data structure that is meant to temporarily house
- * all four coordinate values from the file, and then transfer these values to 
- * floatValues_.
- * @lineInfo_, takes information housed in floatValues, and is exported to other
+ * @lineInfo_, takes the line coordinates decoded for each tile, and is exported to other
  * classes such as Content. It is much easier to manipulate and extract 
- * values with an ArrayList over a primitive type array.
+ * values with an ArrayList over a primitive type array. It is only filled from
+ * model_ the first time it is asked for, with Line2D views over the packed lines
+ * of the model, see TileGeometry.
+ * @model_, the immutable result of the last successful parse, shared through
+ * MazeRepository.
  */
 public class RawFileHandler implements Serializable {
     
     private File fileName_;
+    private String entryName_;
     
-    private static String hexValues_;
+    private static volatile String hexValues_;
     
-    private static boolean isFileGood_ = true;
-    private static boolean isDefaultLoaded_ = false;
+    private static volatile boolean isFileGood_ = true;
+    private static volatile boolean isDefaultLoaded_ = false;
         
     private int tileIndex_;
     private long loadTime_;
     private int[] tileIds_; 
     private int[] savedRotations_ = new int[16];
     private int[] tileLines_;
-    private Line2D[] floatValues_;
-    private float[] xyCoords_;
     private ArrayList<Line2D[]> lineInfo_ = new ArrayList<Line2D[]>();
+    private MazeModel model_;
                 
     private static final long serialVersionUID = 2;
     
@@ -68,19 +72,31 @@ public class RawFileHandler implements Serializable {
      * initiated through. Before any parsing is done, the given file path
      * is checked to ensure that it exists, and if it is the correct format.
      * If all is well, the file is parsed. 
-     * A default file must be present at every initial generation, and a pop up will remind
-     * the user of this, if one is not present.
+     * This class is now a thin layer over MazeParser that keeps the old static
+     * checks up to date, it no longer shows a pop up for a missing file. That is
+     * left to whichever class asked for the file.
      *
      * @param fileName, the file path provided in Content or GameWindow.
      */
     public RawFileHandler(File fileName) {
         
+        this(fileName, null);
+    }
+    
+    
+    /**
+     * This constructor reads one maze out of a maze pack or zip file, and
+     * otherwise behaves like the constructor above.
+     * @param fileName, the archive, or a plain maze or save file.
+     * @param entryName, the name of the maze in the archive, or null for a plain file.
+     */
+    public RawFileHandler(File fileName, String entryName) {
+        
+        entryName_ = entryName;
+        
         //Does this file exist at this path?
         if(!fileName.exists()) {
-            JOptionPane.showMessageDialog(null, "We are experiencing a file not found error, please make sure that:\n "
-                    + "1. You have a default file labeled 'default.mze'.\n"
-                    + " 2. You have tried to load a valid file in a valid folder.",
-                    "File Not Found", JOptionPane.ERROR_MESSAGE);
+            
             isFileGood_ = false;
                                
         } 
@@ -95,94 +111,36 @@ public class RawFileHandler implements Serializable {
     
 
     /**
-     * This function reads all information from the binary file in 
-     * one go, and places all information in the data structures listed previously.
-     * It can be confusing as to how it works, so please read the comments in the function body.
-     * This function also decides whether to load the default file, or a saved file
-     * based on the first four hex values present. If the values are not correct,
-     * no file will be loaded beyond the default.
-     * @return 0 if file is parsed successfully, -1 if an IO exception is caught.
+     * This function hands the file to MazeParser, and places the result in the 
+     * data structures listed previously. It also records the first four hex 
+     * values and whether the file was good, for the classes that still check them.
+     * @return 0 if file is parsed successfully, -1 if the file is malformed or
+     * an IO exception is caught.
      */
     public int parseBytes() {
-        try (
-                InputStream inputStream = new FileInputStream(fileName_);
-                
-        ) {
+        try {
             
-            byte[] byteSection = new byte[4];
-                
-            //Read in first line to determine how many tiles there are, or find "N".
-            inputStream.read(byteSection);
+            ByteBuffer buffer = entryName_ == null ? MazeParser.readFully(fileName_)
+                    : MazeArchive.read(fileName_, entryName_);
             
-            hexValues_ = convertToHex(byteSection);
+            //A file shorter than the magic number reads as zeros, same as before.
+            int magic = buffer.remaining() >= 4 ? buffer.getInt(0) : 0;
+            //Leading bit keeps the zero padding, it is dropped again by substring().
+            hexValues_ = Long.toHexString(0x100000000L | (magic & 0xFFFFFFFFL)).substring(1).toUpperCase();
             
-            if (hexValues_.contentEquals("CAFEDEED")) {
-                isFileGood_ = true;
-                loadFile(fileName_);
-                return 0;
-            } 
-            else if (hexValues_.contentEquals("CAFEBEEF")) {
-                
-                inputStream.read(byteSection);           
-                tileIndex_ = convertToInt(byteSection);
-                 
-                //Skip over 8 byte section with timer values. 
-                inputStream.read(byteSection);
-                inputStream.read(byteSection);
-                
-                //Size int arrays based on how many tiles we have.
-                tileIds_ = new int[tileIndex_];
-                tileLines_ = new int[tileIndex_];
-                //For each tile
-                for(int i = 0; i < tileIndex_; i++) {
-                    
-                    //Need to read ahead by two byte sections because of new hex offset.
-                    inputStream.read(byteSection);
-                    inputStream.read(byteSection);
-                    //tile "number", take current chunk and assign ID based on loop index
-                    tileIds_[i] = convertToInt(byteSection);
-                                    
-                    inputStream.read(byteSection);
-                    //tile lines, take next chunk, assign int value for lines based on loop index
-                    tileLines_[i] = convertToInt(byteSection);
-                
-                    // Since we will be using 2D lines on a JLabel object, store float values in a 2D
-                    //line array.
-                    floatValues_ = new Line2D[tileLines_[i]];
-                    //For each line, two pairs (four values) of floats
-                    for(int j = 0; j < tileLines_[i]; j++) {
-                    
-                        //make room for four values
-                        xyCoords_ = new float[4];
-                        for(int k = 0 ; k < 4; k++) {
-                        
-                            //get next chunk, and convert coordinates to floats
-                            inputStream.read(byteSection);
-                            xyCoords_[k] = convertToFloat(byteSection);
-                        }
-                        //Put the previously calculated coordinates into the 2DLine array.
-                        float x0 = xyCoords_[0];
-                        float y0 = xyCoords_[1];
-                        float x1 = xyCoords_[2];
-                        float y1 = xyCoords_[3];
-                            
-                        floatValues_[j] = new Line2D.Float(x0, y0, x1, y1);
-                        
-                    }       
-                    //Add the float values for the lines of tile 0, 1, 2, etc this array object,
-                    //then ship this data structure to "Contents".
-                    lineInfo_.add(floatValues_);
-                    
-                }
-                
-                inputStream.close();
-                return 0;
-            } else {
-                
-                isFileGood_ = false;
+            MazeModel model = MazeParser.parse(buffer);
+            
+            if (model.isSave()) {
                 
-                return -1;
-              }
+                isFileGood_ = true;
+            }
+            setModel(model);
+            return 0;
+            
+        } catch (MazeFormatException exception) {
+            
+            isFileGood_ = false;
+            return -1;
             
         } catch (IOException exception) {
             
@@ -197,167 +155,97 @@ public class RawFileHandler implements Serializable {
      * information in the form of integer Position ID's, 
      * rotations values, and float line information. Ultimately, the most important
      * part to be saved is the position ID, and the rotation setting.
-     * This function contains several instance variables of its own that 
-     * are not included in the class declaration. They are only used as 
-     * intermediaries that help write information to a file.
+     * The board is captured by snapshotBoard(), and MazeWriter encodes it into a 
+     * single buffer and swaps it in over the old file in one step.
      * @param saveFile, the selected file to save raw int and float data.
      */
     public static void saveFile(File saveFile) {
         
-        int[] hexValues = new int[4];
-        float[] tempCoordinateArray = new float[4];
-        ArrayList<JComponent> contentList = Tile.getContentArray();
-        
-        try (
-                OutputStream outputStream = new FileOutputStream(saveFile);
-        ) {
-            //Mark this file with needed hex values
-            hexValues[0] = 0xca;
-            hexValues[1] = 0xfe;
-            hexValues[2] = 0xde;
-            hexValues[3] = 0xed;
-            for (int i = 0; i < hexValues.length; i++) {
-                
-                outputStream.write(hexValues[i]);
-                
-            }
-            //Number of movable tiles
-            outputStream.write(convertToByteArray(16));
+        try {
             
-            //Played time
-            outputStream.write(convertToByteArray(Clock.getCurrentTime()));
-                    
-            for (int j = 0; j < 16; j++) {
-                
-                //Get current Content pieces, find their positions.
-                //ArrayList<JComponent> contentList = Tile.getContentArray();
-                Content content = (Content) contentList.get(j);
-                
-                //Handy function that determines current parent container,
-                //and returns their ID.
-                int currentPosition = content.getPosition();
-                outputStream.write(convertToByteArray(currentPosition));
-                   
-                //Get rotation of current piece.
-                int currentRotation = content.getCurrentRotation();
-                //Write out current rotation value, win condition does not play off of file.
-                //Seems inefficient to gauge a win condition off of what is in the file.
-                outputStream.write(convertToByteArray(currentRotation));
-                 
-                //Get lines of current piece. 
-                Line2D[] currentLines = content.getLines();
-                outputStream.write(convertToByteArray(currentLines.length));
-                
-                //Extract line coordinates one at a time, and write to file.
-                for (Line2D line : currentLines) {
-                    
-                    float x0 = (float) line.getX1();
-                    float y0 = (float) line.getY1();
-                    float x1 = (float) line.getX2();
-                    float y1 = (float) line.getY2();
-                    tempCoordinateArray[0] = x0;
-                    tempCoordinateArray[1] = y0;
-                    tempCoordinateArray[2] = x1;
-                    tempCoordinateArray[3] = y1;
-                    for(int k = 0; k < 4; k++) {
-                        
-                        outputStream.write(convertToByteArray(tempCoordinateArray[k]));
-                   }
-                }
-            }
+            MazeWriter.writeSave(saveFile.toPath(), snapshotBoard(), snapshotChanges());
             
-            outputStream.close();
         } catch (IOException exception) {
             
             exception.printStackTrace();
           }
     }
+    
+    
+    /**
+     * This function captures everything a save needs from the current board.
+     * Each of the 16 Content pieces gives its parent container ID, its rotation,
+     * and its lines, which are copied into one packed array. Win condition does
+     * not play off of the file, so only the current state is recorded. If every
+     * piece came from the same maze, its hash is kept so the save can be written
+     * in the compact form.
+     * @return a save model of the board as it is right now.
+     */
+    static MazeModel snapshotBoard() {
+        
+        ArrayList<JComponent> contentList = Tile.getContentArray();
+        int[] positions = new int[16];
+        int[] rotations = new int[16];
+        int[] lineCounts = new int[16];
+        TileGeometry[] geometries = new TileGeometry[16];
+        int[] geometryTiles = new int[16];
+        byte[] sourceHash = ((Content) contentList.get(0)).getSourceHash();
+        
+        for (int j = 0; j < 16; j++) {
+            
+            //Handy function that determines current parent container,
+            //and returns their ID.
+            Content content = (Content) contentList.get(j);
+            positions[j] = content.getPosition();
+            rotations[j] = content.getCurrentRotation();
+            geometries[j] = content.getGeometry();
+            geometryTiles[j] = content.getGeometryTile();
+            lineCounts[j] = geometries[j].getLineCount(geometryTiles[j]);
+            
+            if (!Arrays.equals(sourceHash, content.getSourceHash())) {
+                sourceHash = null;
+            }
+        }
+        return new MazeModel(MazeParser.SAVE_MAGIC_, Clock.getCurrentTime(), positions, rotations,
+                lineCounts, new TileGeometry(geometries, geometryTiles), sourceHash);
+    }
+    
+    
+    /**
+     * This function captures when each of the 16 Content pieces last moved or
+     * rotated, in the same order as snapshotBoard(). MazeWriter uses it to only
+     * write the pieces that changed since a file was last saved.
+     * @return the change stamp of every piece.
+     */
+    static long[] snapshotChanges() {
+        
+        ArrayList<JComponent> contentList = Tile.getContentArray();
+        long[] changedAt = new long[16];
+        
+        for (int j = 0; j < 16; j++) {
+            
+            changedAt[j] = ((Content) contentList.get(j)).getChangedAt();
+        }
+        return changedAt;
+    }
                 
      
     
     /**
      * Based on the first four hex values that are read, this function is called
-     * if a given file is marked as previously played and saved. It is quite
-     * similar in structure to parseBytes(), with the exception that it reads 
-     * rotation information. This function uses variables that are declared
-     * with the class, as the data they hold needs to be manipulated and
-     * accessed by other classes.
+     * if a given file is marked as previously played and saved. It decodes the
+     * whole file with MazeParser, which reads rotation information for saves.
      * @param loadFile, the file the has been selected for loading.
      */
     public void loadFile(File loadFile) {
         
-        //clear out any potentially old or outdated line info.
-        lineInfo_.clear();
-        
-        try (
-                InputStream inputStream = new FileInputStream(loadFile);
-                
-        ) {
-            
-            byte[] byteSection = new byte[4];
-            //Does nothing, just reads over the hex values that have already
-            //been checked.
-            inputStream.read(byteSection);
-            
-            //See parseBytes(), very similar read structure.
-            inputStream.read(byteSection);
-            tileIndex_ = convertToInt(byteSection);
+        try {
             
-            byte[] timeSection = new byte[8];
+            setModel(MazeParser.parse(loadFile));
             
-            inputStream.read(timeSection);
+        } catch (MazeFormatException exception) {
             
-            loadTime_ = convertToLong(timeSection);
-            
-            
-            tileIds_ = new int[tileIndex_];
-            tileLines_ = new int[tileIndex_];
-            savedRotations_ = new int[tileIndex_];
-            
-            for (int i = 0; i < tileIndex_; i++) {
-               
-                inputStream.read(byteSection);
-                //tile position ID
-                tileIds_[i] = convertToInt(byteSection);
-                
-                inputStream.read(byteSection);
-                //Get rotations
-                savedRotations_[i] = convertToInt(byteSection);
-                
-                inputStream.read(byteSection);
-                //Number of lines for tile
-                tileLines_[i] = convertToInt(byteSection);
-                
-                // Since we will be using 2D lines on a JLabel object, store float values in a 2D
-                //line array.
-                floatValues_ = new Line2D[tileLines_[i]];
-                //For each line, two pairs (four values) of floats
-                for(int j = 0; j < tileLines_[i]; j++) {
-                    
-                    //make room for four values
-                    xyCoords_ = new float[4];
-                    
-                    for(int k = 0 ; k < 4; k++) {
-                        
-                        //get next chunk, and convert coordinates to floats
-                        inputStream.read(byteSection);
-                        xyCoords_[k] = convertToFloat(byteSection);
-                        
-                    }
-                    //Put the previously calculated coordinates into the 2DLine array.
-                    float x0 = xyCoords_[0];
-                    float y0 = xyCoords_[1];
-                    float x1 = xyCoords_[2];
-                    float y1 = xyCoords_[3];
-                            
-                    floatValues_[j] = new Line2D.Float(x0, y0, x1, y1);
-                        
-                }
-                //Add the float values for the lines of tile 0, 1, 2, etc this array object,
-                //then ship this data structure to "Contents".
-                lineInfo_.add(floatValues_);
-            }
-            inputStream.close();
+            isFileGood_ = false;
             
         } catch (IOException exception) {
             exception.printStackTrace();
@@ -365,6 +253,24 @@ public class RawFileHandler implements Serializable {
           }
        
     }
+    
+    
+    /**
+     * This function copies a decoded model into the fields that the getters
+     * of this class have always exposed.
+     * @param model, the freshly decoded file.
+     */
+    private void setModel(MazeModel model) {
+        
+        model_ = model;
+        tileIndex_ = model.getTileCount();
+        loadTime_ = model.getLoadTime();
+        tileIds_ = model.getTileIds();
+        savedRotations_ = model.getTileRotations();
+        tileLines_ = model.getTileLines();
+        //Lines are left in the model until someone asks for them.
+        lineInfo_ = null;
+    }
        
     
     /**
@@ -480,6 +386,30 @@ public class RawFileHandler implements Serializable {
     }
     
         
+    /**
+     * This is a getter for the immutable result of parsing.
+     * @return model_, or null if the file could not be parsed.
+     */
+    public MazeModel getModel() {
+        return model_;
+    }
+
+    /**
+     * This function copies the parsed file into an off-heap store, for jobs that
+     * keep many mazes loaded. Lines this handler has not decoded are copied
+     * without being decoded onto the heap, so the handler can be dropped after.
+     * @param store, the store to copy into.
+     * @return the handle of the copy in the store.
+     * @throws IllegalStateException if the file could not be parsed.
+     */
+    public int storeIn(GeometryStore store) {
+
+        if (model_ == null) {
+            throw new IllegalStateException(fileName_ + " could not be parsed");
+        }
+        return store.add(model_);
+    }
+
     /**
      * This is a getter for the tile index.
      * @return int object tileIndex_.
@@ -503,6 +433,9 @@ public class RawFileHandler implements Serializable {
      */
     public ArrayList<Line2D[]> getLineInfo() {
 
+        if (lineInfo_ == null) {
+            lineInfo_ = model_.getLineInfo();
+        }
         return lineInfo_;
         
     }
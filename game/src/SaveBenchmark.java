@@ -0,0 +1,193 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * This is a command line tool that measures the wall time and the number of
+ * read and write system calls of one save, the old way and with MazeWriter.
+ * The old way is what RawFileHandler.saveFile() used to do: an unbuffered
+ * FileOutputStream written one byte, int or float at a time. MazeWriter is
+ * measured rewriting the whole file, as CAFEDEED and in the form the game picks,
+ * which is the compact form when run with -Djmaze.saveFormat=compact, and patching
+ * only the one piece that moved since the last save in place.
+ * System calls are read from /proc/thread-self/io, so they are only counted on
+ * Linux, and only reads and writes are counted, not the open, rename and fsync
+ * calls around them. Saves go to a file in --dir, which should be on the disk
+ * being measured, such as a network home folder.
+ *
+ *     java SaveBenchmark [--runs n] [--dir folder] [maze]
+ *
+ * The maze defaults to game/input/default.mze.
+ * @IO_STATS_, the per thread I/O counters the kernel keeps.
+ */
+public class SaveBenchmark {
+
+    private static final Path IO_STATS_ = Paths.get("/proc/thread-self/io");
+
+    public static void main(String[] args) throws IOException {
+
+        int runs = 200;
+        Path dir = null;
+        File maze = new File("game/input/default.mze");
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--runs".equals(args[i]) && i + 1 < args.length) {
+
+                runs = Integer.parseInt(args[++i]);
+
+            } else if ("--dir".equals(args[i]) && i + 1 < args.length) {
+
+                dir = Paths.get(args[++i]);
+
+            } else {
+
+                maze = new File(args[i]);
+            }
+        }
+        if (runs < 1) {
+
+            System.err.println("usage: java SaveBenchmark [--runs n] [--dir folder] [maze]");
+            System.exit(2);
+        }
+
+        MazeModel model = MazeParser.parse(maze);
+        int tiles = model.getTileCount();
+        int[] positions = new int[tiles];
+        int[] rotations = new int[tiles];
+
+        for (int i = 0; i < tiles; i++) {
+            positions[i] = i;
+        }
+        Path target = dir == null ? Files.createTempFile("save", ".mze")
+                : Files.createTempFile(dir, "save", ".mze");
+
+        try {
+
+            System.out.printf("%-26s %10s %10s %10s%n", "save", "us", "syscalls", "bytes");
+
+            for (int mode = 0; mode < 4; mode++) {
+
+                long[] changedAt = new long[tiles];
+                long bytes = 0;
+                long syscalls = readSyscalls();
+                long start = System.nanoTime();
+
+                for (int run = 0; run < runs; run++) {
+
+                    //One piece turns between saves, as it would in play.
+                    int piece = run % tiles;
+                    rotations[piece] = (rotations[piece] + 1) % 4;
+                    changedAt[piece] = run + 1;
+                    MazeModel save = new MazeModel(MazeParser.SAVE_MAGIC_, run, positions, rotations,
+                            model.getTileLines(), model.getGeometry(), mode == 1 ? null : model.getSourceHash());
+
+                    if (mode == 0) {
+
+                        bytes += legacySave(target.toFile(), save);
+
+                    } else if (mode == 3) {
+
+                        bytes += MazeWriter.writeSave(target, save, changedAt);
+
+                    } else {
+
+                        bytes += MazeWriter.writeSave(target, save);
+                    }
+                }
+                long elapsed = System.nanoTime() - start;
+                syscalls = readSyscalls() - syscalls;
+
+                String[] names = {"old stream", "rewrite, CAFEDEED", "rewrite, as the game does", "patch in place"};
+                System.out.printf("%-26s %10.1f %10s %10d%n", names[mode], elapsed / 1e3 / runs,
+                        syscalls < 0 ? "-" : String.format("%.1f", syscalls / (double) runs), bytes / runs);
+            }
+
+        } finally {
+
+            Files.deleteIfExists(target);
+        }
+    }
+
+
+    /**
+     * This function writes a CAFEDEED save the way RawFileHandler.saveFile() did
+     * before MazeWriter, kept here only to be measured against.
+     * @param saveFile, the file to write.
+     * @param save, the positions, rotations, time and lines to write.
+     * @return the number of bytes written.
+     * @throws IOException if the file cannot be written.
+     */
+    private static long legacySave(File saveFile, MazeModel save) throws IOException {
+
+        long written = 0;
+
+        try (
+                OutputStream outputStream = new FileOutputStream(saveFile);
+        ) {
+
+            int[] hexValues = {0xca, 0xfe, 0xde, 0xed};
+
+            for (int i = 0; i < hexValues.length; i++) {
+                outputStream.write(hexValues[i]);
+            }
+            outputStream.write(RawFileHandler.convertToByteArray(save.getTileCount()));
+            outputStream.write(RawFileHandler.convertToByteArray(save.getLoadTime()));
+            written += 16;
+
+            for (int j = 0; j < save.getTileCount(); j++) {
+
+                Line2D[] currentLines = save.getLines(j);
+                outputStream.write(RawFileHandler.convertToByteArray(save.getTileId(j)));
+                outputStream.write(RawFileHandler.convertToByteArray(save.getTileRotation(j)));
+                outputStream.write(RawFileHandler.convertToByteArray(currentLines.length));
+                written += 12;
+
+                for (Line2D line : currentLines) {
+
+                    outputStream.write(RawFileHandler.convertToByteArray((float) line.getX1()));
+                    outputStream.write(RawFileHandler.convertToByteArray((float) line.getY1()));
+                    outputStream.write(RawFileHandler.convertToByteArray((float) line.getX2()));
+                    outputStream.write(RawFileHandler.convertToByteArray((float) line.getY2()));
+                    written += 16;
+                }
+            }
+        }
+        return written;
+    }
+
+
+    /**
+     * This function reads how many read and write system calls this thread has made.
+     * @return the count, or -1 if the kernel does not say.
+     */
+    private static long readSyscalls() {
+
+        try {
+
+            long count = 0;
+
+            for (String line : Files.readAllLines(IO_STATS_)) {
+
+                if (line.startsWith("syscr:") || line.startsWith("syscw:")) {
+                    count += Long.parseLong(line.substring(6).trim());
+                }
+            }
+            return count;
+
+        } catch (IOException | RuntimeException exception) {
+
+            return -1;
+        }
+    }
+};
@@ -0,0 +1,226 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * This is a command line tool that rewrites legacy CAFEDEED saves as compact
+ * saves. For every save, the maze its lines were copied from is looked up in the
+ * MazeStore folders by comparing the lines themselves. A compact save can only be
+ * loaded while its maze is in one of those folders, game/input or a folder in
+ * -Djmaze.store, so a save whose maze is anywhere else, even beside the save, is
+ * refused. The maze is read again from the store folder, and the compact save is
+ * encoded, parsed back, and compared with both the original and that copy before
+ * the file is replaced, so a save is only ever rewritten if a new game would load
+ * it the same.
+ * Files and folders are given on the command line, and the saves among them are
+ * converted. Mazes among them are not added to the store.
+ *
+ *     java SaveConverter [--dry-run] file-or-folder...
+ *
+ * The exit status is 1 if any save could not be converted.
+ */
+public class SaveConverter {
+
+    public static void main(String[] args) {
+
+        boolean dryRun = false;
+        List<File> files = new ArrayList<File>();
+
+        for (String arg : args) {
+
+            if ("--dry-run".equals(arg)) {
+
+                dryRun = true;
+
+            } else {
+
+                listFiles(new File(arg), files);
+            }
+        }
+        if (files.isEmpty()) {
+
+            System.err.println("usage: java SaveConverter [--dry-run] file-or-folder...");
+            System.exit(2);
+        }
+
+        //Parsed directly, not through MazeRepository, so no maze outside the store folders is remembered.
+        Map<File, MazeModel> saves = new LinkedHashMap<File, MazeModel>();
+
+        for (File file : files) {
+
+            try {
+
+                MazeModel model = MazeParser.parse(file);
+
+                if (model.getMagic() == MazeParser.SAVE_MAGIC_) {
+                    saves.put(file, model);
+                }
+
+            } catch (IOException exception) {
+
+                System.out.println("skipped " + file + ": " + exception.getMessage());
+            }
+        }
+
+        List<MazeModel> mazes = MazeStore.scan();
+        int failures = 0;
+
+        for (Map.Entry<File, MazeModel> save : saves.entrySet()) {
+
+            if (!convert(save.getKey(), save.getValue(), mazes, dryRun)) {
+                failures++;
+            }
+        }
+        System.out.println(saves.size() + " legacy saves, " + failures + " not converted");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+
+    /**
+     * This function converts a single save, and reports what happened.
+     * @param file, the legacy save file.
+     * @param legacy, the parsed legacy save.
+     * @param mazes, every maze in the store.
+     * @param dryRun, true to check the conversion without writing anything.
+     * @return true if the save was converted, or would have been.
+     */
+    private static boolean convert(File file, MazeModel legacy, List<MazeModel> mazes, boolean dryRun) {
+
+        MazeModel found = findSource(legacy, mazes);
+        MazeModel maze = found == null ? null : MazeStore.findOnDisk(found.getSourceHash());
+
+        if (maze == null || !sameLines(legacy, maze)) {
+
+            System.out.println("failed " + file + ": no maze in a store folder has these lines");
+            return false;
+        }
+
+        MazeModel compact = new MazeModel(MazeParser.SAVE_MAGIC_, legacy.getLoadTime(), legacy.getTileIds(),
+                legacy.getTileRotations(), maze.getTileLines(), maze.getGeometry(), maze.getSourceHash());
+        ByteBuffer encoded = MazeWriter.encodeCompact(compact);
+        long legacySize = file.length();
+
+        try {
+
+            MazeModel back = MazeParser.parse(encoded.duplicate());
+
+            if (!sameSave(legacy, back) || !Arrays.equals(back.getSourceHash(), maze.getSourceHash())) {
+
+                System.out.println("failed " + file + ": the compact save does not read back the same");
+                return false;
+            }
+            if (!dryRun) {
+                MazeWriter.replace(file.toPath(), encoded.duplicate());
+            }
+
+        } catch (IOException exception) {
+
+            System.out.println("failed " + file + ": " + exception.getMessage());
+            return false;
+        }
+        System.out.println((dryRun ? "would convert " : "converted ") + file + ": " + legacySize
+                + " -> " + encoded.remaining() + " bytes");
+        return true;
+    }
+
+
+    /**
+     * This function finds the maze a legacy save copied its lines from.
+     * @param legacy, the parsed legacy save.
+     * @param mazes, every maze in the store.
+     * @return the maze with exactly the same lines, or null if there is none.
+     */
+    private static MazeModel findSource(MazeModel legacy, List<MazeModel> mazes) {
+
+        for (MazeModel maze : mazes) {
+
+            if (sameLines(legacy, maze)) {
+                return maze;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * This is a check for whether a compact save read back from disk would put
+     * the board in the same state as the legacy save.
+     * @param legacy, the original save.
+     * @param compact, the compact save after a round trip.
+     * @return true if the time, positions, rotations and lines all match.
+     */
+    private static boolean sameSave(MazeModel legacy, MazeModel compact) {
+
+        return compact.isSave() && compact.getLoadTime() == legacy.getLoadTime()
+                && Arrays.equals(compact.getTileIds(), legacy.getTileIds())
+                && Arrays.equals(compact.getTileRotations(), legacy.getTileRotations())
+                && sameLines(legacy, compact);
+    }
+
+
+    /**
+     * This is a check for whether two models hold exactly the same lines.
+     * @param first, one model.
+     * @param second, the other model.
+     * @return true if every tile has the same lines, in the same order.
+     */
+    private static boolean sameLines(MazeModel first, MazeModel second) {
+
+        if (first.getTileCount() != second.getTileCount()) {
+            return false;
+        }
+        for (int i = 0; i < first.getTileCount(); i++) {
+
+            Line2D[] firstLines = first.getLines(i);
+            Line2D[] secondLines = second.getLines(i);
+
+            if (firstLines.length != secondLines.length) {
+                return false;
+            }
+            for (int j = 0; j < firstLines.length; j++) {
+
+                if (!firstLines[j].getP1().equals(secondLines[j].getP1())
+                        || !firstLines[j].getP2().equals(secondLines[j].getP2())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * This function adds a file, or every file directly inside a folder, to a list.
+     * @param file, a file or folder from the command line.
+     * @param files, the list to add to.
+     */
+    private static void listFiles(File file, List<File> files) {
+
+        File[] children = file.listFiles();
+
+        if (children == null) {
+
+            files.add(file);
+            return;
+        }
+        Arrays.sort(children);
+
+        for (File child : children) {
+
+            if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+};
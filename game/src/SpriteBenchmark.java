@@ -0,0 +1,145 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.*;
+
+/**
+ * This is a command line tool that measures the time to paint a frame of the
+ * 16 pieces of a maze, with the sprite cache and without it. Without it, each
+ * piece is filled and every line stroked on every paint, as Content did before
+ * TileSprites. With it, each piece is painted the way the game paints it, which
+ * copies a sprite unless -Djmaze.paint turns sprites off. Frames are painted
+ * into an image at each scale given, so nothing needs a screen; a scale that
+ * leaves a piece off the pixel grid is drawn without sprites, as on such a screen.
+ *
+ *     java SpriteBenchmark [--frames n] [--scale s]... [maze]
+ *
+ * The maze defaults to game/input/default.mze, and the scale to 1 and 2. The
+ * best of several rounds of frames is printed for each, with how many sprites
+ * were drawn and how much memory they took.
+ * @PIECE_SIZE_, the width and height of a piece, as on the game board.
+ * @ROUNDS_, how many times the frames are timed, the best being kept.
+ */
+public class SpriteBenchmark {
+
+    private static final int PIECE_SIZE_ = 100;
+    private static final int ROUNDS_ = 20;
+
+    public static void main(String[] args) {
+
+        int frames = 100;
+        java.util.List<Double> scales = new ArrayList<Double>();
+        File maze = new File("game/input/default.mze");
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--frames".equals(args[i]) && i + 1 < args.length) {
+
+                frames = Integer.parseInt(args[++i]);
+
+            } else if ("--scale".equals(args[i]) && i + 1 < args.length) {
+
+                scales.add(Double.parseDouble(args[++i]));
+
+            } else {
+
+                maze = new File(args[i]);
+            }
+        }
+        if (scales.isEmpty()) {
+
+            scales.add(1.0);
+            scales.add(2.0);
+        }
+        if (frames < 1 || !maze.isFile()) {
+
+            System.err.println("usage: java SpriteBenchmark [--frames n] [--scale s]... [maze]");
+            System.exit(2);
+        }
+
+        Content.setOriginalFile(maze);
+        Content[] pieces = new Content[16];
+
+        for (int i = 0; i < pieces.length; i++) {
+
+            pieces[i] = new Content();
+            pieces[i].setSize(PIECE_SIZE_, PIECE_SIZE_);
+            pieces[i].setSavedRotation(i % 4);
+        }
+
+        String mode = TileSprites.DIRECT_ ? "direct" : TileSprites.SPRITES_ ? "sprites" : "vector";
+        System.out.printf("%6s %16s %16s %10s %12s%n", "scale", "uncached us", mode + " us", "sprites",
+                "sprite bytes");
+
+        for (double scale : scales) {
+
+            int size = (int) Math.ceil(4 * PIECE_SIZE_ * scale);
+            BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            TileSprites.clear();
+
+            double uncached = bestFrame(image, scale, pieces, frames, false);
+            double cached = bestFrame(image, scale, pieces, frames, true);
+
+            System.out.printf("%6.2f %16.1f %16.1f %10d %12d%n", scale, uncached, cached,
+                    TileSprites.getHitCount() + TileSprites.getMissCount(), TileSprites.getBytes());
+        }
+    }
+
+
+    /**
+     * This function paints frames over and over, and keeps the quickest round.
+     * @param image, what the frames are painted into.
+     * @param scale, how much the board is scaled, as on a HiDPI screen.
+     * @param pieces, the 16 pieces.
+     * @param frames, how many frames make a round.
+     * @param isCached, true to paint as the game does, false to stroke every line.
+     * @return the mean microseconds per frame of the quickest round.
+     */
+    private static double bestFrame(BufferedImage image, double scale, Content[] pieces, int frames,
+            boolean isCached) {
+
+        long best = Long.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS_; round++) {
+
+            long start = System.nanoTime();
+
+            for (int frame = 0; frame < frames; frame++) {
+
+                Graphics2D g2d = image.createGraphics();
+                g2d.scale(scale, scale);
+
+                for (int i = 0; i < pieces.length; i++) {
+
+                    Graphics2D piece = (Graphics2D) g2d.create((i % 4) * PIECE_SIZE_, (i / 4) * PIECE_SIZE_,
+                            PIECE_SIZE_, PIECE_SIZE_);
+
+                    if (isCached) {
+
+                        pieces[i].paint(piece);
+
+                    } else {
+
+                        piece.setColor(pieces[i].getBackground());
+                        piece.fillRect(0, 0, PIECE_SIZE_, PIECE_SIZE_);
+                        TileSprites.draw(piece, pieces[i].getGeometry(), pieces[i].getGeometryTile(),
+                                pieces[i].getCurrentRotation(), PIECE_SIZE_, PIECE_SIZE_);
+                    }
+                    piece.dispose();
+                }
+                g2d.dispose();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1e3 / frames;
+    }
+};
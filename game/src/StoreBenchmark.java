@@ -0,0 +1,258 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import com.sun.management.GarbageCollectionNotificationInfo;
+import java.awt.geom.Line2D;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+/**
+ * This is a command line tool that measures the garbage collection pauses and
+ * the resident memory of a job that keeps many mazes loaded, with their lines
+ * held on the heap and held in a GeometryStore. The heap store is what
+ * RawFileHandler has always handed out, a Line2D.Float for every line of every
+ * tile. The off-heap store copies each maze in with RawFileHandler.storeIn() and
+ * lets the handler go.
+ * Resident memory is for the whole process, so each store is measured in a JVM
+ * of its own: run the tool once with --store heap and once with --store offheap,
+ * with the same -Xmx.
+ *
+ *     java StoreBenchmark [--store heap|offheap] [--mazes n] [--collections n] folder...
+ *
+ * Every .mze file in the folders is loaded in turn, over and over, until --mazes
+ * mazes are held, 10000 by default. A file that does not parse is reported as
+ * skipped and left out in both stores, so they always hold the same mazes. Pauses are every collection the JVM reports
+ * while loading, then --collections full collections are asked for with every
+ * maze still held, as a long running job would meet them. Resident memory is
+ * read from /proc/self/status, so it is only printed on Linux.
+ * @STATUS_, where the kernel reports the memory of this process.
+ * @pauses_, how many pauses the collector has reported.
+ * @pauseMillis_, the milliseconds of every pause added up.
+ * @longestPause_, the longest pause in milliseconds.
+ */
+public class StoreBenchmark {
+
+    private static final Path STATUS_ = Paths.get("/proc/self/status");
+
+    private static long pauses_ = 0;
+    private static long pauseMillis_ = 0;
+    private static long longestPause_ = 0;
+
+    public static void main(String[] args) throws IOException {
+
+        boolean isOffHeap = false;
+        int mazes = 10000;
+        int collections = 5;
+        java.util.List<File> files = new ArrayList<File>();
+
+        for (int i = 0; i < args.length; i++) {
+
+            if ("--store".equals(args[i]) && i + 1 < args.length) {
+
+                String store = args[++i];
+                isOffHeap = "offheap".equals(store);
+
+                if (!isOffHeap && !"heap".equals(store)) {
+                    mazes = 0;
+                }
+
+            } else if ("--mazes".equals(args[i]) && i + 1 < args.length) {
+
+                mazes = Integer.parseInt(args[++i]);
+
+            } else if ("--collections".equals(args[i]) && i + 1 < args.length) {
+
+                collections = Integer.parseInt(args[++i]);
+
+            } else {
+
+                addMazes(Paths.get(args[i]), files);
+            }
+        }
+        if (mazes < 1 || collections < 0 || files.isEmpty()) {
+
+            System.err.println("usage: java StoreBenchmark [--store heap|offheap] [--mazes n] "
+                    + "[--collections n] folder...");
+            System.exit(2);
+        }
+        Collections.sort(files);
+        listenForPauses();
+
+        java.util.List<ArrayList<Line2D[]>> heap = new ArrayList<ArrayList<Line2D[]>>();
+        GeometryStore store = new GeometryStore();
+        long lines = 0;
+        long start = System.nanoTime();
+
+        for (int i = 0; i < mazes; i++) {
+
+            RawFileHandler handler = new RawFileHandler(files.get(i % files.size()));
+
+            if (isOffHeap) {
+
+                int maze = handler.storeIn(store);
+
+                for (int tile = 0; tile < store.getTileCount(maze); tile++) {
+                    lines += store.getLineCount(maze, tile);
+                }
+
+            } else {
+
+                ArrayList<Line2D[]> lineInfo = handler.getLineInfo();
+
+                for (Line2D[] tileLines : lineInfo) {
+                    lines += tileLines.length;
+                }
+                heap.add(lineInfo);
+            }
+        }
+        long loadTime = System.nanoTime() - start;
+        long loadPauses;
+        long loadPauseMillis;
+        long loadLongest;
+
+        synchronized (StoreBenchmark.class) {
+
+            loadPauses = pauses_;
+            loadPauseMillis = pauseMillis_;
+            loadLongest = longestPause_;
+        }
+        start = System.nanoTime();
+
+        for (int i = 0; i < collections; i++) {
+            System.gc();
+        }
+        long collectTime = System.nanoTime() - start;
+        Runtime runtime = Runtime.getRuntime();
+
+        System.out.printf("%s store, %d mazes, %d lines, loaded in %.2f s%n", isOffHeap ? "off-heap" : "heap",
+                mazes, lines, loadTime / 1e9);
+        System.out.printf("  load: %d pauses, %d ms in all, longest %d ms%n", loadPauses, loadPauseMillis,
+                loadLongest);
+        System.out.printf("  full collection: %.1f ms each%n",
+                collections == 0 ? 0 : collectTime / 1e6 / collections);
+        System.out.printf("  heap used %d MB, off-heap %d MB, resident %s, peak resident %s%n",
+                (runtime.totalMemory() - runtime.freeMemory()) >> 20, store.getLiveBytes() >> 20,
+                readStatus("VmRSS:"), readStatus("VmHWM:"));
+
+        //Still held here, so nothing is collected before it is measured.
+        System.out.println("  " + (heap.size() + store.size()) + " mazes held");
+        store.close();
+    }
+
+
+    /**
+     * This function adds every maze file under a folder, or the file itself, that
+     * parses.
+     * @param path, a folder or a maze file.
+     * @param files, the list to add to.
+     * @throws IOException if the folder cannot be walked.
+     */
+    private static void addMazes(Path path, java.util.List<File> files) throws IOException {
+
+        try (
+                Stream<Path> paths = Files.walk(path);
+        ) {
+
+            Iterator<Path> iterator = paths.iterator();
+
+            while (iterator.hasNext()) {
+
+                Path file = iterator.next();
+
+                if (!Files.isRegularFile(file) || !file.toString().endsWith(".mze")) {
+                    continue;
+                }
+
+                try {
+
+                    MazeParser.parse(file.toFile());
+                    files.add(file.toFile());
+
+                } catch (IOException exception) {
+
+                    System.out.println("skipped " + file + ": " + exception.getMessage());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * This function counts the pause of every collection the JVM reports from now
+     * on. Collectors that run beside the program, such as the concurrent cycle of
+     * G1, do not stop it, and are left out.
+     */
+    private static void listenForPauses() {
+
+        NotificationListener listener = new NotificationListener() {
+
+            @Override
+            public void handleNotification(Notification notification, Object handback) {
+
+                if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(
+                        notification.getType())) {
+                    return;
+                }
+                GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+                        (CompositeData) notification.getUserData());
+
+                if (info.getGcName().contains("Concurrent")) {
+                    return;
+                }
+
+                synchronized (StoreBenchmark.class) {
+
+                    pauses_++;
+                    pauseMillis_ += info.getGcInfo().getDuration();
+                    longestPause_ = Math.max(longestPause_, info.getGcInfo().getDuration());
+                }
+            }
+        };
+
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(listener, null, null);
+            }
+        }
+    }
+
+
+    /**
+     * This function reads one line of the memory the kernel reports for this process.
+     * @param key, the start of the line, such as VmRSS:.
+     * @return the value, such as 123456 kB, or - if the kernel does not say.
+     */
+    private static String readStatus(String key) {
+
+        try {
+
+            for (String line : Files.readAllLines(STATUS_)) {
+
+                if (line.startsWith(key)) {
+                    return line.substring(key.length()).trim();
+                }
+            }
+
+        } catch (IOException | RuntimeException exception) {
+
+            //Not Linux, nothing to read.
+        }
+        return "-";
+    }
+};
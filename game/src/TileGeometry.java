@@ -0,0 +1,423 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * This class holds the lines of every tile of a MazeModel, packed into a single
+ * float array, and decodes them from the file contents only when a tile is first
+ * asked for. Every line takes four floats in the order x0, y0, x1, y1, and the
+ * lines of each tile follow one another, tile after tile, so a board is one
+ * array no matter how many lines it has, and drawing a tile walks memory in order
+ * rather than following one object per line.
+ * MazeParser checks every count and offset while parsing, but only notes where
+ * each tile's lines start, so a save can have its pieces arranged straight away,
+ * and a tile that is never drawn never has its lines decoded. Once every tile has
+ * been decoded, the file contents are let go.
+ * Code that draws or writes lines reads the packed floats through getCoords(),
+ * getStart() and getLineCount(). Code that still wants Line2D objects gets them
+ * from get(), as views over the packed floats that are only built when asked for,
+ * and a tile always hands out the same view array.
+ * @coords_, the packed coordinates of every tile, null until the first tile is
+ * decoded, guarded by this object's lock.
+ * @starts_, the index of the first line of each tile, followed by the number of
+ * lines in total.
+ * @ready_, whether each tile has been decoded into coords_.
+ * @views_, the Line2D views of each tile, null until asked for.
+ * @source_, the file contents, or null once every tile is decoded.
+ * @offsets_, where the lines of each tile start in source_.
+ * @quantum_, the number of grid steps per pixel for the quantized format, or 0
+ * for lines stored as floats.
+ * @decoded_, the number of tiles decoded so far.
+ */
+public final class TileGeometry implements Serializable {
+
+    static final int LINE_FLOATS_ = 4;
+
+    private float[] coords_;
+    private final int[] starts_;
+    private final boolean[] ready_;
+    private transient Line2D[][] views_;
+    private transient ByteBuffer source_;
+    private final transient int[] offsets_;
+    private final int quantum_;
+    private int decoded_;
+
+    private static final long serialVersionUID = 2;
+
+
+    /**
+     * This constructor packs lines that have already been built. The arrays
+     * given are kept as the views of their tiles, so get() hands the same arrays
+     * back. Neither they nor their lines may change afterwards.
+     * @param lines, the lines of every tile.
+     */
+    TileGeometry(Line2D[][] lines) {
+
+        starts_ = new int[lines.length + 1];
+
+        for (int i = 0; i < lines.length; i++) {
+
+            starts_[i + 1] = starts_[i] + lines[i].length;
+        }
+        coords_ = new float[starts_[lines.length] * LINE_FLOATS_];
+        ready_ = new boolean[lines.length];
+        Arrays.fill(ready_, true);
+        views_ = lines;
+        source_ = null;
+        offsets_ = null;
+        quantum_ = 0;
+        decoded_ = lines.length;
+
+        int at = 0;
+
+        for (Line2D[] tile : lines) {
+
+            for (Line2D line : tile) {
+
+                coords_[at++] = (float) line.getX1();
+                coords_[at++] = (float) line.getY1();
+                coords_[at++] = (float) line.getX2();
+                coords_[at++] = (float) line.getY2();
+            }
+        }
+    }
+
+
+    /**
+     * This constructor holds lines that are still to be decoded. The contents
+     * must not change afterwards.
+     * @param source, the file contents the offsets point into.
+     * @param offsets, where the lines of each tile start.
+     * @param lineCounts, the number of lines of each tile.
+     * @param quantum, the grid steps per pixel of a quantized maze, or 0 for floats.
+     */
+    TileGeometry(ByteBuffer source, int[] offsets, int[] lineCounts, int quantum) {
+
+        starts_ = new int[offsets.length + 1];
+
+        for (int i = 0; i < offsets.length; i++) {
+
+            starts_[i + 1] = starts_[i] + lineCounts[i];
+        }
+        coords_ = null;
+        ready_ = new boolean[offsets.length];
+        source_ = offsets.length == 0 ? null : source;
+        offsets_ = offsets;
+        quantum_ = quantum;
+        decoded_ = 0;
+    }
+
+
+    /**
+     * This constructor copies chosen tiles of other geometries into one packed
+     * array, such as the pieces of a board for a snapshot.
+     * @param sources, the geometry each tile comes from.
+     * @param tiles, the index of each tile in its geometry.
+     */
+    TileGeometry(TileGeometry[] sources, int[] tiles) {
+
+        starts_ = new int[tiles.length + 1];
+
+        for (int i = 0; i < tiles.length; i++) {
+
+            starts_[i + 1] = starts_[i] + sources[i].getLineCount(tiles[i]);
+        }
+        coords_ = new float[starts_[tiles.length] * LINE_FLOATS_];
+        ready_ = new boolean[tiles.length];
+        Arrays.fill(ready_, true);
+        source_ = null;
+        offsets_ = null;
+        quantum_ = 0;
+        decoded_ = tiles.length;
+
+        for (int i = 0; i < tiles.length; i++) {
+
+            System.arraycopy(sources[i].getCoords(tiles[i]), sources[i].getStart(tiles[i]) * LINE_FLOATS_,
+                    coords_, starts_[i] * LINE_FLOATS_, (starts_[i + 1] - starts_[i]) * LINE_FLOATS_);
+        }
+    }
+
+
+    /**
+     * This is a getter for the packed coordinates, decoding a tile the first
+     * time it is asked for. The array is shared, and must not be modified; a
+     * tile's floats never change once it has been decoded.
+     * @param tile, the index of the tile in file order.
+     * @return coords_, which holds that tile from LINE_FLOATS_ * getStart(tile).
+     */
+    synchronized float[] getCoords(int tile) {
+
+        if (!ready_[tile]) {
+
+            if (coords_ == null) {
+                coords_ = new float[starts_[ready_.length] * LINE_FLOATS_];
+            }
+            MazeParser.decodeTile(source_, offsets_[tile], getLineCount(tile), quantum_, coords_,
+                    starts_[tile] * LINE_FLOATS_);
+            ready_[tile] = true;
+            decoded_++;
+
+            //Nothing is left to decode, so the file contents can go.
+            if (decoded_ == ready_.length) {
+                source_ = null;
+            }
+        }
+        return coords_;
+    }
+
+
+    /**
+     * This is a getter for where a tile starts in the packed coordinates.
+     * @param tile, the index of the tile in file order.
+     * @return the index of its first line, so its first float is four times that.
+     */
+    int getStart(int tile) {
+        return starts_[tile];
+    }
+
+    /**
+     * This is a getter for the number of lines of a tile.
+     * @param tile, the index of the tile in file order.
+     * @return the number of lines.
+     */
+    int getLineCount(int tile) {
+        return starts_[tile + 1] - starts_[tile];
+    }
+
+    /**
+     * This is a getter for the number of tiles.
+     * @return the length of ready_.
+     */
+    int getTileCount() {
+        return ready_.length;
+    }
+
+
+    /**
+     * This is a getter for the lines of a single tile as Line2D views over the
+     * packed coordinates, built the first time they are asked for.
+     * @param tile, the index of the tile in file order.
+     * @return the lines of that tile, the same array on every call.
+     */
+    synchronized Line2D[] get(int tile) {
+
+        float[] coords = getCoords(tile);
+
+        if (views_ == null) {
+            views_ = new Line2D[ready_.length][];
+        }
+        if (views_[tile] == null) {
+            views_[tile] = view(coords, starts_[tile], getLineCount(tile));
+        }
+        return views_[tile];
+    }
+
+
+    /**
+     * This is a getter for the lines of every tile, decoding any that are left.
+     * @return the shared array of line arrays.
+     */
+    synchronized Line2D[][] getAll() {
+
+        for (int i = 0; i < ready_.length; i++) {
+
+            get(i);
+        }
+        return views_;
+    }
+
+
+    /**
+     * This is a getter for how many tiles have been decoded so far.
+     * @return decoded_.
+     */
+    synchronized int getDecodedCount() {
+        return decoded_;
+    }
+
+
+    /**
+     * This function copies the lines of a tile, packed the same way, into a big
+     * endian buffer such as a GeometryStore slab. A tile that is not decoded yet
+     * is not decoded into coords_, since the copy is what will be kept: floats
+     * are copied straight from the file as bytes, and a quantized tile is decoded
+     * into a small array of its own.
+     * @param tile, the index of the tile in file order.
+     * @param into, the buffer, which is not moved.
+     * @param at, where x0 of the first line goes in into.
+     */
+    synchronized void copyTile(int tile, ByteBuffer into, int at) {
+
+        int floats = getLineCount(tile) * LINE_FLOATS_;
+        ByteBuffer target = into.duplicate();
+        target.position(at);
+
+        if (ready_[tile]) {
+
+            target.asFloatBuffer().put(coords_, starts_[tile] * LINE_FLOATS_, floats);
+
+        } else if (quantum_ == 0) {
+
+            ByteBuffer lines = source_.duplicate();
+            lines.limit(offsets_[tile] + floats * 4);
+            lines.position(offsets_[tile]);
+            target.put(lines);
+
+        } else {
+
+            float[] coords = new float[floats];
+            MazeParser.decodeTile(source_, offsets_[tile], getLineCount(tile), quantum_, coords, 0);
+            target.asFloatBuffer().put(coords);
+        }
+    }
+
+
+    /**
+     * This is a check for whether a tile holds exactly the same lines as a tile
+     * of another geometry, in the same order.
+     * @param tile, the index of the tile in this geometry.
+     * @param other, the other geometry.
+     * @param otherTile, the index of the tile in the other geometry.
+     * @return true if every coordinate matches.
+     */
+    boolean sameLines(int tile, TileGeometry other, int otherTile) {
+
+        int count = getLineCount(tile);
+
+        if (count != other.getLineCount(otherTile)) {
+            return false;
+        }
+        int from = getStart(tile) * LINE_FLOATS_;
+        int otherFrom = other.getStart(otherTile) * LINE_FLOATS_;
+        return Arrays.equals(getCoords(tile), from, from + count * LINE_FLOATS_,
+                other.getCoords(otherTile), otherFrom, otherFrom + count * LINE_FLOATS_);
+    }
+
+
+    /**
+     * This function builds Line2D views over lines packed in the same way as
+     * coords_. The views read the array every time, and cannot be changed.
+     * @param coords, the packed coordinates.
+     * @param start, the index of the first line.
+     * @param count, the number of lines.
+     * @return a new array of views.
+     */
+    static Line2D[] view(float[] coords, int start, int count) {
+
+        Line2D[] lines = new Line2D[count];
+
+        for (int j = 0; j < count; j++) {
+
+            lines[j] = new PackedLine(coords, (start + j) * LINE_FLOATS_);
+        }
+        return lines;
+    }
+
+
+    /**
+     * The file contents cannot be serialized, so every tile is decoded first.
+     * @param stream, the stream this object is written to.
+     * @throws IOException if the stream cannot be written.
+     */
+    private synchronized void writeObject(ObjectOutputStream stream) throws IOException {
+
+        for (int i = 0; i < ready_.length; i++) {
+
+            getCoords(i);
+        }
+        if (coords_ == null) {
+            coords_ = new float[0];
+        }
+        stream.defaultWriteObject();
+    }
+
+
+
+    /**
+     * A line that reads its ends out of a packed coordinate array rather than
+     * holding them. It costs a reference and an index, and is only built for
+     * code that wants Line2D objects. It is written to a stream as a
+     * Line2D.Float.
+     * @coords_, the packed coordinates.
+     * @at_, where x0 of this line is in coords_.
+     */
+    private static final class PackedLine extends Line2D implements Serializable {
+
+        private final float[] coords_;
+        private final int at_;
+
+        private static final long serialVersionUID = 1;
+
+        private PackedLine(float[] coords, int at) {
+
+            coords_ = coords;
+            at_ = at;
+        }
+
+        @Override
+        public double getX1() {
+            return coords_[at_];
+        }
+
+        @Override
+        public double getY1() {
+            return coords_[at_ + 1];
+        }
+
+        @Override
+        public Point2D getP1() {
+            return new Point2D.Float(coords_[at_], coords_[at_ + 1]);
+        }
+
+        @Override
+        public double getX2() {
+            return coords_[at_ + 2];
+        }
+
+        @Override
+        public double getY2() {
+            return coords_[at_ + 3];
+        }
+
+        @Override
+        public Point2D getP2() {
+            return new Point2D.Float(coords_[at_ + 2], coords_[at_ + 3]);
+        }
+
+        @Override
+        public void setLine(double x1, double y1, double x2, double y2) {
+            throw new UnsupportedOperationException("packed lines cannot be changed");
+        }
+
+        @Override
+        public Rectangle2D getBounds2D() {
+
+            float x = Math.min(coords_[at_], coords_[at_ + 2]);
+            float y = Math.min(coords_[at_ + 1], coords_[at_ + 3]);
+            return new Rectangle2D.Float(x, y, Math.max(coords_[at_], coords_[at_ + 2]) - x,
+                    Math.max(coords_[at_ + 1], coords_[at_ + 3]) - y);
+        }
+
+        /**
+         * The array cannot be shared with whoever reads the stream, so the line
+         * is written as a copy.
+         * @return a Line2D.Float with the same ends.
+         */
+        private Object writeReplace() {
+            return new Line2D.Float(coords_[at_], coords_[at_ + 1], coords_[at_ + 2], coords_[at_ + 3]);
+        }
+    };
+
+};
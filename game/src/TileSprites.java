@@ -0,0 +1,339 @@
+/**
+ * @author Alexander Finch
+ * @author Colin Woods
+ * @author Mariah Moore
+ * @author Peter Harris
+ * @author Stefan Emmons
+ *
+ * Date: May 12, 2020
+ */
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+import java.util.*;
+
+/**
+ * This class keeps the lines of each tile drawn into an image, once for each
+ * of the four rotations, so that Content.paintComponent() only has to copy an
+ * image instead of stroking every line on every repaint. A sprite is drawn at the
+ * scale of the screen it is painted on, so a HiDPI screen gets a sharp sprite of
+ * its own instead of a stretched one.
+ * The cache is bounded by the bytes its images take, and the least recently
+ * painted sprite is dropped first. Loading a new maze through
+ * Content.setOriginalFile() drops every sprite.
+ * A sprite holds the background of the piece as well, so it is opaque and painting
+ * it is a plain copy. Sprites are only used when the graphics a piece paints on are
+ * scaled and moved by whole pixels, never rotated or sheared, everything else is
+ * drawn line by line as before.
+ * A piece that cannot use a sprite draws its lines from a cached copy turned to
+ * its rotation instead, see turn(). -Djmaze.paint=vector always draws that copy, and
+ * -Djmaze.paint=direct strokes the lines one by one, as Content first did.
+ * This class is meant to be statically accessed, there is no need for a constructor.
+ * @SPRITES_, true unless -Djmaze.paint is vector or direct.
+ * @DIRECT_, true when -Djmaze.paint=direct is given.
+ * @MAX_BYTES_, the image bytes held at once, -Djmaze.spriteBytes, 32 MB by default.
+ * @STROKE_, the pen every tile is drawn with.
+ * @cache_, an access ordered map from sprite key to image.
+ * @bytes_, the bytes taken by the images in cache_.
+ * @hitCount_, the number of paints answered from the cache.
+ * @missCount_, the number of paints that drew a new sprite.
+ */
+public class TileSprites {
+
+    static final boolean DIRECT_ = "direct".equals(System.getProperty("jmaze.paint"));
+    static final boolean SPRITES_ = !DIRECT_ && !"vector".equals(System.getProperty("jmaze.paint"));
+    private static final long MAX_BYTES_ = Integer.getInteger("jmaze.spriteBytes", 32 * 1024 * 1024);
+    static final BasicStroke STROKE_ = new BasicStroke(3);
+
+    private static final LinkedHashMap<SpriteKey, Image> cache_ =
+            new LinkedHashMap<SpriteKey, Image>(64, 0.75f, true);
+
+    private static long bytes_ = 0;
+    private static long hitCount_ = 0;
+    private static long missCount_ = 0;
+
+
+    /**
+     * This function copies an opaque piece, its background and the lines of its
+     * tile turned a number of quarter turns about its middle, onto a graphics object.
+     * @param g2d, the graphics to draw on, at the top left of the piece.
+     * @param geometry, the packed lines holding the tile.
+     * @param tile, the index of the tile in geometry.
+     * @param rotation, the number of quarter turns, 0 to 3.
+     * @param width, the width of the piece.
+     * @param height, the height of the piece.
+     * @param background, the color the piece is filled with.
+     * @return false if g2d is rotated, sheared or off the pixel grid, in which
+     * case nothing is drawn, and the piece has to be painted by hand with draw().
+     */
+    public static boolean paint(Graphics2D g2d, TileGeometry geometry, int tile, int rotation,
+            int width, int height, Color background) {
+
+        if (!SPRITES_ || width <= 0 || height <= 0) {
+            return false;
+        }
+
+        //Only asked for once sprites are on, getTransform() hands back a new copy every time.
+        AffineTransform transform = g2d.getTransform();
+        int scaleOnly = AffineTransform.TYPE_TRANSLATION | AffineTransform.TYPE_UNIFORM_SCALE
+                | AffineTransform.TYPE_GENERAL_SCALE;
+
+        if ((transform.getType() & ~scaleOnly) != 0 || transform.getScaleX() <= 0 || transform.getScaleY() <= 0) {
+            return false;
+        }
+
+        //The sprite is drawn in device pixels, so it has to cover whole pixels
+        //exactly where the background and lines would have been drawn on g2d.
+        double scaleX = transform.getScaleX();
+        double scaleY = transform.getScaleY();
+        double x = transform.getTranslateX();
+        double y = transform.getTranslateY();
+        double spriteWidth = width * scaleX;
+        double spriteHeight = height * scaleY;
+
+        if (x != Math.rint(x) || y != Math.rint(y)
+                || spriteWidth != Math.rint(spriteWidth) || spriteHeight != Math.rint(spriteHeight)) {
+            return false;
+        }
+
+        Image sprite = get(g2d.getDeviceConfiguration(), geometry, tile, rotation, width, height,
+                scaleX, scaleY, background);
+        g2d.setTransform(new AffineTransform());
+        g2d.drawImage(sprite, (int) x, (int) y, null);
+        g2d.setTransform(transform);
+        return true;
+    }
+
+
+    /**
+     * This function drops every sprite, and resets the counters.
+     */
+    public static synchronized void clear() {
+
+        cache_.clear();
+        bytes_ = 0;
+        hitCount_ = 0;
+        missCount_ = 0;
+    }
+
+
+    /**
+     * This is a getter for the number of paints answered from the cache.
+     * @return hitCount_.
+     */
+    public static synchronized long getHitCount() {
+        return hitCount_;
+    }
+
+    /**
+     * This is a getter for the number of paints that drew a new sprite.
+     * @return missCount_.
+     */
+    public static synchronized long getMissCount() {
+        return missCount_;
+    }
+
+    /**
+     * This is a getter for the bytes taken by the cached sprites.
+     * @return bytes_.
+     */
+    public static synchronized long getBytes() {
+        return bytes_;
+    }
+
+
+    /**
+     * This function returns the sprite for a tile, drawing it first if it is not cached.
+     * @param config, the screen the sprite will be painted on.
+     * @param geometry, the packed lines holding the tile.
+     * @param tile, the index of the tile in geometry.
+     * @param rotation, the number of quarter turns, 0 to 3.
+     * @param width, the width of the piece.
+     * @param height, the height of the piece.
+     * @param scaleX, the horizontal scale of the screen.
+     * @param scaleY, the vertical scale of the screen.
+     * @param background, the color the piece is filled with.
+     * @return the sprite, in device pixels.
+     */
+    private static synchronized Image get(GraphicsConfiguration config, TileGeometry geometry, int tile,
+            int rotation, int width, int height, double scaleX, double scaleY, Color background) {
+
+        SpriteKey key = new SpriteKey(geometry, tile, rotation, width, height, scaleX, scaleY, background.getRGB());
+        Image sprite = cache_.get(key);
+
+        if (sprite != null) {
+
+            hitCount_++;
+            return sprite;
+        }
+        missCount_++;
+
+        //Opaque, so painting it is a straight copy with no blending.
+        int spriteWidth = (int) Math.rint(width * scaleX);
+        int spriteHeight = (int) Math.rint(height * scaleY);
+        sprite = config == null ? new BufferedImage(spriteWidth, spriteHeight, BufferedImage.TYPE_INT_RGB)
+                : config.createCompatibleImage(spriteWidth, spriteHeight, Transparency.OPAQUE);
+
+        Graphics2D g2d = (Graphics2D) sprite.getGraphics();
+
+        try {
+
+            g2d.setColor(background);
+            g2d.fillRect(0, 0, spriteWidth, spriteHeight);
+            g2d.scale(scaleX, scaleY);
+            draw(g2d, turn(geometry, tile, rotation, width, height), new Line2D.Float());
+
+        } finally {
+
+            g2d.dispose();
+        }
+
+        cache_.put(key, sprite);
+        bytes_ += 4L * spriteWidth * spriteHeight;
+
+        //Evict by hand, removeEldestEntry() can only drop one entry per put.
+        Iterator<Map.Entry<SpriteKey, Image>> eldest = cache_.entrySet().iterator();
+
+        while (bytes_ > MAX_BYTES_ && cache_.size() > 1) {
+
+            Image dropped = eldest.next().getValue();
+            eldest.remove();
+            bytes_ -= 4L * dropped.getWidth(null) * dropped.getHeight(null);
+            dropped.flush();
+        }
+        return sprite;
+    }
+
+
+    /**
+     * This function copies the lines of a tile, already turned a number of quarter
+     * turns about the middle of a width by height piece, so they can be kept and
+     * drawn with no rotation and nothing allocated. Being vectors, they stay sharp
+     * at any scale, where a sprite would not.
+     * @param geometry, the packed lines holding the tile.
+     * @param tile, the index of the tile in geometry.
+     * @param rotation, the number of quarter turns, 0 to 3.
+     * @param width, the width of the piece.
+     * @param height, the height of the piece.
+     * @return a new array, four floats for every line.
+     */
+    public static float[] turn(TileGeometry geometry, int tile, int rotation, int width, int height) {
+
+        int from = geometry.getStart(tile) * TileGeometry.LINE_FLOATS_;
+        float[] turned = new float[geometry.getLineCount(tile) * TileGeometry.LINE_FLOATS_];
+
+        //Quadrant turns are exact, no sine or cosine rounding creeps into the coordinates.
+        AffineTransform.getQuadrantRotateInstance(rotation, width / 2, height / 2)
+                .transform(geometry.getCoords(tile), from, turned, 0, turned.length / 2);
+        return turned;
+    }
+
+
+    /**
+     * This function strokes lines made by turn() with the pen every tile is drawn with.
+     * Each line is drawn on its own, Java2D strokes a lone line far quicker than
+     * the same lines merged into one path.
+     * @param g2d, the graphics to draw on, at the top left of the piece.
+     * @param turned, the lines of the tile, already turned.
+     * @param line, a line object to draw through, so none is allocated.
+     */
+    public static void draw(Graphics2D g2d, float[] turned, Line2D.Float line) {
+
+        g2d.setStroke(STROKE_);
+        g2d.setPaint(Color.BLACK);
+
+        for (int at = 0; at < turned.length; at += TileGeometry.LINE_FLOATS_) {
+
+            line.setLine(turned[at], turned[at + 1], turned[at + 2], turned[at + 3]);
+            g2d.draw(line);
+        }
+    }
+
+
+    /**
+     * This function strokes every line of a tile, the way Content has always painted.
+     * @param g2d, the graphics to draw on, at the top left of the piece.
+     * @param geometry, the packed lines holding the tile.
+     * @param tile, the index of the tile in geometry.
+     * @param rotation, the number of quarter turns, 0 to 3.
+     * @param width, the width of the piece.
+     * @param height, the height of the piece.
+     */
+    public static void draw(Graphics2D g2d, TileGeometry geometry, int tile, int rotation, int width, int height) {
+
+        AffineTransform transform = g2d.getTransform();
+        g2d.setStroke(STROKE_);
+        g2d.setPaint(Color.BLACK);
+        g2d.rotate(rotation * (Math.PI / 2), width / 2, height / 2);
+
+        //Every line of this piece, four floats at a time, drawn through one line object.
+        float[] coords = geometry.getCoords(tile);
+        int from = geometry.getStart(tile) * TileGeometry.LINE_FLOATS_;
+        int to = from + geometry.getLineCount(tile) * TileGeometry.LINE_FLOATS_;
+        Line2D.Float line = new Line2D.Float();
+
+        for (int at = from; at < to; at += TileGeometry.LINE_FLOATS_) {
+
+            line.setLine(coords[at], coords[at + 1], coords[at + 2], coords[at + 3]);
+            g2d.draw(line);
+        }
+        g2d.setTransform(transform);
+    }
+
+
+    /**
+     * What a sprite was drawn from. The packed lines are compared by identity,
+     * every piece of a maze shares the same TileGeometry.
+     */
+    private static final class SpriteKey {
+
+        private final TileGeometry geometry_;
+        private final int tile_;
+        private final int rotation_;
+        private final int width_;
+        private final int height_;
+        private final double scaleX_;
+        private final double scaleY_;
+        private final int background_;
+
+        private SpriteKey(TileGeometry geometry, int tile, int rotation, int width, int height,
+                double scaleX, double scaleY, int background) {
+
+            geometry_ = geometry;
+            tile_ = tile;
+            rotation_ = rotation;
+            width_ = width;
+            height_ = height;
+            scaleX_ = scaleX;
+            scaleY_ = scaleY;
+            background_ = background;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+
+            if (!(other instanceof SpriteKey)) {
+                return false;
+            }
+            SpriteKey key = (SpriteKey) other;
+            return geometry_ == key.geometry_ && tile_ == key.tile_ && rotation_ == key.rotation_
+                    && width_ == key.width_ && height_ == key.height_
+                    && scaleX_ == key.scaleX_ && scaleY_ == key.scaleY_ && background_ == key.background_;
+        }
+
+        @Override
+        public int hashCode() {
+
+            int hash = System.identityHashCode(geometry_);
+            hash = 31 * hash + tile_;
+            hash = 31 * hash + rotation_;
+            hash = 31 * hash + width_;
+            hash = 31 * hash + height_;
+            hash = 31 * hash + Double.hashCode(scaleX_);
+            hash = 31 * hash + Double.hashCode(scaleY_);
+            return 31 * hash + background_;
+        }
+    };
+
+};